@@ -0,0 +1,274 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Grosse Dateien, die per mmap in den Speicher abgebildet sind. Eine Abbildung wird von allen gleichzeitigen Anfragen
+ * fuer dieselbe Datei geteilt, gesendet wird direkt aus dem Page Cache, ohne open(), read() oder Kopie in den Heap.
+ * Weil der Inhalt als Puffer im Userspace vorliegt, geht das auch dort, wo kein transferTo (sendfile) moeglich ist.
+ * <p>
+ * Die Abbildungen werden mitgezaehlt: die Tabelle haelt eine Referenz, jede sendende Anfrage eine weitere. Erst wenn
+ * die letzte freigegeben ist, wird die Abbildung aufgehoben, vorher koennte ein Schreiber auf ungueltigen Speicher
+ * zugreifen. Unbenutzte Abbildungen raeumt ein Hintergrundthread weg, geaenderte Dateien erkennen wir wie im
+ * {@link DateiCache} an ihrem mtime.
+ */
+final class Abbildungen {
+    /**
+     * Dateien ab dieser Groesse in Bytes werden abgebildet, 0 schaltet das ab.
+     */
+    static volatile long Schwelle = 0;
+
+    /**
+     * Nach dieser Zeit ohne Anfrage wird eine Abbildung aufgehoben, in Nanosekunden.
+     */
+    static volatile long Leerlauf = 30_000_000_000L;
+
+    /**
+     * Ein MappedByteBuffer kann hoechstens 2 GB gross sein, groessere Dateien werden in Stuecken abgebildet.
+     */
+    private final static int STUECK = 1 << 30;
+
+    /**
+     * Hebt eine Abbildung sofort auf, statt auf den Garbage Collector zu warten, oder null falls die JVM das nicht
+     * anbietet.
+     */
+    private final static MethodHandle AUFHEBEN = SucheAufheben();
+
+    private final static ConcurrentHashMap<String, Abbildung> Tabelle = new ConcurrentHashMap<>();
+
+    /**
+     * Hebt alle fuenf Sekunden unbenutzte Abbildungen auf. Gestartet wird er mit der ersten Abbildung.
+     */
+    private final static Taktgeber Aufraeumer = new Taktgeber("Abbildungen-Aufraeumer", 5_000, Abbildungen::Raeume);
+
+    private Abbildungen() {
+    }
+
+    /**
+     * Eine abgebildete Datei.
+     */
+    static final class Abbildung {
+        final String Schluessel;
+        final File Datei;
+        final long Groesse;
+        final long Aenderungszeit;
+        private final MappedByteBuffer[] Stuecke;
+
+        /**
+         * Die Referenzen, eine davon gehoert der Tabelle. Bei 0 ist die Abbildung aufgehoben.
+         */
+        private final AtomicInteger Nutzer = new AtomicInteger(1);
+        private volatile long ZuletztBenutzt = System.nanoTime();
+        private volatile long GeprueftUm = System.nanoTime();
+
+        private Abbildung(String Schluessel, File Datei, long Groesse, long Aenderungszeit,
+                          MappedByteBuffer[] Stuecke) {
+            this.Schluessel = Schluessel;
+            this.Datei = Datei;
+            this.Groesse = Groesse;
+            this.Aenderungszeit = Aenderungszeit;
+            this.Stuecke = Stuecke;
+        }
+
+        /**
+         * Nimmt eine weitere Referenz.
+         *
+         * @return Falsch, wenn die Abbildung schon aufgehoben ist
+         */
+        private boolean Nimm() {
+            int Anzahl;
+            do {
+                Anzahl = Nutzer.get();
+                if (Anzahl <= 0) {
+                    return false;
+                }
+            } while (!Nutzer.compareAndSet(Anzahl, Anzahl + 1));
+            ZuletztBenutzt = System.nanoTime();
+            return true;
+        }
+
+        /**
+         * Gibt eine Referenz zurueck. Die Puffer aus {@link #Ausschnitt} duerfen danach nicht mehr benutzt werden.
+         */
+        void Gib() {
+            ZuletztBenutzt = System.nanoTime();
+            if (Nutzer.decrementAndGet() == 0) {
+                Hebe(Stuecke);
+            }
+        }
+
+        /**
+         * Liefert eigene Sichten auf einen Bereich der Datei, damit mehrere Threads gleichzeitig daraus senden koennen.
+         *
+         * @param Anfang Position des ersten Bytes
+         * @param Laenge Anzahl der Bytes
+         */
+        ByteBuffer[] Ausschnitt(long Anfang, long Laenge) {
+            if (Laenge == 0) {
+                return new ByteBuffer[0];
+            }
+            int Erstes = (int) (Anfang / STUECK);
+            int Letztes = (int) ((Anfang + Laenge - 1) / STUECK);
+            ByteBuffer[] Sichten = new ByteBuffer[Letztes - Erstes + 1];
+            for (int i = Erstes; i <= Letztes; i++) {
+                long Beginn = (long) i * STUECK;
+                ByteBuffer Sicht = Stuecke[i].duplicate();
+                Sicht.limit((int) (Math.min(Anfang + Laenge, Beginn + Sicht.capacity()) - Beginn));
+                Sicht.position((int) (Math.max(Anfang, Beginn) - Beginn));
+                Sichten[i - Erstes] = Sicht;
+            }
+            return Sichten;
+        }
+    }
+
+    /**
+     * Sucht die Abbildung einer Datei und bildet sie ab, falls noch nicht geschehen.
+     *
+     * @param Datei Die zu sendende Datei
+     * @return Die Abbildung mit einer Referenz, die mit {@link Abbildung#Gib()} freigegeben werden muss, oder null
+     * wenn die Datei zu klein ist und normal gesendet werden soll
+     */
+    static Abbildung Hole(File Datei) throws IOException {
+        long DieSchwelle = Schwelle;
+        if (DieSchwelle <= 0) {
+            return null;
+        }
+        String Schluessel = Datei.getPath();
+        while (true) {
+            Abbildung Gefunden = Tabelle.get(Schluessel);
+            if (Gefunden != null) {
+                // Hin und wieder schauen wir nach, ob sich die Datei auf der Platte geaendert hat
+                long Jetzt = System.nanoTime();
+                if (Jetzt - Gefunden.GeprueftUm > DateiCache.PRUEF_INTERVALL) {
+                    Gefunden.GeprueftUm = Jetzt;
+                    if (Datei.lastModified() != Gefunden.Aenderungszeit || Datei.length() != Gefunden.Groesse) {
+                        Entferne(Gefunden);
+                        continue;
+                    }
+                }
+                if (Gefunden.Nimm()) {
+                    return Gefunden;
+                }
+                // Der Aufraeumer war schneller
+                Tabelle.remove(Schluessel, Gefunden);
+                continue;
+            }
+
+            Abbildung Neu = BildeAb(Schluessel, Datei, DieSchwelle);
+            if (Neu == null) {
+                return null;
+            }
+            Abbildung Vorhanden = Tabelle.putIfAbsent(Schluessel, Neu);
+            if (Vorhanden != null) {
+                // Eine andere Anfrage hat dieselbe Datei gleichzeitig abgebildet, wir nehmen ihre
+                Neu.Gib();
+                continue;
+            }
+            Aufraeumer.Starte();
+            Neu.Nimm();
+            return Neu;
+        }
+    }
+
+    /**
+     * Die Anzahl der Abbildungen und die Summe ihrer Groessen.
+     */
+    static int Anzahl() {
+        return Tabelle.size();
+    }
+
+    static long Bytes() {
+        long Summe = 0;
+        for (Abbildung EineAbbildung : Tabelle.values()) {
+            Summe += EineAbbildung.Groesse;
+        }
+        return Summe;
+    }
+
+    /**
+     * Bildet eine Datei ab. Der Kanal wird danach gleich wieder geschlossen, die Abbildung bleibt gueltig.
+     *
+     * @return Die Abbildung mit der Referenz der Tabelle, oder null wenn die Datei zu klein ist
+     */
+    private static Abbildung BildeAb(String Schluessel, File Datei, long DieSchwelle) throws IOException {
+        long Aenderungszeit = Datei.lastModified();
+        try (FileChannel Kanal = FileChannel.open(Datei.toPath(), StandardOpenOption.READ)) {
+            long Groesse = Kanal.size();
+            if (Groesse < DieSchwelle) {
+                return null;
+            }
+            MappedByteBuffer[] Stuecke = new MappedByteBuffer[(int) ((Groesse + STUECK - 1) / STUECK)];
+            try {
+                for (int i = 0; i < Stuecke.length; i++) {
+                    long Beginn = (long) i * STUECK;
+                    Stuecke[i] = Kanal.map(FileChannel.MapMode.READ_ONLY, Beginn, Math.min(STUECK, Groesse - Beginn));
+                }
+            } catch (IOException | RuntimeException e) {
+                Hebe(Stuecke);
+                throw e;
+            }
+            return new Abbildung(Schluessel, Datei, Groesse, Aenderungszeit, Stuecke);
+        }
+    }
+
+    private static void Entferne(Abbildung EineAbbildung) {
+        if (Tabelle.remove(EineAbbildung.Schluessel, EineAbbildung)) {
+            EineAbbildung.Gib();
+        }
+    }
+
+    private static void Hebe(MappedByteBuffer[] Stuecke) {
+        if (AUFHEBEN == null) {
+            return;
+        }
+        for (MappedByteBuffer Stueck : Stuecke) {
+            if (Stueck != null) {
+                try {
+                    AUFHEBEN.invokeExact((ByteBuffer) Stueck);
+                } catch (Throwable e) {
+                    Protokoll.Fehler("Abbildung einer Datei konnte nicht aufgehoben werden. Das erledigt der GC...");
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sucht sun.misc.Unsafe.invokeCleaner, das einzige Mittel eine Abbildung vor dem Garbage Collector aufzuheben.
+     */
+    private static MethodHandle SucheAufheben() {
+        try {
+            Class<?> Unsafe = Class.forName("sun.misc.Unsafe");
+            Field Instanz = Unsafe.getDeclaredField("theUnsafe");
+            Instanz.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(Unsafe, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(Instanz.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Hebt Abbildungen auf, die laenger als {@link #Leerlauf} von keiner Anfrage benutzt wurden. Sendet gerade noch
+     * jemand daraus, bleibt sie bis zu seinem {@link Abbildung#Gib()} bestehen.
+     */
+    private static void Raeume(long Jetzt) {
+        for (Map.Entry<String, Abbildung> Eintrag : Tabelle.entrySet()) {
+            Abbildung EineAbbildung = Eintrag.getValue();
+            if (Jetzt - EineAbbildung.ZuletztBenutzt > Leerlauf && EineAbbildung.Nutzer.get() == 1) {
+                Entferne(EineAbbildung);
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Eine geparste HTTP Anfrage, unabhaengig davon ueber welche Engine sie hereingekommen ist.
+ * <p>
+ * Es werden nur die Header aufgehoben, die der Server auch auswertet. Alle anderen ueberspringt der Parser, ohne
+ * dafuer Strings zu erzeugen.
+ */
+final class Anfrage {
+    /**
+     * Die Header, die wir kennen und auswerten. Der Name wird beim Parsen ohne Beachtung der Gross- und
+     * Kleinschreibung direkt auf den Bytes verglichen.
+     */
+    enum Feld {
+        HOST("Host"),
+        CONNECTION("Connection"),
+        CONTENT_LENGTH("Content-Length"),
+        TRANSFER_ENCODING("Transfer-Encoding"),
+        USER_AGENT("User-Agent"),
+        REFERER("Referer"),
+        ACCEPT_ENCODING("Accept-Encoding"),
+        IF_MODIFIED_SINCE("If-Modified-Since"),
+        IF_NONE_MATCH("If-None-Match"),
+        IF_RANGE("If-Range"),
+        RANGE("Range"),
+        EXPECT("Expect"),
+        UPGRADE("Upgrade"),
+        HTTP2_SETTINGS("HTTP2-Settings");
+
+        final String Name;
+
+        /**
+         * Der Name in Kleinbuchstaben als Bytes, fuer den Vergleich im Parser.
+         */
+        final byte[] KleinBytes;
+
+        Feld(String Name) {
+            this.Name = Name;
+            this.KleinBytes = Name.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.US_ASCII);
+        }
+
+        final static Feld[] ALLE = values();
+    }
+
+    /**
+     * Haeufige Methoden und Versionen als Konstanten, damit der Parser fuer sie keine Strings erzeugen muss.
+     */
+    final static String GET = "GET";
+    final static String HEAD = "HEAD";
+    final static String POST = "POST";
+    final static String HTTP10 = "HTTP/1.0";
+    final static String HTTP11 = "HTTP/1.1";
+    final static String HTTP2 = "HTTP/2.0";
+
+    /**
+     * Methode, URI und Version aus der Requestzeile. Sind nur gesetzt, wenn die Requestzeile gueltig war.
+     */
+    String Methode;
+    String URI;
+    String Version;
+
+    /**
+     * Falsch, wenn die Requestzeile nicht aus genau drei Teilen bestand.
+     */
+    boolean Gueltig;
+
+    /**
+     * Die Werte der bekannten Header, indiziert ueber {@link Feld#ordinal()}.
+     */
+    final String[] Felder = new String[Feld.ALLE.length];
+
+    /**
+     * Die Content-Length in Octets. -1 wenn keine angegeben wurde, -2 wenn die Angabe ungueltig war.
+     */
+    long InhaltsLaenge;
+
+    /**
+     * Der Empfaenger des Rumpfes, nachdem dieser vollstaendig gelesen wurde, sonst null.
+     */
+    RumpfZiel Ziel;
+
+    Anfrage() {
+        Zuruecksetzen();
+    }
+
+    /**
+     * Setzt die Anfrage in den Ausgangszustand zurueck, damit sie fuer die naechste Anfrage benutzt werden kann.
+     */
+    void Zuruecksetzen() {
+        Methode = null;
+        URI = null;
+        Version = null;
+        Gueltig = false;
+        for (int i = 0; i < Felder.length; i++) {
+            Felder[i] = null;
+        }
+        InhaltsLaenge = -1;
+        Ziel = null;
+    }
+
+    String Methode() {
+        return Methode;
+    }
+
+    String URI() {
+        return URI;
+    }
+
+    String Version() {
+        return Version == null ? HTTP10 : Version;
+    }
+
+    boolean IstHttp11() {
+        return HTTP11.equals(Version);
+    }
+
+    /**
+     * Liefert den Wert eines bekannten Headers.
+     *
+     * @return Der Wert oder null, falls der Header nicht gesendet wurde
+     */
+    String Header(Feld DasFeld) {
+        return Felder[DasFeld.ordinal()];
+    }
+
+    /**
+     * Traegt einen Header per Name ein, etwa wenn er nicht aus unserem Parser stammt. Unbekannte Header werden
+     * ignoriert.
+     */
+    void SetzeHeader(String Name, String Wert) {
+        for (Feld DasFeld : Feld.ALLE) {
+            if (DasFeld.Name.equalsIgnoreCase(Name)) {
+                SetzeFeld(DasFeld, Wert);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Traegt einen bekannten Header ein. Content-Length wird dabei gleich ausgewertet.
+     */
+    void SetzeFeld(Feld DasFeld, String Wert) {
+        if (DasFeld == Feld.CONTENT_LENGTH) {
+            long Laenge = ParseLaenge(Wert);
+            // Widerspruechliche Angaben machen die Anfrage ungueltig
+            InhaltsLaenge = InhaltsLaenge != -1 && InhaltsLaenge != Laenge ? -2 : Laenge;
+        }
+        String Alt = Felder[DasFeld.ordinal()];
+        // Mehrfach gesendete Header werden wie in RFC 7230 mit Komma zusammengefasst
+        Felder[DasFeld.ordinal()] = Alt == null ? Wert : Alt + ", " + Wert;
+    }
+
+    private static long ParseLaenge(String Wert) {
+        if (Wert.isEmpty() || Wert.length() > 18) {
+            return -2;
+        }
+        long Laenge = 0;
+        for (int i = 0; i < Wert.length(); i++) {
+            char Ziffer = Wert.charAt(i);
+            if (Ziffer < '0' || Ziffer > '9') {
+                return -2;
+            }
+            Laenge = Laenge * 10 + (Ziffer - '0');
+        }
+        return Laenge;
+    }
+
+    /**
+     * Ob der Client die Verbindung nach dieser Anfrage weiter nutzen moechte. Bei HTTP/1.1 ist das der Standard, bei
+     * HTTP/1.0 nur mit "Connection: keep-alive".
+     */
+    boolean WillOffenBleiben() {
+        String Verbindung = Header(Feld.CONNECTION);
+        if (IstHttp11()) {
+            return Verbindung == null || !EnthaeltToken(Verbindung, "close");
+        }
+        return Verbindung != null && EnthaeltToken(Verbindung, "keep-alive");
+    }
+
+    /**
+     * Sucht ein Token in einer kommagetrennten Headerliste, ohne Gross- und Kleinschreibung zu beachten.
+     */
+    static boolean EnthaeltToken(String Liste, String Token) {
+        int Laenge = Liste.length();
+        for (int i = 0; i + Token.length() <= Laenge; i++) {
+            if (Liste.regionMatches(true, i, Token, 0, Token.length())) {
+                boolean AnfangOk = i == 0 || Liste.charAt(i - 1) == ',' || Liste.charAt(i - 1) == ' ';
+                int Ende = i + Token.length();
+                boolean EndeOk = Ende == Laenge || Liste.charAt(Ende) == ',' || Liste.charAt(Ende) == ' '
+                        || Liste.charAt(Ende) == ';';
+                if (AnfangOk && EndeOk) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Liefert die angegebene Content-Length in Octets.
+     *
+     * @return Die Laenge, -1 falls keine und -2 falls eine ungueltige Angabe gemacht wurde
+     */
+    long InhaltsLaenge() {
+        return InhaltsLaenge;
+    }
+}
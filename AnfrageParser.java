@@ -0,0 +1,268 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parst den Kopf einer HTTP Anfrage direkt auf den empfangenen Bytes. Es gibt keine regulaeren Ausdruecke, keinen
+ * Decoder und keine Strings pro Zeile: Strings entstehen nur fuer die URI und fuer die Werte der Header, die wir
+ * auch auswerten. Header Namen werden ohne Beachtung der Gross- und Kleinschreibung auf den Bytes verglichen.
+ * <p>
+ * Der Parser arbeitet inkrementell. Solange der Kopf noch nicht vollstaendig empfangen wurde, merkt er sich, bis wohin
+ * er schon gesucht hat, damit langsam eintroepfelnde Anfragen nicht immer wieder von vorne durchsucht werden.
+ * Eine Instanz gehoert immer zu genau einer Verbindung.
+ */
+final class AnfrageParser {
+    /**
+     * Maximale Groesse von Requestzeile und Headern zusammen.
+     */
+    final static int MAX_KOPF_GROESSE = 64 * 1024;
+
+    /**
+     * Maximale Laenge der Requestzeile.
+     */
+    final static int MAX_ZEILEN_LAENGE = 8 * 1024;
+
+    /**
+     * Maximale Anzahl an Headerzeilen.
+     */
+    final static int MAX_HEADER_ANZAHL = 100;
+
+    /**
+     * Rueckgabewerte von {@link #Parse}, wenn (noch) keine Anfrage fertig ist.
+     */
+    final static int BRAUCHT_MEHR = 0;
+    final static int FEHLER = -1;
+
+    /**
+     * Bis zu dieser Position (relativ zum Anfang) wurde schon erfolglos nach dem Ende des Kopfes gesucht.
+     */
+    private int GesuchtBis;
+
+    /**
+     * Bei {@link #FEHLER} der passende Status, etwa "431 Request Header Fields Too Large".
+     */
+    String FehlerStatus;
+
+    /**
+     * Bisher mit Parsen des aktuellen Kopfes verbrachte Zeit, ueber alle Aufrufe mit {@link #BRAUCHT_MEHR} hinweg.
+     */
+    private long Dauer;
+
+    /**
+     * Versucht einen vollstaendigen Anfragekopf zu parsen.
+     *
+     * @param Daten      Der Puffer mit den empfangenen Bytes
+     * @param Anfang     Position des ersten noch nicht verarbeiteten Bytes
+     * @param Ende       Position hinter dem letzten empfangenen Byte
+     * @param DieAnfrage Die (zurueckgesetzte) Anfrage, die befuellt wird
+     * @return Die Anzahl der verbrauchten Bytes, {@link #BRAUCHT_MEHR} oder {@link #FEHLER}
+     */
+    int Parse(byte[] Daten, int Anfang, int Ende, Anfrage DieAnfrage) {
+        if (Anfang == Ende) {
+            return BRAUCHT_MEHR;
+        }
+        long Beginn = System.nanoTime();
+        int Ergebnis = ParseKopf(Daten, Anfang, Ende, DieAnfrage);
+        Dauer += System.nanoTime() - Beginn;
+        if (Ergebnis != BRAUCHT_MEHR) {
+            Metriken.Erfasse(Metriken.Phase.PARSEN, Dauer);
+            Dauer = 0;
+        }
+        return Ergebnis;
+    }
+
+    private int ParseKopf(byte[] Daten, int Anfang, int Ende, Anfrage DieAnfrage) {
+        // Leerzeilen vor der Requestzeile sind nach RFC 7230 zu ignorieren
+        int Start = Anfang;
+        while (Start < Ende && (Daten[Start] == '\r' || Daten[Start] == '\n')) {
+            Start++;
+        }
+
+        int KopfEnde = FindeKopfEnde(Daten, Start, Ende);
+        if (KopfEnde < 0) {
+            if (Ende - Start > MAX_KOPF_GROESSE) {
+                return Fehler("431 Request Header Fields Too Large");
+            }
+            int ZeilenEnde = Finde(Daten, Start, Ende, (byte) '\n');
+            if ((ZeilenEnde < 0 ? Ende : ZeilenEnde) - Start > MAX_ZEILEN_LAENGE) {
+                return Fehler("414 URI Too Long");
+            }
+            return BRAUCHT_MEHR;
+        }
+        GesuchtBis = 0;
+        if (KopfEnde - Start > MAX_KOPF_GROESSE) {
+            return Fehler("431 Request Header Fields Too Large");
+        }
+
+        int ZeilenEnde = Finde(Daten, Start, KopfEnde, (byte) '\n');
+        if (ZeilenEnde - Start > MAX_ZEILEN_LAENGE) {
+            return Fehler("414 URI Too Long");
+        }
+        ParseRequestZeile(Daten, Start, OhneCR(Daten, Start, ZeilenEnde), DieAnfrage);
+
+        int Anzahl = 0;
+        int Position = ZeilenEnde + 1;
+        while (Position < KopfEnde) {
+            int Zeilenschluss = Finde(Daten, Position, KopfEnde, (byte) '\n');
+            int Inhalt = OhneCR(Daten, Position, Zeilenschluss);
+            if (Inhalt > Position) {
+                if (++Anzahl > MAX_HEADER_ANZAHL) {
+                    return Fehler("431 Request Header Fields Too Large");
+                }
+                ParseHeaderZeile(Daten, Position, Inhalt, DieAnfrage);
+            }
+            Position = Zeilenschluss + 1;
+        }
+        return KopfEnde - Anfang;
+    }
+
+    private int Fehler(String Status) {
+        GesuchtBis = 0;
+        FehlerStatus = Status;
+        return FEHLER;
+    }
+
+    /**
+     * Sucht die Leerzeile am Ende des Kopfes, ab der Stelle an der die letzte Suche aufgehoert hat.
+     *
+     * @return Die Position direkt hinter der Leerzeile, oder -1
+     */
+    private int FindeKopfEnde(byte[] Daten, int Start, int Ende) {
+        int i = Math.max(Start, Start + GesuchtBis - 2);
+        for (; i < Ende; i++) {
+            if (Daten[i] != '\n') {
+                continue;
+            }
+            if (i + 1 < Ende && Daten[i + 1] == '\n') {
+                return i + 2;
+            }
+            if (i + 2 < Ende && Daten[i + 1] == '\r' && Daten[i + 2] == '\n') {
+                return i + 3;
+            }
+        }
+        GesuchtBis = Ende - Start;
+        return -1;
+    }
+
+    private static int Finde(byte[] Daten, int Start, int Ende, byte Gesucht) {
+        for (int i = Start; i < Ende; i++) {
+            if (Daten[i] == Gesucht) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Liefert das Ende einer Zeile ohne abschliessendes CR.
+     */
+    private static int OhneCR(byte[] Daten, int Start, int ZeilenEnde) {
+        return ZeilenEnde > Start && Daten[ZeilenEnde - 1] == '\r' ? ZeilenEnde - 1 : ZeilenEnde;
+    }
+
+    /**
+     * Zerlegt die Requestzeile an einzelnen Leerzeichen. Wie bisher ist sie nur mit genau drei Teilen gueltig.
+     */
+    private static void ParseRequestZeile(byte[] Daten, int Start, int Ende, Anfrage DieAnfrage) {
+        int ErstesLeer = Finde(Daten, Start, Ende, (byte) ' ');
+        int ZweitesLeer = ErstesLeer < 0 ? -1 : Finde(Daten, ErstesLeer + 1, Ende, (byte) ' ');
+        if (ErstesLeer <= Start || ZweitesLeer <= ErstesLeer + 1 || ZweitesLeer + 1 >= Ende
+                || Finde(Daten, ZweitesLeer + 1, Ende, (byte) ' ') >= 0) {
+            DieAnfrage.Gueltig = false;
+            return;
+        }
+
+        DieAnfrage.Methode = Methode(Daten, Start, ErstesLeer);
+        DieAnfrage.URI = new String(Daten, ErstesLeer + 1, ZweitesLeer - ErstesLeer - 1, StandardCharsets.ISO_8859_1);
+        DieAnfrage.Version = Version(Daten, ZweitesLeer + 1, Ende);
+        DieAnfrage.Gueltig = true;
+    }
+
+    private static String Methode(byte[] Daten, int Start, int Ende) {
+        if (Gleich(Daten, Start, Ende, Anfrage.GET)) {
+            return Anfrage.GET;
+        } else if (Gleich(Daten, Start, Ende, Anfrage.HEAD)) {
+            return Anfrage.HEAD;
+        } else if (Gleich(Daten, Start, Ende, Anfrage.POST)) {
+            return Anfrage.POST;
+        }
+        return new String(Daten, Start, Ende - Start, StandardCharsets.ISO_8859_1);
+    }
+
+    private static String Version(byte[] Daten, int Start, int Ende) {
+        if (Gleich(Daten, Start, Ende, Anfrage.HTTP11)) {
+            return Anfrage.HTTP11;
+        } else if (Gleich(Daten, Start, Ende, Anfrage.HTTP10)) {
+            return Anfrage.HTTP10;
+        }
+        return new String(Daten, Start, Ende - Start, StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean Gleich(byte[] Daten, int Start, int Ende, String Konstante) {
+        if (Ende - Start != Konstante.length()) {
+            return false;
+        }
+        for (int i = 0; i < Konstante.length(); i++) {
+            if (Daten[Start + i] != Konstante.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Wertet eine Headerzeile aus. Nur fuer bekannte Header wird der Wert als String gespeichert. Kaputte Zeilen machen
+     * die Anfrage ungueltig, sie wird dann mit 400 beantwortet.
+     */
+    private static void ParseHeaderZeile(byte[] Daten, int Start, int Ende, Anfrage DieAnfrage) {
+        // Leerraum vor dem Doppelpunkt oder am Zeilenanfang (obs-fold) ist nach RFC 9112 ein Fehler. Ein Proxy, der
+        // "Transfer-Encoding : chunked" anders liest als wir, waere sonst ein Weg fuer Request Smuggling.
+        int Doppelpunkt = Finde(Daten, Start, Ende, (byte) ':');
+        if (Doppelpunkt <= Start || Daten[Start] == ' ' || Daten[Start] == '\t'
+                || Daten[Doppelpunkt - 1] == ' ' || Daten[Doppelpunkt - 1] == '\t') {
+            DieAnfrage.Gueltig = false;
+            return;
+        }
+
+        Anfrage.Feld DasFeld = BekanntesFeld(Daten, Start, Doppelpunkt);
+        if (DasFeld == null) {
+            return;
+        }
+
+        int WertAnfang = Doppelpunkt + 1;
+        while (WertAnfang < Ende && (Daten[WertAnfang] == ' ' || Daten[WertAnfang] == '\t')) {
+            WertAnfang++;
+        }
+        int WertEnde = Ende;
+        while (WertEnde > WertAnfang && (Daten[WertEnde - 1] == ' ' || Daten[WertEnde - 1] == '\t')) {
+            WertEnde--;
+        }
+        DieAnfrage.SetzeFeld(DasFeld, new String(Daten, WertAnfang, WertEnde - WertAnfang, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Vergleicht einen Header Namen mit allen bekannten Namen, zuerst nur ueber die Laenge.
+     */
+    private static Anfrage.Feld BekanntesFeld(byte[] Daten, int Start, int Ende) {
+        int Laenge = Ende - Start;
+        for (Anfrage.Feld DasFeld : Anfrage.Feld.ALLE) {
+            byte[] Name = DasFeld.KleinBytes;
+            if (Name.length != Laenge) {
+                continue;
+            }
+            int i = 0;
+            while (i < Laenge) {
+                byte Zeichen = Daten[Start + i];
+                if (Zeichen >= 'A' && Zeichen <= 'Z') {
+                    Zeichen += 'a' - 'A';
+                }
+                if (Zeichen != Name[i]) {
+                    break;
+                }
+                i++;
+            }
+            if (i == Laenge) {
+                return DasFeld;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,137 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Erzeugt den Ausfuehrer, auf dem die HttpRequest Instanzen laufen. Es gibt einen begrenzten Threadpool mit
+ * Warteschlange und einen Modus, der fuer jede Anfrage einen virtuellen Thread startet (erst ab JDK 21 verfuegbar).
+ */
+final class AnfragenAusfuehrer {
+    /**
+     * Die waehlbaren Ausfuehrungsmodi.
+     */
+    enum Modus {
+        POOL, VIRTUELL
+    }
+
+    /**
+     * Was passieren soll, wenn Pool und Warteschlange voll sind.
+     */
+    enum Ablehnung {
+        /** Der Client bekommt eine 503 Antwort und die Verbindung wird geschlossen. */
+        FEHLER503,
+        /** Der annehmende Thread bearbeitet die Anfrage selbst und nimmt solange keine neuen Verbindungen an. */
+        AUFRUFER,
+        /** Die Verbindung wird kommentarlos geschlossen. */
+        SCHLIESSEN
+    }
+
+    private AnfragenAusfuehrer() {
+    }
+
+    /**
+     * Liefert den Ausfuehrer fuer den gewuenschten Modus. Falls virtuelle Threads nicht verfuegbar sind, wird auf den
+     * Pool zurueckgefallen.
+     *
+     * @param GewuenschterModus   Pool oder virtuelle Threads
+     * @param ThreadAnzahl        Maximale Anzahl an Threads im Pool
+     * @param WarteschlangenLaenge Anzahl an Anfragen die auf einen freien Thread warten duerfen
+     * @param Strategie           Verhalten bei voller Warteschlange
+     * @return Ein Ausfuehrer, der HttpRequest Instanzen annimmt
+     */
+    static ExecutorService Erzeuge(Modus GewuenschterModus, int ThreadAnzahl, int WarteschlangenLaenge,
+                                   Ablehnung Strategie) {
+        return Erzeuge(GewuenschterModus, ThreadAnzahl, WarteschlangenLaenge, Ablehner(Strategie));
+    }
+
+    /**
+     * Liefert den Ausfuehrer fuer die Arbeiter der NIO Engine. Ist er voll, wirft er eine
+     * {@link RejectedExecutionException} und die Ereignisschleife lehnt selbst ab. Eine Strategie wie
+     * {@link Ablehnung#AUFRUFER} liesse die Schleife die Arbeit erledigen und alle ihre Verbindungen warten.
+     */
+    static ExecutorService ErzeugeFuerSchleifen(Modus GewuenschterModus, int ThreadAnzahl, int WarteschlangenLaenge) {
+        return Erzeuge(GewuenschterModus, ThreadAnzahl, WarteschlangenLaenge, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    private static ExecutorService Erzeuge(Modus GewuenschterModus, int ThreadAnzahl, int WarteschlangenLaenge,
+                                           RejectedExecutionHandler Ablehner) {
+        if (GewuenschterModus == Modus.VIRTUELL) {
+            ExecutorService Virtuell = ErzeugeVirtuell();
+            if (Virtuell != null) {
+                return Virtuell;
+            }
+            Protokoll.Fehler("Virtuelle Threads werden von dieser JVM nicht unterstuetzt. Falle auf Threadpool zurueck...");
+        }
+        return ErzeugePool(ThreadAnzahl, WarteschlangenLaenge, Ablehner);
+    }
+
+    /**
+     * Erzeugt einen Pool mit fester Threadanzahl und begrenzter Warteschlange.
+     */
+    private static ExecutorService ErzeugePool(int ThreadAnzahl, int WarteschlangenLaenge,
+                                               RejectedExecutionHandler Ablehner) {
+        ThreadPoolExecutor Pool = new ThreadPoolExecutor(ThreadAnzahl, ThreadAnzahl, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(WarteschlangenLaenge), new ArbeiterFabrik(), Ablehner);
+        // Unbeschaeftigte Threads duerfen sterben, damit ein leerer Server keine Ressourcen festhaelt
+        Pool.allowCoreThreadTimeOut(true);
+        return Pool;
+    }
+
+    /**
+     * Erzeugt per Reflection einen Executor mit einem virtuellen Thread pro Aufgabe, damit wir auch auf aelteren JDKs
+     * noch kompilieren.
+     *
+     * @return Den Executor oder null, falls die JVM keine virtuellen Threads kennt
+     */
+    private static ExecutorService ErzeugeVirtuell() {
+        try {
+            Method Fabrik = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) Fabrik.invoke(null);
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Liefert das Verhalten des Pools, wenn keine Anfrage mehr angenommen werden kann.
+     */
+    private static RejectedExecutionHandler Ablehner(Ablehnung Strategie) {
+        switch (Strategie) {
+            case AUFRUFER:
+                return new ThreadPoolExecutor.CallerRunsPolicy();
+            case SCHLIESSEN:
+                return (Aufgabe, Pool) -> {
+                    if (Aufgabe instanceof HttpRequest) {
+                        ((HttpRequest) Aufgabe).Verwerfe();
+                    }
+                };
+            case FEHLER503:
+            default:
+                return (Aufgabe, Pool) -> {
+                    if (Aufgabe instanceof HttpRequest) {
+                        ((HttpRequest) Aufgabe).LehneAb();
+                    }
+                };
+        }
+    }
+
+    /**
+     * Gibt den Threads im Pool sprechende Namen, damit man sie in einem Threaddump wiederfindet.
+     */
+    private static final class ArbeiterFabrik implements ThreadFactory {
+        private final AtomicInteger Zaehler = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable Aufgabe) {
+            Thread Arbeiter = new Thread(Aufgabe, "HttpRequest-Arbeiter-" + Zaehler.incrementAndGet());
+            Arbeiter.setDaemon(false);
+            return Arbeiter;
+        }
+    }
+}
@@ -0,0 +1,352 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Eine fertige HTTP Antwort. Die Engines entscheiden selbst, wie sie diese auf die Leitung bringen.
+ */
+final class Antwort {
+    /**
+     * Komfortvariable fuer das beantworten der HTTP Requests.
+     */
+    final static String CRLF = "\r\n";
+
+    /**
+     * Fertig kodierte Headerzeilen, die pro Anfrage nicht neu gebaut werden muessen.
+     */
+    final static byte[] CONTENT_TYPE_HTML = HeaderZeile("Content-type", "text/html");
+    final static byte[] CONTENT_TYPE_TEXT = HeaderZeile("Content-type", "text/plain");
+    final static byte[] VERBINDUNG_SCHLIESSEN = HeaderZeile("Connection", "close");
+    final static byte[] VERBINDUNG_OFFEN = HeaderZeile("Connection", "keep-alive");
+    final static byte[] CHUNKED = HeaderZeile("Transfer-Encoding", "chunked");
+    final static byte[] VARY_ACCEPT_ENCODING = HeaderZeile("Vary", "Accept-Encoding");
+    final static byte[] WEITER = ("HTTP/1.1 100 Continue" + CRLF + CRLF).getBytes(StandardCharsets.ISO_8859_1);
+    private final static byte[] CONTENT_LENGTH = "Content-Length: ".getBytes(StandardCharsets.ISO_8859_1);
+    private final static byte[] CRLF_BYTES = CRLF.getBytes(StandardCharsets.ISO_8859_1);
+
+    /**
+     * Fertig kodierte Statuszeilen. Die Menge ist klein und waechst nur bis alle vorkommenden Status einmal gesehen
+     * wurden. Die Content-type Zeilen liegen schon fertig in der {@link MimeTabelle}.
+     */
+    private final static ConcurrentHashMap<String, byte[]> STATUSZEILEN = new ConcurrentHashMap<>();
+
+    /**
+     * Statuscode und Text, etwa "404 Not Found".
+     */
+    final String Status;
+
+    /**
+     * Alle Headerzeilen inklusive abschliessendem CRLF, aber ohne Statuszeile, bereits als Bytes.
+     */
+    private byte[] HeaderZeilen;
+    private int HeaderLaenge;
+
+    /**
+     * Rumpf der Antwort aus dem Speicher, oder null.
+     */
+    byte[] Rumpf;
+
+    /**
+     * Rumpf aus einem (eventuell geteilten und direkten) Puffer, etwa aus dem Dateicache, oder null. Der Puffer gehoert
+     * dieser Antwort allein und darf beim Senden verbraucht werden.
+     */
+    ByteBuffer Puffer;
+
+    /**
+     * Datei die als Rumpf gesendet werden soll, oder null.
+     */
+    File Datei;
+
+    /**
+     * Groesse der Datei laut ihrem geoeffneten Kanal, oder -1 solange sie nicht geoeffnet wurde.
+     */
+    private long DateiLaenge;
+
+    /**
+     * Bei Teilantworten der gesendete Ausschnitt der Datei. DateiAbschnitt ist -1, wenn die ganze Datei gesendet wird.
+     */
+    long DateiAnfang;
+    long DateiAbschnitt;
+
+    /**
+     * Rumpf als Strom, oder null. Ist seine Laenge unbekannt, wird er bei HTTP/1.1 chunked gesendet.
+     */
+    InputStream Strom;
+    long StromLaenge;
+
+    /**
+     * Wahr bei Antworten auf HEAD. Die Header beschreiben den Rumpf, gesendet wird er aber nicht.
+     */
+    boolean NurKopf;
+
+    /**
+     * Wahr, wenn die Verbindung nach dieser Antwort in jedem Fall geschlossen werden soll.
+     */
+    boolean Schliessen;
+
+    /**
+     * Ergebnis von {@link #Rahmen}: wird der Rumpf chunked gesendet, und bleibt die Verbindung danach offen.
+     */
+    boolean Chunked;
+    boolean OffenHalten;
+
+    Antwort(String Status) {
+        this.Status = Status;
+        this.HeaderZeilen = new byte[128];
+        this.HeaderLaenge = 0;
+        this.Rumpf = null;
+        this.Puffer = null;
+        this.Datei = null;
+        this.DateiLaenge = -1;
+        this.DateiAnfang = 0;
+        this.DateiAbschnitt = -1;
+        this.Strom = null;
+        this.StromLaenge = -1;
+        this.NurKopf = false;
+        this.Schliessen = false;
+    }
+
+    /**
+     * Haengt eine Headerzeile an.
+     *
+     * @return Diese Antwort, damit man Aufrufe verketten kann
+     */
+    Antwort Header(String Name, String Wert) {
+        return Header(HeaderZeile(Name, Wert));
+    }
+
+    /**
+     * Haengt eine fertig kodierte Headerzeile inklusive CRLF an.
+     *
+     * @return Diese Antwort, damit man Aufrufe verketten kann
+     */
+    Antwort Header(byte[] Zeile) {
+        Platz(Zeile.length);
+        System.arraycopy(Zeile, 0, HeaderZeilen, HeaderLaenge, Zeile.length);
+        HeaderLaenge += Zeile.length;
+        return this;
+    }
+
+    /**
+     * Kodiert eine Headerzeile, damit sie einmal erzeugt und dann immer wieder angehaengt werden kann.
+     */
+    static byte[] HeaderZeile(String Name, String Wert) {
+        return (Name + ": " + Wert + CRLF).getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private void Platz(int Zusaetzlich) {
+        if (HeaderLaenge + Zusaetzlich > HeaderZeilen.length) {
+            HeaderZeilen = Arrays.copyOf(HeaderZeilen, Math.max(HeaderZeilen.length * 2, HeaderLaenge + Zusaetzlich));
+        }
+    }
+
+    /**
+     * Haengt die Content-Length Zeile an, ohne dafuer einen String zu erzeugen.
+     */
+    private void ContentLength(long Laenge) {
+        Platz(CONTENT_LENGTH.length + 20 + 2);
+        System.arraycopy(CONTENT_LENGTH, 0, HeaderZeilen, HeaderLaenge, CONTENT_LENGTH.length);
+        HeaderLaenge += CONTENT_LENGTH.length;
+
+        int Ziffern = 1;
+        for (long Rest = Laenge / 10; Rest > 0; Rest /= 10) {
+            Ziffern++;
+        }
+        for (int i = Ziffern - 1; i >= 0; i--) {
+            HeaderZeilen[HeaderLaenge + i] = (byte) ('0' + Laenge % 10);
+            Laenge /= 10;
+        }
+        HeaderLaenge += Ziffern;
+        HeaderZeilen[HeaderLaenge++] = '\r';
+        HeaderZeilen[HeaderLaenge++] = '\n';
+    }
+
+    /**
+     * Gibt den Strom frei, wenn die Antwort nicht mehr gesendet wird, etwa weil der Client schon weg ist.
+     */
+    void Verwirf() {
+        if (Strom != null) {
+            try {
+                Strom.close();
+            } catch (IOException e) {
+                Protokoll.Fehler("Fehler beim schliessen eines Dateistroms.");
+            }
+            Strom = null;
+        }
+    }
+
+    boolean IstFehler() {
+        return Status.startsWith("4") || Status.startsWith("5");
+    }
+
+    /**
+     * Liefert die Laenge des Rumpfes.
+     *
+     * @return Die Laenge in Bytes oder -1, falls sie vorher nicht bekannt ist
+     */
+    long Laenge() {
+        if (Rumpf != null) {
+            return Rumpf.length;
+        } else if (Puffer != null) {
+            return Puffer.remaining();
+        } else if (Datei != null) {
+            if (DateiAbschnitt >= 0) {
+                return DateiAbschnitt;
+            }
+            return DateiLaenge >= 0 ? DateiLaenge : Datei.length();
+        } else if (Strom != null) {
+            return StromLaenge;
+        }
+        return 0;
+    }
+
+    /**
+     * Oeffnet die Datei fuer den Versand. Die Content-Length wird danach aus der Groesse des Kanals genommen, damit sie
+     * garantiert zu dem passt, was wir auch senden.
+     *
+     * @return Der geoeffnete Kanal, den der Aufrufer schliessen muss
+     */
+    FileChannel OeffneDatei() throws IOException {
+        FileChannel Kanal = FileChannel.open(Datei.toPath(), StandardOpenOption.READ);
+        DateiLaenge = Kanal.size();
+        if (DateiAbschnitt >= 0 && DateiAnfang + DateiAbschnitt > DateiLaenge) {
+            // Die Datei ist seit der Auswahl des Bereichs geschrumpft
+            Kanal.close();
+            throw new IOException("Bereich liegt hinter dem Ende der Datei");
+        }
+        return Kanal;
+    }
+
+    /**
+     * Bildet die Datei fuer den Versand in den Speicher ab, wenn sie gross genug dafuer ist. Wie bei
+     * {@link #OeffneDatei()} wird die Content-Length danach aus der Groesse der Abbildung genommen.
+     *
+     * @return Die Abbildung, die der Aufrufer mit {@link Abbildungen.Abbildung#Gib()} freigeben muss, oder null wenn
+     * die Datei ueber {@link #OeffneDatei()} gesendet werden soll
+     */
+    Abbildungen.Abbildung BildeAb() throws IOException {
+        Abbildungen.Abbildung Abbild = Abbildungen.Hole(Datei);
+        if (Abbild == null) {
+            return null;
+        }
+        DateiLaenge = Abbild.Groesse;
+        if (DateiAbschnitt >= 0 && DateiAnfang + DateiAbschnitt > DateiLaenge) {
+            Abbild.Gib();
+            throw new IOException("Bereich liegt hinter dem Ende der Datei");
+        }
+        return Abbild;
+    }
+
+    /**
+     * Legt die Rahmung der Antwort fest: Content-Length wenn die Laenge bekannt ist, sonst chunked bei HTTP/1.1 und
+     * ansonsten das Ende der Verbindung. Ausserdem wird der Connection Header gesetzt.
+     *
+     * @param DieAnfrage    Die beantwortete Anfrage, oder null wenn sie nicht gelesen werden konnte
+     * @param OffenErlaubt  Ob die Engine die Verbindung noch fuer weitere Anfragen offen halten wuerde
+     * @return Wahr, wenn die Verbindung nach dieser Antwort offen bleibt
+     */
+    boolean Rahmen(Anfrage DieAnfrage, boolean OffenErlaubt) {
+        boolean Http11 = DieAnfrage != null && DieAnfrage.IstHttp11();
+        // Faehrt der Server herunter, bleibt keine Verbindung mehr offen
+        OffenHalten = OffenErlaubt && !Schliessen && !Herunterfahren.Aktiv && DieAnfrage != null
+                && DieAnfrage.WillOffenBleiben();
+
+        long Laenge = Laenge();
+        if (Status.startsWith("304")) {
+            // Eine 304 Antwort hat nie einen Rumpf und braucht daher keine Rahmung
+        } else if (Laenge >= 0) {
+            ContentLength(Laenge);
+        } else if (Http11) {
+            Header(CHUNKED);
+            Chunked = true;
+        } else {
+            // Ohne bekannte Laenge kann ein HTTP/1.0 Client das Ende nur am Verbindungsende erkennen
+            OffenHalten = false;
+        }
+
+        if (!OffenHalten) {
+            Header(VERBINDUNG_SCHLIESSEN);
+        } else if (!Http11) {
+            Header(VERBINDUNG_OFFEN);
+        }
+        return OffenHalten;
+    }
+
+    /**
+     * Schreibt Statuszeile und Header inklusive der abschliessenden Leerzeile in einen einzigen Puffer.
+     *
+     * @param Wiederverwendbar Ein Puffer der Verbindung, der benutzt wird, falls er gross genug ist, oder null
+     * @return Der gefuellte und zum Lesen bereite Puffer, entweder der uebergebene oder ein groesserer
+     */
+    ByteBuffer Kopf(ByteBuffer Wiederverwendbar) {
+        byte[] Statuszeile = STATUSZEILEN.get(Status);
+        if (Statuszeile == null) {
+            Statuszeile = STATUSZEILEN.computeIfAbsent(Status,
+                    Text -> ("HTTP/1.1 " + Text + CRLF).getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        int Groesse = Statuszeile.length + HeaderLaenge + CRLF_BYTES.length;
+        ByteBuffer Ziel = Wiederverwendbar;
+        if (Ziel == null || Ziel.capacity() < Groesse) {
+            Ziel = ByteBuffer.allocate(Math.max(Groesse, 512));
+        }
+        Ziel.clear();
+        Ziel.put(Statuszeile).put(HeaderZeilen, 0, HeaderLaenge).put(CRLF_BYTES);
+        Ziel.flip();
+        return Ziel;
+    }
+
+    /**
+     * Kodiert Status und Header fuer HTTP/2. Die Rahmung uebernehmen dort die Rahmen, deshalb entfallen die Header,
+     * die nur fuer eine HTTP/1.1 Verbindung gelten, und {@link #Rahmen} wird nicht aufgerufen.
+     *
+     * @param Kodierer Der Kodierer der Verbindung, auf dem der Aufrufer den Block schon begonnen hat
+     */
+    void Kodiere(Hpack.Kodierer Kodierer) {
+        Kodierer.Feld(":status", Status.substring(0, 3));
+        int Zeile = 0;
+        while (Zeile < HeaderLaenge) {
+            int Doppelpunkt = Zeile;
+            while (HeaderZeilen[Doppelpunkt] != ':') {
+                Doppelpunkt++;
+            }
+            int Ende = Doppelpunkt;
+            while (HeaderZeilen[Ende] != '\r') {
+                Ende++;
+            }
+            String Name = new String(HeaderZeilen, Zeile, Doppelpunkt - Zeile, StandardCharsets.ISO_8859_1)
+                    .toLowerCase(Locale.ROOT);
+            switch (Name) {
+                case "connection":
+                case "keep-alive":
+                case "proxy-connection":
+                case "transfer-encoding":
+                case "upgrade":
+                case "content-length":
+                    break;
+                default:
+                    Kodierer.Feld(Name, new String(HeaderZeilen, Doppelpunkt + 1, Ende - Doppelpunkt - 1,
+                            StandardCharsets.ISO_8859_1).trim());
+            }
+            Zeile = Ende + 2;
+        }
+        long Laenge = Laenge();
+        if (Laenge >= 0 && !Status.startsWith("304")) {
+            Kodierer.Feld("content-length", Long.toString(Laenge));
+        }
+    }
+
+    /**
+     * Wahr, wenn nach dem Kopf noch ein Rumpf gesendet werden muss.
+     */
+    boolean HatRumpf() {
+        return !NurKopf && (Rumpf != null || Puffer != null || Datei != null || Strom != null);
+    }
+}
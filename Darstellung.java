@@ -0,0 +1,303 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Eine Darstellung einer statischen Datei, so wie sie ausgeliefert werden kann: Mime Type, eventuell Content-Encoding,
+ * Validator, und der Inhalt entweder im Speicher oder als Datei. Hieraus entsteht die passende Antwort, also 200, 304
+ * bei bedingten Anfragen, oder 206 und 416 bei Range Anfragen.
+ */
+final class Darstellung {
+    /**
+     * Mehr Bereiche in einer Anfrage beantworten wir nicht einzeln, sondern mit der ganzen Datei.
+     */
+    final static int MAX_BEREICHE = 16;
+
+    final static byte[] ACCEPT_RANGES = Antwort.HeaderZeile("Accept-Ranges", "bytes");
+
+    private final MimeTabelle.Typ MimeType;
+    private final Komprimierung.Verfahren Kodierung;
+    private final boolean Vary;
+    private final Validator DerValidator;
+
+    /**
+     * Der Inhalt aus dem Speicher, oder null. Der Puffer gehoert dieser Darstellung allein.
+     */
+    ByteBuffer Puffer;
+
+    /**
+     * Die Datei mit dem Inhalt und ihre Groesse, falls der Inhalt nicht im Speicher liegt.
+     */
+    File Datei;
+    long DateiGroesse;
+
+    /**
+     * @param MimeType     Der Mime Type der Datei
+     * @param Kodierung    Das Content-Encoding des Inhalts, oder null
+     * @param Vary         Ob die Antwort von Accept-Encoding abhaengt
+     * @param DerValidator ETag und Last-Modified
+     */
+    Darstellung(MimeTabelle.Typ MimeType, Komprimierung.Verfahren Kodierung, boolean Vary, Validator DerValidator) {
+        this.MimeType = MimeType;
+        this.Kodierung = Kodierung;
+        this.Vary = Vary;
+        this.DerValidator = DerValidator;
+    }
+
+    /**
+     * Beantwortet eine bedingte Anfrage, ohne den Inhalt anzufassen.
+     *
+     * @return Die 304 Antwort, oder null wenn der Client die Darstellung noch nicht hat
+     */
+    Antwort NichtGeaendert(Anfrage DieAnfrage) {
+        if (!DerValidator.NichtGeaendert(DieAnfrage)) {
+            return null;
+        }
+        Antwort DieAntwort = new Antwort("304 Not Modified").Header(DerValidator.Zeilen);
+        if (Vary) {
+            DieAntwort.Header(Antwort.VARY_ACCEPT_ENCODING);
+        }
+        return DieAntwort;
+    }
+
+    /**
+     * Erzeugt die Antwort auf GET oder HEAD.
+     *
+     * @param DieAnfrage Die Anfrage mit ihren bedingten und Range Headern
+     * @param NurKopf    Wahr bei HEAD, dann wird auch Range ignoriert
+     */
+    Antwort Beantworte(Anfrage DieAnfrage, boolean NurKopf) {
+        Antwort Nicht = NichtGeaendert(DieAnfrage);
+        if (Nicht != null) {
+            return Nicht;
+        }
+
+        long Laenge = Puffer != null ? Puffer.remaining() : DateiGroesse;
+        String Bereich = DieAnfrage.Header(Anfrage.Feld.RANGE);
+        long[] Bereiche = null;
+        // Bereiche einer komprimierten Darstellung bieten wir nicht an, die Datei ist dafuer ohnehin klein genug
+        if (Bereich != null && !NurKopf && Kodierung == null && DerValidator.BereichGilt(DieAnfrage)) {
+            Bereiche = ParseBereiche(Bereich, Laenge);
+        }
+
+        Antwort DieAntwort;
+        if (Bereiche == null) {
+            DieAntwort = Kopf("200 OK", true);
+            DieAntwort.Puffer = Puffer;
+            DieAntwort.Datei = Datei;
+        } else if (Bereiche.length == 0) {
+            DieAntwort = new Antwort("416 Range Not Satisfiable").Header(DerValidator.Zeilen)
+                    .Header("Content-Range", "bytes */" + Laenge);
+        } else if (Bereiche.length == 2) {
+            DieAntwort = Kopf("206 Partial Content", true)
+                    .Header("Content-Range", "bytes " + Bereiche[0] + "-" + Bereiche[1] + "/" + Laenge);
+            long Anzahl = Bereiche[1] - Bereiche[0] + 1;
+            if (Puffer != null) {
+                DieAntwort.Puffer = Ausschnitt(Bereiche[0], Anzahl);
+            } else {
+                DieAntwort.Datei = Datei;
+                DieAntwort.DateiAnfang = Bereiche[0];
+                DieAntwort.DateiAbschnitt = Anzahl;
+            }
+        } else {
+            DieAntwort = Mehrteilig(Bereiche, Laenge);
+        }
+        DieAntwort.NurKopf = NurKopf;
+        return DieAntwort;
+    }
+
+    private Antwort Kopf(String Status, boolean MitTyp) {
+        Antwort DieAntwort = new Antwort(Status);
+        if (MitTyp) {
+            DieAntwort.Header(MimeType.Zeile);
+        }
+        if (Kodierung != null) {
+            DieAntwort.Header(Kodierung.KopfZeile);
+        }
+        if (Vary) {
+            DieAntwort.Header(Antwort.VARY_ACCEPT_ENCODING);
+        }
+        return DieAntwort.Header(DerValidator.Zeilen).Header(ACCEPT_RANGES);
+    }
+
+    private ByteBuffer Ausschnitt(long Anfang, long Anzahl) {
+        ByteBuffer Teil = Puffer.duplicate();
+        Teil.position(Puffer.position() + (int) Anfang);
+        Teil.limit(Teil.position() + (int) Anzahl);
+        return Teil;
+    }
+
+    /**
+     * Liest einen Range Header nach RFC 7233, etwa "bytes=0-99,200-,-50".
+     *
+     * @param Bereich Der Wert des Headers
+     * @param Laenge  Die Laenge der Darstellung
+     * @return Paare aus erstem und letztem Byte; ein leeres Array wenn kein Bereich erfuellbar ist; oder null wenn der
+     * Header ungueltig ist oder zu viele bzw. ueberlappende Bereiche nennt, dann wird die ganze Datei gesendet
+     */
+    static long[] ParseBereiche(String Bereich, long Laenge) {
+        if (!Bereich.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+
+        String[] Teile = Bereich.substring(6).split(",");
+        if (Teile.length > MAX_BEREICHE) {
+            return null;
+        }
+        long[] Bereiche = new long[Teile.length * 2];
+        int Anzahl = 0;
+        for (String Teil : Teile) {
+            Teil = Teil.trim();
+            int Strich = Teil.indexOf('-');
+            if (Strich < 0) {
+                return null;
+            }
+            long Anfang;
+            long Ende;
+            try {
+                if (Strich == 0) {
+                    // "-n" meint die letzten n Bytes
+                    long Suffix = Long.parseLong(Teil.substring(1));
+                    if (Suffix <= 0) {
+                        continue;
+                    }
+                    Anfang = Math.max(0, Laenge - Suffix);
+                    Ende = Laenge - 1;
+                } else {
+                    Anfang = Long.parseLong(Teil.substring(0, Strich));
+                    Ende = Strich == Teil.length() - 1 ? Laenge - 1
+                            : Math.min(Laenge - 1, Long.parseLong(Teil.substring(Strich + 1)));
+                    if (Ende < Anfang && Anfang < Laenge) {
+                        return null;
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (Anfang < 0) {
+                return null;
+            }
+            if (Anfang >= Laenge) {
+                // Nicht erfuellbar, die anderen Bereiche koennen aber trotzdem gelten
+                continue;
+            }
+
+            // Ueberlappende Bereiche sind meist ein Versuch, uns mit vielen kleinen Teilen zu beschaeftigen
+            for (int i = 0; i < Anzahl; i += 2) {
+                if (Anfang <= Bereiche[i + 1] && Ende >= Bereiche[i]) {
+                    return null;
+                }
+            }
+            Bereiche[Anzahl++] = Anfang;
+            Bereiche[Anzahl++] = Ende;
+        }
+
+        if (Anzahl == Bereiche.length) {
+            return Bereiche;
+        }
+        long[] Gekuerzt = new long[Anzahl];
+        System.arraycopy(Bereiche, 0, Gekuerzt, 0, Anzahl);
+        return Gekuerzt;
+    }
+
+    /**
+     * Baut eine multipart/byteranges Antwort. Ihr Rumpf wird beim Senden als Strom bekannter Laenge erzeugt, Dateien
+     * werden dabei erst geoeffnet, wenn der erste Teil gelesen wird.
+     */
+    private Antwort Mehrteilig(long[] Bereiche, long Laenge) {
+        String Grenze = Long.toHexString(ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE);
+        Antwort DieAntwort = Kopf("206 Partial Content", false)
+                .Header("Content-type", "multipart/byteranges; boundary=" + Grenze);
+
+        int Anzahl = Bereiche.length / 2;
+        ByteBuffer[] Stuecke = new ByteBuffer[Anzahl * 2 + 1];
+        long[] DateiAbschnitte = new long[Anzahl * 4 + 2];
+        long Gesamt = 0;
+        for (int i = 0; i < Anzahl; i++) {
+            long Anfang = Bereiche[2 * i];
+            long Ende = Bereiche[2 * i + 1];
+            byte[] TeilKopf = (Antwort.CRLF + "--" + Grenze + Antwort.CRLF + "Content-type: " + MimeType.Name + Antwort.CRLF
+                    + "Content-Range: bytes " + Anfang + "-" + Ende + "/" + Laenge + Antwort.CRLF + Antwort.CRLF)
+                    .getBytes(StandardCharsets.ISO_8859_1);
+            Stuecke[2 * i] = ByteBuffer.wrap(TeilKopf);
+            if (Puffer != null) {
+                Stuecke[2 * i + 1] = Ausschnitt(Anfang, Ende - Anfang + 1);
+            } else {
+                DateiAbschnitte[2 * (2 * i + 1)] = Anfang;
+                DateiAbschnitte[2 * (2 * i + 1) + 1] = Ende - Anfang + 1;
+            }
+            Gesamt += TeilKopf.length + Ende - Anfang + 1;
+        }
+        byte[] Schluss = (Antwort.CRLF + "--" + Grenze + "--" + Antwort.CRLF).getBytes(StandardCharsets.ISO_8859_1);
+        Stuecke[Stuecke.length - 1] = ByteBuffer.wrap(Schluss);
+        Gesamt += Schluss.length;
+
+        DieAntwort.Strom = new TeileStrom(Stuecke, Datei, DateiAbschnitte);
+        DieAntwort.StromLaenge = Gesamt;
+        return DieAntwort;
+    }
+
+    /**
+     * Liest nacheinander Stuecke aus dem Speicher und Abschnitte einer Datei. Ein Stueck, das null ist, steht fuer den
+     * Dateiabschnitt mit demselben Index.
+     */
+    private static final class TeileStrom extends InputStream {
+        private final ByteBuffer[] Stuecke;
+        private final File Datei;
+        private final long[] DateiAbschnitte;
+        private FileChannel Kanal;
+        private int Index;
+
+        TeileStrom(ByteBuffer[] Stuecke, File Datei, long[] DateiAbschnitte) {
+            this.Stuecke = Stuecke;
+            this.Datei = Datei;
+            this.DateiAbschnitte = DateiAbschnitte;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] Eins = new byte[1];
+            return read(Eins, 0, 1) == -1 ? -1 : Eins[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] Ziel, int Anfang, int Laenge) throws IOException {
+            while (Index < Stuecke.length) {
+                ByteBuffer Stueck = Stuecke[Index];
+                if (Stueck != null) {
+                    if (Stueck.hasRemaining()) {
+                        int Anzahl = Math.min(Laenge, Stueck.remaining());
+                        Stueck.get(Ziel, Anfang, Anzahl);
+                        return Anzahl;
+                    }
+                } else if (DateiAbschnitte[2 * Index + 1] > 0) {
+                    if (Kanal == null) {
+                        Kanal = FileChannel.open(Datei.toPath(), StandardOpenOption.READ);
+                    }
+                    int Anzahl = (int) Math.min(Laenge, DateiAbschnitte[2 * Index + 1]);
+                    int Gelesen = Kanal.read(ByteBuffer.wrap(Ziel, Anfang, Anzahl), DateiAbschnitte[2 * Index]);
+                    if (Gelesen <= 0) {
+                        throw new IOException("Datei ist waehrend des Sendens geschrumpft");
+                    }
+                    DateiAbschnitte[2 * Index] += Gelesen;
+                    DateiAbschnitte[2 * Index + 1] -= Gelesen;
+                    return Gelesen;
+                }
+                Index++;
+            }
+            return -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (Kanal != null) {
+                Kanal.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,322 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache fuer kleine, haeufig angefragte Dateien. Die Inhalte liegen als fertige ByteBuffer im Speicher, so dass ein
+ * Treffer weder exists() noch open() oder read() braucht. Die Gesamtgroesse ist begrenzt.
+ * <p>
+ * Verdraengt wird nach LRU. Damit Treffer nicht auf ein Lock warten muessen, wird die LRU Reihenfolge nur
+ * aktualisiert, wenn das Lock gerade frei ist (wie bei Caffeine duerfen dabei Zugriffe verloren gehen). Neue Dateien
+ * werden nur aufgenommen, wenn sie laut einem kleinen Count-Min Sketch haeufiger angefragt werden als die Datei, die
+ * ihnen weichen muesste (TinyLFU). So spuelt ein einmaliger Scan ueber viele Dateien nicht den ganzen Cache leer.
+ * <p>
+ * Geaenderte Dateien erkennen wir an ihrem mtime, das pro Eintrag hoechstens einmal pro Pruefintervall gelesen wird.
+ */
+final class DateiCache {
+    /**
+     * Wie oft die Aenderungszeit eines Eintrags hoechstens geprueft wird, in Nanosekunden.
+     */
+    final static long PRUEF_INTERVALL = 1_000_000_000L;
+
+    /**
+     * Ein Eintrag ist gleichzeitig Knoten der doppelt verketteten LRU Liste.
+     */
+    static final class Eintrag {
+        final String Schluessel;
+
+        /**
+         * Die Datei, an deren mtime die Gueltigkeit des Eintrags haengt. Bei komprimierten Varianten ist der Schluessel
+         * kein Pfad, daher wird sie getrennt gespeichert.
+         */
+        final File Datei;
+        final ByteBuffer Inhalt;
+        final long Aenderungszeit;
+
+        /**
+         * ETag und Last-Modified, einmal beim Laden gebildet.
+         */
+        final Validator DerValidator;
+        volatile long GeprueftUm;
+
+        // Nur unter dem Lock benutzt
+        Eintrag Vorher;
+        Eintrag Nachher;
+
+        Eintrag(String Schluessel, File Datei, ByteBuffer Inhalt, Validator DerValidator) {
+            this.Schluessel = Schluessel;
+            this.Datei = Datei;
+            this.Inhalt = Inhalt;
+            this.Aenderungszeit = DerValidator.Aenderungszeit;
+            this.DerValidator = DerValidator;
+            this.GeprueftUm = System.nanoTime();
+        }
+
+        /**
+         * Liefert eine eigene Sicht auf den Inhalt, damit mehrere Threads gleichzeitig daraus senden koennen.
+         */
+        ByteBuffer Sicht() {
+            return Inhalt.duplicate();
+        }
+    }
+
+    private final long MaxGesamtGroesse;
+    final long MaxDateiGroesse;
+    private final boolean Direkt;
+
+    private final ConcurrentHashMap<String, Eintrag> Eintraege = new ConcurrentHashMap<>();
+    private final AtomicLong GesamtGroesse = new AtomicLong();
+
+    /**
+     * Die LRU Liste. Kopf ist der zuletzt benutzte Eintrag, Ende der naechste Kandidat fuer die Verdraengung.
+     */
+    private final ReentrantLock ListenLock = new ReentrantLock();
+    private Eintrag Kopf;
+    private Eintrag Ende;
+
+    /**
+     * Count-Min Sketch mit vier Zeilen und 4 Bit Zaehlern (auf 15 begrenzt), der alle Zugriffe zaehlt.
+     */
+    private final AtomicIntegerArray Sketch;
+    private final int SketchMaske;
+    private final AtomicLong SketchZugriffe = new AtomicLong();
+    private final long SketchAltern;
+
+    /**
+     * @param MaxGesamtGroesse Maximale Summe aller Dateigroessen im Cache in Bytes
+     * @param MaxDateiGroesse  Groessere Dateien werden nie gecacht, sondern immer gestreamt
+     * @param Direkt           Ob die Inhalte in Direct Buffers ausserhalb des Heaps liegen sollen
+     */
+    DateiCache(long MaxGesamtGroesse, long MaxDateiGroesse, boolean Direkt) {
+        this.MaxGesamtGroesse = MaxGesamtGroesse;
+        this.MaxDateiGroesse = Math.min(MaxDateiGroesse, MaxGesamtGroesse);
+        this.Direkt = Direkt;
+
+        // Wir schaetzen grob eine Datei pro 4 KB Budget und nehmen die naechste Zweierpotenz
+        int Breite = Integer.highestOneBit((int) Math.max(256, Math.min(1 << 20, MaxGesamtGroesse / 4096)) * 2 - 1);
+        this.Sketch = new AtomicIntegerArray(4 * Breite);
+        this.SketchMaske = Breite - 1;
+        this.SketchAltern = 10L * Breite;
+    }
+
+    /**
+     * Sucht eine Datei im Cache, ohne das Dateisystem zu fragen. Gezaehlt wird der Zugriff erst mit {@link #Benutzt},
+     * wenn der Eintrag auch ausgeliefert wird.
+     *
+     * @param Schluessel Der normalisierte Pfad der Datei, oder der Schluessel einer Variante
+     * @return Der Eintrag, oder null falls er fehlt oder seine mtime wieder geprueft werden muesste
+     */
+    Eintrag Frisch(String Schluessel) {
+        Eintrag Gefunden = Eintraege.get(Schluessel);
+        return Gefunden == null || System.nanoTime() - Gefunden.GeprueftUm > PRUEF_INTERVALL ? null : Gefunden;
+    }
+
+    /**
+     * Sucht eine Datei im Cache.
+     *
+     * @param Schluessel Der normalisierte Pfad der Datei, oder der Schluessel einer Variante
+     * @return Der gueltige Eintrag oder null, falls die Datei nicht (mehr aktuell) im Cache liegt
+     */
+    Eintrag Hole(String Schluessel) {
+        Zaehle(Schluessel);
+        Eintrag Gefunden = Eintraege.get(Schluessel);
+        if (Gefunden == null) {
+            return null;
+        }
+
+        // Hin und wieder schauen wir nach, ob sich die Datei auf der Platte geaendert hat
+        long Jetzt = System.nanoTime();
+        if (Jetzt - Gefunden.GeprueftUm > PRUEF_INTERVALL) {
+            if (Gefunden.Datei.lastModified() != Gefunden.Aenderungszeit) {
+                Entferne(Gefunden);
+                return null;
+            }
+            Gefunden.GeprueftUm = Jetzt;
+        }
+        Vorziehen(Gefunden);
+        return Gefunden;
+    }
+
+    /**
+     * Zaehlt einen Zugriff auf einen mit {@link #Frisch} gefundenen Eintrag, so als waere er mit {@link #Hole}
+     * geholt worden.
+     */
+    void Benutzt(Eintrag Gefunden) {
+        Zaehle(Gefunden.Schluessel);
+        Vorziehen(Gefunden);
+    }
+
+    /**
+     * Rueckt den Eintrag an den Anfang der LRU Liste, aber nur wenn niemand sonst die Liste gerade bearbeitet.
+     */
+    private void Vorziehen(Eintrag Gefunden) {
+        if (ListenLock.tryLock()) {
+            try {
+                if (Eintraege.get(Gefunden.Schluessel) == Gefunden) {
+                    Aushaengen(Gefunden);
+                    Vorne(Gefunden);
+                }
+            } finally {
+                ListenLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Liest eine Datei ein und nimmt sie in den Cache auf, falls sie klein genug ist und sich die Aufnahme lohnt.
+     *
+     * @param Schluessel Der normalisierte Pfad der Datei
+     * @param Datei      Die Datei selbst
+     * @param Kodierung  Das Content-Encoding, falls die Datei selbst schon komprimiert ist, sonst null
+     * @return Ein Eintrag mit dem Inhalt (auch wenn er nicht aufgenommen wurde), oder null wenn die Datei zu gross
+     * ist oder nicht gelesen werden konnte und gestreamt werden muss
+     */
+    Eintrag Lade(String Schluessel, File Datei, Komprimierung.Verfahren Kodierung) {
+        long Aenderungszeit = Datei.lastModified();
+        ByteBuffer Inhalt;
+        try (FileChannel Kanal = FileChannel.open(Datei.toPath(), StandardOpenOption.READ)) {
+            long Groesse = Kanal.size();
+            if (Groesse > MaxDateiGroesse) {
+                return null;
+            }
+            Inhalt = Direkt ? ByteBuffer.allocateDirect((int) Groesse) : ByteBuffer.allocate((int) Groesse);
+            while (Inhalt.hasRemaining()) {
+                if (Kanal.read(Inhalt) == -1) {
+                    // Die Datei ist waehrend des Lesens geschrumpft, das cachen wir lieber nicht
+                    return null;
+                }
+            }
+        } catch (IOException | SecurityException e) {
+            return null;
+        }
+        Inhalt.flip();
+        return Lege(Schluessel, Datei, Inhalt, Validator.Fuer(Aenderungszeit, Inhalt.limit(), Kodierung));
+    }
+
+    /**
+     * Nimmt einen bereits erzeugten Inhalt auf, etwa die komprimierte Variante einer Datei.
+     *
+     * @param Schluessel   Der Schluessel des Eintrags
+     * @param Datei        Die Datei, deren Aenderung den Eintrag ungueltig macht
+     * @param Inhalt       Der Inhalt, der danach nicht mehr veraendert werden darf
+     * @param DerValidator Der Validator mit der mtime der Datei zum Zeitpunkt, als der Inhalt erzeugt wurde
+     * @return Ein Eintrag mit dem Inhalt, auch wenn er nicht aufgenommen wurde
+     */
+    Eintrag Lege(String Schluessel, File Datei, ByteBuffer Inhalt, Validator DerValidator) {
+        Eintrag Neu = new Eintrag(Schluessel, Datei, Inhalt.asReadOnlyBuffer(), DerValidator);
+        if (Inhalt.limit() > MaxDateiGroesse) {
+            return Neu;
+        }
+        ListenLock.lock();
+        try {
+            // Wir verdraengen vom Ende der Liste, aber nur solange der Neue haeufiger gefragt ist als das Opfer
+            int Frequenz = Frequenz(Schluessel);
+            while (GesamtGroesse.get() + Inhalt.limit() > MaxGesamtGroesse && Ende != null) {
+                if (Frequenz < Frequenz(Ende.Schluessel)) {
+                    return Neu;
+                }
+                EntferneUnterLock(Ende);
+            }
+
+            Eintrag Alt = Eintraege.put(Schluessel, Neu);
+            if (Alt != null) {
+                Aushaengen(Alt);
+                GesamtGroesse.addAndGet(-Alt.Inhalt.limit());
+            }
+            Vorne(Neu);
+            GesamtGroesse.addAndGet(Inhalt.limit());
+        } finally {
+            ListenLock.unlock();
+        }
+        return Neu;
+    }
+
+    /**
+     * Wirft einen Eintrag aus dem Cache.
+     */
+    void Entferne(Eintrag Alt) {
+        ListenLock.lock();
+        try {
+            EntferneUnterLock(Alt);
+        } finally {
+            ListenLock.unlock();
+        }
+    }
+
+    private void EntferneUnterLock(Eintrag Alt) {
+        if (Eintraege.remove(Alt.Schluessel, Alt)) {
+            Aushaengen(Alt);
+            GesamtGroesse.addAndGet(-Alt.Inhalt.limit());
+        }
+    }
+
+    private void Aushaengen(Eintrag E) {
+        if (E.Vorher != null) {
+            E.Vorher.Nachher = E.Nachher;
+        } else if (Kopf == E) {
+            Kopf = E.Nachher;
+        }
+        if (E.Nachher != null) {
+            E.Nachher.Vorher = E.Vorher;
+        } else if (Ende == E) {
+            Ende = E.Vorher;
+        }
+        E.Vorher = null;
+        E.Nachher = null;
+    }
+
+    private void Vorne(Eintrag E) {
+        E.Nachher = Kopf;
+        if (Kopf != null) {
+            Kopf.Vorher = E;
+        }
+        Kopf = E;
+        if (Ende == null) {
+            Ende = E;
+        }
+    }
+
+    /**
+     * Zaehlt einen Zugriff im Sketch. Nach genuegend Zugriffen werden alle Zaehler halbiert, damit alte Beliebtheit
+     * verblasst.
+     */
+    private void Zaehle(String Schluessel) {
+        int Hash = Verteile(Schluessel.hashCode());
+        for (int Zeile = 0; Zeile < 4; Zeile++) {
+            int Index = Zeile * (SketchMaske + 1) + (Verteile(Hash + Zeile * 0x9E3779B9) & SketchMaske);
+            int Wert;
+            do {
+                Wert = Sketch.get(Index);
+            } while (Wert < 15 && !Sketch.compareAndSet(Index, Wert, Wert + 1));
+        }
+
+        if (SketchZugriffe.incrementAndGet() % SketchAltern == 0) {
+            for (int i = 0; i < Sketch.length(); i++) {
+                Sketch.set(i, Sketch.get(i) >> 1);
+            }
+        }
+    }
+
+    private int Frequenz(String Schluessel) {
+        int Hash = Verteile(Schluessel.hashCode());
+        int Minimum = Integer.MAX_VALUE;
+        for (int Zeile = 0; Zeile < 4; Zeile++) {
+            int Index = Zeile * (SketchMaske + 1) + (Verteile(Hash + Zeile * 0x9E3779B9) & SketchMaske);
+            Minimum = Math.min(Minimum, Sketch.get(Index));
+        }
+        return Minimum;
+    }
+
+    private static int Verteile(int Hash) {
+        Hash ^= Hash >>> 16;
+        Hash *= 0x85EBCA6B;
+        Hash ^= Hash >>> 13;
+        return Hash;
+    }
+}
@@ -0,0 +1,101 @@
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Haelt die Fehlerseiten fertig kodiert vor. Der statische Teil jeder Seite wird nur einmal pro Status erzeugt. Die
+ * Angaben zum Client (IP und User Agent) sind ein optionaler Einschub in der Mitte; sind sie abgeschaltet, wird die
+ * komplette Seite ohne jede Allokation aus dem Cache geliefert.
+ */
+final class FehlerSeiten {
+    /**
+     * Ob Client IP und User Agent in die Fehlerseiten eingebettet werden.
+     */
+    static volatile boolean MitClientDetails = true;
+
+    /**
+     * Pro Status der Anfang der Seite bis einschliesslich des Titels im Body.
+     */
+    private final static ConcurrentHashMap<String, byte[]> ANFAENGE = new ConcurrentHashMap<>();
+
+    /**
+     * Pro Status die komplette Seite ohne Clientangaben.
+     */
+    private final static ConcurrentHashMap<String, byte[]> KOMPLETT = new ConcurrentHashMap<>();
+
+    private final static byte[] ENDE = "</BODY></HTML>".getBytes(StandardCharsets.ISO_8859_1);
+    private final static byte[] IP_VORSPANN = "<br>Aufrufende Client IP: ".getBytes(StandardCharsets.ISO_8859_1);
+    private final static byte[] AGENT_VORSPANN = "<br>User Agent: ".getBytes(StandardCharsets.ISO_8859_1);
+
+    private FehlerSeiten() {
+    }
+
+    /**
+     * Liefert die HTML Fehlerseite zu einem Status.
+     *
+     * @param FehlerTitel Der Titel der Fehlerseite, etwa "404 Not Found"
+     * @param ClientIP    Adresse des Clients, oder null
+     * @param UserAgent   User Agent des Clients, oder null
+     * @return Die kodierte Seite. Das Array darf nicht veraendert werden, da es eventuell geteilt ist.
+     */
+    static byte[] Seite(String FehlerTitel, InetAddress ClientIP, String UserAgent) {
+        if (!MitClientDetails) {
+            byte[] Fertig = KOMPLETT.get(FehlerTitel);
+            if (Fertig == null) {
+                Fertig = KOMPLETT.computeIfAbsent(FehlerTitel, Titel -> Verbinde(Anfang(Titel), ENDE));
+            }
+            return Fertig;
+        }
+
+        byte[] Ip = Kodiere(ClientIP == null ? "Unbekannt" : ClientIP.toString());
+        byte[] Agent = Kodiere(UserAgent == null ? "Unbekannt" : UserAgent);
+        return Verbinde(Anfang(FehlerTitel), IP_VORSPANN, Ip, AGENT_VORSPANN, Agent, ENDE);
+    }
+
+    private static byte[] Anfang(String FehlerTitel) {
+        byte[] Anfang = ANFAENGE.get(FehlerTitel);
+        if (Anfang == null) {
+            Anfang = ANFAENGE.computeIfAbsent(FehlerTitel, Titel -> ("<HTML><HEAD><TITLE>" + Titel
+                    + "</TITLE></HEAD><BODY>" + Titel).getBytes(StandardCharsets.ISO_8859_1));
+        }
+        return Anfang;
+    }
+
+    /**
+     * Kodiert vom Client stammenden Text und entschaerft dabei HTML Sonderzeichen, damit ein praeparierter User Agent
+     * kein Skript in unsere Fehlerseite schmuggeln kann.
+     */
+    private static byte[] Kodiere(String Text) {
+        StringBuilder Sicher = null;
+        for (int i = 0; i < Text.length(); i++) {
+            char Zeichen = Text.charAt(i);
+            String Ersatz = Zeichen == '<' ? "&lt;" : Zeichen == '>' ? "&gt;" : Zeichen == '&' ? "&amp;"
+                    : Zeichen == '"' ? "&quot;" : null;
+            if (Ersatz != null && Sicher == null) {
+                Sicher = new StringBuilder(Text.length() + 16).append(Text, 0, i);
+            }
+            if (Sicher != null) {
+                if (Ersatz != null) {
+                    Sicher.append(Ersatz);
+                } else {
+                    Sicher.append(Zeichen);
+                }
+            }
+        }
+        return (Sicher == null ? Text : Sicher.toString()).getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] Verbinde(byte[]... Teile) {
+        int Laenge = 0;
+        for (byte[] Teil : Teile) {
+            Laenge += Teil.length;
+        }
+        byte[] Ergebnis = new byte[Laenge];
+        int Position = 0;
+        for (byte[] Teil : Teile) {
+            System.arraycopy(Teil, 0, Ergebnis, Position, Teil.length);
+            Position += Teil.length;
+        }
+        return Ergebnis;
+    }
+}
@@ -0,0 +1,138 @@
+import java.net.SocketTimeoutException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fristen fuer Kopf, Rumpf und Antwort einer Verbindung, damit langsame oder boeswillige Clients (Slowloris) keine
+ * Threads und Verbindungen auf Dauer belegen. Jede Frist hat eine Grundzeit, mit einer Mindestrate waechst sie wie bei
+ * mod_reqtimeout fuer jedes uebertragene Byte. Ein grosser Upload oder Download bekommt also mehr Zeit, ein Client der
+ * ein Byte pro Sekunde schickt aber nicht.
+ * <p>
+ * Beim Lesen setzt die blockierende Engine die Restzeit als SO_TIMEOUT. Fuer das Schreiben gibt es kein Timeout am
+ * Socket, dafuer schaut ein Waechterthread regelmaessig nach und schliesst den Socket, wenn die Frist abgelaufen ist.
+ * Die NIO Engine prueft ihre Fristen selbst in der Ereignisschleife.
+ */
+final class Fristen {
+    /**
+     * So lange darf der Kopf einer Anfrage ab ihrem ersten Byte brauchen, in Millisekunden.
+     */
+    static volatile int KopfZeit = 20_000;
+
+    /**
+     * Grundzeit fuer den Rumpf einer Anfrage und laengste Pause zwischen zwei Stuecken, in Millisekunden.
+     */
+    static volatile int RumpfZeit = 20_000;
+
+    /**
+     * Grundzeit fuer das Senden einer Antwort, in Millisekunden.
+     */
+    static volatile int SendeZeit = 60_000;
+
+    /**
+     * Um so viele Bytes pro Sekunde verlaengern sich die Fristen fuer Rumpf und Antwort, 0 schaltet das ab.
+     */
+    static volatile long MinRate = 500;
+
+    /**
+     * Die Verbindungen der blockierenden Engine, die gerade bedient werden.
+     */
+    private final static Set<HttpRequest> Bewacht = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Schaut alle halbe Sekunde nach abgelaufenen Fristen. Gestartet wird er mit der ersten bewachten Verbindung.
+     */
+    private final static Taktgeber Waechter = new Taktgeber("Fristenwaechter", 500, Fristen::Pruefe);
+
+    private Fristen() {
+    }
+
+    /**
+     * Das Ende einer Frist nach System.nanoTime().
+     *
+     * @param Beginn Der Beginn der Frist nach System.nanoTime()
+     * @param Zeit   Die Grundzeit in Millisekunden
+     * @param Bytes  Die Bytes, die bisher uebertragen wurden oder noch zu uebertragen sind
+     */
+    static long Ende(long Beginn, int Zeit, long Bytes) {
+        long Ende = Beginn + Zeit * 1_000_000L;
+        long Rate = MinRate;
+        if (Rate <= 0 || Bytes <= 0) {
+            return Ende;
+        }
+        // In zwei Schritten, damit auch riesige Dateien nicht ueberlaufen
+        return Ende + Bytes / Rate * 1_000_000_000L + Bytes % Rate * 1_000_000_000L / Rate;
+    }
+
+    /**
+     * Die verbleibende Zeit bis zum Ende einer Frist als SO_TIMEOUT.
+     *
+     * @throws SocketTimeoutException Wenn die Frist schon abgelaufen ist
+     */
+    static int Rest(long Ende) throws SocketTimeoutException {
+        long Nanos = Ende - System.nanoTime();
+        if (Nanos <= 0) {
+            throw new SocketTimeoutException("Frist abgelaufen");
+        }
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, Nanos / 1_000_000L));
+    }
+
+    /**
+     * Das SO_TIMEOUT fuer das naechste Stueck eines Rumpfes: die Restzeit, aber nie laenger als eine Pause darf.
+     *
+     * @param Beginn Beginn des Rumpfes nach System.nanoTime()
+     * @param Bytes  Bisher gelesene Bytes des Rumpfes
+     */
+    static int RumpfRest(long Beginn, long Bytes) throws SocketTimeoutException {
+        int Pause = RumpfZeit;
+        return Math.min(Pause, Rest(Ende(Beginn, Pause, Bytes)));
+    }
+
+    /**
+     * Meldet eine Verbindung der blockierenden Engine beim Waechter an.
+     */
+    static void Bewache(HttpRequest Verbindung) {
+        Waechter.Starte();
+        Bewacht.add(Verbindung);
+    }
+
+    /**
+     * Meldet eine Verbindung wieder ab.
+     */
+    static void Entlasse(HttpRequest Verbindung) {
+        Bewacht.remove(Verbindung);
+    }
+
+    /**
+     * Schliesst alle Verbindungen, die gerade auf ihre naechste Anfrage warten. Wird beim Herunterfahren benutzt.
+     */
+    static void SchliesseLeerlaufende() {
+        for (HttpRequest Verbindung : Bewacht) {
+            if (Verbindung.Leerlauf) {
+                Verbindung.Unterbreche();
+            }
+        }
+    }
+
+    /**
+     * Schliesst alle Verbindungen, egal was sie gerade tun.
+     */
+    static void SchliesseAlle() {
+        for (HttpRequest Verbindung : Bewacht) {
+            Verbindung.Unterbreche();
+        }
+    }
+
+    /**
+     * Schliesst die Sockets aller Verbindungen, deren Antwort nicht rechtzeitig beim Client angekommen ist. Der
+     * blockierte Schreiber bekommt dann eine Exception und raeumt selbst auf.
+     */
+    private static void Pruefe(long Jetzt) {
+        for (HttpRequest Verbindung : Bewacht) {
+            long Frist = Verbindung.SendeFrist;
+            if (Frist != 0 && Jetzt - Frist > 0) {
+                Metriken.Zeitueberschreitungen.increment();
+                Verbindung.Unterbreche();
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Faehrt den Server geordnet herunter: es werden keine neuen Verbindungen mehr angenommen, wartende Keep-Alive
+ * Verbindungen werden geschlossen, laufende Anfragen duerfen bis zu einer Frist fertig werden und bekommen dabei
+ * "Connection: close". Was danach noch offen ist, wird hart geschlossen.
+ * <p>
+ * Ausgeloest wird das durch ein Signal (SIGTERM, SIGINT) ueber einen Shutdown Hook, oder, falls eingeschaltet, durch
+ * ein POST auf {@link #PFAD} vom Loopback Interface.
+ */
+final class Herunterfahren {
+    /**
+     * Der Pfad, unter dem das Herunterfahren ausgeloest werden kann.
+     */
+    final static String PFAD = "/_shutdown";
+
+    /**
+     * Ob {@link #PFAD} beantwortet wird. Standardmaessig aus.
+     */
+    static volatile boolean Endpunkt = false;
+
+    /**
+     * So lange duerfen laufende Anfragen noch fertig werden, in Millisekunden.
+     */
+    static volatile int Frist = 10_000;
+
+    /**
+     * Wahr, sobald das Herunterfahren begonnen hat. Ab dann bleibt keine Verbindung mehr offen.
+     */
+    static volatile boolean Aktiv = false;
+
+    /**
+     * Wahr, sobald die Frist abgelaufen ist und alle Verbindungen hart geschlossen werden.
+     */
+    static volatile boolean Vorbei = false;
+
+    private final static List<Closeable> Lauscher = new CopyOnWriteArrayList<>();
+    private final static List<Runnable> Wecker = new CopyOnWriteArrayList<>();
+    private final static AtomicBoolean Begonnen = new AtomicBoolean();
+    private static volatile long Ende;
+
+    private Herunterfahren() {
+    }
+
+    /**
+     * Installiert den Shutdown Hook, der bei einem Signal erst die laufenden Anfragen abwartet und danach die
+     * Protokolle schreibt.
+     */
+    static void Installiere() {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            Abwarten();
+            Protokoll.BeendeAlle();
+        }, "Herunterfahren"));
+    }
+
+    /**
+     * Meldet einen Serversocket an, der beim Herunterfahren geschlossen wird. Ein darin blockiertes accept kehrt
+     * dann mit einer Exception zurueck.
+     */
+    static void Lausche(Closeable ServerSocket) {
+        Lauscher.add(ServerSocket);
+        if (Aktiv) {
+            Schliesse(ServerSocket);
+        }
+    }
+
+    /**
+     * Meldet etwas an, das beim Beginn und beim Ablauf der Frist geweckt werden muss, etwa ein Selector.
+     */
+    static void Wecke(Runnable Wecker) {
+        Herunterfahren.Wecker.add(Wecker);
+    }
+
+    /**
+     * Beginnt das Herunterfahren, ohne darauf zu warten. Weitere Aufrufe tun nichts.
+     *
+     * @param Grund Fuer das Protokoll
+     */
+    static void Beginne(String Grund) {
+        if (!Begonnen.compareAndSet(false, true)) {
+            return;
+        }
+        Ende = System.nanoTime() + Frist * 1_000_000L;
+        Aktiv = true;
+        if (!Lauscher.isEmpty()) {
+            Protokoll.Fehler("Fahre herunter (" + Grund + "). Neue Verbindungen werden nicht mehr angenommen...");
+        }
+        for (Closeable ServerSocket : Lauscher) {
+            Schliesse(ServerSocket);
+        }
+        Fristen.SchliesseLeerlaufende();
+        for (Runnable EinWecker : Wecker) {
+            EinWecker.run();
+        }
+    }
+
+    /**
+     * Beginnt das Herunterfahren falls noch nicht geschehen, und wartet, bis alle Verbindungen beendet sind oder die
+     * Frist abgelaufen ist. Darf aus mehreren Threads gleichzeitig aufgerufen werden, auch aus Shutdown Hooks.
+     */
+    static void Abwarten() {
+        Beginne("Signal");
+        while (Offen() > 0 && System.nanoTime() - Ende < 0) {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        Erzwinge();
+    }
+
+    /**
+     * Schliesst nach Ablauf der Frist alle noch offenen Verbindungen. Synchronisiert, damit kein Aufrufer von
+     * {@link #Abwarten()} zurueckkehrt, bevor das erledigt ist.
+     */
+    private static synchronized void Erzwinge() {
+        if (Vorbei || Offen() == 0) {
+            return;
+        }
+        Vorbei = true;
+        Protokoll.Fehler("Frist zum Herunterfahren abgelaufen. Schliesse " + Offen() + " offene Verbindungen...");
+        Fristen.SchliesseAlle();
+        for (Runnable EinWecker : Wecker) {
+            EinWecker.run();
+        }
+    }
+
+    private static long Offen() {
+        return Metriken.OffeneVerbindungen.sum() + Metriken.WartendeVerbindungen.sum();
+    }
+
+    private static void Schliesse(Closeable ServerSocket) {
+        try {
+            ServerSocket.close();
+        } catch (IOException e) {
+            Protokoll.Fehler("Fehler beim schliessen des Serversockets.");
+        }
+    }
+}
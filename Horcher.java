@@ -0,0 +1,117 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Die Serversockets, auf denen der Server horcht, und die Optionen fuer die angenommenen Verbindungen. Mit mehreren
+ * Annehmern bekommt jeder seinen eigenen Serversocket auf demselben Port (SO_REUSEPORT). Der Kernel verteilt die neuen
+ * Verbindungen dann selbst auf die Sockets, die Annehmer teilen sich also keine Warteschlange und kein Lock.
+ */
+final class Horcher {
+    /**
+     * Auf diesem Port wird unser Webserver laufen und horchen.
+     */
+    static volatile int Port = 6789;
+
+    /**
+     * Die Adresse, an die gebunden wird, oder null fuer alle Interfaces.
+     */
+    static volatile InetAddress Adresse = null;
+
+    /**
+     * Laenge der Warteschlange des Kernels fuer noch nicht angenommene Verbindungen, 0 fuer den Standard der JVM.
+     */
+    static volatile int Backlog = 1024;
+
+    /**
+     * Ob Nagle abgeschaltet wird. Wir schreiben Antworten ohnehin am Stueck, kleine Antworten sollen nicht auf das ACK
+     * der vorherigen warten.
+     */
+    static volatile boolean KeinVerzoegern = true;
+
+    /**
+     * Groesse der Sende- und Empfangspuffer des Kernels pro Verbindung in Bytes, 0 fuer den Standard des Systems.
+     */
+    static volatile int SendePuffer = 0;
+    static volatile int EmpfangsPuffer = 0;
+
+    /**
+     * Anzahl der Serversockets mit je einem annehmenden Thread.
+     */
+    static volatile int Annehmer = 1;
+
+    private Horcher() {
+    }
+
+    /**
+     * Oeffnet die Serversockets. Kann das System kein SO_REUSEPORT, gibt es nur einen.
+     *
+     * @return Die gebundenen, blockierenden Serversockets
+     */
+    static ServerSocketChannel[] Oeffne() throws IOException {
+        ServerSocketChannel[] Kanaele = Oeffne(Port);
+        Port = Kanaele[0].socket().getLocalPort();
+        return Kanaele;
+    }
+
+    /**
+     * Oeffnet die Serversockets fuer HTTPS, mit denselben Einstellungen wie die normalen.
+     */
+    static ServerSocketChannel[] OeffneTls() throws IOException {
+        ServerSocketChannel[] Kanaele = Oeffne(Tls.Port);
+        Tls.Port = Kanaele[0].socket().getLocalPort();
+        return Kanaele;
+    }
+
+    private static ServerSocketChannel[] Oeffne(int DerPort) throws IOException {
+        int Anzahl = Math.max(1, Annehmer);
+        ServerSocketChannel Erster = ServerSocketChannel.open();
+        if (Anzahl > 1 && !Erster.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+            Protokoll.Fehler("SO_REUSEPORT wird von diesem System nicht unterstuetzt. Nutze einen einzigen Annehmer...");
+            Anzahl = 1;
+        }
+
+        ServerSocketChannel[] Kanaele = new ServerSocketChannel[Anzahl];
+        Kanaele[0] = Erster;
+        try {
+            for (int i = 0; i < Anzahl; i++) {
+                if (Kanaele[i] == null) {
+                    Kanaele[i] = ServerSocketChannel.open();
+                }
+                if (Anzahl > 1) {
+                    Kanaele[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                // Der Empfangspuffer muss vor dem bind stehen, sonst ist die TCP Fensterskalierung schon ausgehandelt
+                if (EmpfangsPuffer > 0) {
+                    Kanaele[i].setOption(StandardSocketOptions.SO_RCVBUF, EmpfangsPuffer);
+                }
+                Kanaele[i].bind(new InetSocketAddress(Adresse, DerPort), Backlog);
+                // Bei Port 0 waehlt der erste Socket, die anderen muessen auf denselben
+                DerPort = ((InetSocketAddress) Kanaele[i].getLocalAddress()).getPort();
+            }
+        } catch (IOException | RuntimeException e) {
+            for (ServerSocketChannel Kanal : Kanaele) {
+                if (Kanal != null) {
+                    Kanal.close();
+                }
+            }
+            throw e;
+        }
+        return Kanaele;
+    }
+
+    /**
+     * Setzt die Optionen fuer eine frisch angenommene Verbindung.
+     */
+    static void Einstellen(SocketChannel Kanal) throws IOException {
+        if (KeinVerzoegern) {
+            Kanal.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+        if (SendePuffer > 0) {
+            Kanal.setOption(StandardSocketOptions.SO_SNDBUF, SendePuffer);
+        }
+    }
+}
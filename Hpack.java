@@ -0,0 +1,483 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * HPACK (RFC 7541), die Kompression der Header in HTTP/2. Beide Seiten fuehren eine dynamische Tabelle der zuletzt
+ * gesendeten Header, wiederkehrende Header werden dann nur noch als Index uebertragen.
+ * <p>
+ * Der {@link Dekodierer} versteht alles, was ein Client senden darf, auch Huffman kodierte Strings. Der
+ * {@link Kodierer} sendet Strings immer roh, nimmt aber wiederkehrende Header wie Content-type in seine Tabelle auf.
+ * Header, die sich mit jeder Antwort aendern (Content-Length, ETag, ...), wuerden die Tabelle nur verdraengen und
+ * werden daher nicht aufgenommen.
+ */
+final class Hpack {
+    /**
+     * Die Groesse der dynamischen Tabelle, solange nichts anderes vereinbart ist.
+     */
+    final static int TABELLEN_GROESSE = 4096;
+
+    /**
+     * Die statische Tabelle aus Anhang A, ab Index 1.
+     */
+    private final static String[][] STATISCH = {
+            {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"},
+            {":path", "/index.html"}, {":scheme", "http"}, {":scheme", "https"}, {":status", "200"},
+            {":status", "204"}, {":status", "206"}, {":status", "304"}, {":status", "400"},
+            {":status", "404"}, {":status", "500"}, {"accept-charset", ""}, {"accept-encoding", "gzip, deflate"},
+            {"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""}, {"access-control-allow-origin", ""},
+            {"age", ""}, {"allow", ""}, {"authorization", ""}, {"cache-control", ""},
+            {"content-disposition", ""}, {"content-encoding", ""}, {"content-language", ""}, {"content-length", ""},
+            {"content-location", ""}, {"content-range", ""}, {"content-type", ""}, {"cookie", ""},
+            {"date", ""}, {"etag", ""}, {"expect", ""}, {"expires", ""},
+            {"from", ""}, {"host", ""}, {"if-match", ""}, {"if-modified-since", ""},
+            {"if-none-match", ""}, {"if-range", ""}, {"if-unmodified-since", ""}, {"last-modified", ""},
+            {"link", ""}, {"location", ""}, {"max-forwards", ""}, {"proxy-authenticate", ""},
+            {"proxy-authorization", ""}, {"range", ""}, {"referer", ""}, {"refresh", ""},
+            {"retry-after", ""}, {"server", ""}, {"set-cookie", ""}, {"strict-transport-security", ""},
+            {"transfer-encoding", ""}, {"user-agent", ""}, {"vary", ""}, {"via", ""},
+            {"www-authenticate", ""}};
+
+    /**
+     * Fuer den Kodierer: der erste Index jedes Namens und der Index jedes Paares mit Wert in der statischen Tabelle.
+     */
+    private final static HashMap<String, Integer> STATISCHE_NAMEN = new HashMap<>();
+    private final static HashMap<String, Integer> STATISCHE_PAARE = new HashMap<>();
+
+    /**
+     * Die Laengen der Huffman Codes aus Anhang B fuer die Bytes 0 bis 255 und EOS (256). Der Code ist kanonisch:
+     * Codes gleicher Laenge sind aufsteigende Zahlen in der Reihenfolge der Symbole, sie lassen sich also allein aus
+     * den Laengen wieder herstellen.
+     */
+    private final static int[] HUFFMAN_LAENGEN = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+            28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+            6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+            5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+            13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+            7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+            15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+            6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+            20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+            24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+            22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+            21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+            26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+            19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+            20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+            26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+            30};
+
+    /**
+     * Fuer das kanonische Dekodieren: pro Laenge der erste Code, die Anzahl der Codes und wo ihre Symbole in
+     * {@link #HUFFMAN_SYMBOLE} beginnen.
+     */
+    private final static int MAX_LAENGE = 30;
+    private final static int EOS = 256;
+    private final static int[] HUFFMAN_ERSTER = new int[MAX_LAENGE + 1];
+    private final static int[] HUFFMAN_ANZAHL = new int[MAX_LAENGE + 1];
+    private final static int[] HUFFMAN_VERSATZ = new int[MAX_LAENGE + 1];
+    private final static int[] HUFFMAN_SYMBOLE = new int[HUFFMAN_LAENGEN.length];
+
+    static {
+        for (int i = STATISCH.length - 1; i >= 0; i--) {
+            STATISCHE_NAMEN.put(STATISCH[i][0], i + 1);
+            if (!STATISCH[i][1].isEmpty()) {
+                STATISCHE_PAARE.put(STATISCH[i][0] + '\0' + STATISCH[i][1], i + 1);
+            }
+        }
+
+        int Code = 0;
+        int Symbole = 0;
+        for (int Laenge = 1; Laenge <= MAX_LAENGE; Laenge++) {
+            HUFFMAN_ERSTER[Laenge] = Code;
+            HUFFMAN_VERSATZ[Laenge] = Symbole;
+            for (int Symbol = 0; Symbol < HUFFMAN_LAENGEN.length; Symbol++) {
+                if (HUFFMAN_LAENGEN[Symbol] == Laenge) {
+                    HUFFMAN_SYMBOLE[Symbole++] = Symbol;
+                    HUFFMAN_ANZAHL[Laenge]++;
+                    Code++;
+                }
+            }
+            Code <<= 1;
+        }
+    }
+
+    private Hpack() {
+    }
+
+    /**
+     * Dekodiert die Header einer Verbindung. Jede Verbindung hat ihren eigenen, die Kopfbloecke muessen in der
+     * Reihenfolge dekodiert werden, in der sie angekommen sind.
+     */
+    static final class Dekodierer {
+        private final Tabelle DieTabelle = new Tabelle(TABELLEN_GROESSE);
+
+        private byte[] Daten;
+        private int Position;
+        private int Ende;
+
+        /**
+         * Dekodiert einen vollstaendigen Kopfblock. Auch zu grosse Bloecke werden bis zum Ende dekodiert, damit die
+         * Tabelle synchron bleibt, ihre restlichen Header bekommt der Empfaenger aber nicht mehr.
+         *
+         * @param MaxListe   Hoechstens so viele Bytes duerfen die Header nach RFC 7540 zusammen haben
+         * @param Empfaenger Bekommt jeden Header als Name und Wert
+         * @return Falsch, wenn die Header zusammen groesser als MaxListe sind
+         * @throws IOException Wenn der Block nicht dekodiert werden kann. Die Tabelle ist dann nicht mehr synchron,
+         *                     die Verbindung muss geschlossen werden.
+         */
+        boolean Dekodiere(byte[] Block, int Anfang, int Laenge, int MaxListe, BiConsumer<String, String> Empfaenger)
+                throws IOException {
+            Daten = Block;
+            Position = Anfang;
+            Ende = Anfang + Laenge;
+            long Liste = 0;
+            boolean FelderBegonnen = false;
+            while (Position < Ende) {
+                int Erstes = Daten[Position] & 0xFF;
+                String Name;
+                String Wert;
+                if ((Erstes & 0x80) != 0) {
+                    // Indizierter Header
+                    int Index = Zahl(7);
+                    Name = Name(Index);
+                    Wert = Wert(Index);
+                } else if ((Erstes & 0xC0) == 0x40) {
+                    // Literal, das in die Tabelle aufgenommen wird
+                    int Index = Zahl(6);
+                    Name = Index == 0 ? Text() : Name(Index);
+                    Wert = Text();
+                    DieTabelle.Fuege(Name, Wert);
+                } else if ((Erstes & 0xE0) == 0x20) {
+                    // Neue Tabellengroesse, nur vor dem ersten Header erlaubt
+                    int Groesse = Zahl(5);
+                    if (FelderBegonnen || Groesse > TABELLEN_GROESSE) {
+                        throw new IOException("HPACK: ungueltige Aenderung der Tabellengroesse");
+                    }
+                    DieTabelle.SetzeMax(Groesse);
+                    continue;
+                } else {
+                    // Literal ohne Aufnahme in die Tabelle (0000) oder das nie aufgenommen werden darf (0001)
+                    int Index = Zahl(4);
+                    Name = Index == 0 ? Text() : Name(Index);
+                    Wert = Text();
+                }
+                FelderBegonnen = true;
+                Liste += Name.length() + Wert.length() + 32;
+                if (Liste <= MaxListe) {
+                    Empfaenger.accept(Name, Wert);
+                }
+            }
+            Daten = null;
+            return Liste <= MaxListe;
+        }
+
+        private String Name(int Index) throws IOException {
+            if (Index <= 0) {
+                throw new IOException("HPACK: Index 0");
+            } else if (Index <= STATISCH.length) {
+                return STATISCH[Index - 1][0];
+            } else if (Index - STATISCH.length <= DieTabelle.Anzahl) {
+                return DieTabelle.Name(Index - STATISCH.length - 1);
+            }
+            throw new IOException("HPACK: Index " + Index + " ausserhalb der Tabelle");
+        }
+
+        private String Wert(int Index) {
+            return Index <= STATISCH.length ? STATISCH[Index - 1][1] : DieTabelle.Wert(Index - STATISCH.length - 1);
+        }
+
+        /**
+         * Liest eine Zahl mit einem Praefix der angegebenen Bitbreite.
+         */
+        private int Zahl(int Praefix) throws IOException {
+            if (Position >= Ende) {
+                throw new IOException("HPACK: Zahl fehlt");
+            }
+            int Maske = (1 << Praefix) - 1;
+            int Wert = Daten[Position++] & Maske;
+            if (Wert < Maske) {
+                return Wert;
+            }
+            int Verschiebung = 0;
+            int Byte;
+            do {
+                if (Position >= Ende || Verschiebung > 21) {
+                    throw new IOException("HPACK: Zahl abgeschnitten oder zu gross");
+                }
+                Byte = Daten[Position++] & 0xFF;
+                Wert += (Byte & 0x7F) << Verschiebung;
+                Verschiebung += 7;
+            } while ((Byte & 0x80) != 0);
+            return Wert;
+        }
+
+        private String Text() throws IOException {
+            if (Position >= Ende) {
+                throw new IOException("HPACK: String fehlt");
+            }
+            boolean Huffman = (Daten[Position] & 0x80) != 0;
+            int Laenge = Zahl(7);
+            if (Laenge > Ende - Position) {
+                throw new IOException("HPACK: String abgeschnitten");
+            }
+            String Text = Huffman ? Huffman(Daten, Position, Laenge)
+                    : new String(Daten, Position, Laenge, StandardCharsets.ISO_8859_1);
+            Position += Laenge;
+            return Text;
+        }
+    }
+
+    /**
+     * Kodiert die Header der Antworten einer Verbindung in einen wiederverwendeten Puffer.
+     */
+    static final class Kodierer {
+        private final Tabelle DieTabelle = new Tabelle(TABELLEN_GROESSE);
+
+        /**
+         * Fuer die Suche in der dynamischen Tabelle: zu jedem Paar die laufende Nummer, unter der es aufgenommen wurde,
+         * und die Paare in der Reihenfolge der Aufnahme.
+         */
+        private final HashMap<String, Long> Nummern = new HashMap<>();
+        private final ArrayDeque<String> Reihenfolge = new ArrayDeque<>();
+        private long Aufgenommen;
+
+        /**
+         * Eine vom Client verkleinerte Tabellengroesse, die wir zu Beginn des naechsten Blocks bestaetigen muessen,
+         * sonst -1.
+         */
+        private int NeueGroesse = -1;
+
+        /**
+         * Der zuletzt kodierte Block.
+         */
+        byte[] Block = new byte[256];
+        int Laenge;
+
+        /**
+         * Uebernimmt SETTINGS_HEADER_TABLE_SIZE des Clients. Groesser als der Standard wird unsere Tabelle nicht.
+         */
+        void SetzeMax(int Groesse) {
+            NeueGroesse = Math.min(Groesse, TABELLEN_GROESSE);
+        }
+
+        /**
+         * Beginnt einen neuen Block.
+         */
+        void Beginne() {
+            Laenge = 0;
+            if (NeueGroesse >= 0) {
+                DieTabelle.SetzeMax(NeueGroesse);
+                Vergiss();
+                Zahl(0x20, 5, NeueGroesse);
+                NeueGroesse = -1;
+            }
+        }
+
+        /**
+         * Haengt einen Header an. Der Name muss klein geschrieben sein.
+         */
+        void Feld(String Name, String Wert) {
+            String Paar = Name + '\0' + Wert;
+            Integer Statisch = STATISCHE_PAARE.get(Paar);
+            if (Statisch != null) {
+                Zahl(0x80, 7, Statisch);
+                return;
+            }
+            Long Nummer = Nummern.get(Paar);
+            if (Nummer != null && Nummer > Aufgenommen - DieTabelle.Anzahl) {
+                Zahl(0x80, 7, (int) (STATISCH.length + Aufgenommen - Nummer + 1));
+                return;
+            }
+
+            Integer NamensIndex = STATISCHE_NAMEN.get(Name);
+            boolean Aufnehmen = Aufnehmen(Name);
+            if (Aufnehmen) {
+                Zahl(0x40, 6, NamensIndex == null ? 0 : NamensIndex);
+            } else {
+                Zahl(0x00, 4, NamensIndex == null ? 0 : NamensIndex);
+            }
+            if (NamensIndex == null) {
+                Text(Name);
+            }
+            Text(Wert);
+            if (Aufnehmen) {
+                DieTabelle.Fuege(Name, Wert);
+                Nummern.put(Paar, ++Aufgenommen);
+                Reihenfolge.addLast(Paar);
+                Vergiss();
+            }
+        }
+
+        /**
+         * Vergisst die Nummern der Paare, die aus der Tabelle verdraengt wurden.
+         */
+        private void Vergiss() {
+            while (Reihenfolge.size() > DieTabelle.Anzahl) {
+                String Alt = Reihenfolge.removeFirst();
+                Long Nummer = Nummern.get(Alt);
+                if (Nummer != null && Nummer <= Aufgenommen - DieTabelle.Anzahl) {
+                    Nummern.remove(Alt);
+                }
+            }
+        }
+
+        /**
+         * Header, die sich mit jeder Antwort aendern, nehmen wir nicht in die Tabelle auf.
+         */
+        private static boolean Aufnehmen(String Name) {
+            switch (Name) {
+                case ":status":
+                case "content-length":
+                case "content-range":
+                case "etag":
+                case "last-modified":
+                case "date":
+                case "expires":
+                case "location":
+                case "retry-after":
+                case "set-cookie":
+                    return false;
+                default:
+                    return true;
+            }
+        }
+
+        private void Zahl(int Kennung, int Praefix, int Wert) {
+            Platz(6);
+            int Maske = (1 << Praefix) - 1;
+            if (Wert < Maske) {
+                Block[Laenge++] = (byte) (Kennung | Wert);
+                return;
+            }
+            Block[Laenge++] = (byte) (Kennung | Maske);
+            Wert -= Maske;
+            while (Wert >= 0x80) {
+                Block[Laenge++] = (byte) (Wert & 0x7F | 0x80);
+                Wert >>>= 7;
+            }
+            Block[Laenge++] = (byte) Wert;
+        }
+
+        private void Text(String Text) {
+            Zahl(0x00, 7, Text.length());
+            Platz(Text.length());
+            for (int i = 0; i < Text.length(); i++) {
+                Block[Laenge++] = (byte) Text.charAt(i);
+            }
+        }
+
+        private void Platz(int Zusaetzlich) {
+            if (Laenge + Zusaetzlich > Block.length) {
+                Block = Arrays.copyOf(Block, Math.max(Block.length * 2, Laenge + Zusaetzlich));
+            }
+        }
+    }
+
+    /**
+     * Dekodiert einen Huffman kodierten String. Bit fuer Bit wird der Code verlaengert, bis er einer der kanonischen
+     * Codes seiner Laenge ist. Am Ende duerfen hoechstens sieben Bits mit Einsen aufgefuellt sein.
+     */
+    static String Huffman(byte[] Daten, int Anfang, int Laenge) throws IOException {
+        StringBuilder Text = new StringBuilder(Laenge * 8 / 5);
+        int Code = 0;
+        int Bits = 0;
+        for (int i = Anfang; i < Anfang + Laenge; i++) {
+            int Byte = Daten[i] & 0xFF;
+            for (int Bit = 7; Bit >= 0; Bit--) {
+                Code = Code << 1 | (Byte >>> Bit & 1);
+                Bits++;
+                int Index = Code - HUFFMAN_ERSTER[Bits];
+                if (Index < HUFFMAN_ANZAHL[Bits]) {
+                    int Symbol = HUFFMAN_SYMBOLE[HUFFMAN_VERSATZ[Bits] + Index];
+                    if (Symbol == EOS) {
+                        throw new IOException("HPACK: EOS im String");
+                    }
+                    Text.append((char) Symbol);
+                    Code = 0;
+                    Bits = 0;
+                } else if (Bits == MAX_LAENGE) {
+                    throw new IOException("HPACK: ungueltiger Huffman Code");
+                }
+            }
+        }
+        if (Bits > 7 || Code != (1 << Bits) - 1) {
+            throw new IOException("HPACK: ungueltiges Ende eines Huffman Strings");
+        }
+        return Text.toString();
+    }
+
+    /**
+     * Die dynamische Tabelle als Ring, der neueste Eintrag hat Index 0. Die Groesse zaehlt nach RFC 7541 pro Eintrag
+     * Name und Wert plus 32 Bytes.
+     */
+    private static final class Tabelle {
+        private String[] Namen = new String[16];
+        private String[] Werte = new String[16];
+        private int Neuester;
+        int Anzahl;
+        private int Groesse;
+        private int MaxGroesse;
+
+        Tabelle(int MaxGroesse) {
+            this.MaxGroesse = MaxGroesse;
+        }
+
+        String Name(int Index) {
+            return Namen[(Neuester + Index) % Namen.length];
+        }
+
+        String Wert(int Index) {
+            return Werte[(Neuester + Index) % Werte.length];
+        }
+
+        void Fuege(String Name, String Wert) {
+            int Eintrag = Name.length() + Wert.length() + 32;
+            if (Eintrag > MaxGroesse) {
+                // Ein zu grosser Eintrag leert die Tabelle und wird selbst nicht aufgenommen
+                Raeume(0);
+                return;
+            }
+            Raeume(MaxGroesse - Eintrag);
+            if (Anzahl == Namen.length) {
+                Wachse();
+            }
+            Neuester = (Neuester - 1 + Namen.length) % Namen.length;
+            Namen[Neuester] = Name;
+            Werte[Neuester] = Wert;
+            Anzahl++;
+            Groesse += Eintrag;
+        }
+
+        void SetzeMax(int Max) {
+            MaxGroesse = Max;
+            Raeume(Max);
+        }
+
+        private void Raeume(int Ziel) {
+            while (Groesse > Ziel && Anzahl > 0) {
+                int Letzter = (Neuester + Anzahl - 1) % Namen.length;
+                Groesse -= Namen[Letzter].length() + Werte[Letzter].length() + 32;
+                Namen[Letzter] = null;
+                Werte[Letzter] = null;
+                Anzahl--;
+            }
+        }
+
+        private void Wachse() {
+            String[] NeueNamen = new String[Namen.length * 2];
+            String[] NeueWerte = new String[Werte.length * 2];
+            for (int i = 0; i < Anzahl; i++) {
+                NeueNamen[i] = Name(i);
+                NeueWerte[i] = Wert(i);
+            }
+            Namen = NeueNamen;
+            Werte = NeueWerte;
+            Neuester = 0;
+        }
+    }
+}
@@ -0,0 +1,1311 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Eine Verbindung, die HTTP/2 (RFC 9113) spricht. Auf ihr laufen beliebig viele Anfragen gleichzeitig als Stroeme, ein
+ * Browser braucht also nur noch eine einzige Verbindung fuer alle Dateien einer Seite.
+ * <p>
+ * Die Klasse selbst liest und schreibt nie. Die Engine reicht ihr die empfangenen Bytes mit {@link #Verarbeite} und
+ * sendet, was {@link #Ausgabe()} liefert. So nutzen die blockierende und die NIO Engine, mit und ohne TLS, dieselbe
+ * Implementierung. Jede Anfrage wird mit {@link HttpRequest#Bearbeite} beantwortet, sobald Kopf und Rumpf da sind,
+ * bei der NIO Engine ueber eine {@link Abgabe} von einem Arbeiter. Die Rumpfe der Antworten werden danach reihum in
+ * Rahmen von hoechstens 16 KB gesendet, so weit es die Flusskontrolle des Clients erlaubt. Eine grosse Datei haelt
+ * damit die kleinen Dateien daneben nicht auf.
+ * <p>
+ * Prioritaeten werden ignoriert, RFC 9113 hat sie ohnehin abgeschafft. Server Push gibt es nicht.
+ */
+final class Http2Verbindung {
+    /**
+     * Ob HTTP/2 angeboten wird.
+     */
+    static volatile boolean Aktiv = true;
+
+    /**
+     * So viele Stroeme darf ein Client gleichzeitig offen haben.
+     */
+    static volatile int MaxStroeme = 100;
+
+    /**
+     * So viele Bytes Rumpf darf ein Client pro Strom senden, bevor wir sie bestaetigt haben.
+     */
+    static volatile int Fenster = 1024 * 1024;
+
+    /**
+     * Ergebnisse von {@link #Vorspann}.
+     */
+    final static int NEIN = 0;
+    final static int JA = 1;
+    final static int VIELLEICHT = 2;
+
+    /**
+     * Damit beginnt ein Client, der HTTP/2 spricht.
+     */
+    private final static byte[] VORSPANN = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    /**
+     * Die Antwort auf eine Anfrage, die per Upgrade auf HTTP/2 umsteigt.
+     */
+    private final static byte[] UMSTIEG = ("HTTP/1.1 101 Switching Protocols" + Antwort.CRLF + "Connection: Upgrade"
+            + Antwort.CRLF + "Upgrade: h2c" + Antwort.CRLF + Antwort.CRLF).getBytes(StandardCharsets.ISO_8859_1);
+
+    /**
+     * Die Typen der Rahmen.
+     */
+    private final static int DATA = 0x0;
+    private final static int HEADERS = 0x1;
+    private final static int PRIORITY = 0x2;
+    private final static int RST_STREAM = 0x3;
+    private final static int SETTINGS = 0x4;
+    private final static int PUSH_PROMISE = 0x5;
+    private final static int PING = 0x6;
+    private final static int GOAWAY = 0x7;
+    private final static int WINDOW_UPDATE = 0x8;
+    private final static int CONTINUATION = 0x9;
+
+    /**
+     * Die Flags der Rahmen.
+     */
+    private final static int ACK = 0x1;
+    private final static int END_STREAM = 0x1;
+    private final static int END_HEADERS = 0x4;
+    private final static int PADDED = 0x8;
+    private final static int MIT_PRIORITAET = 0x20;
+
+    /**
+     * Die Fehlercodes fuer RST_STREAM und GOAWAY.
+     */
+    private final static int NO_ERROR = 0x0;
+    private final static int PROTOCOL_ERROR = 0x1;
+    private final static int INTERNAL_ERROR = 0x2;
+    private final static int FLOW_CONTROL_ERROR = 0x3;
+    private final static int STREAM_CLOSED = 0x5;
+    private final static int FRAME_SIZE_ERROR = 0x6;
+    private final static int REFUSED_STREAM = 0x7;
+    private final static int COMPRESSION_ERROR = 0x9;
+    private final static int ENHANCE_YOUR_CALM = 0xB;
+
+    /**
+     * Die Einstellungen, die wir senden und auswerten.
+     */
+    private final static int HEADER_TABLE_SIZE = 0x1;
+    private final static int ENABLE_PUSH = 0x2;
+    private final static int MAX_CONCURRENT_STREAMS = 0x3;
+    private final static int INITIAL_WINDOW_SIZE = 0x4;
+    private final static int MAX_FRAME_SIZE = 0x5;
+    private final static int MAX_HEADER_LIST_SIZE = 0x6;
+
+    /**
+     * Laenge des Rahmenkopfes und die groesste Nutzlast eines Rahmens in beide Richtungen. Groessere Rahmen bieten wir
+     * nicht an und senden wir nicht.
+     */
+    private final static int KOPF = 9;
+    private final static int RAHMEN = 16 * 1024;
+
+    /**
+     * Das Fenster, mit dem jede Verbindung und jeder Strom beginnt, und das groesste erlaubte.
+     */
+    private final static int START_FENSTER = 65_535;
+    private final static long MAX_FENSTER = Integer.MAX_VALUE;
+
+    /**
+     * Das Empfangsfenster der ganzen Verbindung, also fuer alle Stroeme zusammen.
+     */
+    private final static int VERBINDUNGS_FENSTER = 16 * 1024 * 1024;
+
+    /**
+     * Platz fuer vier volle Rahmen, so geht pro Schreiben einiges auf die Leitung.
+     */
+    private final static int AUSGABE_GROESSE = 4 * (KOPF + RAHMEN);
+
+    private final HttpRequest Bearbeiter;
+    private final InetAddress ClientAdresse;
+    private final Zugangskontrolle.Client Zugang;
+    private final Abgabe Abgeben;
+
+    private final Hpack.Dekodierer Dekodierer = new Hpack.Dekodierer();
+    private final Hpack.Kodierer Kodierer = new Hpack.Kodierer();
+    private final Kopfzeilen Kopfzeilen = new Kopfzeilen();
+
+    /**
+     * Die offenen Stroeme und die, deren Antwort gerade Rumpf senden darf, in der Reihenfolge in der sie drankommen.
+     */
+    private final HashMap<Integer, Strom> Stroeme = new HashMap<>();
+    private final ArrayDeque<Strom> Sendebereit = new ArrayDeque<>();
+
+    /**
+     * Die hoechste Nummer, die ein Client fuer einen Strom benutzt hat. Neue Stroeme muessen hoeher sein.
+     */
+    private int LetzteStromId;
+
+    /**
+     * Rahmen ausser DATA, im Schreibmodus. Sie gehen vor allen weiteren Rumpfen raus.
+     */
+    private ByteBuffer Steuerung = ByteBuffer.allocate(1024);
+
+    /**
+     * Was als naechstes gesendet wird, im Lesemodus.
+     */
+    private final ByteBuffer Puffer = ByteBuffer.allocate(AUSGABE_GROESSE);
+
+    /**
+     * Ein Kopfblock, der mit CONTINUATION Rahmen noch fortgesetzt wird. Solange Fortsetzung nicht 0 ist, darf auf der
+     * Verbindung nichts anderes kommen.
+     */
+    private byte[] Block = new byte[1024];
+    private int BlockLaenge;
+    private int Fortsetzung;
+    private boolean BlockBeendetStrom;
+
+    /**
+     * Unser Sendefenster fuer die Verbindung, das Startfenster der Stroeme laut Client, und wie viel er uns noch senden
+     * darf bzw. schon gesendet hat, ohne dass wir es bestaetigt haben.
+     */
+    private long SendeFenster = START_FENSTER;
+    private int PeerStartFenster = START_FENSTER;
+    private long EmpfangsFenster = VERBINDUNGS_FENSTER;
+    private long Unbestaetigt;
+
+    private boolean VorspannGelesen;
+    private boolean EinstellungenGelesen;
+
+    /**
+     * Ob wir ein GOAWAY gesendet bzw. empfangen haben, und ob die Verbindung nach einem Fehler nur noch geschlossen
+     * wird.
+     */
+    private boolean AbschiedGesendet;
+    private boolean AbschiedEmpfangen;
+    private boolean Kaputt;
+
+    /**
+     * Beginnt eine Verbindung. Die Einstellungen des Servers stehen danach schon in der {@link #Ausgabe()}.
+     *
+     * @param Bearbeiter    Beantwortet die Anfragen aller Stroeme
+     * @param ClientAdresse Adresse des Clients, fuer das Zugriffsprotokoll
+     * @param Zugang        Der Zustand des Clients bei der {@link Zugangskontrolle}
+     * @param Umstieg       Die Anfrage, die per Upgrade auf HTTP/2 umsteigt, oder null wenn der Client gleich mit dem
+     *                      Vorspann begonnen hat
+     * @param Abgeben       Bearbeitet Anfragen ausserhalb der Verbindung, oder null wenn sie gleich hier bearbeitet
+     *                      werden
+     */
+    Http2Verbindung(HttpRequest Bearbeiter, InetAddress ClientAdresse, Zugangskontrolle.Client Zugang,
+                    Anfrage Umstieg, Abgabe Abgeben) {
+        this.Bearbeiter = Bearbeiter;
+        this.ClientAdresse = ClientAdresse;
+        this.Zugang = Zugang;
+        this.Abgeben = Abgeben;
+        this.Puffer.flip();
+        Metriken.Http2Verbindungen.increment();
+
+        if (Umstieg != null) {
+            Platz(UMSTIEG.length);
+            Steuerung.put(UMSTIEG);
+        }
+        Rahmen(4 * 6, SETTINGS, 0, 0);
+        Einstellung(MAX_CONCURRENT_STREAMS, MaxStroeme);
+        Einstellung(INITIAL_WINDOW_SIZE, Fenster);
+        Einstellung(MAX_HEADER_LIST_SIZE, AnfrageParser.MAX_KOPF_GROESSE);
+        Einstellung(ENABLE_PUSH, 0);
+        GibFenster(0, VERBINDUNGS_FENSTER - START_FENSTER);
+
+        if (Umstieg != null) {
+            // Die Einstellungen aus dem Upgrade gelten ohne Bestaetigung, die Anfrage selbst wird zu Strom 1
+            byte[] Einstellungen = Einstellungen(Umstieg);
+            WendeAn(Einstellungen, 0, Einstellungen.length);
+            LetzteStromId = 1;
+            Strom Erster = new Strom(1, Umstieg);
+            Erster.EingangZu = true;
+            Stroeme.put(1, Erster);
+            Metriken.Http2Stroeme.increment();
+            Bearbeite(Erster);
+        }
+    }
+
+    /**
+     * Gibt die Bearbeitung einer Anfrage aus der Hand, damit der Thread der Verbindung nicht auf sie warten muss.
+     */
+    interface Abgabe {
+        /**
+         * Bearbeitet die Anfrage eines Stroms. Die Antwort muss danach im Thread der Verbindung an
+         * {@link #Beantworte} gehen.
+         */
+        void Bearbeite(int StromId, Anfrage DieAnfrage);
+    }
+
+    /**
+     * Nimmt die Antwort auf eine abgegebene Anfrage entgegen. Wurde ihr Strom inzwischen abgebrochen oder die
+     * Verbindung aufgegeben, wird sie verworfen.
+     */
+    void Beantworte(int StromId, Antwort DieAntwort) {
+        Strom DerStrom = Stroeme.get(StromId);
+        if (DerStrom == null || DerStrom.Status != null || Kaputt) {
+            DieAntwort.Verwirf();
+            return;
+        }
+        Antworte(DerStrom, DieAntwort);
+    }
+
+    /**
+     * Prueft, ob die empfangenen Bytes mit dem Vorspann von HTTP/2 beginnen.
+     *
+     * @return {@link #JA}, {@link #NEIN} oder {@link #VIELLEICHT}, wenn fuer eine Entscheidung noch Bytes fehlen
+     */
+    static int Vorspann(byte[] Daten, int Anfang, int Ende) {
+        int Laenge = Math.min(Ende - Anfang, VORSPANN.length);
+        for (int i = 0; i < Laenge; i++) {
+            if (Daten[Anfang + i] != VORSPANN[i]) {
+                return NEIN;
+            }
+        }
+        return Laenge == VORSPANN.length ? JA : VIELLEICHT;
+    }
+
+    /**
+     * Ob ein Client ohne TLS per "Upgrade: h2c" auf HTTP/2 umsteigen moechte. Anfragen mit Rumpf beantworten wir der
+     * Einfachheit halber noch mit HTTP/1.1, das erlaubt RFC 7540 ausdruecklich.
+     */
+    static boolean WillUmsteigen(Anfrage DieAnfrage) {
+        if (!Aktiv || !DieAnfrage.Gueltig || !DieAnfrage.IstHttp11()) {
+            return false;
+        }
+        String Upgrade = DieAnfrage.Header(Anfrage.Feld.UPGRADE);
+        String Verbindung = DieAnfrage.Header(Anfrage.Feld.CONNECTION);
+        return Upgrade != null && Anfrage.EnthaeltToken(Upgrade, "h2c") && Verbindung != null
+                && Anfrage.EnthaeltToken(Verbindung, "Upgrade") && Anfrage.EnthaeltToken(Verbindung, "HTTP2-Settings")
+                && DieAnfrage.Header(Anfrage.Feld.TRANSFER_ENCODING) == null
+                && (DieAnfrage.InhaltsLaenge() == -1 || DieAnfrage.InhaltsLaenge() == 0)
+                && Einstellungen(DieAnfrage) != null;
+    }
+
+    /**
+     * Die Einstellungen aus dem HTTP2-Settings Header, base64url kodiert wie die Nutzlast eines SETTINGS Rahmens.
+     *
+     * @return Die Nutzlast, oder null wenn der Header fehlt oder ungueltig ist
+     */
+    private static byte[] Einstellungen(Anfrage DieAnfrage) {
+        String Wert = DieAnfrage.Header(Anfrage.Feld.HTTP2_SETTINGS);
+        if (Wert == null || Wert.indexOf(',') >= 0) {
+            return null;
+        }
+        try {
+            byte[] Einstellungen = Base64.getUrlDecoder().decode(Wert.trim());
+            return Einstellungen.length % 6 == 0 ? Einstellungen : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Verarbeitet alle vollstaendig empfangenen Rahmen. Antworten, Bestaetigungen und Fehler landen in der
+     * {@link #Ausgabe()}.
+     *
+     * @return Die Anzahl verbrauchter Bytes. Der Rest ist ein unvollstaendiger Rahmen und muss beim naechsten Aufruf
+     * wieder mitgegeben werden.
+     */
+    int Verarbeite(byte[] Daten, int Anfang, int Ende) {
+        if (Kaputt) {
+            return Ende - Anfang;
+        }
+        int Position = Anfang;
+        if (!VorspannGelesen) {
+            int Ergebnis = Vorspann(Daten, Anfang, Ende);
+            if (Ergebnis == NEIN) {
+                Fehler(PROTOCOL_ERROR);
+                return Ende - Anfang;
+            } else if (Ergebnis == VIELLEICHT) {
+                return 0;
+            }
+            VorspannGelesen = true;
+            Position += VORSPANN.length;
+        }
+
+        while (Ende - Position >= KOPF) {
+            int Laenge = (Daten[Position] & 0xFF) << 16 | (Daten[Position + 1] & 0xFF) << 8
+                    | Daten[Position + 2] & 0xFF;
+            if (Laenge > RAHMEN) {
+                Fehler(FRAME_SIZE_ERROR);
+                return Ende - Anfang;
+            }
+            if (Ende - Position < KOPF + Laenge) {
+                break;
+            }
+            int Typ = Daten[Position + 3] & 0xFF;
+            int Flags = Daten[Position + 4] & 0xFF;
+            int StromId = Zahl32(Daten, Position + 5) & 0x7FFFFFFF;
+            Rahmen(Typ, Flags, StromId, Daten, Position + KOPF, Laenge);
+            Position += KOPF + Laenge;
+            if (Kaputt) {
+                return Ende - Anfang;
+            }
+        }
+        return Position - Anfang;
+    }
+
+    /**
+     * Liefert die als naechstes zu sendenden Bytes. Die Engine sendet davon so viel sie kann und fragt danach erneut,
+     * bis der Puffer leer zurueckkommt.
+     *
+     * @return Ein Puffer im Lesemodus, der der Verbindung gehoert
+     */
+    ByteBuffer Ausgabe() {
+        // Beim Herunterfahren duerfen die laufenden Stroeme noch fertig werden, neue nimmt der Client dann nicht mehr
+        if (Herunterfahren.Aktiv) {
+            Verabschiede();
+        }
+        Puffer.compact();
+        Fuelle();
+        Puffer.flip();
+        return Puffer;
+    }
+
+    /**
+     * Ob noch ein Strom offen ist.
+     */
+    boolean Aktiv() {
+        return !Stroeme.isEmpty();
+    }
+
+    /**
+     * Ob noch Bytes darauf warten, von der Engine gesendet zu werden.
+     */
+    boolean Sendet() {
+        return Puffer.hasRemaining() || Steuerung.position() > 0;
+    }
+
+    /**
+     * Ob die Verbindung nur auf die naechste Anfrage wartet und ohne Verlust geschlossen werden kann. Nach unserem
+     * GOAWAY ist das nie der Fall: dann warten die Engines, bis der Client auflegt. Laegen beim Schliessen noch
+     * ungelesene Rahmen von ihm im Socket, wuerde der Kernel mit einem Reset antworten und die letzten gesendeten
+     * Bytes verwerfen.
+     */
+    boolean Wartet() {
+        return Stroeme.isEmpty() && !Sendet() && !AbschiedGesendet;
+    }
+
+    /**
+     * Kuendigt dem Client das Ende der Verbindung an. Bereits begonnene Stroeme duerfen noch fertig werden.
+     */
+    void Verabschiede() {
+        Verabschiede(NO_ERROR);
+    }
+
+    /**
+     * Gibt alle Dateien und Rumpfziele der noch offenen Stroeme frei, wenn die Engine die Verbindung schliesst.
+     */
+    void Schliesse() {
+        for (Strom EinStrom : Stroeme.values()) {
+            EinStrom.SchliesseQuellen();
+            if (EinStrom.Ziel != null) {
+                EinStrom.Ziel.Abbrechen();
+                EinStrom.Ziel = null;
+            }
+        }
+        Stroeme.clear();
+        Sendebereit.clear();
+    }
+
+    private void Rahmen(int Typ, int Flags, int StromId, byte[] Daten, int Anfang, int Laenge) {
+        // Ein Kopfblock muss ohne Unterbrechung durch andere Rahmen fortgesetzt werden
+        if (Fortsetzung != 0 && (Typ != CONTINUATION || StromId != Fortsetzung)) {
+            Fehler(PROTOCOL_ERROR);
+            return;
+        }
+        // Der Vorspann des Clients endet mit seinen Einstellungen
+        if (!EinstellungenGelesen && (Typ != SETTINGS || (Flags & ACK) != 0)) {
+            Fehler(PROTOCOL_ERROR);
+            return;
+        }
+
+        switch (Typ) {
+            case DATA:
+                Daten(Flags, StromId, Daten, Anfang, Laenge);
+                break;
+            case HEADERS:
+                Kopf(Flags, StromId, Daten, Anfang, Laenge);
+                break;
+            case CONTINUATION:
+                if (Fortsetzung == 0) {
+                    Fehler(PROTOCOL_ERROR);
+                    return;
+                }
+                if (Sammle(Daten, Anfang, Laenge) && (Flags & END_HEADERS) != 0) {
+                    Fortsetzung = 0;
+                    KopfFertig(StromId);
+                }
+                break;
+            case PRIORITY:
+                if (StromId == 0) {
+                    Fehler(PROTOCOL_ERROR);
+                } else if (Laenge != 5) {
+                    SetzeZurueck(StromId, FRAME_SIZE_ERROR);
+                }
+                break;
+            case RST_STREAM:
+                if (StromId == 0 || StromId > LetzteStromId) {
+                    Fehler(PROTOCOL_ERROR);
+                } else if (Laenge != 4) {
+                    Fehler(FRAME_SIZE_ERROR);
+                } else {
+                    Strom Abgebrochen = Stroeme.get(StromId);
+                    if (Abgebrochen != null) {
+                        Abgebrochen.EingangZu = true;
+                        Beende(Abgebrochen);
+                    }
+                }
+                break;
+            case SETTINGS:
+                if (StromId != 0) {
+                    Fehler(PROTOCOL_ERROR);
+                } else if ((Flags & ACK) != 0 ? Laenge != 0 : Laenge % 6 != 0) {
+                    Fehler(FRAME_SIZE_ERROR);
+                } else if ((Flags & ACK) == 0) {
+                    EinstellungenGelesen = true;
+                    WendeAn(Daten, Anfang, Laenge);
+                    Rahmen(0, SETTINGS, ACK, 0);
+                }
+                break;
+            case PING:
+                if (StromId != 0) {
+                    Fehler(PROTOCOL_ERROR);
+                } else if (Laenge != 8) {
+                    Fehler(FRAME_SIZE_ERROR);
+                } else if ((Flags & ACK) == 0) {
+                    Rahmen(8, PING, ACK, 0);
+                    Steuerung.put(Daten, Anfang, 8);
+                }
+                break;
+            case GOAWAY:
+                if (StromId != 0) {
+                    Fehler(PROTOCOL_ERROR);
+                } else {
+                    AbschiedEmpfangen = true;
+                }
+                break;
+            case WINDOW_UPDATE:
+                if (Laenge != 4) {
+                    Fehler(FRAME_SIZE_ERROR);
+                } else {
+                    Fenster(StromId, Zahl32(Daten, Anfang) & 0x7FFFFFFF);
+                }
+                break;
+            case PUSH_PROMISE:
+                // Nur der Server darf pushen
+                Fehler(PROTOCOL_ERROR);
+                break;
+            default:
+                // Unbekannte Rahmen werden ignoriert
+        }
+    }
+
+    /**
+     * Ein HEADERS Rahmen beginnt einen neuen Strom oder bringt die Trailer eines offenen.
+     */
+    private void Kopf(int Flags, int StromId, byte[] Daten, int Anfang, int Laenge) {
+        if (StromId == 0 || (StromId & 1) == 0) {
+            Fehler(PROTOCOL_ERROR);
+            return;
+        }
+        int Ende = Anfang + Laenge;
+        if ((Flags & PADDED) != 0) {
+            // Die Fuellung samt ihrer Laenge muss in den Rahmen passen
+            if (Laenge == 0 || (Daten[Anfang] & 0xFF) >= Laenge) {
+                Fehler(PROTOCOL_ERROR);
+                return;
+            }
+            Ende -= Daten[Anfang++] & 0xFF;
+        }
+        if ((Flags & MIT_PRIORITAET) != 0) {
+            Anfang += 5;
+            if (Anfang > Ende) {
+                Fehler(FRAME_SIZE_ERROR);
+                return;
+            }
+        }
+
+        BlockLaenge = 0;
+        BlockBeendetStrom = (Flags & END_STREAM) != 0;
+        if (!Sammle(Daten, Anfang, Ende - Anfang)) {
+            return;
+        }
+        if ((Flags & END_HEADERS) != 0) {
+            KopfFertig(StromId);
+        } else {
+            Fortsetzung = StromId;
+        }
+    }
+
+    /**
+     * Haengt ein Stueck an den aktuellen Kopfblock an.
+     *
+     * @return Falsch, wenn der Block zu gross wird und die Verbindung deshalb geschlossen wird
+     */
+    private boolean Sammle(byte[] Daten, int Anfang, int Laenge) {
+        // Komprimiert ist ein Kopf selten groesser als dekodiert, das Doppelte lassen wir noch zu
+        if (BlockLaenge + Laenge > 2 * AnfrageParser.MAX_KOPF_GROESSE) {
+            Fehler(ENHANCE_YOUR_CALM);
+            return false;
+        }
+        if (BlockLaenge + Laenge > Block.length) {
+            byte[] Groesser = new byte[Math.max(Block.length * 2, BlockLaenge + Laenge)];
+            System.arraycopy(Block, 0, Groesser, 0, BlockLaenge);
+            Block = Groesser;
+        }
+        System.arraycopy(Daten, Anfang, Block, BlockLaenge, Laenge);
+        BlockLaenge += Laenge;
+        return true;
+    }
+
+    /**
+     * Ein Kopfblock ist vollstaendig. Er muss in jedem Fall dekodiert werden, sonst passt unsere HPACK Tabelle nicht
+     * mehr zu der des Clients.
+     */
+    private void KopfFertig(int StromId) {
+        Strom Offen = Stroeme.get(StromId);
+        Anfrage Neu = Offen == null ? new Anfrage() : null;
+        Kopfzeilen.Beginne(Neu);
+        boolean Vollstaendig;
+        try {
+            Vollstaendig = Dekodierer.Dekodiere(Block, 0, BlockLaenge, AnfrageParser.MAX_KOPF_GROESSE, Kopfzeilen);
+        } catch (IOException e) {
+            Fehler(COMPRESSION_ERROR);
+            return;
+        }
+
+        if (Offen != null) {
+            // Trailer beenden den Rumpf, ihren Inhalt brauchen wir nicht
+            if (Offen.EingangZu || !BlockBeendetStrom) {
+                SetzeZurueck(StromId, Offen.EingangZu ? STREAM_CLOSED : PROTOCOL_ERROR);
+            } else {
+                EingangBeendet(Offen);
+            }
+            return;
+        }
+        if (StromId <= LetzteStromId) {
+            Fehler(STREAM_CLOSED);
+            return;
+        }
+        LetzteStromId = StromId;
+
+        // Nach einem GOAWAY und ueber dem Limit nehmen wir keine neuen Stroeme an, der Client darf es spaeter erneut
+        // versuchen
+        if (AbschiedGesendet || AbschiedEmpfangen || Stroeme.size() >= MaxStroeme) {
+            SetzeZurueck(StromId, REFUSED_STREAM);
+            return;
+        }
+        if (Vollstaendig && !Kopfzeilen.Fertig()) {
+            SetzeZurueck(StromId, PROTOCOL_ERROR);
+            return;
+        }
+
+        Strom Neuer = new Strom(StromId, Neu);
+        Neuer.EingangZu = BlockBeendetStrom;
+        Stroeme.put(StromId, Neuer);
+        Metriken.Http2Stroeme.increment();
+
+        // Ist der Client zu schnell, lehnen wir ab, bevor wir Rumpf, Cache oder Dateisystem anfassen. Fehlerantworten
+        // vor dem Rumpf verwerfen ihn, sie werden erst nach dem Lesen des Rumpfes ganz beendet.
+        if (!Zugang.Darf()) {
+            Antworte(Neuer, Bearbeiter.ZuVieleAnfragen(Neu, Zugang));
+        } else if (!Vollstaendig) {
+            Antworte(Neuer, Bearbeiter.FehlerAntwort("431 Request Header Fields Too Large"));
+        } else if (Neu.InhaltsLaenge() == -2) {
+            Antworte(Neuer, Bearbeiter.FehlerAntwort("400 Bad Request"));
+        } else if (Neuer.EingangZu) {
+            EingangBeendet(Neuer);
+        } else if (Neu.InhaltsLaenge() > WebServer.MaxRumpfGroesse) {
+            Antworte(Neuer, Bearbeiter.FehlerAntwort("413 Payload Too Large"));
+        } else {
+            // POST Rumpfe gehen an das konfigurierte Ziel, die Rumpfe anderer Methoden werden verworfen
+            Neuer.Ziel = Anfrage.POST.equals(Neu.Methode()) ? WebServer.PostZiel.get() : RumpfZiele.VERWERFEN;
+            String Erwartung = Neu.Header(Anfrage.Feld.EXPECT);
+            if (Erwartung != null && Anfrage.EnthaeltToken(Erwartung, "100-continue")) {
+                Kodierer.Beginne();
+                Kodierer.Feld(":status", "100");
+                SchreibeKopf(StromId, false);
+            }
+        }
+    }
+
+    /**
+     * Ein DATA Rahmen mit einem Stueck Rumpf.
+     */
+    private void Daten(int Flags, int StromId, byte[] Daten, int Anfang, int Laenge) {
+        if (StromId == 0) {
+            Fehler(PROTOCOL_ERROR);
+            return;
+        }
+        // Die Flusskontrolle zaehlt den ganzen Rahmen, auch fuer Stroeme die es nicht mehr gibt
+        EmpfangsFenster -= Laenge;
+        if (EmpfangsFenster < 0) {
+            Fehler(FLOW_CONTROL_ERROR);
+            return;
+        }
+        Unbestaetigt += Laenge;
+        if (Unbestaetigt >= VERBINDUNGS_FENSTER / 2) {
+            GibFenster(0, (int) Unbestaetigt);
+            EmpfangsFenster += Unbestaetigt;
+            Unbestaetigt = 0;
+        }
+
+        int Ende = Anfang + Laenge;
+        if ((Flags & PADDED) != 0) {
+            // Die Fuellung samt ihrer Laenge muss in den Rahmen passen
+            if (Laenge == 0 || (Daten[Anfang] & 0xFF) >= Laenge) {
+                Fehler(PROTOCOL_ERROR);
+                return;
+            }
+            Ende -= Daten[Anfang++] & 0xFF;
+        }
+
+        Strom DerStrom = Stroeme.get(StromId);
+        if (DerStrom == null) {
+            // Rahmen fuer schon geschlossene Stroeme koennen noch unterwegs gewesen sein
+            if (StromId > LetzteStromId) {
+                Fehler(PROTOCOL_ERROR);
+            }
+            return;
+        }
+        if (DerStrom.EingangZu) {
+            SetzeZurueck(StromId, STREAM_CLOSED);
+            return;
+        }
+        DerStrom.EmpfangsFenster -= Laenge;
+        if (DerStrom.EmpfangsFenster < 0) {
+            SetzeZurueck(StromId, FLOW_CONTROL_ERROR);
+            return;
+        }
+
+        DerStrom.Empfangen += Ende - Anfang;
+        long Angekuendigt = DerStrom.DieAnfrage.InhaltsLaenge();
+        if (Angekuendigt >= 0 && DerStrom.Empfangen > Angekuendigt) {
+            SetzeZurueck(StromId, PROTOCOL_ERROR);
+            return;
+        }
+        if (DerStrom.Ziel != null && DerStrom.Empfangen > WebServer.MaxRumpfGroesse) {
+            DerStrom.Ziel.Abbrechen();
+            DerStrom.Ziel = null;
+            Antworte(DerStrom, Bearbeiter.FehlerAntwort("413 Payload Too Large"));
+        } else if (DerStrom.Ziel != null && Ende > Anfang) {
+            try {
+                DerStrom.Ziel.Schreibe(Daten, Anfang, Ende - Anfang);
+            } catch (IOException e) {
+                Protokoll.Fehler("Fehler beim lesen eines Rumpfes. Breche ab...");
+                DerStrom.Ziel.Abbrechen();
+                DerStrom.Ziel = null;
+                Antworte(DerStrom, Bearbeiter.FehlerAntwort("500 Internal Server Error"));
+            }
+        }
+        if (!Stroeme.containsKey(StromId)) {
+            // Die Fehlerantwort ist schon komplett gesendet
+            return;
+        }
+
+        if ((Flags & END_STREAM) != 0) {
+            EingangBeendet(DerStrom);
+        } else if (Fenster - DerStrom.EmpfangsFenster >= Fenster / 2) {
+            int Zuwachs = (int) (Fenster - DerStrom.EmpfangsFenster);
+            GibFenster(StromId, Zuwachs);
+            DerStrom.EmpfangsFenster += Zuwachs;
+        }
+    }
+
+    /**
+     * Der Client hat Kopf und Rumpf eines Stroms vollstaendig gesendet.
+     */
+    private void EingangBeendet(Strom DerStrom) {
+        DerStrom.EingangZu = true;
+        if (DerStrom.Status != null) {
+            // Die Anfrage wurde schon abgelehnt, der Strom endet mit dem Rest ihrer Antwort
+            return;
+        }
+        Anfrage DieAnfrage = DerStrom.DieAnfrage;
+        long Angekuendigt = DieAnfrage.InhaltsLaenge();
+        if (Angekuendigt >= 0 && Angekuendigt != DerStrom.Empfangen) {
+            SetzeZurueck(DerStrom.Id, PROTOCOL_ERROR);
+            return;
+        }
+        DieAnfrage.Ziel = DerStrom.Ziel;
+        DerStrom.Ziel = null;
+        Bearbeite(DerStrom);
+    }
+
+    /**
+     * Bearbeitet die Anfrage eines Stroms, dessen Eingang vollstaendig ist. Was aus dem Cache kommt, beantworten wir
+     * immer gleich, alles andere gibt die NIO Engine an einen Arbeiter.
+     */
+    private void Bearbeite(Strom DerStrom) {
+        if (Abgeben == null) {
+            Antworte(DerStrom, Bearbeiter.Bearbeite(DerStrom.DieAnfrage));
+            return;
+        }
+        Antwort Sofort = Bearbeiter.Sofort(DerStrom.DieAnfrage);
+        if (Sofort != null) {
+            Antworte(DerStrom, Sofort);
+        } else {
+            Abgeben.Bearbeite(DerStrom.Id, DerStrom.DieAnfrage);
+        }
+    }
+
+    /**
+     * Beginnt die Antwort eines Stroms: der Kopf kommt gleich in die Ausgabe, der Rumpf wird danach reihum mit den
+     * anderen Stroemen gesendet.
+     */
+    private void Antworte(Strom DerStrom, Antwort DieAntwort) {
+        DerStrom.AntwortStart = System.nanoTime();
+        DerStrom.Status = DieAntwort.Status;
+        if (DieAntwort.Datei != null && !DieAntwort.NurKopf) {
+            try {
+                DerStrom.Abbild = DieAntwort.BildeAb();
+                if (DerStrom.Abbild == null) {
+                    DerStrom.DateiKanal = DieAntwort.OeffneDatei();
+                }
+            } catch (Exception e) {
+                Protokoll.Fehler("Datei ist magisch. Ein Einhorn wird sie gestohlen oder versteckt haben. Breche ab...");
+                SetzeZurueck(DerStrom.Id, INTERNAL_ERROR);
+                return;
+            }
+        }
+
+        // Die Laenge erst nach dem Oeffnen, damit sie zu dem passt, was wir senden
+        long Laenge = DieAntwort.Laenge();
+        boolean MitRumpf = DieAntwort.HatRumpf() && Laenge != 0;
+        if (MitRumpf) {
+            DerStrom.Rest = Laenge;
+            if (DieAntwort.Rumpf != null) {
+                DerStrom.Teile = new ByteBuffer[]{ByteBuffer.wrap(DieAntwort.Rumpf)};
+            } else if (DieAntwort.Puffer != null) {
+                DerStrom.Teile = new ByteBuffer[]{DieAntwort.Puffer};
+            } else if (DerStrom.Abbild != null) {
+                DerStrom.Teile = DerStrom.Abbild.Ausschnitt(DieAntwort.DateiAnfang, Laenge);
+            } else if (DerStrom.DateiKanal != null) {
+                DerStrom.DateiPosition = DieAntwort.DateiAnfang;
+            } else {
+                DerStrom.Strom = DieAntwort.Strom;
+            }
+        }
+        if (DieAntwort.Strom != null && DerStrom.Strom == null) {
+            try {
+                DieAntwort.Strom.close();
+            } catch (IOException e) {
+                Protokoll.Fehler("Fehler beim schliessen eines Dateistroms.");
+            }
+        }
+
+        Kodierer.Beginne();
+        DieAntwort.Kodiere(Kodierer);
+        SchreibeKopf(DerStrom.Id, !MitRumpf);
+        if (MitRumpf) {
+            Bereit(DerStrom);
+        } else {
+            Gesendet(DerStrom);
+        }
+    }
+
+    /**
+     * Schreibt den Block des Kodierers als HEADERS und, wenn er nicht in einen Rahmen passt, CONTINUATION Rahmen.
+     */
+    private void SchreibeKopf(int StromId, boolean EndeDesStroms) {
+        int Position = 0;
+        do {
+            int Laenge = Math.min(RAHMEN, Kodierer.Laenge - Position);
+            boolean Letzter = Position + Laenge == Kodierer.Laenge;
+            int Flags = (Letzter ? END_HEADERS : 0) | (Position == 0 && EndeDesStroms ? END_STREAM : 0);
+            Rahmen(Laenge, Position == 0 ? HEADERS : CONTINUATION, Flags, StromId);
+            Steuerung.put(Kodierer.Block, Position, Laenge);
+            Position += Laenge;
+        } while (Position < Kodierer.Laenge);
+    }
+
+    /**
+     * Fuellt den Ausgabepuffer (im Schreibmodus). Zuerst kommen die Steuerrahmen, erst wenn sie alle raus sind die
+     * Rumpfe, damit Kopf und Rumpf eines Stroms in der richtigen Reihenfolge bleiben.
+     */
+    private void Fuelle() {
+        if (Steuerung.position() > 0) {
+            Steuerung.flip();
+            int Anzahl = Math.min(Steuerung.remaining(), Puffer.remaining());
+            Puffer.put(Steuerung.array(), Steuerung.position(), Anzahl);
+            Steuerung.position(Steuerung.position() + Anzahl);
+            Steuerung.compact();
+            if (Steuerung.position() > 0) {
+                return;
+            }
+        }
+
+        // Reihum bekommt jeder sendebereite Strom einen Rahmen, solange Platz und Fenster reichen
+        while (!Kaputt && SendeFenster > 0 && Puffer.remaining() > KOPF && !Sendebereit.isEmpty()) {
+            Strom DerStrom = Sendebereit.pollFirst();
+            DerStrom.Wartend = false;
+            SendeRumpf(DerStrom);
+            if (Stroeme.containsKey(DerStrom.Id)) {
+                Bereit(DerStrom);
+            }
+        }
+    }
+
+    /**
+     * Haengt den naechsten DATA Rahmen eines Stroms an den Ausgabepuffer an.
+     */
+    private void SendeRumpf(Strom DerStrom) {
+        long Groesse = Math.min(Math.min(RAHMEN, Puffer.remaining() - KOPF), Math.min(SendeFenster,
+                DerStrom.SendeFenster));
+        if (DerStrom.Rest >= 0) {
+            Groesse = Math.min(Groesse, DerStrom.Rest);
+        }
+        if (Groesse <= 0) {
+            return;
+        }
+
+        int Kopf = Puffer.position();
+        Puffer.position(Kopf + KOPF);
+        int Gelesen;
+        try {
+            Gelesen = DerStrom.Lies(Puffer, (int) Groesse);
+        } catch (IOException e) {
+            Puffer.position(Kopf);
+            Protokoll.Fehler("Fehler beim Senden einer " + DerStrom.Status + " Antwort. Breche ab...");
+            SetzeZurueck(DerStrom.Id, INTERNAL_ERROR);
+            return;
+        }
+        boolean Ende = Gelesen < 0 || DerStrom.Rest == 0;
+        Gelesen = Math.max(0, Gelesen);
+        Puffer.put(Kopf, (byte) (Gelesen >>> 16)).put(Kopf + 1, (byte) (Gelesen >>> 8)).put(Kopf + 2, (byte) Gelesen);
+        Puffer.put(Kopf + 3, (byte) DATA).put(Kopf + 4, (byte) (Ende ? END_STREAM : 0));
+        Puffer.putInt(Kopf + 5, DerStrom.Id);
+
+        SendeFenster -= Gelesen;
+        DerStrom.SendeFenster -= Gelesen;
+        DerStrom.RumpfBytes += Gelesen;
+        if (Ende) {
+            Gesendet(DerStrom);
+        }
+    }
+
+    /**
+     * Die Antwort eines Stroms ist komplett in der Ausgabe.
+     */
+    private void Gesendet(Strom DerStrom) {
+        DerStrom.SchliesseQuellen();
+        if (DerStrom.EingangZu) {
+            Beende(DerStrom);
+        } else {
+            // Den Rest des Rumpfes brauchen wir nicht mehr, der Client soll ihn nicht mehr senden
+            SetzeZurueck(DerStrom.Id, NO_ERROR);
+        }
+    }
+
+    /**
+     * Stellt einen Strom hinten an, wenn seine Antwort begonnen hat, er noch Rumpf zu senden hat und sein Fenster es
+     * erlaubt.
+     */
+    private void Bereit(Strom DerStrom) {
+        if (!DerStrom.Wartend && DerStrom.Status != null && !DerStrom.Gesendet() && DerStrom.SendeFenster > 0) {
+            DerStrom.Wartend = true;
+            Sendebereit.addLast(DerStrom);
+        }
+    }
+
+    /**
+     * Schliesst einen Strom, ohne noch etwas zu senden, und erfasst seine Antwort.
+     */
+    private void Beende(Strom DerStrom) {
+        Stroeme.remove(DerStrom.Id);
+        if (DerStrom.Wartend) {
+            Sendebereit.remove(DerStrom);
+            DerStrom.Wartend = false;
+        }
+        DerStrom.SchliesseQuellen();
+        if (DerStrom.Ziel != null) {
+            DerStrom.Ziel.Abbrechen();
+            DerStrom.Ziel = null;
+        }
+        if (DerStrom.Status != null) {
+            long Jetzt = System.nanoTime();
+            Metriken.Erfasse(Metriken.Phase.SENDEN, Jetzt - DerStrom.AntwortStart);
+            Metriken.Anfrage(DerStrom.DieAnfrage.Methode(), DerStrom.Status, Jetzt - DerStrom.AnfrageStart);
+            Protokoll.Zugriff(ClientAdresse, DerStrom.DieAnfrage, DerStrom.Status, DerStrom.RumpfBytes);
+        }
+    }
+
+    /**
+     * Bricht einen Strom mit RST_STREAM ab.
+     */
+    private void SetzeZurueck(int StromId, int Code) {
+        Rahmen(4, RST_STREAM, 0, StromId);
+        Steuerung.putInt(Code);
+        Strom DerStrom = Stroeme.get(StromId);
+        if (DerStrom != null) {
+            Beende(DerStrom);
+        }
+    }
+
+    /**
+     * Ein Fehler der ganzen Verbindung. Nach dem GOAWAY wird nichts mehr gelesen und die Verbindung geschlossen.
+     */
+    private void Fehler(int Code) {
+        Verabschiede(Code);
+        Kaputt = true;
+    }
+
+    private void Verabschiede(int Code) {
+        if (AbschiedGesendet) {
+            return;
+        }
+        AbschiedGesendet = true;
+        Rahmen(8, GOAWAY, 0, 0);
+        Steuerung.putInt(LetzteStromId);
+        Steuerung.putInt(Code);
+    }
+
+    /**
+     * Wendet die Einstellungen des Clients an.
+     */
+    private void WendeAn(byte[] Daten, int Anfang, int Laenge) {
+        for (int i = Anfang; i < Anfang + Laenge; i += 6) {
+            int Kennung = (Daten[i] & 0xFF) << 8 | Daten[i + 1] & 0xFF;
+            long Wert = Zahl32(Daten, i + 2) & 0xFFFFFFFFL;
+            switch (Kennung) {
+                case HEADER_TABLE_SIZE:
+                    Kodierer.SetzeMax((int) Math.min(Wert, Integer.MAX_VALUE));
+                    break;
+                case ENABLE_PUSH:
+                    if (Wert > 1) {
+                        Fehler(PROTOCOL_ERROR);
+                        return;
+                    }
+                    break;
+                case INITIAL_WINDOW_SIZE:
+                    if (Wert > MAX_FENSTER) {
+                        Fehler(FLOW_CONTROL_ERROR);
+                        return;
+                    }
+                    // Die Aenderung gilt fuer alle offenen Stroeme, ihr Fenster kann dabei auch negativ werden
+                    long Unterschied = Wert - PeerStartFenster;
+                    PeerStartFenster = (int) Wert;
+                    for (Strom EinStrom : Stroeme.values()) {
+                        EinStrom.SendeFenster += Unterschied;
+                        if (EinStrom.SendeFenster > MAX_FENSTER) {
+                            Fehler(FLOW_CONTROL_ERROR);
+                            return;
+                        }
+                        Bereit(EinStrom);
+                    }
+                    break;
+                case MAX_FRAME_SIZE:
+                    // Wir senden nie mehr als 16 KB pro Rahmen, der Wert muss nur gueltig sein
+                    if (Wert < RAHMEN || Wert > 0xFFFFFF) {
+                        Fehler(PROTOCOL_ERROR);
+                        return;
+                    }
+                    break;
+                default:
+                    // MAX_CONCURRENT_STREAMS betrifft nur Push, MAX_HEADER_LIST_SIZE ist nur ein Hinweis
+            }
+        }
+    }
+
+    /**
+     * Erlaubt dem Client mit einem WINDOW_UPDATE, weitere Bytes zu senden.
+     */
+    private void GibFenster(int StromId, int Zuwachs) {
+        Rahmen(4, WINDOW_UPDATE, 0, StromId);
+        Steuerung.putInt(Zuwachs);
+    }
+
+    /**
+     * Verarbeitet ein empfangenes WINDOW_UPDATE.
+     */
+    private void Fenster(int StromId, long Zuwachs) {
+        if (StromId == 0) {
+            if (Zuwachs == 0) {
+                Fehler(PROTOCOL_ERROR);
+                return;
+            }
+            SendeFenster += Zuwachs;
+            if (SendeFenster > MAX_FENSTER) {
+                Fehler(FLOW_CONTROL_ERROR);
+            }
+            return;
+        }
+        Strom DerStrom = Stroeme.get(StromId);
+        if (DerStrom == null) {
+            if (StromId > LetzteStromId) {
+                Fehler(PROTOCOL_ERROR);
+            }
+            return;
+        }
+        if (Zuwachs == 0) {
+            SetzeZurueck(StromId, PROTOCOL_ERROR);
+            return;
+        }
+        DerStrom.SendeFenster += Zuwachs;
+        if (DerStrom.SendeFenster > MAX_FENSTER) {
+            SetzeZurueck(StromId, FLOW_CONTROL_ERROR);
+            return;
+        }
+        Bereit(DerStrom);
+    }
+
+    private void Einstellung(int Kennung, int Wert) {
+        Steuerung.putShort((short) Kennung).putInt(Wert);
+    }
+
+    /**
+     * Beginnt einen Rahmen in der Steuerung. Der Platz fuer die Nutzlast wird gleich mit reserviert.
+     */
+    private void Rahmen(int Laenge, int Typ, int Flags, int StromId) {
+        Platz(KOPF + Laenge);
+        Steuerung.put((byte) (Laenge >>> 16)).put((byte) (Laenge >>> 8)).put((byte) Laenge);
+        Steuerung.put((byte) Typ).put((byte) Flags).putInt(StromId);
+    }
+
+    private void Platz(int Zusaetzlich) {
+        if (Steuerung.remaining() < Zusaetzlich) {
+            ByteBuffer Groesser = ByteBuffer.allocate(Math.max(Steuerung.capacity() * 2,
+                    Steuerung.position() + Zusaetzlich));
+            Steuerung.flip();
+            Groesser.put(Steuerung);
+            Steuerung = Groesser;
+        }
+    }
+
+    private static int Zahl32(byte[] Daten, int Anfang) {
+        return (Daten[Anfang] & 0xFF) << 24 | (Daten[Anfang + 1] & 0xFF) << 16 | (Daten[Anfang + 2] & 0xFF) << 8
+                | Daten[Anfang + 3] & 0xFF;
+    }
+
+    /**
+     * Eine Anfrage mit ihrer Antwort.
+     */
+    private final class Strom {
+        final int Id;
+        final Anfrage DieAnfrage;
+        final long AnfrageStart = System.nanoTime();
+        long AntwortStart;
+
+        /**
+         * Ob der Client seine Seite des Stroms beendet hat, und der Empfaenger und die Anzahl der bisher empfangenen
+         * Bytes des Rumpfes.
+         */
+        boolean EingangZu;
+        RumpfZiel Ziel;
+        long Empfangen;
+
+        /**
+         * Wie viel der Client uns noch senden darf, und wie viel wir ihm.
+         */
+        long EmpfangsFenster = Fenster;
+        long SendeFenster = PeerStartFenster;
+
+        /**
+         * Der Status der Antwort, sobald ihr Kopf gesendet ist, und woher ihr Rumpf kommt: Puffer aus dem Speicher
+         * oder einer Abbildung, eine Datei oder ein Strom. Rest ist -1 bei Stroemen unbekannter Laenge.
+         */
+        String Status;
+        ByteBuffer[] Teile;
+        int TeilIndex;
+        Abbildungen.Abbildung Abbild;
+        FileChannel DateiKanal;
+        long DateiPosition;
+        InputStream Strom;
+        long Rest;
+        long RumpfBytes;
+
+        /**
+         * Ob der Strom gerade in {@link #Sendebereit} steht.
+         */
+        boolean Wartend;
+
+        Strom(int Id, Anfrage DieAnfrage) {
+            this.Id = Id;
+            this.DieAnfrage = DieAnfrage;
+        }
+
+        /**
+         * Ob der Rumpf der Antwort gesendet ist. Vor der Antwort ist das natuerlich falsch.
+         */
+        boolean Gesendet() {
+            return Status != null && Rest == 0;
+        }
+
+        /**
+         * Kopiert die naechsten Bytes des Rumpfes in den Ausgabepuffer.
+         *
+         * @return Die Anzahl der Bytes, oder -1 wenn ein Strom unbekannter Laenge zu Ende ist
+         */
+        int Lies(ByteBuffer Ziel, int Anzahl) throws IOException {
+            int Gelesen;
+            if (Teile != null) {
+                Gelesen = 0;
+                while (Gelesen < Anzahl) {
+                    ByteBuffer Teil = Teile[TeilIndex];
+                    if (!Teil.hasRemaining()) {
+                        TeilIndex++;
+                        continue;
+                    }
+                    int Stueck = Math.min(Anzahl - Gelesen, Teil.remaining());
+                    int Grenze = Teil.limit();
+                    Teil.limit(Teil.position() + Stueck);
+                    Ziel.put(Teil);
+                    Teil.limit(Grenze);
+                    Gelesen += Stueck;
+                }
+            } else if (DateiKanal != null) {
+                int Grenze = Ziel.limit();
+                Ziel.limit(Ziel.position() + Anzahl);
+                try {
+                    while (Ziel.hasRemaining()) {
+                        int Stueck = DateiKanal.read(Ziel, DateiPosition);
+                        if (Stueck <= 0) {
+                            throw new IOException("Datei ist waehrend des Sendens geschrumpft");
+                        }
+                        DateiPosition += Stueck;
+                    }
+                } finally {
+                    Ziel.limit(Grenze);
+                }
+                Gelesen = Anzahl;
+            } else {
+                Gelesen = Strom.read(Ziel.array(), Ziel.arrayOffset() + Ziel.position(), Anzahl);
+                if (Gelesen < 0) {
+                    if (Rest > 0) {
+                        throw new IOException("Strom endet vor der angekuendigten Laenge");
+                    }
+                    Rest = 0;
+                    return -1;
+                }
+                Ziel.position(Ziel.position() + Gelesen);
+                if (Rest < 0) {
+                    return Gelesen;
+                }
+            }
+            Rest -= Gelesen;
+            return Gelesen;
+        }
+
+        void SchliesseQuellen() {
+            Teile = null;
+            if (Abbild != null) {
+                Abbild.Gib();
+                Abbild = null;
+            }
+            if (DateiKanal != null) {
+                try {
+                    DateiKanal.close();
+                } catch (IOException e) {
+                    Protokoll.Fehler("Fehler beim schliessen eines Dateistroms.");
+                }
+                DateiKanal = null;
+            }
+            if (Strom != null) {
+                try {
+                    Strom.close();
+                } catch (IOException e) {
+                    Protokoll.Fehler("Fehler beim schliessen eines Dateistroms.");
+                }
+                Strom = null;
+            }
+        }
+    }
+
+    /**
+     * Baut aus den dekodierten Headern eines Kopfblocks die {@link Anfrage} und prueft dabei, was RFC 9113 an einer
+     * Anfrage verbietet.
+     */
+    private static final class Kopfzeilen implements BiConsumer<String, String> {
+        private Anfrage Ziel;
+        private String Schema;
+        private String Autoritaet;
+        private boolean Regulaer;
+        private boolean Fehlerhaft;
+
+        /**
+         * Beginnt einen neuen Kopfblock.
+         *
+         * @param Ziel Die neue Anfrage, oder null wenn der Block nur dekodiert und verworfen wird
+         */
+        void Beginne(Anfrage Ziel) {
+            this.Ziel = Ziel;
+            Schema = null;
+            Autoritaet = null;
+            Regulaer = false;
+            Fehlerhaft = false;
+        }
+
+        @Override
+        public void accept(String Name, String Wert) {
+            if (Ziel == null) {
+                return;
+            }
+            if (Name.startsWith(":")) {
+                // Pseudoheader stehen vor allen anderen und kommen jeweils nur einmal
+                Fehlerhaft |= Regulaer;
+                switch (Name) {
+                    case ":method":
+                        Fehlerhaft |= Ziel.Methode != null;
+                        Ziel.Methode = Wert;
+                        break;
+                    case ":path":
+                        Fehlerhaft |= Ziel.URI != null || Wert.isEmpty();
+                        Ziel.URI = Wert;
+                        break;
+                    case ":scheme":
+                        Fehlerhaft |= Schema != null;
+                        Schema = Wert;
+                        break;
+                    case ":authority":
+                        Fehlerhaft |= Autoritaet != null;
+                        Autoritaet = Wert;
+                        break;
+                    default:
+                        Fehlerhaft = true;
+                }
+                return;
+            }
+            Regulaer = true;
+            for (int i = 0; i < Name.length(); i++) {
+                char Zeichen = Name.charAt(i);
+                Fehlerhaft |= Zeichen >= 'A' && Zeichen <= 'Z';
+            }
+            switch (Name) {
+                case "connection":
+                case "keep-alive":
+                case "proxy-connection":
+                case "transfer-encoding":
+                case "upgrade":
+                    // Header, die nur fuer eine HTTP/1.1 Verbindung gelten
+                    Fehlerhaft = true;
+                    return;
+                case "te":
+                    Fehlerhaft |= !"trailers".equals(Wert);
+                    return;
+                default:
+                    Ziel.SetzeHeader(Name, Wert);
+            }
+        }
+
+        /**
+         * Schliesst die Anfrage ab.
+         *
+         * @return Falsch, wenn sie fehlerhaft ist und der Strom abgebrochen werden muss
+         */
+        boolean Fertig() {
+            if (Fehlerhaft || Ziel.Methode == null || Ziel.URI == null || Schema == null) {
+                return false;
+            }
+            Ziel.Version = Anfrage.HTTP2;
+            Ziel.Gueltig = true;
+            if (Autoritaet != null && Ziel.Header(Anfrage.Feld.HOST) == null) {
+                Ziel.SetzeFeld(Anfrage.Feld.HOST, Autoritaet);
+            }
+            return true;
+        }
+    }
+}
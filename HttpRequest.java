@@ -0,0 +1,1142 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+final class HttpRequest implements Runnable {
+    /**
+     * Socket des Clients der von dieser Instanz bearbeitet werden soll.
+     */
+    Socket ClientSocket;
+
+    /**
+     * Der angenommene Socket selbst. Bei HTTPS liegt um ihn der SSLSocket in {@link #ClientSocket}.
+     */
+    private final Socket RohSocket;
+
+    /**
+     * Ob die Verbindung ueber den HTTPS Port kam.
+     */
+    private final boolean Sicher;
+
+    /**
+     * Die gerade bearbeitete Anfrage.
+     */
+    Anfrage AktuelleAnfrage;
+
+    /**
+     * Wir speichern unsere Streams Klassenweit, damit wir die Fehlerbehandlung modularisieren und auslagern koennen.
+     */
+    InputStream ClientInputStream;
+    DataOutputStream ClientDataOutputStream;
+
+    /**
+     * Empfangene Bytes. Zwischen EingangAnfang und EingangEnde liegt, was noch nicht verarbeitet wurde, etwa schon
+     * hinterher geschickte Anfragen. Der Puffer kommt aus dem {@link PufferPool} und geht beim Schliessen zurueck.
+     */
+    byte[] Eingang;
+    int EingangAnfang;
+    int EingangEnde;
+    private ByteBuffer EingangsPuffer;
+    AnfrageParser Parser;
+
+    /**
+     * Die Anfrage wird fuer alle Anfragen dieser Verbindung wiederverwendet und vor jeder zurueckgesetzt.
+     */
+    private Anfrage Kontext;
+
+    /**
+     * Puffer fuer Statuszeile und Header, der fuer alle Antworten auf dieser Verbindung wiederverwendet wird.
+     */
+    ByteBuffer KopfPuffer;
+
+    /**
+     * Adresse des Clients, fuer die Fehlerseiten.
+     */
+    InetAddress ClientAdresse;
+
+    /**
+     * Zeitpunkt nach System.nanoTime(), zu dem der Kopf der aktuellen Anfrage vollstaendig war.
+     */
+    long AnfrageStart;
+
+    /**
+     * Der Zustand des Clients bei der {@link Zugangskontrolle}. Die Verbindung wird beim Schliessen freigegeben.
+     */
+    Zugangskontrolle.Client Zugang = Zugangskontrolle.OHNE;
+
+    /**
+     * Fuer den Waechter der {@link Fristen}: bis wann die aktuelle Antwort nach System.nanoTime() gesendet sein muss,
+     * 0 wenn gerade nichts gesendet wird, und ob die Verbindung gerade auf die naechste Anfrage wartet.
+     */
+    volatile long SendeFrist;
+    volatile boolean Leerlauf;
+
+    /**
+     * Wahr, wenn der Socket wegen einer Frist oder beim Herunterfahren von aussen geschlossen wurde. Die dann
+     * folgenden IO Fehler sind erwartet und werden nicht protokolliert.
+     */
+    volatile boolean Unterbrochen;
+
+    /**
+     * Ohne Dateicache komprimieren wir bei jeder Anfrage neu, aber nur Dateien bis zu dieser Groesse.
+     */
+    final static long KOMPRIMIER_GRENZE = 1024 * 1024;
+
+    /**
+     * Ergebnis von {@link #Zerlege}, wenn die Verbindung mit dem Vorspann von HTTP/2 beginnt.
+     */
+    private final static int HTTP2 = -2;
+
+    HttpRequest(Socket AnfragenSocket, boolean Sicher) {
+        this.ClientSocket = AnfragenSocket;
+        this.RohSocket = AnfragenSocket;
+        this.Sicher = Sicher;
+        this.ClientInputStream = null;
+        this.ClientDataOutputStream = null;
+        this.ClientAdresse = AnfragenSocket.getInetAddress();
+    }
+
+    /**
+     * Erzeugt eine Instanz ohne eigenen Socket. Sie wird von der NIO Engine genutzt, die nur {@link #Bearbeite} aufruft.
+     *
+     * @param ClientAdresse Adresse des anfragenden Clients
+     */
+    HttpRequest(InetAddress ClientAdresse) {
+        this.ClientSocket = null;
+        this.RohSocket = null;
+        this.Sicher = false;
+        this.ClientInputStream = null;
+        this.ClientDataOutputStream = null;
+        this.ClientAdresse = ClientAdresse;
+    }
+
+    @Override
+    public void run() {
+        Metriken.WartendeVerbindungen.decrement();
+        Metriken.OffeneVerbindungen.increment();
+        Fristen.Bewache(this);
+        try {
+            processHttpRequest();
+        } catch (Exception e) {
+            Protokoll.Fehler("Unbekannter Fehler beim bearbeiten einer Anfrage aufgetreten. Beende bearbeitung dieses Clients...");
+        } finally {
+            // Wir schliessen all unsere Streams und den Socket
+            Fristen.Entlasse(this);
+            BrecheAllesAb();
+            Metriken.OffeneVerbindungen.decrement();
+        }
+    }
+
+    private void processHttpRequest() throws Exception {
+        // Wir oeffnen den Inputstream zu unserem Client, den Outputstream erst wenn wir ihn brauchen. Bei HTTPS laeuft
+        // der Handshake mit dem ersten Lesen, also schon unter der Frist fuer den Kopf.
+        try {
+            if (Sicher) {
+                ClientSocket = Tls.Umhuelle(RohSocket);
+            }
+            ClientInputStream = ClientSocket.getInputStream();
+        } catch (IOException e) {
+            Protokoll.Fehler("Probleme beim aufbauen von Streams zum Client. Breche ab...");
+            ClientSocket.close();
+            return;
+        }
+
+        if (ClientInputStream == null) {
+            Protokoll.Fehler("Seltsame Probleme beim aufbauen von Streams zum Client. Breche ab...");
+            BrecheAllesAb();
+            return;
+        }
+
+        // Die Anfragen werden direkt auf den Bytes geparst, ohne Reader und ohne Dekodierung
+        EingangsPuffer = PufferPool.Nimm();
+        Eingang = EingangsPuffer.array();
+        EingangAnfang = 0;
+        EingangEnde = 0;
+        Parser = new AnfrageParser();
+        Kontext = new Anfrage();
+
+        // Solange der Client die Verbindung offen halten moechte, bearbeiten wir hier eine Anfrage nach der anderen.
+        // Weitere Anfragen, die der Client bereits hinterher geschickt hat (Pipelining), liegen schon im Puffer.
+        int Bearbeitet = 0;
+        boolean OffenHalten = true;
+        while (OffenHalten) {
+            Bearbeitet++;
+            OffenHalten = BearbeiteNaechsteAnfrage(Bearbeitet < WebServer.MaxAnfragenProVerbindung, Bearbeitet == 1);
+        }
+    }
+
+    /**
+     * Liest eine einzelne Anfrage von der Verbindung und beantwortet sie.
+     *
+     * @param OffenErlaubt Ob nach dieser Anfrage noch weitere auf der Verbindung erlaubt sind
+     * @param Erste        Ob es die erste Anfrage der Verbindung ist, nur sie darf mit HTTP/2 beginnen
+     * @return Wahr, wenn auf der Verbindung noch eine weitere Anfrage gelesen werden soll
+     */
+    private boolean BearbeiteNaechsteAnfrage(boolean OffenErlaubt, boolean Erste) throws IOException {
+        Anfrage DieAnfrage = Kontext;
+        DieAnfrage.Zuruecksetzen();
+        long KopfEnde = 0;
+
+        try {
+            // Wir lesen solange, bis der Parser einen vollstaendigen Kopf gefunden hat. Ist die Verbindung vorher zu,
+            // hat der Client keine weiteren Anfragen. Auf das erste Byte warten wir die Leerlaufzeit, ab dann hat der
+            // ganze Kopf seine eigene Frist, egal wie langsam der Client die Bytes tropfen laesst.
+            int Verbraucht;
+            while ((Verbraucht = Zerlege(DieAnfrage, Erste)) == AnfrageParser.BRAUCHT_MEHR) {
+                if (EingangEnde > EingangAnfang) {
+                    if (KopfEnde == 0) {
+                        Leerlauf = false;
+                        KopfEnde = System.nanoTime() + Fristen.KopfZeit * 1_000_000L;
+                    }
+                    ClientSocket.setSoTimeout(Fristen.Rest(KopfEnde));
+                } else {
+                    // Beim Herunterfahren warten wir nicht mehr auf weitere Anfragen. Leerlauf wird vor der Pruefung
+                    // gesetzt, so schliesst entweder Herunterfahren den Socket oder wir sehen Aktiv.
+                    Leerlauf = true;
+                    if (Herunterfahren.Aktiv) {
+                        return false;
+                    }
+                    ClientSocket.setSoTimeout(WebServer.LeerlaufZeitLimit);
+                }
+                if (!LeseMehr()) {
+                    return false;
+                }
+            }
+            Leerlauf = false;
+            ClientSocket.setSoTimeout(0);
+            AnfrageStart = System.nanoTime();
+
+            if (Verbraucht == HTTP2) {
+                return BearbeiteHttp2(null);
+            }
+            if (Verbraucht == AnfrageParser.FEHLER) {
+                return Sende(null, FehlerAntwort(Parser.FehlerStatus), false);
+            }
+            EingangAnfang += Verbraucht;
+        } catch (SocketTimeoutException e) {
+            // Der Client hat innerhalb der Leerlaufzeit nichts geschickt, wir schliessen die Verbindung. Hat er einen
+            // Kopf angefangen, aber nicht rechtzeitig beendet, sagen wir ihm noch warum.
+            if (KopfEnde != 0) {
+                Metriken.Zeitueberschreitungen.increment();
+                AnfrageStart = System.nanoTime();
+                Sende(null, FehlerAntwort("408 Request Timeout"), false);
+            }
+            return false;
+        } catch (IOException e) {
+            if (!Unterbrochen) {
+                Protokoll.Fehler("Unbekannte IO-Probleme beim lesen von Streams zum Client. Breche ab...");
+            }
+            return false;
+        }
+        AktuelleAnfrage = DieAnfrage;
+
+        // Ist der Client zu schnell, lehnen wir ab, bevor wir Rumpf, Cache oder Dateisystem anfassen
+        if (!Zugang.Darf()) {
+            return Sende(DieAnfrage, ZuVieleAnfragen(DieAnfrage, Zugang), OffenErlaubt);
+        }
+        if (!Sicher && Http2Verbindung.WillUmsteigen(DieAnfrage)) {
+            return BearbeiteHttp2(DieAnfrage);
+        }
+
+        // Hat die Anfrage einen Rumpf, lesen wir ihn noch von der Leitung, bevor wir sie bearbeiten
+        RumpfLeser Leser = RumpfLeser.Fuer(DieAnfrage, WebServer.MaxRumpfGroesse);
+        if (Leser != null) {
+            String Fehler = LeseRumpf(DieAnfrage, Leser);
+            if (Fehler != null) {
+                return Sende(DieAnfrage, FehlerAntwort(Fehler), false);
+            }
+        }
+
+        return Sende(DieAnfrage, Bearbeite(DieAnfrage), OffenErlaubt);
+    }
+
+    /**
+     * Parst die naechste Anfrage. Die erste Anfrage einer Verbindung kann auch der Vorspann von HTTP/2 sein.
+     *
+     * @return Wie {@link AnfrageParser#Parse}, oder {@link #HTTP2} wenn der Client HTTP/2 spricht
+     */
+    private int Zerlege(Anfrage DieAnfrage, boolean Erste) {
+        if (Erste && Http2Verbindung.Aktiv && EingangAnfang == 0) {
+            int Vorspann = Http2Verbindung.Vorspann(Eingang, EingangAnfang, EingangEnde);
+            if (Vorspann == Http2Verbindung.JA) {
+                return HTTP2;
+            } else if (Vorspann == Http2Verbindung.VIELLEICHT) {
+                return AnfrageParser.BRAUCHT_MEHR;
+            }
+        }
+        return Parser.Parse(Eingang, EingangAnfang, EingangEnde, DieAnfrage);
+    }
+
+    /**
+     * Fuehrt die Verbindung ab hier mit HTTP/2 weiter, bis einer von beiden sie beendet. Gelesen und gesendet wird
+     * abwechselnd in diesem Thread, die Stroeme selbst verwaltet die {@link Http2Verbindung}.
+     *
+     * @param Umstieg Die Anfrage, die per Upgrade umsteigt, oder null wenn der Vorspann im Eingang liegt
+     * @return Immer falsch, die Verbindung wird erst geschlossen, wenn der Client auflegt oder die Zeit abgelaufen ist
+     */
+    private boolean BearbeiteHttp2(Anfrage Umstieg) {
+        Http2Verbindung Zweier = new Http2Verbindung(this, ClientAdresse, Zugang, Umstieg, null);
+        try {
+            while (true) {
+                EingangAnfang += Zweier.Verarbeite(Eingang, EingangAnfang, EingangEnde);
+                SendeHttp2(Zweier);
+
+                // Beim Herunterfahren verabschiedet sich die Verbindung mit dem naechsten Senden. Leerlauf wird vor
+                // der Pruefung gesetzt, so schliesst entweder Herunterfahren den Socket oder wir sehen Aktiv.
+                Leerlauf = Zweier.Wartet();
+                if (Leerlauf && Herunterfahren.Aktiv) {
+                    Leerlauf = false;
+                    SendeHttp2(Zweier);
+                }
+
+                // Auch nach dem GOAWAY lesen wir weiter, bis der Client auflegt. Ohne offene Stroeme gilt dabei die
+                // Leerlaufzeit, sonst warten wir wie beim Rumpf auf den Client.
+                ClientSocket.setSoTimeout(Zweier.Aktiv() ? Fristen.RumpfZeit : WebServer.LeerlaufZeitLimit);
+                if (!LeseMehr()) {
+                    return false;
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            if (Zweier.Aktiv()) {
+                Metriken.Zeitueberschreitungen.increment();
+            }
+            try {
+                Zweier.Verabschiede();
+                SendeHttp2(Zweier);
+            } catch (IOException Egal) {
+                // Die Verbindung wird ohnehin geschlossen
+            }
+            return false;
+        } catch (IOException e) {
+            if (!Unterbrochen) {
+                Protokoll.Fehler("Unbekannte IO-Probleme beim lesen von Streams zum Client. Breche ab...");
+            }
+            return false;
+        } finally {
+            Leerlauf = false;
+            SendeFrist = 0;
+            Zweier.Schliesse();
+        }
+    }
+
+    /**
+     * Sendet, was die HTTP/2 Verbindung zu senden hat. Schickt der Client waehrenddessen etwas, etwa ein
+     * WINDOW_UPDATE oder neue Anfragen, hoeren wir auf, damit es zuerst gelesen wird.
+     */
+    private void SendeHttp2(Http2Verbindung Zweier) throws IOException {
+        DataOutputStream Ausgabe = Ausgabe();
+        boolean Geschrieben = false;
+        ByteBuffer Stueck;
+        while ((Stueck = Zweier.Ausgabe()).hasRemaining()) {
+            int Laenge = Stueck.remaining();
+            SendeFrist = Fristen.Ende(System.nanoTime(), Fristen.SendeZeit, Laenge);
+            Ausgabe.write(Stueck.array(), Stueck.arrayOffset() + Stueck.position(), Laenge);
+            Stueck.position(Stueck.limit());
+            Metriken.GesendeteBytes.add(Laenge);
+            Geschrieben = true;
+            if (ClientInputStream.available() > 0) {
+                break;
+            }
+        }
+        if (Geschrieben) {
+            Ausgabe.flush();
+        }
+        SendeFrist = 0;
+    }
+
+    /**
+     * Liest weitere Bytes vom Client in den Eingangspuffer. Bereits verarbeitete Bytes werden vorher nach vorne
+     * verschoben, reicht das nicht, wird der Puffer bis knapp ueber die maximale Kopfgroesse vergroessert.
+     *
+     * @return Falsch, wenn der Client die Verbindung geschlossen hat
+     */
+    private boolean LeseMehr() throws IOException {
+        if (EingangAnfang == EingangEnde) {
+            EingangAnfang = 0;
+            EingangEnde = 0;
+        }
+        if (EingangEnde == Eingang.length) {
+            if (EingangAnfang > 0) {
+                System.arraycopy(Eingang, EingangAnfang, Eingang, 0, EingangEnde - EingangAnfang);
+                EingangEnde -= EingangAnfang;
+                EingangAnfang = 0;
+            } else {
+                Eingang = Arrays.copyOf(Eingang, Math.min(Eingang.length * 2, AnfrageParser.MAX_KOPF_GROESSE + 1024));
+            }
+        }
+
+        int Gelesen = ClientInputStream.read(Eingang, EingangEnde, Eingang.length - EingangEnde);
+        if (Gelesen == -1) {
+            return false;
+        }
+        EingangEnde += Gelesen;
+        return true;
+    }
+
+    /**
+     * Reicht den Rumpf Stueck fuer Stueck an seinen Empfaenger weiter. Im Speicher liegt dabei nie mehr als der
+     * Eingangspuffer. POST Rumpfe gehen an das konfigurierte Ziel, die Rumpfe anderer Methoden werden verworfen.
+     *
+     * @return Null wenn der Rumpf vollstaendig gelesen wurde, sonst der Status der Fehlerantwort
+     */
+    private String LeseRumpf(Anfrage DieAnfrage, RumpfLeser Leser) {
+        if (Leser.FehlerStatus != null) {
+            return Leser.FehlerStatus;
+        }
+
+        RumpfZiel Ziel = Anfrage.POST.equals(DieAnfrage.Methode()) ? WebServer.PostZiel.get() : RumpfZiele.VERWERFEN;
+        try {
+            // Wartet der Client auf unser Okay, bekommt er es erst jetzt, wo wir die Groesse geprueft haben
+            if (RumpfLeser.WartetAufWeiter(DieAnfrage) && EingangAnfang == EingangEnde) {
+                DataOutputStream Ausgabe = Ausgabe();
+                Ausgabe.write(Antwort.WEITER);
+                Ausgabe.flush();
+                Metriken.GesendeteBytes.add(Antwort.WEITER.length);
+            }
+
+            // Der Rumpf hat eine Frist, die mit jedem gelesenen Byte waechst, und keine Pause darf laenger als die
+            // Grundzeit sein
+            long RumpfBeginn = System.nanoTime();
+            long Gelesen = 0;
+            while (!Leser.Fertig()) {
+                if (EingangAnfang == EingangEnde) {
+                    ClientSocket.setSoTimeout(Fristen.RumpfRest(RumpfBeginn, Gelesen));
+                    if (!LeseMehr()) {
+                        // Der Client hat die Verbindung mitten im Rumpf geschlossen
+                        Ziel.Abbrechen();
+                        return "400 Bad Request";
+                    }
+                }
+                int Verbraucht = Leser.Lies(Eingang, EingangAnfang, EingangEnde, Ziel);
+                if (Verbraucht == RumpfLeser.FEHLER) {
+                    Ziel.Abbrechen();
+                    return Leser.FehlerStatus;
+                }
+                EingangAnfang += Verbraucht;
+                Gelesen += Verbraucht;
+            }
+            ClientSocket.setSoTimeout(0);
+        } catch (SocketTimeoutException e) {
+            Metriken.Zeitueberschreitungen.increment();
+            Ziel.Abbrechen();
+            return "408 Request Timeout";
+        } catch (IOException e) {
+            if (!Unterbrochen) {
+                Protokoll.Fehler("Fehler beim lesen eines Rumpfes. Breche ab...");
+            }
+            Ziel.Abbrechen();
+            return "500 Internal Server Error";
+        }
+        DieAnfrage.Ziel = Ziel;
+        return null;
+    }
+
+    /**
+     * Bearbeitet eine vollstaendig gelesene Anfrage. Diese Methode ist unabhaengig von der Verbindung und wird sowohl
+     * von der blockierenden als auch von der NIO Engine genutzt.
+     *
+     * @param DieAnfrage Die geparste Anfrage, bei POST mit dem Empfaenger des bereits gelesenen Rumpfes
+     * @return Die zu sendende Antwort
+     */
+    Antwort Bearbeite(Anfrage DieAnfrage) {
+        long Beginn = System.nanoTime();
+        Antwort DieAntwort = BearbeiteMethode(DieAnfrage);
+        Metriken.Erfasse(Metriken.Phase.BEARBEITEN, System.nanoTime() - Beginn);
+        return DieAntwort;
+    }
+
+    /**
+     * Beantwortet eine Anfrage nur, wenn die Antwort fertig im {@link DateiCache} liegt und ihre mtime gerade erst
+     * geprueft wurde. Die NIO Engine ruft das in ihrer Ereignisschleife auf, alles andere koennte dort auf die Platte
+     * warten und geht an einen Arbeiter.
+     *
+     * @param DieAnfrage Die geparste Anfrage
+     * @return Die Antwort, oder null wenn die Anfrage mit {@link #Bearbeite} bearbeitet werden muss
+     */
+    Antwort Sofort(Anfrage DieAnfrage) {
+        if (!DieAnfrage.Gueltig || WebServer.InhaltsCache == null
+                || Routen.Aktuell.Suche(DieAnfrage.URI(), DieAnfrage.Methode()) != Module.DATEIEN) {
+            return null;
+        }
+        Pfade.Ziel DasZiel = Pfade.Loese(DieAnfrage.URI());
+        if (DasZiel == null || DasZiel.Verzeichnis) {
+            return null;
+        }
+        long Beginn = System.nanoTime();
+        AktuelleAnfrage = DieAnfrage;
+        Antwort DieAntwort = HoleDatei(DieAnfrage, DasZiel, Anfrage.HEAD.equals(DieAnfrage.Methode()), true);
+        if (DieAntwort != null) {
+            Metriken.Erfasse(Metriken.Phase.BEARBEITEN, System.nanoTime() - Beginn);
+        }
+        return DieAntwort;
+    }
+
+    private Antwort BearbeiteMethode(Anfrage DieAnfrage) {
+        AktuelleAnfrage = DieAnfrage;
+
+        if (!DieAnfrage.Gueltig) {
+            return FehlerAntwort("400 Bad Request");
+        }
+
+        // Welches Modul zustaendig ist, steht in den beim Start kompilierten Routen. Dynamische Routen kommen so nie
+        // in die Naehe des Dateisystems.
+        Modul Zustaendig = Routen.Aktuell.Suche(DieAnfrage.URI(), DieAnfrage.Methode());
+        if (Zustaendig == null) {
+            return new Antwort("501 Not Implemented");
+        }
+        return Zustaendig.Bearbeite(this, DieAnfrage);
+    }
+
+    /**
+     * Lehnt eine Anfrage ab, weil ihr Client mehr Anfragen schickt als die {@link Zugangskontrolle} erlaubt. Einen
+     * Rumpf lesen wir dafuer gar nicht erst, die Verbindung wird dann geschlossen.
+     *
+     * @param DieAnfrage Die abgelehnte Anfrage
+     * @param DerClient  Der Zustand des Clients, fuer Retry-After
+     * @return Die 429 Antwort
+     */
+    Antwort ZuVieleAnfragen(Anfrage DieAnfrage, Zugangskontrolle.Client DerClient) {
+        Antwort DieAntwort = FehlerAntwort("429 Too Many Requests")
+                .Header("Retry-After", Long.toString(DerClient.Wartezeit()));
+        DieAntwort.Schliessen = DieAnfrage.Header(Anfrage.Feld.TRANSFER_ENCODING) != null
+                || DieAnfrage.InhaltsLaenge() != -1 && DieAnfrage.InhaltsLaenge() != 0;
+        DieAntwort.NurKopf = Anfrage.HEAD.equals(DieAnfrage.Methode());
+        return DieAntwort;
+    }
+
+    /**
+     * Lehnt eine Anfrage ab, weil kein Arbeiter frei ist. Die blockierende Engine sendet ihr 503 mit {@link #LehneAb},
+     * noch bevor eine Anfrage gelesen ist, die NIO Engine erst fuer die fertig gelesene Anfrage.
+     *
+     * @param DieAnfrage Die abgelehnte Anfrage
+     * @return Die 503 Antwort
+     */
+    Antwort Ueberlastet(Anfrage DieAnfrage) {
+        AktuelleAnfrage = DieAnfrage;
+        Antwort DieAntwort = FehlerAntwort("503 Service Unavailable").Header("Retry-After", "1");
+        DieAntwort.NurKopf = Anfrage.HEAD.equals(DieAnfrage.Methode());
+        return DieAntwort;
+    }
+
+    /**
+     * Erzeugt eine Fehlerantwort mit HTML Fehlerseite.
+     *
+     * @param Status Der Status, etwa "400 Bad Request"
+     * @return Die fertige Antwort
+     */
+    Antwort FehlerAntwort(String Status) {
+        Antwort DieAntwort = new Antwort(Status).Header(Antwort.CONTENT_TYPE_HTML);
+        DieAntwort.Rumpf = GeneriereErrorSeite(Status);
+        // Nach kaputten Anfragen, ungelesenen Rumpfen und Serverfehlern wissen wir nicht, wo die naechste Anfrage beginnt
+        DieAntwort.Schliessen = Status.startsWith("400") || Status.startsWith("408") || Status.startsWith("413")
+                || Status.startsWith("5");
+        return DieAntwort;
+    }
+
+    /**
+     * Sendet eine Antwort ueber den blockierenden Outputstream.
+     *
+     * @param DieAnfrage   Die beantwortete Anfrage, oder null
+     * @param DieAntwort   Die zu sendende Antwort
+     * @param OffenErlaubt Ob die Verbindung danach fuer weitere Anfragen offen bleiben darf
+     * @return Wahr, wenn die Verbindung offen bleibt
+     */
+    private boolean Sende(Anfrage DieAnfrage, Antwort DieAntwort, boolean OffenErlaubt) {
+        long Beginn = System.nanoTime();
+        long Gesendet = 0;
+        long KopfLaenge = 0;
+        // Dateien oeffnen wir bevor wir irgendetwas senden, damit wir bei Fehlern noch abbrechen koennen
+        // Grosse Dateien kommen, falls eingeschaltet, aus einer geteilten Abbildung im Speicher
+        // Ein SSLSocket liefert hier den Kanal darunter, an der Verschluesselung vorbei. Bei HTTPS also nur Streams.
+        SocketChannel Ziel = Sicher ? null : ClientSocket.getChannel();
+        FileChannel DateiKanal = null;
+        Abbildungen.Abbildung Abbild = null;
+        ByteBuffer StromPuffer = null;
+        if (DieAntwort.Datei != null && !DieAntwort.NurKopf) {
+            try {
+                Abbild = Ziel == null ? null : DieAntwort.BildeAb();
+                if (Abbild == null) {
+                    DateiKanal = DieAntwort.OeffneDatei();
+                }
+            } catch (Exception e) {
+                Protokoll.Fehler("Datei ist magisch. Ein Einhorn wird sie gestohlen oder versteckt haben. Breche ab...");
+                return false;
+            }
+        }
+
+        boolean OffenHalten = DieAntwort.Rahmen(DieAnfrage, OffenErlaubt);
+        KopfPuffer = DieAntwort.Kopf(KopfPuffer);
+        KopfLaenge = KopfPuffer.limit();
+        // Bekannte Laengen gehen gleich in die Frist ein, Stroeme verlaengern sie mit jedem Stueck
+        long RumpfLaenge = DieAntwort.HatRumpf() ? Math.max(0, DieAntwort.Laenge()) : 0;
+        SendeFrist = Fristen.Ende(Beginn, Fristen.SendeZeit, KopfLaenge + RumpfLaenge);
+        try {
+            if (Ziel != null && DieAntwort.Strom == null) {
+                // Kopf und Rumpf aus dem Speicher gehen mit einem einzigen gathering write raus, Dateien danach per
+                // transferTo (sendfile) direkt aus dem Kernel, ohne Kopie durch den Userspace
+                ByteBuffer Rumpf = null;
+                if (DieAntwort.HatRumpf() && DieAntwort.Rumpf != null) {
+                    Rumpf = ByteBuffer.wrap(DieAntwort.Rumpf);
+                } else if (DieAntwort.HatRumpf() && DieAntwort.Puffer != null) {
+                    Rumpf = DieAntwort.Puffer;
+                }
+                if (Abbild != null) {
+                    ByteBuffer[] Abschnitte = Abbild.Ausschnitt(DieAntwort.DateiAnfang, DieAntwort.Laenge());
+                    ByteBuffer[] Teile = new ByteBuffer[Abschnitte.length + 1];
+                    Teile[0] = KopfPuffer;
+                    System.arraycopy(Abschnitte, 0, Teile, 1, Abschnitte.length);
+                    Gesendet += SchreibeAlles(Ziel, Teile);
+                    return OffenHalten;
+                }
+                Gesendet += SchreibeAlles(Ziel, KopfPuffer, Rumpf);
+                if (DateiKanal != null) {
+                    SendeDatei(DateiKanal, DieAntwort.DateiAnfang, DieAntwort.Laenge(), Ziel);
+                    Gesendet += DieAntwort.Laenge();
+                }
+                return OffenHalten;
+            }
+
+            // Ohne Kanal oder bei Stroemen unbekannter Laenge bleibt uns nur der Outputstream
+            DataOutputStream Ausgabe = Ausgabe();
+            Ausgabe.write(KopfPuffer.array(), 0, KopfPuffer.limit());
+            Gesendet += KopfPuffer.limit();
+            if (DieAntwort.HatRumpf()) {
+                // Fuer Stroeme und Dateien leihen wir uns noch einen Puffer
+                StromPuffer = PufferPool.Nimm();
+                byte[] Buffer = StromPuffer.array();
+                int bytes;
+                if (DieAntwort.Rumpf != null) {
+                    Ausgabe.write(DieAntwort.Rumpf);
+                    Gesendet += DieAntwort.Rumpf.length;
+                } else if (DieAntwort.Puffer != null) {
+                    while (DieAntwort.Puffer.hasRemaining()) {
+                        int Stueck = Math.min(Buffer.length, DieAntwort.Puffer.remaining());
+                        DieAntwort.Puffer.get(Buffer, 0, Stueck);
+                        Ausgabe.write(Buffer, 0, Stueck);
+                        Gesendet += Stueck;
+                    }
+                } else if (DateiKanal != null) {
+                    ByteBuffer Huelle = ByteBuffer.wrap(Buffer);
+                    DateiKanal.position(DieAntwort.DateiAnfang);
+                    long Rest = DieAntwort.Laenge();
+                    while (Rest > 0 && (bytes = DateiKanal.read(Huelle)) != -1) {
+                        int Stueck = (int) Math.min(bytes, Rest);
+                        Ausgabe.write(Buffer, 0, Stueck);
+                        Gesendet += Stueck;
+                        Rest -= Stueck;
+                        Huelle.clear();
+                    }
+                } else if (DieAntwort.Chunked) {
+                    while ((bytes = DieAntwort.Strom.read(Buffer)) != -1) {
+                        SendeFrist = Math.max(SendeFrist, Fristen.Ende(System.nanoTime(), Fristen.SendeZeit, bytes));
+                        String ChunkKopf = Integer.toHexString(bytes) + Antwort.CRLF;
+                        Ausgabe.writeBytes(ChunkKopf);
+                        Ausgabe.write(Buffer, 0, bytes);
+                        Ausgabe.writeBytes(Antwort.CRLF);
+                        Gesendet += ChunkKopf.length() + bytes + 2;
+                    }
+                    Ausgabe.writeBytes("0" + Antwort.CRLF + Antwort.CRLF);
+                    Gesendet += 5;
+                } else {
+                    while ((bytes = DieAntwort.Strom.read(Buffer)) != -1) {
+                        SendeFrist = Math.max(SendeFrist, Fristen.Ende(System.nanoTime(), Fristen.SendeZeit, bytes));
+                        Ausgabe.write(Buffer, 0, bytes);
+                        Gesendet += bytes;
+                    }
+                }
+            }
+            Ausgabe.flush();
+        } catch (IOException e) {
+            if (!Unterbrochen) {
+                Protokoll.Fehler("Fehler beim Senden einer " + DieAntwort.Status + " Antwort. Breche ab...");
+            }
+            return false;
+        } finally {
+            SendeFrist = 0;
+            if (StromPuffer != null) {
+                PufferPool.Gib(StromPuffer);
+            }
+            if (Abbild != null) {
+                Abbild.Gib();
+            }
+            SchliesseQuelle(DateiKanal);
+            SchliesseQuelle(DieAntwort.Strom);
+
+            long Ende = System.nanoTime();
+            Metriken.GesendeteBytes.add(Gesendet);
+            Metriken.Erfasse(Metriken.Phase.SENDEN, Ende - Beginn);
+            Metriken.Anfrage(DieAnfrage == null ? null : DieAnfrage.Methode(), DieAntwort.Status, Ende - AnfrageStart);
+            Protokoll.Zugriff(ClientAdresse, DieAnfrage, DieAntwort.Status, Gesendet - KopfLaenge);
+        }
+        return OffenHalten;
+    }
+
+    /**
+     * Schreibt Kopf und optional Rumpf mit gathering writes vollstaendig auf den (blockierenden) Kanal.
+     *
+     * @return Die Anzahl geschriebener Bytes
+     */
+    private static long SchreibeAlles(SocketChannel Ziel, ByteBuffer Kopf, ByteBuffer Rumpf) throws IOException {
+        long Geschrieben = 0;
+        if (Rumpf == null) {
+            while (Kopf.hasRemaining()) {
+                Geschrieben += Ziel.write(Kopf);
+            }
+            return Geschrieben;
+        }
+        return SchreibeAlles(Ziel, new ByteBuffer[]{Kopf, Rumpf});
+    }
+
+    /**
+     * Schreibt mehrere Puffer mit gathering writes vollstaendig auf den (blockierenden) Kanal.
+     *
+     * @return Die Anzahl geschriebener Bytes
+     */
+    private static long SchreibeAlles(SocketChannel Ziel, ByteBuffer[] Teile) throws IOException {
+        long Geschrieben = 0;
+        while (PufferPool.Uebrig(Teile)) {
+            Geschrieben += Ziel.write(Teile);
+        }
+        return Geschrieben;
+    }
+
+    /**
+     * Sendet eine Datei per transferTo direkt an den Kernel (sendfile), ohne sie durch den Userspace zu kopieren.
+     *
+     * @param DateiKanal Die geoeffnete Datei
+     * @param Anfang     Position des ersten zu sendenden Bytes
+     * @param Laenge     Anzahl zu sendender Bytes
+     * @param Ziel       Der Kanal des Sockets
+     */
+    private static void SendeDatei(FileChannel DateiKanal, long Anfang, long Laenge, SocketChannel Ziel)
+            throws IOException {
+        long Position = Anfang;
+        long Ende = Anfang + Laenge;
+        while (Position < Ende) {
+            long Gesendet = DateiKanal.transferTo(Position, Ende - Position, Ziel);
+            if (Gesendet <= 0) {
+                throw new EOFException("Datei ist waehrend des Sendens geschrumpft");
+            }
+            Position += Gesendet;
+        }
+    }
+
+    /**
+     * Der Outputstream zum Client. Er wird erst angelegt, wenn etwas nicht direkt ueber den Kanal gesendet werden kann,
+     * die meisten Verbindungen brauchen ihn und seinen Puffer also nie.
+     */
+    private DataOutputStream Ausgabe() throws IOException {
+        if (ClientDataOutputStream == null) {
+            ClientDataOutputStream = new DataOutputStream(new BufferedOutputStream(ClientSocket.getOutputStream()));
+        }
+        return ClientDataOutputStream;
+    }
+
+    /**
+     * Schliesst einen Datei- oder Rumpfstrom nach dem Senden.
+     */
+    private static void SchliesseQuelle(Closeable Quelle) {
+        if (Quelle != null) {
+            try {
+                Quelle.close();
+            } catch (IOException e) {
+                Protokoll.Fehler("Fehler beim schliessen eines Dateistroms. Breche ab...");
+            }
+        }
+    }
+
+    /**
+     * Wird vom Ausfuehrer aufgerufen, wenn fuer diese Anfrage kein Thread mehr frei ist. Wir lesen die Anfrage nicht
+     * mehr, sondern senden sofort eine 503 Seite und schliessen die Verbindung.
+     */
+    void LehneAb() {
+        if (Sicher) {
+            // Ohne Handshake kein 503, der Client sieht nur die geschlossene Verbindung
+            Verwerfe();
+            return;
+        }
+        Metriken.WartendeVerbindungen.decrement();
+        AnfrageStart = System.nanoTime();
+        try {
+            ClientDataOutputStream = new DataOutputStream(ClientSocket.getOutputStream());
+            Sende(null, FehlerAntwort("503 Service Unavailable").Header("Retry-After", "1"), false);
+        } catch (IOException e) {
+            Protokoll.Fehler("Fehler beim Senden eines 503 Fehlers. Breche ab...");
+        } finally {
+            BrecheAllesAb();
+        }
+    }
+
+    /**
+     * Schliesst die Verbindung ohne Antwort, etwa wenn der Ausfuehrer ueberlastet ist oder heruntergefahren wird.
+     */
+    void Verwerfe() {
+        Metriken.WartendeVerbindungen.decrement();
+        BrecheAllesAb();
+    }
+
+    /**
+     * Beantwortet GET und HEAD fuer eine Datei. Kleine Dateien kommen aus dem Dateicache, dann wird das Dateisystem
+     * gar nicht erst angefasst. Alles andere wird beim Senden gestreamt. Textdateien werden, wenn der Client es
+     * annimmt, komprimiert ausgeliefert. Bedingte Anfragen und Range Anfragen beantwortet die {@link Darstellung}.
+     *
+     * @param DieAnfrage Die Anfrage mit URI und Headern
+     * @param NurKopf    wahr bei HEAD
+     * @return Die Antwort inklusive Rumpf
+     */
+    Antwort HoleDatei(Anfrage DieAnfrage, boolean NurKopf) {
+        // Die URI ist eine Pfadangabe zur gewuenschten Datei unterhalb der Wurzel. Wer mit ".." aus ihr heraus will
+        // oder kaputt kodiert, bekommt 400.
+        Pfade.Ziel DasZiel = Pfade.Loese(DieAnfrage.URI());
+        if (DasZiel == null) {
+            return DateiFehler("400 Bad Request", NurKopf);
+        }
+        // Verzeichnisse erkennen wir am abschliessenden Slash, ohne dafuer erst das Dateisystem zu fragen
+        if (DasZiel.Verzeichnis) {
+            return HoleVerzeichnis(DieAnfrage, DasZiel, NurKopf);
+        }
+        return HoleDatei(DieAnfrage, DasZiel, NurKopf, false);
+    }
+
+    /**
+     * Beantwortet GET und HEAD fuer ein Verzeichnis mit seiner Indexdatei, oder falls eingeschaltet mit einer
+     * Auflistung. Beides kommt aus dem Cache in {@link Verzeichnisse}, ohne das Verzeichnis jedes Mal zu lesen.
+     *
+     * @param DasZiel Das aufgeloeste Verzeichnis
+     */
+    private Antwort HoleVerzeichnis(Anfrage DieAnfrage, Pfade.Ziel DasZiel, boolean NurKopf) {
+        if (DasZiel.Fehlt()) {
+            return DateiFehler("404 Not Found", NurKopf);
+        }
+        Verzeichnisse.Verzeichnis DasVerzeichnis;
+        String Index;
+        try {
+            DasVerzeichnis = Verzeichnisse.Hole(DasZiel.Pfad);
+            Index = DasVerzeichnis == null ? null : DasVerzeichnis.Index();
+        } catch (SecurityException e) {
+            return DateiFehler("403 Forbidden", NurKopf);
+        }
+        if (DasVerzeichnis == null) {
+            DasZiel.Fehlend();
+            return DateiFehler("404 Not Found", NurKopf);
+        }
+        if (Index != null) {
+            return HoleDatei(DieAnfrage, DasZiel.Darin(Index), NurKopf, false);
+        }
+        // Ohne Indexdatei und ohne Auflistung verraten wir nicht, was im Verzeichnis liegt
+        if (!Verzeichnisse.Auflisten) {
+            return DateiFehler("403 Forbidden", NurKopf);
+        }
+
+        Antwort DieAntwort = new Antwort("200 OK").Header(Verzeichnisse.CONTENT_TYPE);
+        try {
+            DieAntwort.Rumpf = DasVerzeichnis.Auflistung(DasZiel.Anfragepfad);
+        } catch (IOException | SecurityException e) {
+            return DateiFehler("403 Forbidden", NurKopf);
+        }
+        DieAntwort.NurKopf = NurKopf;
+        return DieAntwort;
+    }
+
+    /**
+     * Beantwortet GET und HEAD fuer eine Datei, siehe {@link #HoleDatei(Anfrage, boolean)}.
+     *
+     * @param DasZiel  Die aufgeloeste Datei
+     * @param NurCache Wahr, wenn nur aus dem Cache geantwortet werden darf
+     * @return Die Antwort, mit NurCache null wenn die Datei nicht im Cache liegt
+     */
+    private Antwort HoleDatei(Anfrage DieAnfrage, Pfade.Ziel DasZiel, boolean NurKopf, boolean NurCache) {
+        DateiCache Cache = WebServer.InhaltsCache;
+        // Der Pfad ist schon normalisiert und wird so direkt zum Schluessel
+        String Schluessel = DasZiel.Name;
+        MimeTabelle.Typ MimeType = contentType(Schluessel);
+        boolean Komprimierbar = WebServer.Komprimieren && MimeType.Komprimierbar;
+        Komprimierung.Verfahren Verfahren =
+                Komprimierbar ? Komprimierung.Waehle(DieAnfrage.Header(Anfrage.Feld.ACCEPT_ENCODING)) : null;
+        // Ein Nullbyte kommt in keinem Pfad vor, so kann die Variante nicht mit einer echten Datei kollidieren
+        String VariantenSchluessel = Cache == null || Verfahren == null ? null : Schluessel + "\0" + Verfahren.Name;
+
+        if (Cache != null) {
+            // Ohne Arbeiter fragen wir nie nach der mtime, und gezaehlt wird nur, was wir ausliefern. Sonst zaehlte
+            // derselbe Zugriff noch einmal, wenn der Arbeiter es versucht.
+            DateiCache.Eintrag Gecacht = VariantenSchluessel == null ? null
+                    : NurCache ? Cache.Frisch(VariantenSchluessel) : Cache.Hole(VariantenSchluessel);
+            if (Gecacht != null) {
+                if (NurCache) {
+                    Cache.Benutzt(Gecacht);
+                }
+                return AusDemCache(Gecacht, MimeType, Verfahren, true).Beantworte(DieAnfrage, NurKopf);
+            }
+            // Zu kleine Dateien gehen auch an Clients, die Komprimierung annehmen, unkomprimiert raus
+            Gecacht = NurCache ? Cache.Frisch(Schluessel) : Cache.Hole(Schluessel);
+            if (Gecacht != null && (Verfahren == null || Gecacht.Inhalt.limit() < Komprimierung.MIN_GROESSE)) {
+                if (NurCache) {
+                    Cache.Benutzt(Gecacht);
+                }
+                return AusDemCache(Gecacht, MimeType, null, Komprimierbar).Beantworte(DieAnfrage, NurKopf);
+            }
+        }
+        if (NurCache) {
+            return null;
+        }
+
+        // Wir schauen ob die Datei nicht existiert und senden dann eine 404 Seite; bei Zugriffsverletzung 403 Seite
+        BasicFileAttributes Attribute;
+        try {
+            Attribute = DasZiel.Attribute();
+        } catch (SecurityException e) {
+            return DateiFehler("403 Forbidden", NurKopf);
+        }
+        if (Attribute == null) {
+            return DateiFehler("404 Not Found", NurKopf);
+        }
+        if (Attribute.isDirectory()) {
+            // Ohne abschliessenden Slash wuerden relative Links in Indexdatei und Auflistung ins Leere zeigen
+            int Query = DieAnfrage.URI().indexOf('?');
+            Antwort Umleitung = new Antwort("301 Moved Permanently").Header("Location",
+                    DasZiel.Anfragepfad + "/" + (Query < 0 ? "" : DieAnfrage.URI().substring(Query)));
+            Umleitung.NurKopf = NurKopf;
+            return Umleitung;
+        }
+
+        File Datei = DasZiel.Pfad.toFile();
+        if (Verfahren != null) {
+            Antwort Komprimiert = HoleKomprimiert(DieAnfrage, NurKopf, Datei, Attribute, MimeType, Verfahren,
+                    VariantenSchluessel);
+            if (Komprimiert != null) {
+                return Komprimiert;
+            }
+        }
+
+        // Ohne Kodierung reichen Groesse und mtime fuer ETag und Last-Modified, 304 kostet also keinen Lesezugriff
+        Validator DerValidator = Validator.Fuer(Attribute.lastModifiedTime().toMillis(), Attribute.size(), null);
+        Darstellung DieDarstellung = new Darstellung(MimeType, null, Komprimierbar, DerValidator);
+        Antwort Nicht = DieDarstellung.NichtGeaendert(DieAnfrage);
+        if (Nicht != null) {
+            return Nicht;
+        }
+
+        DateiCache.Eintrag Geladen = Cache == null ? null : Cache.Lade(Schluessel, Datei, null);
+        if (Geladen != null) {
+            return AusDemCache(Geladen, MimeType, null, Komprimierbar).Beantworte(DieAnfrage, NurKopf);
+        }
+        //Falls die Datei zu gross fuer den Cache ist, wird sie beim Senden als Rumpf geoeffnet
+        DieDarstellung.Datei = Datei;
+        DieDarstellung.DateiGroesse = Attribute.size();
+        return DieDarstellung.Beantworte(DieAnfrage, NurKopf);
+    }
+
+    /**
+     * Liefert die komprimierte Variante einer Datei, die noch nicht im Cache liegt. Zuerst schauen wir nach einer
+     * vorkomprimierten ".gz" Datei daneben, erst dann komprimieren wir selbst. Selbst komprimierte Varianten landen im
+     * Cache, damit wiederholte Anfragen nicht jedes Mal Rechenzeit kosten.
+     *
+     * @return Die Antwort, oder null wenn die Datei unkomprimiert gesendet werden soll
+     */
+    private Antwort HoleKomprimiert(Anfrage DieAnfrage, boolean NurKopf, File Original, BasicFileAttributes Attribute,
+                                    MimeTabelle.Typ MimeType, Komprimierung.Verfahren Verfahren,
+                                    String VariantenSchluessel) {
+        DateiCache Cache = WebServer.InhaltsCache;
+        long Aenderungszeit = Attribute.lastModifiedTime().toMillis();
+        try {
+            // Eine vorkomprimierte Datei nehmen wir nur, wenn sie nicht aelter als das Original ist
+            BasicFileAttributes Vorkomprimiert = Verfahren == Komprimierung.Verfahren.GZIP
+                    ? Pfade.Attribute(Paths.get(Original.getPath() + ".gz")) : null;
+            if (Vorkomprimiert != null && Vorkomprimiert.isRegularFile()
+                    && Vorkomprimiert.lastModifiedTime().toMillis() >= Aenderungszeit) {
+                File GzDatei = new File(Original.getPath() + ".gz");
+                Darstellung DieDarstellung = new Darstellung(MimeType, Verfahren, true, Validator.Fuer(
+                        Vorkomprimiert.lastModifiedTime().toMillis(), Vorkomprimiert.size(), Verfahren));
+                Antwort Nicht = DieDarstellung.NichtGeaendert(DieAnfrage);
+                if (Nicht != null) {
+                    return Nicht;
+                }
+
+                DateiCache.Eintrag Geladen = Cache == null ? null : Cache.Lade(VariantenSchluessel, GzDatei, Verfahren);
+                if (Geladen != null) {
+                    return AusDemCache(Geladen, MimeType, Verfahren, true).Beantworte(DieAnfrage, NurKopf);
+                }
+                DieDarstellung.Datei = GzDatei;
+                DieDarstellung.DateiGroesse = Vorkomprimiert.size();
+                return DieDarstellung.Beantworte(DieAnfrage, NurKopf);
+            }
+
+            // Selbst komprimieren wir nur Dateien, die auch in den Cache passen wuerden
+            long MaxGroesse = Cache == null ? KOMPRIMIER_GRENZE : Math.min(Cache.MaxDateiGroesse, Integer.MAX_VALUE);
+            if (Attribute.size() < Komprimierung.MIN_GROESSE || Attribute.size() > MaxGroesse) {
+                return null;
+            }
+            Validator DerValidator = Validator.Fuer(Aenderungszeit, Attribute.size(), Verfahren);
+            Darstellung DieDarstellung = new Darstellung(MimeType, Verfahren, true, DerValidator);
+            Antwort Nicht = DieDarstellung.NichtGeaendert(DieAnfrage);
+            if (Nicht != null) {
+                return Nicht;
+            }
+
+            byte[] Roh = Files.readAllBytes(Original.toPath());
+            // Was im Cache landet, komprimieren wir gruendlich, denn das passiert nur einmal
+            byte[] Gepackt = Komprimierung.Komprimiere(Roh, Roh.length, Verfahren,
+                    Cache == null ? Deflater.DEFAULT_COMPRESSION : Deflater.BEST_COMPRESSION);
+            if (Cache != null) {
+                Cache.Lege(VariantenSchluessel, Original, ByteBuffer.wrap(Gepackt), DerValidator);
+            }
+            DieDarstellung.Puffer = ByteBuffer.wrap(Gepackt);
+            return DieDarstellung.Beantworte(DieAnfrage, NurKopf);
+        } catch (IOException | SecurityException e) {
+            // Dann versuchen wir es ohne Komprimierung
+            return null;
+        }
+    }
+
+    private static Darstellung AusDemCache(DateiCache.Eintrag Gecacht, MimeTabelle.Typ MimeType,
+                                           Komprimierung.Verfahren Verfahren, boolean Vary) {
+        Darstellung DieDarstellung = new Darstellung(MimeType, Verfahren, Vary, Gecacht.DerValidator);
+        DieDarstellung.Puffer = Gecacht.Sicht();
+        return DieDarstellung;
+    }
+
+    /**
+     * Erzeugt eine 403 oder 404 Antwort fuer GET und HEAD. Die Verbindung darf dabei offen bleiben.
+     */
+    private Antwort DateiFehler(String Status, boolean NurKopf) {
+        Antwort DieAntwort = new Antwort(Status).Header(Antwort.CONTENT_TYPE_HTML);
+        DieAntwort.Rumpf = GeneriereErrorSeite(Status);
+        DieAntwort.NurKopf = NurKopf;
+        return DieAntwort;
+    }
+
+    /**
+     * Liefert die HTML Fehlerseite. Der statische Teil kommt fertig kodiert aus {@link FehlerSeiten}, nur die
+     * Clientverbindungsinformationen werden, falls eingeschaltet, pro Anfrage eingebettet.
+     *
+     * @param FehlerTitel Der Titel der Fehlerseite
+     * @return Eine HTML Fehlerseite
+     */
+    private byte[] GeneriereErrorSeite(String FehlerTitel) {
+        // Wir besorgen gewuenschte Informationen fuer die Fehlerseite
+        String UserAgent = null;
+        if (FehlerSeiten.MitClientDetails && AktuelleAnfrage != null) {
+            UserAgent = AktuelleAnfrage.Header(Anfrage.Feld.USER_AGENT);
+        }
+
+        // Und genieren dann die Fehlerseite
+        return FehlerSeiten.Seite(FehlerTitel, ClientAdresse, UserAgent);
+    }
+
+    /**
+     * Liefert den Mime-Type zu einer Datei.
+     *
+     * @param DateiName Der Dateiname
+     * @return Den zur Dateiendung der Datei gehoerenden Mime Type
+     */
+    private MimeTabelle.Typ contentType(String DateiName) {
+        // Die Tabelle sucht direkt auf den Zeichen der Dateiendung und liefert fuer Unbekanntes application/octet-stream
+        return WebServer.MimeTypen.Suche(DateiName);
+    }
+
+    /**
+     * Schliesst den Socket aus einem anderen Thread, etwa wenn eine Frist abgelaufen ist oder der Server
+     * herunterfaehrt. Ein blockiertes Lesen oder Schreiben kehrt dann mit einer Exception zurueck, aufgeraeumt wird
+     * wie immer in {@link #run()}. Bei HTTPS geht das am SSLSocket vorbei, dessen close koennte auf den blockierten
+     * Thread warten.
+     */
+    void Unterbreche() {
+        Unterbrochen = true;
+        try {
+            // Ein in sendfile blockierter Thread merkt das Schliessen allein nicht, das shutdown weckt ihn aber auf.
+            // Ohne Linger verwirft der Kernel beim close auch, was noch im Sendepuffer liegt.
+            if (!RohSocket.isClosed()) {
+                RohSocket.setSoLinger(true, 0);
+                RohSocket.shutdownOutput();
+            }
+        } catch (IOException e) {
+            // Dann ist der Socket schon zu, das close schadet trotzdem nicht
+        }
+        try {
+            RohSocket.close();
+        } catch (IOException e) {
+            Protokoll.Fehler("Fehler beim schliessen des Sockets.");
+        }
+    }
+
+    /**
+     * Versucht alle noch offenen Streams und den Socket zu schliessen.
+     */
+    private void BrecheAllesAb() {
+        // Die Errorflag wird gestzt, wenn es das schliessen eines Teils fehlschlaegt
+        boolean Errorflag = false;
+
+        // Zuerst versuchen wir den Inputstream zu schliessen. Wurde der Socket schon von aussen geschlossen, gibt es
+        // an den Streams nichts mehr zu tun.
+        if (!ClientSocket.isClosed() && !ClientSocket.isInputShutdown()) {
+            if (ClientInputStream != null) {
+                try {
+                    ClientInputStream.close();
+                } catch (IOException e) {
+                    Protokoll.Fehler("Fehler beim schliessen des Inputstreams.");
+                    Errorflag = true;
+                }
+            } else {
+                try {
+                    ClientSocket.shutdownInput();
+                } catch (IOException e) {
+                    Protokoll.Fehler("Fehler beim schliessen des Inputstreams.");
+                    Errorflag = true;
+                }
+            }
+        }
+
+        // Nun versuchen wir den Dataoutputstream zu schliessen
+        if (!ClientSocket.isClosed() && !ClientSocket.isOutputShutdown()) {
+            if (ClientDataOutputStream != null) {
+                try {
+                    ClientDataOutputStream.flush();
+                    ClientDataOutputStream.close();
+                } catch (IOException e) {
+                    Errorflag = true;
+                    Protokoll.Fehler("Fehler beim schliessen des Dataoutputstreams.");
+                }
+            } else {
+                try {
+                    ClientSocket.shutdownOutput();
+                } catch (IOException e) {
+                    Errorflag = true;
+                    Protokoll.Fehler("Fehler B beim schliessen des Dataoutputstreams.");
+                }
+            }
+        }
+
+        // Jetzt bleibt es nur noch den Socket zu schliessen
+        if (!ClientSocket.isClosed()) {
+            try {
+                ClientSocket.close();
+            } catch (IOException e) {
+                Protokoll.Fehler("Fehler beim schliessen des Sockets.");
+            }
+        }
+
+        if (Errorflag || !ClientSocket.isClosed()) {
+            Protokoll.Fehler("Manche Verbindungen konnten nicht terminiert werden. Bei Problemen starten sie den Server neu");
+        }
+
+        // Die Verbindung zaehlt nicht mehr gegen das Limit ihres Clients
+        Zugang.Trenne();
+        Zugang = Zugangskontrolle.OHNE;
+
+        // Der Eingangspuffer kann die naechste Verbindung bedienen
+        if (EingangsPuffer != null) {
+            PufferPool.Gib(EingangsPuffer);
+            EingangsPuffer = null;
+            Eingang = null;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,150 @@
+import java.io.ByteArrayOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Content-Encoding fuer Antworten: Auswahl des Verfahrens anhand von Accept-Encoding, Entscheidung welche Mime Types
+ * sich ueberhaupt komprimieren lassen, und die Komprimierung selbst.
+ */
+final class Komprimierung {
+    /**
+     * Die unterstuetzten Verfahren mit ihren fertig kodierten Headerzeilen.
+     */
+    enum Verfahren {
+        GZIP("gzip"),
+        DEFLATE("deflate");
+
+        final String Name;
+        final byte[] KopfZeile;
+
+        Verfahren(String Name) {
+            this.Name = Name;
+            this.KopfZeile = Antwort.HeaderZeile("Content-Encoding", Name);
+        }
+    }
+
+    /**
+     * Kleinere Dateien werden nicht komprimiert, der gzip Rahmen allein ist schon 18 Bytes gross.
+     */
+    final static int MIN_GROESSE = 256;
+
+    private Komprimierung() {
+    }
+
+    /**
+     * Ob sich ein Mime Type zum Komprimieren eignet. Bilder, Videos und Archive sind meist schon komprimiert.
+     */
+    static boolean Komprimierbar(String MimeType) {
+        return MimeType.startsWith("text/") || MimeType.endsWith("+xml") || MimeType.endsWith("+json")
+                || MimeType.equals("application/javascript") || MimeType.equals("application/x-javascript")
+                || MimeType.equals("application/ecmascript") || MimeType.equals("application/json")
+                || MimeType.equals("application/xml") || MimeType.equals("application/xhtml+xml");
+    }
+
+    /**
+     * Waehlt anhand des Accept-Encoding Headers ein Verfahren. Bei gleicher Gewichtung wird gzip bevorzugt.
+     *
+     * @param Liste Der Wert des Headers, oder null
+     * @return Das Verfahren, oder null wenn der Client nichts davon annimmt
+     */
+    static Verfahren Waehle(String Liste) {
+        if (Liste == null) {
+            return null;
+        }
+
+        double Gzip = -1;
+        double Deflate = -1;
+        double Rest = -1;
+        int Anfang = 0;
+        while (Anfang < Liste.length()) {
+            int Ende = Liste.indexOf(',', Anfang);
+            if (Ende < 0) {
+                Ende = Liste.length();
+            }
+            String Eintrag = Liste.substring(Anfang, Ende).trim();
+            Anfang = Ende + 1;
+
+            int Semikolon = Eintrag.indexOf(';');
+            String Name = (Semikolon < 0 ? Eintrag : Eintrag.substring(0, Semikolon)).trim();
+            double Gewicht = Semikolon < 0 ? 1 : Gewicht(Eintrag.substring(Semikolon + 1));
+            if (Name.equalsIgnoreCase("gzip") || Name.equalsIgnoreCase("x-gzip")) {
+                Gzip = Gewicht;
+            } else if (Name.equalsIgnoreCase("deflate")) {
+                Deflate = Gewicht;
+            } else if (Name.equals("*")) {
+                Rest = Gewicht;
+            }
+        }
+
+        // Nicht genannte Verfahren bekommen das Gewicht von "*"
+        if (Gzip < 0) {
+            Gzip = Rest;
+        }
+        if (Deflate < 0) {
+            Deflate = Rest;
+        }
+        if (Gzip > 0 && Gzip >= Deflate) {
+            return Verfahren.GZIP;
+        } else if (Deflate > 0) {
+            return Verfahren.DEFLATE;
+        }
+        return null;
+    }
+
+    private static double Gewicht(String Parameter) {
+        String Wert = Parameter.trim();
+        if (!Wert.startsWith("q=") && !Wert.startsWith("Q=")) {
+            return 1;
+        }
+        try {
+            return Double.parseDouble(Wert.substring(2).trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Komprimiert einen Inhalt vollstaendig im Speicher.
+     *
+     * @param Inhalt       Die Rohdaten
+     * @param Laenge       Anzahl der zu komprimierenden Bytes ab Anfang des Arrays
+     * @param DasVerfahren gzip oder deflate (zlib)
+     * @param Stufe        Die Kompressionsstufe von 1 bis 9
+     * @return Die komprimierten Daten
+     */
+    static byte[] Komprimiere(byte[] Inhalt, int Laenge, Verfahren DasVerfahren, int Stufe) {
+        boolean Gzip = DasVerfahren == Verfahren.GZIP;
+        Deflater Packer = new Deflater(Stufe, Gzip);
+        ByteArrayOutputStream Ziel = new ByteArrayOutputStream(Math.max(64, Laenge / 3));
+        try {
+            if (Gzip) {
+                // Minimaler gzip Kopf nach RFC 1952: Magic, Methode deflate, keine Flags, keine Zeit, Unix
+                Ziel.write(new byte[]{0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, 3}, 0, 10);
+            }
+            Packer.setInput(Inhalt, 0, Laenge);
+            Packer.finish();
+            byte[] Puffer = new byte[8 * 1024];
+            while (!Packer.finished()) {
+                int Anzahl = Packer.deflate(Puffer);
+                Ziel.write(Puffer, 0, Anzahl);
+            }
+        } finally {
+            Packer.end();
+        }
+
+        if (Gzip) {
+            CRC32 Pruefsumme = new CRC32();
+            Pruefsumme.update(Inhalt, 0, Laenge);
+            SchreibeLittleEndian(Ziel, (int) Pruefsumme.getValue());
+            SchreibeLittleEndian(Ziel, Laenge);
+        }
+        return Ziel.toByteArray();
+    }
+
+    private static void SchreibeLittleEndian(ByteArrayOutputStream Ziel, int Wert) {
+        Ziel.write(Wert);
+        Ziel.write(Wert >>> 8);
+        Ziel.write(Wert >>> 16);
+        Ziel.write(Wert >>> 24);
+    }
+}
@@ -0,0 +1,110 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * Liest die Einstellungen aus einer Konfigurationsdatei, die mit -konfig angegeben wird. Sie kennt dieselben Namen wie
+ * die Kommandozeile, mit oder ohne Minus, eine Einstellung pro Zeile:
+ *
+ * <pre>
+ *     # Kommentar
+ *     port = 8080
+ *     adresse = 127.0.0.1
+ *     annehmer = 4
+ * </pre>
+ * <p>
+ * Die Datei wird nicht gesondert ausgewertet, sie wird nur in Argumente verwandelt, die vor denen der Kommandozeile
+ * stehen. Die Kommandozeile hat damit Vorrang. Aendert sich die Datei im Betrieb, liest {@link Nachladen} sie neu.
+ */
+final class Konfiguration {
+    /**
+     * Die mit -konfig angegebene Datei, oder null.
+     */
+    static volatile Path Datei = null;
+
+    /**
+     * Die uebrigen Argumente der Kommandozeile, sie gehen auch beim Nachladen der Datei vor.
+     */
+    private static volatile List<String> Kommandozeile = List.of();
+
+    private Konfiguration() {
+    }
+
+    /**
+     * Ersetzt -konfig in den Argumenten durch den Inhalt der Datei.
+     *
+     * @param argv Die Argumente der Kommandozeile
+     * @return Die Argumente aus der Datei, gefolgt von den uebrigen Argumenten der Kommandozeile
+     */
+    static String[] Lade(String[] argv) {
+        List<String> Kommandozeile = new ArrayList<>();
+        String Pfad = null;
+        for (int i = 0; i < argv.length; i++) {
+            if (argv[i].equals("-konfig") && i + 1 < argv.length) {
+                Pfad = argv[++i];
+            } else {
+                Kommandozeile.add(argv[i]);
+                if (i + 1 < argv.length) {
+                    Kommandozeile.add(argv[++i]);
+                }
+            }
+        }
+        if (Pfad == null) {
+            return argv;
+        }
+
+        List<String> Argumente = new ArrayList<>();
+        try {
+            Datei = Paths.get(Pfad);
+            Argumente.addAll(Lies(Datei));
+        } catch (InvalidPathException e) {
+            Protokoll.Fehler("Ungueltiger Dateipfad zur Konfigurationsdatei. Lese Datei nicht ein...");
+        } catch (IOException e) {
+            Protokoll.Fehler("Fehler beim lesen der Konfigurationsdatei " + Pfad + ". Lese Datei nicht ein...");
+        }
+        Konfiguration.Kommandozeile = List.copyOf(Kommandozeile);
+        Argumente.addAll(Kommandozeile);
+        return Argumente.toArray(new String[0]);
+    }
+
+    /**
+     * Liest die Datei erneut, wie {@link #Lade} gefolgt von der Kommandozeile.
+     *
+     * @return Die Argumente, oder null wenn die Datei nicht gelesen werden konnte
+     */
+    static String[] LadeNeu() {
+        List<String> Argumente = new ArrayList<>();
+        try {
+            Argumente.addAll(Lies(Datei));
+        } catch (IOException e) {
+            Protokoll.Fehler("Fehler beim lesen der Konfigurationsdatei " + Datei + ". Behalte die bisherige...");
+            return null;
+        }
+        Argumente.addAll(Kommandozeile);
+        return Argumente.toArray(new String[0]);
+    }
+
+    /**
+     * Liest eine Konfigurationsdatei als Paare von Argument und Wert, nach Namen sortiert.
+     */
+    static List<String> Lies(Path DieDatei) throws IOException {
+        Properties Eintraege = new Properties();
+        try (Reader Leser = Files.newBufferedReader(DieDatei, StandardCharsets.UTF_8)) {
+            Eintraege.load(Leser);
+        }
+        List<String> Argumente = new ArrayList<>();
+        for (String Name : new TreeSet<>(Eintraege.stringPropertyNames())) {
+            Argumente.add(Name.startsWith("-") ? Name : "-" + Name);
+            Argumente.add(Eintraege.getProperty(Name).trim());
+        }
+        return Argumente;
+    }
+}
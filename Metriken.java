@@ -0,0 +1,316 @@
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Zaehler und Latenzhistogramme des Servers, abrufbar unter {@link #PFAD} im Textformat von Prometheus. Gezaehlt wird
+ * ausschliesslich mit {@link LongAdder}, das Erfassen auf dem heissen Pfad kommt also ohne Locks aus und die Threads
+ * schreiben dabei kaum auf gemeinsame Cachezeilen. Erst beim Abruf werden die Zaehler zusammengerechnet.
+ */
+final class Metriken {
+    /**
+     * Unter dieser URI liefern wir die Metriken aus, statt im Dateisystem zu suchen.
+     */
+    final static String PFAD = "/_metrics";
+
+    /**
+     * Ob {@link #PFAD} beantwortet wird. Gezaehlt wird immer, das kostet nur ein paar Nanosekunden pro Anfrage.
+     */
+    static volatile boolean Aktiv = true;
+
+    /**
+     * Die Abschnitte einer Anfrage, deren Dauer wir getrennt messen.
+     */
+    enum Phase {
+        /** Parsen des Kopfes, ohne das Warten auf die Bytes. */
+        PARSEN("parse"),
+        /** Bearbeiten der Anfrage, bei Dateien also Cache, stat, Lesen und Komprimieren. */
+        BEARBEITEN("handle"),
+        /** Senden der Antwort, inklusive Warten auf einen schreibbaren Socket. */
+        SENDEN("write");
+
+        final String Name;
+        final Histogramm Dauer = new Histogramm();
+
+        Phase(String Name) {
+            this.Name = Name;
+        }
+    }
+
+    /**
+     * Methoden mit eigener Zeitreihe. Alle anderen landen unter "ANDERE", damit beliebige Methoden keine beliebig
+     * vielen Zeitreihen erzeugen koennen.
+     */
+    private final static String[] METHODEN = {Anfrage.GET, Anfrage.HEAD, Anfrage.POST, "BREW", "ANDERE"};
+
+    /**
+     * Ein Histogramm pro Methode und Statuscode von 100 bis 599. Es wird erst beim ersten Auftreten angelegt.
+     */
+    private final static int STATUS_ANZAHL = 500;
+    private final static AtomicReferenceArray<Histogramm> Anfragen =
+            new AtomicReferenceArray<>(METHODEN.length * STATUS_ANZAHL);
+
+    static final LongAdder GesendeteBytes = new LongAdder();
+    static final LongAdder AngenommeneVerbindungen = new LongAdder();
+    static final LongAdder OffeneVerbindungen = new LongAdder();
+
+    /**
+     * Angenommene Verbindungen, die noch auf einen Arbeiter bzw. ihre Ereignisschleife warten.
+     */
+    static final LongAdder WartendeVerbindungen = new LongAdder();
+
+    /**
+     * Protokolleintraege, die wegen eines vollen Ringpuffers verworfen wurden.
+     */
+    static final LongAdder VerworfeneProtokollEintraege = new LongAdder();
+
+    /**
+     * Von der {@link Zugangskontrolle} abgewiesene Verbindungen (503) und gedrosselte Anfragen (429).
+     */
+    static final LongAdder AbgewieseneVerbindungen = new LongAdder();
+    static final LongAdder GedrosselteAnfragen = new LongAdder();
+
+    /**
+     * Verbindungen, die wegen einer abgelaufenen Frist der {@link Fristen} geschlossen wurden.
+     */
+    static final LongAdder Zeitueberschreitungen = new LongAdder();
+
+    /**
+     * Puffer, die der {@link PufferPool} liefern konnte, die neu angelegt werden mussten, und die er nicht mehr
+     * zuruecknehmen konnte, weil alle Faecher voll waren.
+     */
+    static final LongAdder PufferTreffer = new LongAdder();
+    static final LongAdder PufferFehlschlaege = new LongAdder();
+    static final LongAdder PufferVerworfen = new LongAdder();
+
+    /**
+     * Abgeschlossene TLS Handshakes, und wie viele davon eine fruehere Sitzung wieder aufgenommen haben.
+     */
+    static final LongAdder TlsHandshakes = new LongAdder();
+    static final LongAdder TlsWiederaufnahmen = new LongAdder();
+
+    /**
+     * Verbindungen, die HTTP/2 sprechen, und die Stroeme, also Anfragen, auf ihnen.
+     */
+    static final LongAdder Http2Verbindungen = new LongAdder();
+    static final LongAdder Http2Stroeme = new LongAdder();
+
+    private Metriken() {
+    }
+
+    /**
+     * Erfasst eine beantwortete Anfrage.
+     *
+     * @param Methode Die Methode der Anfrage, oder null wenn sie nicht geparst werden konnte
+     * @param Status  Der Status der Antwort, etwa "200 OK"
+     * @param Nanos   Die Dauer vom vollstaendigen Kopf bis zur gesendeten Antwort
+     */
+    static void Anfrage(String Methode, String Status, long Nanos) {
+        int Code = StatusCode(Status);
+        if (Code < 0) {
+            return;
+        }
+        int Index = MethodenIndex(Methode) * STATUS_ANZAHL + Code - 100;
+        Histogramm Dauer = Anfragen.get(Index);
+        if (Dauer == null) {
+            // Verlieren wir das Rennen, nehmen wir einfach das Histogramm des Gewinners
+            Anfragen.compareAndSet(Index, null, new Histogramm());
+            Dauer = Anfragen.get(Index);
+        }
+        Dauer.Erfasse(Nanos);
+    }
+
+    static void Erfasse(Phase DiePhase, long Nanos) {
+        DiePhase.Dauer.Erfasse(Nanos);
+    }
+
+    private static int MethodenIndex(String Methode) {
+        for (int i = 0; i < METHODEN.length - 1; i++) {
+            if (METHODEN[i].equals(Methode)) {
+                return i;
+            }
+        }
+        return METHODEN.length - 1;
+    }
+
+    private static int StatusCode(String Status) {
+        if (Status == null || Status.length() < 3) {
+            return -1;
+        }
+        int Code = 0;
+        for (int i = 0; i < 3; i++) {
+            int Ziffer = Status.charAt(i) - '0';
+            if (Ziffer < 0 || Ziffer > 9) {
+                return -1;
+            }
+            Code = Code * 10 + Ziffer;
+        }
+        return Code >= 100 && Code < 100 + STATUS_ANZAHL ? Code : -1;
+    }
+
+    /**
+     * Erzeugt die Antwort auf eine Anfrage an {@link #PFAD}.
+     *
+     * @param NurKopf Wahr bei HEAD
+     */
+    static Antwort Antwort(boolean NurKopf) {
+        Antwort DieAntwort = new Antwort("200 OK")
+                .Header("Content-type", "text/plain; version=0.0.4; charset=utf-8")
+                .Header("Cache-Control", "no-store");
+        DieAntwort.Rumpf = Text().getBytes(StandardCharsets.UTF_8);
+        DieAntwort.NurKopf = NurKopf;
+        return DieAntwort;
+    }
+
+    /**
+     * Schreibt alle Metriken im Textformat von Prometheus.
+     */
+    static String Text() {
+        StringBuilder Text = new StringBuilder(16 * 1024);
+
+        Kopf(Text, "webserver_request_duration_seconds", "histogram",
+                "Dauer vom vollstaendig empfangenen Kopf bis zur gesendeten Antwort.");
+        for (int i = 0; i < Anfragen.length(); i++) {
+            Histogramm Dauer = Anfragen.get(i);
+            if (Dauer != null) {
+                String Label = "method=\"" + METHODEN[i / STATUS_ANZAHL] + "\",code=\"" + (i % STATUS_ANZAHL + 100) + "\"";
+                Dauer.Schreibe(Text, "webserver_request_duration_seconds", Label);
+            }
+        }
+
+        Kopf(Text, "webserver_phase_duration_seconds", "histogram",
+                "Dauer der einzelnen Abschnitte einer Anfrage.");
+        for (Phase DiePhase : Phase.values()) {
+            DiePhase.Dauer.Schreibe(Text, "webserver_phase_duration_seconds", "phase=\"" + DiePhase.Name + "\"");
+        }
+
+        Wert(Text, "webserver_sent_bytes_total", "counter", "Gesendete Bytes inklusive Header.",
+                GesendeteBytes.sum());
+        Wert(Text, "webserver_connections_accepted_total", "counter", "Angenommene Verbindungen.",
+                AngenommeneVerbindungen.sum());
+        Wert(Text, "webserver_connections_active", "gauge", "Gerade bediente Verbindungen.",
+                OffeneVerbindungen.sum());
+        Wert(Text, "webserver_connections_queued", "gauge",
+                "Angenommene Verbindungen, die noch auf ihre Bearbeitung warten.", WartendeVerbindungen.sum());
+        Wert(Text, "webserver_log_dropped_total", "counter",
+                "Protokolleintraege, die wegen eines vollen Puffers verworfen wurden.", VerworfeneProtokollEintraege.sum());
+        Wert(Text, "webserver_connections_rejected_total", "counter",
+                "Verbindungen ueber dem Limit pro Client.", AbgewieseneVerbindungen.sum());
+        Wert(Text, "webserver_requests_throttled_total", "counter",
+                "Anfragen ueber der Rate pro Client.", GedrosselteAnfragen.sum());
+        Wert(Text, "webserver_timeouts_total", "counter",
+                "Verbindungen, die wegen zu langsamer Clients geschlossen wurden.", Zeitueberschreitungen.sum());
+        Wert(Text, "webserver_clients_tracked", "gauge",
+                "Clients, deren Verbindungen und Rate gerade verfolgt werden.", Zugangskontrolle.Anzahl());
+        Wert(Text, "webserver_buffer_pool_hits_total", "counter", "Aus dem Pool genommene Puffer.",
+                PufferTreffer.sum());
+        Wert(Text, "webserver_buffer_pool_misses_total", "counter",
+                "Neu angelegte Puffer, weil der Pool leer war.", PufferFehlschlaege.sum());
+        Wert(Text, "webserver_buffer_pool_dropped_total", "counter",
+                "Zurueckgegebene Puffer, fuer die kein Fach mehr frei war.", PufferVerworfen.sum());
+        Wert(Text, "webserver_buffer_pool_idle", "gauge", "Puffer, die gerade im Pool liegen.", PufferPool.Frei());
+        Wert(Text, "webserver_mapped_files", "gauge", "Per mmap abgebildete Dateien.", Abbildungen.Anzahl());
+        Wert(Text, "webserver_mapped_bytes", "gauge", "Groesse aller abgebildeten Dateien.", Abbildungen.Bytes());
+        Wert(Text, "webserver_tls_handshakes_total", "counter", "Abgeschlossene TLS Handshakes.",
+                TlsHandshakes.sum());
+        Wert(Text, "webserver_tls_resumptions_total", "counter",
+                "TLS Handshakes, die eine fruehere Sitzung wieder aufgenommen haben.", TlsWiederaufnahmen.sum());
+        Wert(Text, "webserver_http2_connections_total", "counter", "Verbindungen, die HTTP/2 sprechen.",
+                Http2Verbindungen.sum());
+        Wert(Text, "webserver_http2_streams_total", "counter", "Ueber HTTP/2 angenommene Stroeme.",
+                Http2Stroeme.sum());
+        return Text.toString();
+    }
+
+    private static void Kopf(StringBuilder Text, String Name, String Typ, String Hilfe) {
+        Text.append("# HELP ").append(Name).append(' ').append(Hilfe).append('\n');
+        Text.append("# TYPE ").append(Name).append(' ').append(Typ).append('\n');
+    }
+
+    private static void Wert(StringBuilder Text, String Name, String Typ, String Hilfe, long Wert) {
+        Kopf(Text, Name, Typ, Hilfe);
+        Text.append(Name).append(' ').append(Wert).append('\n');
+    }
+
+    /**
+     * Ein Latenzhistogramm mit Eimern wie bei HDR Histogrammen: Jede Zweierpotenz in Nanosekunden ist noch einmal in
+     * {@link #UNTER} gleich breite Eimer geteilt, von 16us bis gut 34s. Damit ist jeder Wert auf 1/8 genau, und der
+     * Eimer wird trotzdem mit einem einzigen numberOfLeadingZeros und ein paar Shifts gefunden.
+     */
+    static final class Histogramm {
+        /**
+         * Die obere Grenze des ersten Eimers ist 2^14 Nanosekunden, die Potenzen bis 2^34 werden unterteilt.
+         */
+        private final static int ERSTE_POTENZ = 14;
+        private final static int LETZTE_POTENZ = 34;
+
+        /**
+         * Unterteilung jeder Potenz, als Anzahl Bits unter dem hoechsten.
+         */
+        private final static int UNTER_BITS = 3;
+        private final static int UNTER = 1 << UNTER_BITS;
+
+        /**
+         * Der Index des letzten Eimers, fuer alles ueber 2^35 Nanosekunden.
+         */
+        private final static int UNENDLICH = (LETZTE_POTENZ - ERSTE_POTENZ + 1) * UNTER + 1;
+
+        private final LongAdder[] Eimer = new LongAdder[UNENDLICH + 1];
+        private final LongAdder SummeNanos = new LongAdder();
+
+        Histogramm() {
+            for (int i = 0; i < Eimer.length; i++) {
+                Eimer[i] = new LongAdder();
+            }
+        }
+
+        void Erfasse(long Nanos) {
+            Eimer[Index(Nanos)].increment();
+            SummeNanos.add(Nanos);
+        }
+
+        /**
+         * Die Grenzen gelten einschliesslich, wie "le" bei Prometheus. Wir rechnen daher mit Nanos - 1, sonst laege
+         * ein Wert genau auf einer Grenze schon im naechsten Eimer.
+         */
+        private static int Index(long Nanos) {
+            long Wert = Math.max(1, Nanos) - 1;
+            int Potenz = 63 - Long.numberOfLeadingZeros(Wert);
+            if (Potenz < ERSTE_POTENZ) {
+                return 0;
+            }
+            if (Potenz > LETZTE_POTENZ) {
+                return UNENDLICH;
+            }
+            int Unter = (int) (Wert >>> (Potenz - UNTER_BITS)) & (UNTER - 1);
+            return 1 + (Potenz - ERSTE_POTENZ) * UNTER + Unter;
+        }
+
+        /**
+         * Die obere Grenze eines endlichen Eimers in Nanosekunden.
+         */
+        private static long Grenze(int Index) {
+            if (Index == 0) {
+                return 1L << ERSTE_POTENZ;
+            }
+            int Potenz = ERSTE_POTENZ + (Index - 1) / UNTER;
+            int Unter = (Index - 1) % UNTER;
+            return (1L << Potenz) + ((long) (Unter + 1) << (Potenz - UNTER_BITS));
+        }
+
+        /**
+         * Schreibt das Histogramm mit kumulierten Eimern, Summe und Anzahl.
+         */
+        void Schreibe(StringBuilder Text, String Name, String Label) {
+            long Kumuliert = 0;
+            for (int i = 0; i < Eimer.length; i++) {
+                Kumuliert += Eimer[i].sum();
+                String Grenze = i == UNENDLICH ? "+Inf" : Double.toString(Grenze(i) / 1e9);
+                Text.append(Name).append("_bucket{").append(Label).append(",le=\"").append(Grenze).append("\"} ")
+                        .append(Kumuliert).append('\n');
+            }
+            Text.append(Name).append("_sum{").append(Label).append("} ").append(SummeNanos.sum() / 1e9).append('\n');
+            Text.append(Name).append("_count{").append(Label).append("} ").append(Kumuliert).append('\n');
+        }
+    }
+}
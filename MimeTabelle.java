@@ -0,0 +1,156 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Die Zuordnung von Dateiendungen zu Mime Types. Sie wird einmal beim Start aufgebaut und danach nur noch gelesen,
+ * daher ist sie unveraenderlich und braucht keine Synchronisation. Die Endungen liegen als ASCII Bytes in einer offen
+ * adressierten Hashtabelle, die hoechstens halb voll ist, sodass eine Suche fast immer mit dem ersten Versuch trifft.
+ * Gesucht wird direkt auf den Zeichen des Dateinamens, ohne substring oder toLowerCase, also ohne Allokation.
+ */
+final class MimeTabelle {
+    /**
+     * Die Standardantwort fuer unbekannte Endungen.
+     */
+    final static Typ UNBEKANNT = new Typ("application/octet-stream");
+
+    /**
+     * Ein Mime Type mit seiner fertig kodierten Content-type Zeile. Alle Endungen eines Typs teilen sich eine Instanz.
+     */
+    static final class Typ {
+        final String Name;
+        final byte[] Zeile;
+        final boolean Komprimierbar;
+
+        Typ(String Name) {
+            this.Name = Name;
+            this.Zeile = Antwort.HeaderZeile("Content-type", Name);
+            this.Komprimierbar = Komprimierung.Komprimierbar(Name);
+        }
+    }
+
+    private final byte[][] Endungen;
+    private final Typ[] Typen;
+    private final int Maske;
+    private final int Anzahl;
+
+    private MimeTabelle(byte[][] Endungen, Typ[] Typen, int Anzahl) {
+        this.Endungen = Endungen;
+        this.Typen = Typen;
+        this.Maske = Endungen.length - 1;
+        this.Anzahl = Anzahl;
+    }
+
+    /**
+     * Baut die Tabelle aus einer Zuordnung von Endung auf Mime Type. Gross- und Kleinschreibung der Endungen spielt
+     * keine Rolle, Endungen mit Zeichen ausserhalb von ASCII werden ignoriert.
+     */
+    static MimeTabelle Aus(Map<String, String> EndungZuTyp) {
+        // Mindestens doppelt so viele Plaetze wie Endungen, als Zweierpotenz damit der Index eine Maske ist
+        int Kapazitaet = Integer.highestOneBit(Math.max(4, EndungZuTyp.size() * 2 - 1)) << 1;
+        byte[][] Endungen = new byte[Kapazitaet][];
+        Typ[] Typen = new Typ[Kapazitaet];
+        Map<String, Typ> Eindeutig = new HashMap<>();
+        int Anzahl = 0;
+
+        for (Map.Entry<String, String> Eintrag : EndungZuTyp.entrySet()) {
+            String Endung = Eintrag.getKey().toLowerCase(Locale.ROOT);
+            if (Endung.isEmpty() || !StandardCharsets.US_ASCII.newEncoder().canEncode(Endung)) {
+                continue;
+            }
+            byte[] Bytes = Endung.getBytes(StandardCharsets.US_ASCII);
+            int Index = Streue(Hash(Bytes)) & (Kapazitaet - 1);
+            while (Endungen[Index] != null && !Arrays.equals(Endungen[Index], Bytes)) {
+                Index = (Index + 1) & (Kapazitaet - 1);
+            }
+            if (Endungen[Index] == null) {
+                Anzahl++;
+            }
+            Endungen[Index] = Bytes;
+            Typen[Index] = Eindeutig.computeIfAbsent(Eintrag.getValue(), Typ::new);
+        }
+        return new MimeTabelle(Endungen, Typen, Anzahl);
+    }
+
+    /**
+     * Liefert den Mime Type zur Endung eines Dateinamens.
+     *
+     * @param DateiName Der Dateiname, gerne mit Pfad
+     * @return Den Mime Type, oder {@link #UNBEKANNT} wenn die Endung fehlt oder unbekannt ist
+     */
+    Typ Suche(String DateiName) {
+        // Die Endung beginnt nach dem letzten Punkt, aber nur wenn der im letzten Pfadabschnitt liegt
+        int Ende = DateiName.length();
+        int Anfang = Ende;
+        int Hash = 0;
+        while (Anfang > 0) {
+            char Zeichen = DateiName.charAt(Anfang - 1);
+            if (Zeichen == '.' || Zeichen == '/') {
+                break;
+            }
+            Anfang--;
+        }
+        if (Anfang == 0 || Anfang == Ende || DateiName.charAt(Anfang - 1) != '.') {
+            return UNBEKANNT;
+        }
+
+        for (int i = Anfang; i < Ende; i++) {
+            char Zeichen = DateiName.charAt(i);
+            if (Zeichen > 127) {
+                return UNBEKANNT;
+            }
+            Hash = 31 * Hash + Klein(Zeichen);
+        }
+
+        int Index = Streue(Hash) & Maske;
+        byte[] Endung;
+        while ((Endung = Endungen[Index]) != null) {
+            if (Gleich(Endung, DateiName, Anfang, Ende)) {
+                return Typen[Index];
+            }
+            Index = (Index + 1) & Maske;
+        }
+        return UNBEKANNT;
+    }
+
+    /**
+     * Die Anzahl der bekannten Endungen.
+     */
+    int Groesse() {
+        return Anzahl;
+    }
+
+    private static boolean Gleich(byte[] Endung, String DateiName, int Anfang, int Ende) {
+        if (Endung.length != Ende - Anfang) {
+            return false;
+        }
+        for (int i = 0; i < Endung.length; i++) {
+            if (Endung[i] != Klein(DateiName.charAt(Anfang + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int Hash(byte[] Endung) {
+        int Hash = 0;
+        for (byte Zeichen : Endung) {
+            Hash = 31 * Hash + Zeichen;
+        }
+        return Hash;
+    }
+
+    /**
+     * Verteilt auch die hohen Bits auf die Maske, da kurze Endungen sonst nur die unteren Bits fuellen.
+     */
+    private static int Streue(int Hash) {
+        Hash *= 0x9E3779B9;
+        return Hash ^ (Hash >>> 16);
+    }
+
+    private static int Klein(char Zeichen) {
+        return Zeichen >= 'A' && Zeichen <= 'Z' ? Zeichen + ('a' - 'A') : Zeichen;
+    }
+}
@@ -0,0 +1,14 @@
+/**
+ * Ein Modul beantwortet die Anfragen, die ihm die {@link Routen} zuordnen. Module haben keinen Zustand pro Anfrage,
+ * eine Instanz bedient alle Verbindungen beider Engines gleichzeitig.
+ */
+interface Modul {
+    /**
+     * Beantwortet eine vollstaendig gelesene und gueltige Anfrage.
+     *
+     * @param Bearbeiter Die Verbindung, von der die Anfrage kommt, fuer Client Adresse und Fehlerseiten
+     * @param DieAnfrage Die Anfrage, bei POST mit dem Empfaenger des bereits gelesenen Rumpfes
+     * @return Die Antwort an den Client
+     */
+    Antwort Bearbeite(HttpRequest Bearbeiter, Anfrage DieAnfrage);
+}
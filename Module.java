@@ -0,0 +1,108 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Die mitgelieferten {@link Modul}e. Welches Modul eine Anfrage beantwortet, legen die {@link Routen} fest.
+ */
+final class Module {
+    /**
+     * Antworttext fuer BREW Anfragen nach RFC 2324.
+     */
+    private final static String SHORT_AND_STOUT =
+            "I'm a little teapot\n"
+            +"Short and stout\n"
+            +"Here is my handle\n"
+            +"Here is my spout\n"
+            +"When I get all steamed up\n"
+            +"I just shout\n"
+            +"Tip me over and pour me out\n"
+            +"\n"
+            +"I am a very special pot\n"
+            +"It is true\n"
+            +"Here is an example of what I can do\n"
+            +"I can turn my handle into a spout\n"
+            +"Tip me over and pour me out\n"
+            +"\n"
+            +"I'm a little teapot\n"
+            +"Short and stout\n"
+            +"Here is my handle\n"
+            +"Here is my spout\n"
+            +"When I get all steamed up\n"
+            +"I just shout\n"
+            +"Tip me over and pour me out\n"
+            +"\n"
+            +"I am a very special pot\n"
+            +"It is true\n"
+            +"Here is an example of what I can do\n"
+            +"I can turn my handle into a spout\n"
+            +"Tip me over and pour me out";
+    private final static byte[] SHORT_AND_STOUT_BYTES = SHORT_AND_STOUT.getBytes(StandardCharsets.ISO_8859_1);
+
+
+    /**
+     * Liefert Dateien und Verzeichnisse aus dem Arbeitsverzeichnis, fuer GET und HEAD.
+     */
+    final static Modul DATEIEN = (Bearbeiter, DieAnfrage) ->
+            // Eine HEAD Antwort beschreibt genau das, was GET senden wuerde, nur ohne Rumpf
+            Bearbeiter.HoleDatei(DieAnfrage, Anfrage.HEAD.equals(DieAnfrage.Methode()));
+
+    /**
+     * Uebergibt den bereits gelesenen Rumpf einer POST Anfrage an seinen Empfaenger, siehe {@link RumpfZiele}.
+     */
+    final static Modul POST = (Bearbeiter, DieAnfrage) -> {
+        // Eine POST Anfrage braucht einen Rumpf mit Content Length oder chunked, sonst wird Error 400 ausgegeben
+        if (DieAnfrage.Ziel == null) {
+            return Bearbeiter.FehlerAntwort("400 Bad Request");
+        }
+
+        // Was mit dem Rumpf passiert und was wir antworten, entscheidet sein Empfaenger
+        try {
+            return DieAnfrage.Ziel.Beende(DieAnfrage);
+        } catch (IOException e) {
+            Protokoll.Fehler("Fehler beim abschliessen eines POST Rumpfes. Breche ab...");
+            return Bearbeiter.FehlerAntwort("500 Internal Server Error");
+        }
+    };
+
+    /**
+     * Wir antworten auch auch auf eine in RFC 2324 definierte HTCPCP (Hyper Text Coffee Pot Control Protocol)
+     * Anfrage.
+     */
+    final static Modul TEEKANNE = (Bearbeiter, DieAnfrage) -> {
+        Antwort Teekanne = new Antwort("418 I'm a teapot").Header(Antwort.CONTENT_TYPE_TEXT);
+        Teekanne.Rumpf = SHORT_AND_STOUT_BYTES;
+        return Teekanne;
+    };
+
+    /**
+     * Die Metriken erzeugen wir selbst, sie liegen nicht im Dateisystem.
+     */
+    final static Modul METRIKEN = (Bearbeiter, DieAnfrage) ->
+            Metriken.Antwort(Anfrage.HEAD.equals(DieAnfrage.Methode()));
+
+    /**
+     * Beginnt das Herunterfahren des Servers. Gewartet wird darauf nicht, diese Antwort wird wie jede andere laufende
+     * noch gesendet, bevor die Verbindungen geschlossen werden. Antwortet 202 bei Erfolg, 403 von fremden Rechnern und
+     * 405 fuer alles ausser POST.
+     */
+    final static Modul HERUNTERFAHREN = (Bearbeiter, DieAnfrage) -> {
+        // Einen eventuellen Rumpf brauchen wir nicht
+        if (DieAnfrage.Ziel != null) {
+            DieAnfrage.Ziel.Abbrechen();
+            DieAnfrage.Ziel = null;
+        }
+        if (Bearbeiter.ClientAdresse == null || !Bearbeiter.ClientAdresse.isLoopbackAddress()) {
+            return Bearbeiter.FehlerAntwort("403 Forbidden");
+        }
+        if (!Anfrage.POST.equals(DieAnfrage.Methode())) {
+            return Bearbeiter.FehlerAntwort("405 Method Not Allowed").Header("Allow", Anfrage.POST);
+        }
+        Herunterfahren.Beginne("Anfrage von " + Bearbeiter.ClientAdresse.getHostAddress());
+        Antwort DieAntwort = new Antwort("202 Accepted").Header(Antwort.CONTENT_TYPE_TEXT);
+        DieAntwort.Rumpf = "Fahre herunter\n".getBytes(StandardCharsets.ISO_8859_1);
+        return DieAntwort;
+    };
+
+    private Module() {
+    }
+}
@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Laedt die Mime Datei und die Konfigurationsdatei neu, sobald sie sich aendern, ohne den Server neu zu starten. Ein
+ * {@link WatchService} beobachtet dazu ihre Verzeichnisse. Neu gebaut wird im eigenen Thread, danach werden die
+ * fertigen Strukturen ueber ihre volatile Referenz ausgetauscht. Bearbeiter warten also nie und sehen nie etwas
+ * Halbfertiges.
+ * <p>
+ * Aus der Konfiguration werden nur die Einstellungen uebernommen, die {@link WebServer#Setze} kennt. Fuer alles
+ * andere, etwa Port, Threads oder Engine, braucht es weiterhin einen Neustart.
+ */
+final class Nachladen {
+    /**
+     * Ob ueberhaupt beobachtet wird.
+     */
+    static volatile boolean Aktiv = true;
+
+    /**
+     * So lange warten wir nach einem Ereignis auf weitere, in Millisekunden. Editoren schreiben oft in mehreren
+     * Schritten, wir wollen nicht jeden Zwischenstand einlesen.
+     */
+    final static int BERUHIGUNG = 200;
+
+    private static WatchService Waechter;
+    private final static Set<Path> Beobachtet = new HashSet<>();
+
+    /**
+     * Die zuletzt uebernommenen Argumente. Gehoert nach dem Start allein dem Thread des Waechters.
+     */
+    private static Map<String, String> Bisher;
+
+    private Nachladen() {
+    }
+
+    /**
+     * Beginnt mit dem Beobachten, falls es etwas zu beobachten gibt.
+     *
+     * @param Argumente Die beim Start ausgewerteten Argumente, Konfigurationsdatei und Kommandozeile
+     */
+    static void Starte(String[] Argumente) {
+        if (!Aktiv || WebServer.MimeDatei == null && Konfiguration.Datei == null) {
+            return;
+        }
+        try {
+            Waechter = FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            Protokoll.Fehler("Kann Mime Datei und Konfiguration nicht beobachten. Arbeite ohne Nachladen...");
+            return;
+        }
+        Bisher = Paare(Argumente);
+        Registriere(Absolut(WebServer.MimeDatei));
+        Registriere(Absolut(Konfiguration.Datei));
+
+        Thread Beobachter = new Thread(Nachladen::Beobachte, "Nachlader");
+        Beobachter.setDaemon(true);
+        Beobachter.start();
+    }
+
+    /**
+     * Die Schleife des Waechters. Alle Ereignisse, die kurz nacheinander kommen, werden zusammen abgearbeitet.
+     */
+    private static void Beobachte() {
+        while (true) {
+            WatchKey Schluessel;
+            try {
+                Schluessel = Waechter.take();
+                Thread.sleep(BERUHIGUNG);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            Path MimeDatei = Absolut(WebServer.MimeDatei);
+            Path KonfigDatei = Absolut(Konfiguration.Datei);
+            boolean Mime = false;
+            boolean Konfig = false;
+            do {
+                Path Verzeichnis = (Path) Schluessel.watchable();
+                for (WatchEvent<?> Ereignis : Schluessel.pollEvents()) {
+                    if (Ereignis.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        Mime = true;
+                        Konfig = true;
+                        continue;
+                    }
+                    Path Geaendert = Verzeichnis.resolve((Path) Ereignis.context());
+                    Mime |= Geaendert.equals(MimeDatei);
+                    Konfig |= Geaendert.equals(KonfigDatei);
+                }
+                Schluessel.reset();
+            } while ((Schluessel = Waechter.poll()) != null);
+
+            // Die Konfiguration zuerst, sie kann auf eine andere Mime Datei zeigen
+            if (Konfig && KonfigDatei != null) {
+                LadeKonfiguration();
+            }
+            if (Mime && MimeDatei != null) {
+                LadeMimeTypen();
+            }
+        }
+    }
+
+    /**
+     * Baut die Mime Tabelle neu. Ist die Datei kaputt oder leer, bleibt die bisherige.
+     */
+    private static void LadeMimeTypen() {
+        String Datei = WebServer.MimeDatei;
+        MimeTabelle Neu = WebServer.ParseMimeTypes(Datei);
+        if (Neu != null) {
+            WebServer.MimeTypen = Neu;
+            Protokoll.Fehler("Mime Types aus " + Datei + " neu geladen...");
+        }
+    }
+
+    /**
+     * Liest die Konfiguration neu und uebernimmt geaenderte Einstellungen. Die Kommandozeile geht weiterhin vor.
+     */
+    private static void LadeKonfiguration() {
+        String[] Argumente = Konfiguration.LadeNeu();
+        if (Argumente == null) {
+            return;
+        }
+        String AlteMimeDatei = WebServer.MimeDatei;
+        Map<String, String> Neu = Paare(Argumente);
+        for (Map.Entry<String, String> Eintrag : Neu.entrySet()) {
+            String Name = Eintrag.getKey();
+            String Wert = Eintrag.getValue();
+            if (Wert.equals(Bisher.get(Name))) {
+                continue;
+            }
+            try {
+                if (WebServer.Setze(Name, Wert)) {
+                    Protokoll.Fehler("Konfiguration neu geladen: " + Name + " ist jetzt " + Wert + "...");
+                } else {
+                    Protokoll.Fehler("Konfiguration neu geladen: " + Name + " wirkt erst nach einem Neustart...");
+                }
+            } catch (IllegalArgumentException e) {
+                Protokoll.Fehler("Ungueltiger Wert " + Wert + " fuer " + Name + " uebergeben. Ignoriere ihn...");
+            }
+        }
+        for (String Name : Bisher.keySet()) {
+            if (!Neu.containsKey(Name)) {
+                Protokoll.Fehler("Konfiguration neu geladen: " + Name + " fehlt, der bisherige Wert gilt weiter...");
+            }
+        }
+        Bisher = Neu;
+
+        // Metriken und Herunterfahren koennen an- oder abgeschaltet worden sein
+        Routen.Aktuell = Routen.Standard();
+        if (!Objects.equals(AlteMimeDatei, WebServer.MimeDatei)) {
+            Registriere(Absolut(WebServer.MimeDatei));
+        }
+    }
+
+    /**
+     * Beobachtet das Verzeichnis einer Datei. Die Datei selbst laesst sich nicht beobachten, und viele Editoren
+     * ersetzen sie beim Speichern ohnehin durch eine neue.
+     */
+    private static void Registriere(Path Datei) {
+        Path Verzeichnis = Datei == null ? null : Datei.getParent();
+        if (Verzeichnis == null || !Beobachtet.add(Verzeichnis)) {
+            return;
+        }
+        try {
+            Verzeichnis.register(Waechter, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | UnsupportedOperationException e) {
+            Beobachtet.remove(Verzeichnis);
+            Protokoll.Fehler("Kann " + Verzeichnis + " nicht beobachten. Lade " + Datei + " nicht nach...");
+        }
+    }
+
+    private static Path Absolut(String Datei) {
+        try {
+            return Datei == null ? null : Absolut(Paths.get(Datei));
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    private static Path Absolut(Path Datei) {
+        return Datei == null ? null : Datei.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Macht aus den Argumenten eine Tabelle von Name auf Wert. Spaetere Argumente gewinnen, wie beim Start.
+     */
+    private static Map<String, String> Paare(String[] Argumente) {
+        Map<String, String> Paare = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < Argumente.length; i += 2) {
+            Paare.put(Argumente[i], Argumente[i + 1]);
+        }
+        return Paare;
+    }
+}
@@ -0,0 +1,1112 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Nicht blockierende Engine. Ein Thread nimmt Verbindungen an und verteilt sie reihum an wenige Ereignisschleifen,
+ * die jeweils mit einem eigenen Selector beliebig viele Verbindungen bedienen. Die eigentliche Bearbeitung der
+ * Anfragen uebernimmt wie bei der blockierenden Engine {@link HttpRequest#Bearbeite}.
+ * <p>
+ * In der Schleife selbst werden nur Anfragen beantwortet, deren Antwort fertig im Cache liegt. Alles andere kann auf
+ * die Platte oder einen Rumpfempfaenger warten und wuerde dabei alle Verbindungen der Schleife aufhalten. Es geht an
+ * einen Arbeiter, dessen Antwort ueber eine Warteschlange und {@link Selector#wakeup()} zurueck in die Schleife kommt.
+ */
+final class NioServer {
+    /**
+     * Der Eingangspuffer wartender Verbindungen. Ihren eigenen Puffer haben sie an den {@link PufferPool}
+     * zurueckgegeben, so belegen viele offene Keep-Alive Verbindungen keinen Speicher.
+     */
+    private final static ByteBuffer LEER = ByteBuffer.allocate(0);
+
+    private final EreignisSchleife[] Schleifen;
+
+    /**
+     * Fuehrt aus, was die Ereignisschleifen zu lange aufhalten wuerde: Anfragen, die nicht aus dem Cache beantwortet
+     * werden, und die Rechenaufgaben des TLS Handshakes.
+     */
+    private final ExecutorService Arbeiter;
+
+    NioServer(int SchleifenAnzahl, ExecutorService Arbeiter) throws IOException {
+        this.Arbeiter = Arbeiter;
+        this.Schleifen = new EreignisSchleife[SchleifenAnzahl];
+        for (int i = 0; i < SchleifenAnzahl; i++) {
+            Schleifen[i] = new EreignisSchleife(i);
+        }
+    }
+
+    /**
+     * Startet die Ereignisschleifen und nimmt dann Verbindungen an, bis der Server heruntergefahren wird. Jeder
+     * Serversocket bekommt einen eigenen annehmenden Thread, den letzten uebernimmt der aufrufende Thread. Danach wird
+     * noch gewartet, bis die laufenden Anfragen fertig sind.
+     *
+     * @param PrimaerKanaele Die gebundenen Serversockets aus {@link Horcher#Oeffne()}
+     */
+    void Starte(ServerSocketChannel[] PrimaerKanaele) throws InterruptedException {
+        for (EreignisSchleife Schleife : Schleifen) {
+            Schleife.start();
+        }
+
+        Thread[] Annehmer = new Thread[PrimaerKanaele.length - 1];
+        for (int i = 0; i < Annehmer.length; i++) {
+            ServerSocketChannel PrimaerKanal = PrimaerKanaele[i];
+            int Erste = i % Schleifen.length;
+            Annehmer[i] = new Thread(() -> NimmAn(PrimaerKanal, Erste), "NIO-Annehmer-" + (i + 1));
+            Annehmer[i].start();
+        }
+        NimmAn(PrimaerKanaele[Annehmer.length], Annehmer.length % Schleifen.length);
+        for (Thread EinAnnehmer : Annehmer) {
+            EinAnnehmer.join();
+        }
+        Herunterfahren.Abwarten();
+        Arbeiter.shutdown();
+    }
+
+    /**
+     * Nimmt auf einem Serversocket Verbindungen an und verteilt sie reihum auf die Schleifen. Jeder Annehmer zaehlt
+     * selbst, so muessen sie sich nicht abstimmen.
+     *
+     * @param PrimaerKanal Der Serversocket dieses Annehmers
+     * @param Naechste     Die Schleife fuer die erste Verbindung
+     */
+    private void NimmAn(ServerSocketChannel PrimaerKanal, int Naechste) {
+        while (!Herunterfahren.Aktiv) {
+            SocketChannel SekundaerKanal;
+            try {
+                SekundaerKanal = PrimaerKanal.accept();
+            } catch (IOException e) {
+                if (Herunterfahren.Aktiv) {
+                    break;
+                }
+                Protokoll.Fehler("IO-Fehler beim herstellen der Verbindung. Warte auf neuen Versuch...");
+                continue;
+            }
+
+            // Die Verbindungen werden reihum auf die Schleifen verteilt
+            Metriken.AngenommeneVerbindungen.increment();
+            Schleifen[Naechste].Uebernehme(SekundaerKanal);
+            Naechste = (Naechste + 1) % Schleifen.length;
+        }
+    }
+
+    /**
+     * Ein Thread mit eigenem Selector, der alle ihm zugeteilten Verbindungen bedient.
+     */
+    private final class EreignisSchleife extends Thread {
+        private final Selector DerSelector;
+        private final Queue<SocketChannel> NeueKanaele = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Was Arbeiter fertig haben und in der Schleife fortgesetzt werden muss.
+         */
+        private final Queue<Runnable> Fortsetzungen = new ConcurrentLinkedQueue<>();
+
+        EreignisSchleife(int Nummer) throws IOException {
+            super("NIO-Schleife-" + Nummer);
+            this.DerSelector = Selector.open();
+            Herunterfahren.Wecke(DerSelector::wakeup);
+        }
+
+        /**
+         * Uebergibt eine frisch angenommene Verbindung. Darf aus jedem Thread aufgerufen werden.
+         */
+        void Uebernehme(SocketChannel Kanal) {
+            Metriken.WartendeVerbindungen.increment();
+            NeueKanaele.add(Kanal);
+            DerSelector.wakeup();
+        }
+
+        /**
+         * Laesst die Schleife etwas fortsetzen, sobald sie aufwacht. Darf aus jedem Thread aufgerufen werden.
+         */
+        void Fortsetzen(Runnable Fortsetzung) {
+            Fortsetzungen.add(Fortsetzung);
+            DerSelector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            long LetztePruefung = System.nanoTime();
+            while (!Herunterfahren.Aktiv || !SchliesseBeimHerunterfahren()) {
+                try {
+                    DerSelector.select(1000);
+                } catch (IOException e) {
+                    Protokoll.Fehler("Fehler im Selector. Versuche es erneut...");
+                    continue;
+                }
+
+                // Etwa einmal pro Sekunde schliessen wir Verbindungen, deren Frist abgelaufen ist
+                long Jetzt = System.nanoTime();
+                if (Jetzt - LetztePruefung >= 1_000_000_000L) {
+                    LetztePruefung = Jetzt;
+                    SchliesseUntaetige(Jetzt);
+                }
+
+                SocketChannel Neu;
+                while ((Neu = NeueKanaele.poll()) != null) {
+                    Metriken.WartendeVerbindungen.decrement();
+                    Registriere(Neu);
+                }
+
+                Runnable Fortsetzung;
+                while ((Fortsetzung = Fortsetzungen.poll()) != null) {
+                    Fortsetzung.run();
+                }
+
+                Iterator<SelectionKey> BereiteSchluessel = DerSelector.selectedKeys().iterator();
+                while (BereiteSchluessel.hasNext()) {
+                    SelectionKey Schluessel = BereiteSchluessel.next();
+                    BereiteSchluessel.remove();
+                    Verbindung DieVerbindung = (Verbindung) Schluessel.attachment();
+                    try {
+                        if (Schluessel.isValid() && Schluessel.isReadable()) {
+                            DieVerbindung.Lesbar();
+                        }
+                        if (Schluessel.isValid() && Schluessel.isWritable()) {
+                            DieVerbindung.Schreibbar();
+                        }
+                        // Hat der Client schon weitere Anfragen hinterher geschickt, bearbeiten wir diese sofort
+                        DieVerbindung.Fortfahren();
+                    } catch (Exception e) {
+                        Protokoll.Fehler("Unbekannter Fehler beim bearbeiten einer Anfrage aufgetreten. Beende bearbeitung dieses Clients...");
+                        DieVerbindung.BrecheAllesAb();
+                    }
+                }
+            }
+
+            // Beim Herunterfahren endet die Schleife, sobald keine ihrer Verbindungen mehr offen ist
+            try {
+                DerSelector.close();
+            } catch (IOException e) {
+                Protokoll.Fehler("Fehler beim schliessen des Selectors.");
+            }
+        }
+
+        private void SchliesseUntaetige(long Jetzt) {
+            for (SelectionKey Schluessel : DerSelector.keys()) {
+                Verbindung DieVerbindung = (Verbindung) Schluessel.attachment();
+                if (DieVerbindung != null && Schluessel.isValid() && Jetzt - DieVerbindung.Frist() > 0) {
+                    try {
+                        DieVerbindung.FristAbgelaufen();
+                    } catch (IOException e) {
+                        DieVerbindung.BrecheAllesAb();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Schliesst beim Herunterfahren alle Verbindungen, die auf ihre naechste Anfrage warten, und nach Ablauf der
+         * Frist auch alle anderen.
+         *
+         * @return Wahr, wenn keine Verbindung mehr offen ist und die Schleife enden kann
+         */
+        private boolean SchliesseBeimHerunterfahren() {
+            SocketChannel Neu;
+            while ((Neu = NeueKanaele.poll()) != null) {
+                Metriken.WartendeVerbindungen.decrement();
+                try {
+                    Neu.close();
+                } catch (IOException e) {
+                    Protokoll.Fehler("Fehler beim schliessen des Sockets.");
+                }
+            }
+            boolean Leer = true;
+            for (SelectionKey Schluessel : DerSelector.keys()) {
+                Verbindung DieVerbindung = (Verbindung) Schluessel.attachment();
+                if (DieVerbindung == null || !Schluessel.isValid()) {
+                    continue;
+                }
+                if (DieVerbindung.Wartet()) {
+                    DieVerbindung.BrecheAllesAb();
+                } else if (Herunterfahren.Vorbei) {
+                    DieVerbindung.BrecheHartAb();
+                } else {
+                    Leer = false;
+                }
+            }
+            return Leer;
+        }
+
+        private void Registriere(SocketChannel Kanal) {
+            // Hat der Client schon zu viele Verbindungen offen, weisen wir ihn ab, solange der Kanal noch blockiert
+            // Ueber TLS koennen wir ohne Handshake nichts sagen, dort wird nur geschlossen
+            boolean Sicher = Tls.Aktiv() && Kanal.socket().getLocalPort() == Tls.Port;
+            Zugangskontrolle.Client DerClient = Zugangskontrolle.Verbinde(Kanal.socket().getInetAddress());
+            if (DerClient == null) {
+                Zugangskontrolle.Abweisen(Kanal, Sicher);
+                return;
+            }
+            try {
+                Horcher.Einstellen(Kanal);
+                Kanal.configureBlocking(false);
+                SelectionKey Schluessel = Kanal.register(DerSelector, SelectionKey.OP_READ);
+                Schluessel.attach(new Verbindung(this, Kanal, Schluessel, DerClient, Sicher));
+                Metriken.OffeneVerbindungen.increment();
+            } catch (IOException e) {
+                DerClient.Trenne();
+                Protokoll.Fehler("Verbindung konnte nicht registriert werden. Breche ab...");
+                try {
+                    Kanal.close();
+                } catch (IOException e2) {
+                    Protokoll.Fehler("Fehler beim schliessen des Sockets.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Ein Schritt einer Verbindung, den ein Arbeiter an ihre Ereignisschleife zurueckgibt.
+     */
+    private interface Schritt {
+        void Mache() throws IOException;
+    }
+
+    /**
+     * Was eine Verbindung mit der Antwort eines Arbeiters macht, zurueck in ihrer Ereignisschleife.
+     */
+    private interface Weiter {
+        void Mit(Antwort DieAntwort) throws IOException;
+    }
+
+    /**
+     * Zustand einer einzelnen Verbindung. Wird ausschliesslich von ihrer Ereignisschleife benutzt.
+     */
+    private final class Verbindung {
+        private final EreignisSchleife Schleife;
+        private final SocketChannel Kanal;
+        private final SelectionKey Schluessel;
+        private final InetAddress ClientAdresse;
+
+        /**
+         * Der Zustand des Clients bei der {@link Zugangskontrolle}.
+         */
+        private final Zugangskontrolle.Client Zugang;
+
+        /**
+         * Bei HTTPS die Verschluesselung, durch die alles gelesen und geschrieben wird, sonst null.
+         */
+        private final TlsKanal Verschluesselung;
+
+        /**
+         * Empfangene, noch nicht verarbeitete Bytes. Der Puffer ist immer im Schreibmodus. Ist er leer, geht er nach
+         * jedem Ereignis zurueck in den {@link PufferPool}, bis dahin steht hier {@link #LEER}.
+         */
+        private ByteBuffer Eingang = LEER;
+
+        /**
+         * Parst die Anfragen direkt auf dem Eingangspuffer und merkt sich, wie weit er schon gesucht hat.
+         */
+        private final AnfrageParser Parser = new AnfrageParser();
+
+        /**
+         * Anfrage und Bearbeiter werden fuer alle Anfragen dieser Verbindung wiederverwendet. Es wird immer nur eine
+         * Anfrage zur Zeit gelesen, und beantwortet wird erst, wenn die vorige Antwort gesendet ist.
+         */
+        private final Anfrage Kontext = new Anfrage();
+        private final HttpRequest Bearbeiter;
+
+        /**
+         * Die Anfrage deren Rumpf gerade gelesen wird, sonst null. Leser und Ziel gehoeren zu ihrem Rumpf.
+         */
+        private Anfrage AktuelleAnfrage;
+        private RumpfLeser Leser;
+        private RumpfZiel Ziel;
+
+        /**
+         * Wie viele Anfragen auf dieser Verbindung schon beantwortet wurden.
+         */
+        private int Beantwortet;
+
+        /**
+         * Wahr, solange ein Arbeiter die aktuelle Anfrage bearbeitet. Die Verbindung ruht dann, er benutzt ihren
+         * Bearbeiter und ihre Anfrage.
+         */
+        private boolean InArbeit;
+
+        /**
+         * Zeitpunkt des letzten Lesens oder Schreibens nach System.nanoTime().
+         */
+        long LetzteAktivitaet = System.nanoTime();
+
+        /**
+         * Fuer die {@link Fristen}: wann das erste Byte des aktuellen Kopfes kam, wann der aktuelle Rumpf begann und
+         * wie viel davon schon gelesen ist, und wie lang die aktuelle Antwort ist (-1 fuer Stroeme).
+         */
+        private long KopfBeginn;
+        private long RumpfBeginn;
+        private long RumpfGelesen;
+        private long AntwortLaenge;
+
+        /**
+         * Noch zu sendende Bytes aus dem Speicher und optional eine Datei oder ein Strom, die danach gesendet werden.
+         * Solange Ausgang nicht null ist, wird gerade geantwortet.
+         */
+        ByteBuffer[] Ausgang;
+        private FileChannel DateiKanal;
+        private Abbildungen.Abbildung Abbild;
+        private long DateiPosition;
+        private long DateiEnde;
+        private InputStream Strom;
+        private boolean Chunked;
+        private ByteBuffer NachschubPuffer;
+        private boolean OffenHalten;
+
+        /**
+         * Puffer fuer Statuszeile und Header, wird fuer alle Antworten dieser Verbindung wiederverwendet.
+         */
+        private ByteBuffer KopfPuffer;
+
+        /**
+         * Fuer die Metriken: wann der Kopf der aktuellen Anfrage vollstaendig war, wann das Senden ihrer Antwort
+         * begonnen hat, und was beantwortet wurde.
+         */
+        private long AnfrageStart;
+        private long AntwortStart;
+        private Anfrage ErfassteAnfrage;
+        private String ErfassterStatus;
+
+        /**
+         * Fuer das Zugriffsprotokoll: bisher gesendete Bytes der aktuellen Antwort und wie viele davon Header waren.
+         */
+        private long AntwortBytes;
+        private long KopfLaenge;
+
+        /**
+         * Spricht der Client HTTP/2, laufen alle Anfragen ueber diese Verbindung, sonst null.
+         */
+        private Http2Verbindung Zweier;
+
+        Verbindung(EreignisSchleife Schleife, SocketChannel Kanal, SelectionKey Schluessel,
+                   Zugangskontrolle.Client Zugang, boolean Sicher) {
+            this.Schleife = Schleife;
+            this.Kanal = Kanal;
+            this.Schluessel = Schluessel;
+            this.ClientAdresse = Kanal.socket().getInetAddress();
+            this.Zugang = Zugang;
+            this.Verschluesselung = Sicher ? new TlsKanal(Kanal, Tls.NeueEngine(), Arbeiter,
+                    () -> Fortsetzen(this::Gerechnet)) : null;
+            this.Bearbeiter = new HttpRequest(ClientAdresse);
+            // Der TLS Handshake hat dieselbe Frist wie ein Kopf
+            this.KopfBeginn = LetzteAktivitaet;
+        }
+
+        /**
+         * Laesst die Ereignisschleife dieser Verbindung einen Schritt fortsetzen. Darf aus jedem Thread aufgerufen
+         * werden. Geht dabei etwas schief, wird die Verbindung wie bei jedem Ereignis abgebrochen.
+         */
+        private void Fortsetzen(Schritt DerSchritt) {
+            Schleife.Fortsetzen(() -> {
+                try {
+                    DerSchritt.Mache();
+                } catch (Exception e) {
+                    Protokoll.Fehler("Unbekannter Fehler beim bearbeiten einer Anfrage aufgetreten. Beende bearbeitung dieses Clients...");
+                    BrecheAllesAb();
+                }
+            });
+        }
+
+        /**
+         * Laesst einen Arbeiter eine Anfrage bearbeiten und setzt danach mit ihrer Antwort in der Ereignisschleife
+         * fort. Wirft die Bearbeitung, wird die Verbindung dort abgebrochen. Sind alle Arbeiter beschaeftigt, ist die
+         * Antwort ein 503, wie bei der blockierenden Engine.
+         */
+        private void Abgeben(HttpRequest DerBearbeiter, Anfrage DieAnfrage, Weiter Danach) {
+            try {
+                Arbeiter.execute(() -> {
+                    Antwort DieAntwort;
+                    try {
+                        DieAntwort = DerBearbeiter.Bearbeite(DieAnfrage);
+                    } catch (RuntimeException e) {
+                        Fortsetzen(() -> {
+                            throw e;
+                        });
+                        return;
+                    }
+                    Fortsetzen(() -> Danach.Mit(DieAntwort));
+                });
+            } catch (RejectedExecutionException e) {
+                // Auch die Ablehnung geht erst in der naechsten Runde raus, wie jede andere Antwort eines Arbeiters
+                Antwort Abgelehnt = DerBearbeiter.Ueberlastet(DieAnfrage);
+                Fortsetzen(() -> Danach.Mit(Abgelehnt));
+            }
+        }
+
+        /**
+         * Ein Arbeiter hat die aktuelle Anfrage bearbeitet. Ist die Verbindung inzwischen geschlossen, wird die
+         * Antwort verworfen, sonst beginnt sie wie jede andere und die naechste Anfrage kommt dran.
+         */
+        private void Bearbeitet(Anfrage DieAnfrage, Antwort DieAntwort) throws IOException {
+            InArbeit = false;
+            if (!Schluessel.isValid()) {
+                DieAntwort.Verwirf();
+                return;
+            }
+            Beantworte(DieAnfrage, DieAntwort);
+            Fortfahren();
+        }
+
+        /**
+         * Fuer HTTP/2: laesst einen Arbeiter die Anfrage eines Stroms bearbeiten. Er bekommt dafuer einen eigenen
+         * Bearbeiter, denn es koennen mehrere Stroeme gleichzeitig bearbeitet werden.
+         */
+        private void BearbeiteStrom(int StromId, Anfrage DieAnfrage) {
+            Abgeben(new HttpRequest(ClientAdresse), DieAnfrage, DieAntwort -> {
+                Zweier.Beantworte(StromId, DieAntwort);
+                SchreibeHttp2();
+            });
+        }
+
+        /**
+         * Die Rechenaufgaben des TLS Handshakes sind fertig. Solange sie liefen, hat der Selector die Verbindung
+         * ignoriert, jetzt geht es dort weiter, wo sie unterbrochen wurde.
+         */
+        private void Gerechnet() throws IOException {
+            Verschluesselung.Gerechnet();
+            if (!Schluessel.isValid()) {
+                return;
+            }
+            Schluessel.interestOps(InArbeit ? 0 : Ausgang == null ? SelectionKey.OP_READ : SelectionKey.OP_WRITE);
+            Lesbar();
+            if (Schluessel.isValid()) {
+                Schreibbar();
+            }
+            Fortfahren();
+        }
+
+        void Lesbar() throws IOException {
+            if (Ausgang != null || InArbeit) {
+                // Waehrend wir antworten, lesen wir nichts weiter
+                return;
+            }
+            LiesEin();
+        }
+
+        /**
+         * Liest in den Eingangspuffer, was der Kanal gerade hergibt.
+         *
+         * @return Falsch, wenn der Client die Verbindung geschlossen hat
+         */
+        private boolean LiesEin() throws IOException {
+            if (Eingang == LEER) {
+                Eingang = PufferPool.Nimm();
+            } else if (!Eingang.hasRemaining()) {
+                // Der Puffer waechst bis knapp ueber die maximale Kopfgroesse, ab da meldet der Parser einen Fehler
+                ByteBuffer Groesser = ByteBuffer.allocate(
+                        Math.min(Eingang.capacity() * 2, AnfrageParser.MAX_KOPF_GROESSE + 1024));
+                Eingang.flip();
+                Groesser.put(Eingang);
+                PufferPool.Gib(Eingang);
+                Eingang = Groesser;
+            }
+
+            int Gelesen;
+            try {
+                Gelesen = Verschluesselung == null ? Kanal.read(Eingang) : Verschluesselung.Lies(Eingang);
+            } catch (IOException e) {
+                // Bei HTTP/2 legen Clients einfach auf, waehrend unsere Steuerrahmen noch unterwegs sind. Der Reset
+                // ist dort kein Fehler, sondern nur das Ende der Verbindung.
+                if (Zweier == null) {
+                    throw e;
+                }
+                Gelesen = -1;
+            }
+            if (Gelesen == -1) {
+                BrecheAllesAb();
+                return false;
+            }
+            LetzteAktivitaet = System.nanoTime();
+            // Mit dem ersten Byte eines neuen Kopfes beginnt seine Frist
+            if (AktuelleAnfrage == null && Gelesen > 0 && Eingang.position() == Gelesen) {
+                KopfBeginn = LetzteAktivitaet;
+            }
+            MeldeAusstehend();
+            return true;
+        }
+
+        /**
+         * Holt bei TLS den Klartext ab, der schon entschluesselt bereit liegt. Fuer ihn kommt kein OP_READ mehr.
+         *
+         * @return Wahr, wenn neue Bytes im Eingangspuffer liegen
+         */
+        private boolean LiesVorrat() throws IOException {
+            if (Verschluesselung == null || !Verschluesselung.HatVorrat() || !Schluessel.isValid()) {
+                return false;
+            }
+            int Vorher = Eingang.position();
+            return LiesEin() && Eingang.position() > Vorher;
+        }
+
+        /**
+         * Schreibt bei TLS etwas ausserhalb einer Antwort (Handshake, 100 Continue), das der Socket nicht sofort
+         * annimmt, lauschen wir zusaetzlich auf OP_WRITE, um es nachzuschieben.
+         */
+        private void MeldeAusstehend() throws IOException {
+            if (Verschluesselung != null && Ausgang == null && Schluessel.isValid() && !Verschluesselung.Leere()) {
+                Schluessel.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        private long Schreibe(ByteBuffer[] Quellen) throws IOException {
+            return Verschluesselung == null ? Kanal.write(Quellen) : Verschluesselung.Schreibe(Quellen);
+        }
+
+        private long Schreibe(ByteBuffer Quelle) throws IOException {
+            return Verschluesselung == null ? Kanal.write(Quelle) : Verschluesselung.Schreibe(Quelle);
+        }
+
+        /**
+         * Bis wann nach System.nanoTime() die Verbindung mit dem weitermachen muss, was sie gerade tut.
+         */
+        long Frist() {
+            if (Zweier != null) {
+                if (Zweier.Sendet()) {
+                    return Fristen.Ende(LetzteAktivitaet, Fristen.SendeZeit, 0);
+                }
+                // Offene Stroeme warten auf Rumpf oder ein WINDOW_UPDATE des Clients
+                return Zweier.Aktiv() ? Fristen.Ende(LetzteAktivitaet, Fristen.RumpfZeit, 0)
+                        : LetzteAktivitaet + WebServer.LeerlaufZeitLimit * 1_000_000L;
+            }
+            if (InArbeit) {
+                // Der Arbeiter bekommt so lange wie das Senden einer Antwort
+                return Fristen.Ende(LetzteAktivitaet, Fristen.SendeZeit, 0);
+            }
+            if (Ausgang != null) {
+                // Stroeme unbekannter Laenge muessen nur regelmaessig vorankommen
+                return AntwortLaenge < 0 ? Fristen.Ende(LetzteAktivitaet, Fristen.SendeZeit, 0)
+                        : Fristen.Ende(AntwortStart, Fristen.SendeZeit, AntwortLaenge);
+            }
+            if (Leser != null) {
+                return Math.min(Fristen.Ende(RumpfBeginn, Fristen.RumpfZeit, RumpfGelesen),
+                        Fristen.Ende(LetzteAktivitaet, Fristen.RumpfZeit, 0));
+            }
+            if (Eingang.position() > 0 || (Verschluesselung != null && !Verschluesselung.HandshakeFertig())) {
+                return Fristen.Ende(KopfBeginn, Fristen.KopfZeit, 0);
+            }
+            return LetzteAktivitaet + WebServer.LeerlaufZeitLimit * 1_000_000L;
+        }
+
+        /**
+         * Wird aufgerufen, wenn die {@link #Frist()} abgelaufen ist. Wer mitten in Kopf oder Rumpf steckt, bekommt
+         * noch ein 408, alle anderen werden einfach geschlossen.
+         */
+        void FristAbgelaufen() throws IOException {
+            if (Zweier != null) {
+                if (Zweier.Aktiv() || Zweier.Sendet()) {
+                    Metriken.Zeitueberschreitungen.increment();
+                }
+                BrecheAllesAb();
+                return;
+            }
+            if (Verschluesselung != null && !Verschluesselung.HandshakeFertig()) {
+                // Ohne fertigen Handshake koennen wir kein 408 senden
+                Metriken.Zeitueberschreitungen.increment();
+                BrecheAllesAb();
+                return;
+            }
+            if (Ausgang == null && Leser == null && Eingang.position() == 0 && !InArbeit) {
+                BrecheAllesAb();
+                return;
+            }
+            Metriken.Zeitueberschreitungen.increment();
+            // Den Bearbeiter braucht noch der Arbeiter, fuer ein 408 ist es ohnehin zu spaet
+            if (Ausgang != null || InArbeit) {
+                BrecheHartAb();
+                return;
+            }
+            Anfrage Abgebrochen = AktuelleAnfrage;
+            if (Abgebrochen == null) {
+                AnfrageStart = System.nanoTime();
+            }
+            BrichRumpfAb();
+            Eingang.clear();
+            Beantworte(Abgebrochen, Bearbeiter.FehlerAntwort("408 Request Timeout"));
+        }
+
+        /**
+         * Ob die Verbindung nur auf die naechste Anfrage wartet und ohne Verlust geschlossen werden kann.
+         */
+        boolean Wartet() {
+            if (Zweier != null) {
+                return Zweier.Wartet();
+            }
+            return Ausgang == null && AktuelleAnfrage == null && !InArbeit && Eingang.position() == 0;
+        }
+
+        /**
+         * Bearbeitet alle vollstaendig empfangenen Anfragen, solange keine Antwort mehr auf den Socket wartet. So werden
+         * auch mehrere per Pipelining gesendete Anfragen nacheinander beantwortet.
+         */
+        void Fortfahren() throws IOException {
+            while (Zweier == null && Ausgang == null && !InArbeit && Schluessel.isValid()
+                    && (Verarbeite() || LiesVorrat())) {
+                // Verarbeite hat eine Antwort gestartet, eventuell ist sie schon komplett gesendet
+            }
+            if (Zweier != null && Schluessel.isValid()) {
+                VerarbeiteHttp2();
+            }
+            if (Eingang != LEER && Eingang.position() == 0) {
+                PufferPool.Gib(Eingang);
+                Eingang = LEER;
+            }
+            // Rechnet der TLS Handshake gerade bei einem Arbeiter, ruht die Verbindung, bis er fertig ist
+            if (Verschluesselung != null && Verschluesselung.Rechnet() && Schluessel.isValid()) {
+                Schluessel.interestOps(0);
+            }
+        }
+
+        /**
+         * Versucht aus den bisher empfangenen Bytes eine vollstaendige Anfrage zu machen und beantwortet sie.
+         *
+         * @return Wahr, wenn eine Anfrage beantwortet wurde
+         */
+        private boolean Verarbeite() throws IOException {
+            if (AktuelleAnfrage == null) {
+                // Nur die erste Anfrage einer Verbindung kann der Vorspann von HTTP/2 sein
+                if (Beantwortet == 0 && Http2Verbindung.Aktiv) {
+                    int Vorspann = Http2Verbindung.Vorspann(Eingang.array(), 0, Eingang.position());
+                    if (Vorspann == Http2Verbindung.VIELLEICHT) {
+                        return false;
+                    } else if (Vorspann == Http2Verbindung.JA) {
+                        Zweier = new Http2Verbindung(Bearbeiter, ClientAdresse, Zugang, null, this::BearbeiteStrom);
+                        return true;
+                    }
+                }
+                Anfrage Neu = Kontext;
+                Neu.Zuruecksetzen();
+                int Verbraucht = Parser.Parse(Eingang.array(), 0, Eingang.position(), Neu);
+                if (Verbraucht == AnfrageParser.BRAUCHT_MEHR) {
+                    return false;
+                }
+                AnfrageStart = System.nanoTime();
+                if (Verbraucht == AnfrageParser.FEHLER) {
+                    Beantworte(null, Bearbeiter.FehlerAntwort(Parser.FehlerStatus));
+                    return true;
+                }
+                EntferneVorne(Verbraucht);
+
+                // Ist der Client zu schnell, lehnen wir ab, bevor wir Rumpf, Cache oder Dateisystem anfassen
+                if (!Zugang.Darf()) {
+                    Beantworte(Neu, Bearbeiter.ZuVieleAnfragen(Neu, Zugang));
+                    return true;
+                }
+                if (Verschluesselung == null && Http2Verbindung.WillUmsteigen(Neu)) {
+                    Zweier = new Http2Verbindung(Bearbeiter, ClientAdresse, Zugang, Neu, this::BearbeiteStrom);
+                    return true;
+                }
+
+                // Hat die Anfrage einen Rumpf, reichen wir ihn beim Empfangen Stueck fuer Stueck an sein Ziel weiter.
+                // POST Rumpfe gehen an das konfigurierte Ziel, die Rumpfe anderer Methoden werden verworfen.
+                RumpfLeser NeuerLeser = RumpfLeser.Fuer(Neu, WebServer.MaxRumpfGroesse);
+                if (NeuerLeser != null) {
+                    if (NeuerLeser.FehlerStatus != null) {
+                        Beantworte(Neu, Bearbeiter.FehlerAntwort(NeuerLeser.FehlerStatus));
+                        return true;
+                    }
+                    Leser = NeuerLeser;
+                    RumpfBeginn = System.nanoTime();
+                    RumpfGelesen = 0;
+                    Ziel = Anfrage.POST.equals(Neu.Methode()) ? WebServer.PostZiel.get() : RumpfZiele.VERWERFEN;
+
+                    // Ein wartender Client bekommt sein Okay direkt, die paar Bytes passen immer in den Socketpuffer
+                    if (RumpfLeser.WartetAufWeiter(Neu) && Eingang.position() == 0) {
+                        Metriken.GesendeteBytes.add(Schreibe(ByteBuffer.wrap(Antwort.WEITER)));
+                        MeldeAusstehend();
+                    }
+                }
+                AktuelleAnfrage = Neu;
+            }
+
+            if (Leser != null) {
+                String Fehler = null;
+                try {
+                    int Verbraucht = Leser.Lies(Eingang.array(), 0, Eingang.position(), Ziel);
+                    if (Verbraucht == RumpfLeser.FEHLER) {
+                        Fehler = Leser.FehlerStatus;
+                    } else {
+                        EntferneVorne(Verbraucht);
+                        RumpfGelesen += Verbraucht;
+                    }
+                } catch (IOException e) {
+                    Protokoll.Fehler("Fehler beim lesen eines Rumpfes. Breche ab...");
+                    Fehler = "500 Internal Server Error";
+                }
+
+                if (Fehler != null) {
+                    Anfrage Abgebrochen = AktuelleAnfrage;
+                    BrichRumpfAb();
+                    Beantworte(Abgebrochen, Bearbeiter.FehlerAntwort(Fehler));
+                    return true;
+                }
+                if (!Leser.Fertig()) {
+                    return false;
+                }
+                AktuelleAnfrage.Ziel = Ziel;
+                Leser = null;
+                Ziel = null;
+            }
+
+            Anfrage Fertig = AktuelleAnfrage;
+            AktuelleAnfrage = null;
+            Antwort Sofort = Bearbeiter.Sofort(Fertig);
+            if (Sofort != null) {
+                Beantworte(Fertig, Sofort);
+                return true;
+            }
+            // Bis die Antwort da ist, lesen wir nichts weiter. Hinterher geschickte Anfragen bleiben im Eingang.
+            InArbeit = true;
+            Schluessel.interestOps(0);
+            Abgeben(Bearbeiter, Fertig, DieAntwort -> Bearbeitet(Fertig, DieAntwort));
+            return true;
+        }
+
+        /**
+         * Reicht alle empfangenen Bytes an die HTTP/2 Verbindung und sendet, was sie daraufhin zu sagen hat.
+         */
+        private void VerarbeiteHttp2() throws IOException {
+            do {
+                int Verbraucht = Zweier.Verarbeite(Eingang.array(), 0, Eingang.position());
+                if (Verbraucht > 0) {
+                    EntferneVorne(Verbraucht);
+                }
+            } while (LiesVorrat());
+            SchreibeHttp2();
+        }
+
+        /**
+         * Schreibt die Ausgabe der HTTP/2 Verbindung, bis der Socket nichts mehr annimmt. Gelesen wird dabei immer
+         * weiter, sonst kaemen WINDOW_UPDATEs und neue Anfragen des Clients nicht an.
+         */
+        private void SchreibeHttp2() throws IOException {
+            if (!Schluessel.isValid()) {
+                return;
+            }
+            if (Verschluesselung != null && !Verschluesselung.Leere()) {
+                Schluessel.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            ByteBuffer Stueck;
+            while ((Stueck = Zweier.Ausgabe()).hasRemaining()) {
+                long Geschrieben = Schreibe(Stueck);
+                Metriken.GesendeteBytes.add(Geschrieben);
+                if (Geschrieben > 0) {
+                    LetzteAktivitaet = System.nanoTime();
+                }
+                if (Stueck.hasRemaining() || (Verschluesselung != null && !Verschluesselung.Leere())) {
+                    Schluessel.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            // Auch nach einem GOAWAY wird weiter gelesen, bis der Client auflegt
+            Schluessel.interestOps(SelectionKey.OP_READ);
+        }
+
+        /**
+         * Verwirft einen nur teilweise gelesenen Rumpf.
+         */
+        private void BrichRumpfAb() {
+            if (Ziel != null) {
+                Ziel.Abbrechen();
+            }
+            AktuelleAnfrage = null;
+            Leser = null;
+            Ziel = null;
+        }
+
+        /**
+         * Verwirft die ersten Bytes des Eingangspuffers.
+         */
+        private void EntferneVorne(int Anzahl) {
+            Eingang.flip();
+            Eingang.position(Anzahl);
+            Eingang.compact();
+        }
+
+        /**
+         * Beginnt eine Antwort zu senden. Was nicht sofort geschrieben werden kann, wird bei OP_WRITE fortgesetzt.
+         */
+        private void Beantworte(Anfrage DieAnfrage, Antwort DieAntwort) throws IOException {
+            AntwortStart = System.nanoTime();
+            ErfassteAnfrage = DieAnfrage;
+            ErfassterStatus = DieAntwort.Status;
+            AntwortBytes = 0;
+            if (DieAntwort.Datei != null && !DieAntwort.NurKopf) {
+                try {
+                    Abbild = DieAntwort.BildeAb();
+                    if (Abbild == null) {
+                        DateiKanal = DieAntwort.OeffneDatei();
+                    }
+                    DateiPosition = DieAntwort.DateiAnfang;
+                    DateiEnde = DieAntwort.DateiAnfang + DieAntwort.Laenge();
+                } catch (Exception e) {
+                    Protokoll.Fehler("Datei ist magisch. Ein Einhorn wird sie gestohlen oder versteckt haben. Breche ab...");
+                    BrecheAllesAb();
+                    return;
+                }
+            }
+
+            Beantwortet++;
+            OffenHalten = DieAntwort.Rahmen(DieAnfrage, Beantwortet < WebServer.MaxAnfragenProVerbindung);
+            AntwortLaenge = DieAntwort.HatRumpf() ? DieAntwort.Laenge() : 0;
+            if (DieAntwort.HatRumpf() && DieAntwort.Strom != null) {
+                Strom = DieAntwort.Strom;
+                Chunked = DieAntwort.Chunked;
+            } else if (DieAntwort.Strom != null) {
+                DieAntwort.Strom.close();
+            }
+            if (Strom != null || (DateiKanal != null && Verschluesselung != null)) {
+                NachschubPuffer = PufferPool.Nimm();
+                NachschubPuffer.flip();
+            }
+
+            KopfPuffer = DieAntwort.Kopf(KopfPuffer);
+            KopfLaenge = KopfPuffer.limit();
+            ByteBuffer Kopf = KopfPuffer;
+            if (DieAntwort.HatRumpf() && DieAntwort.Rumpf != null) {
+                Ausgang = new ByteBuffer[]{Kopf, ByteBuffer.wrap(DieAntwort.Rumpf)};
+            } else if (DieAntwort.HatRumpf() && DieAntwort.Puffer != null) {
+                Ausgang = new ByteBuffer[]{Kopf, DieAntwort.Puffer};
+            } else if (Abbild != null) {
+                // Die Abbildung geht wie ein Rumpf aus dem Speicher mit demselben gathering write raus
+                ByteBuffer[] Abschnitte = Abbild.Ausschnitt(DieAntwort.DateiAnfang, DieAntwort.Laenge());
+                Ausgang = new ByteBuffer[Abschnitte.length + 1];
+                Ausgang[0] = Kopf;
+                System.arraycopy(Abschnitte, 0, Ausgang, 1, Abschnitte.length);
+            } else {
+                Ausgang = new ByteBuffer[]{Kopf};
+            }
+            Schluessel.interestOps(SelectionKey.OP_WRITE);
+            Schreibbar();
+        }
+
+        void Schreibbar() throws IOException {
+            if (Zweier != null) {
+                SchreibeHttp2();
+                return;
+            }
+            // Bei TLS muss erst raus, was schon verschluesselt ist. Wartete nur ein Handshake, wird wieder gelesen.
+            if (Verschluesselung != null && !Verschluesselung.Leere()) {
+                return;
+            }
+            if (Ausgang == null) {
+                Schluessel.interestOps(InArbeit ? 0 : SelectionKey.OP_READ);
+                return;
+            }
+
+            // Zuerst Header und Rumpf aus dem Speicher mit einem einzigen gathering write
+            ZaehleGesendet(Schreibe(Ausgang));
+            LetzteAktivitaet = System.nanoTime();
+            if (PufferPool.Uebrig(Ausgang)) {
+                return;
+            }
+
+            // Dateien uebergeben wir per transferTo (sendfile) direkt an den Kernel, ohne Kopie durch den Userspace.
+            // Nimmt der Socket gerade nichts mehr an, geht es beim naechsten OP_WRITE an derselben Stelle weiter. Bei
+            // TLS muss die Datei durch den Userspace, dann lesen wir sie Stueck fuer Stueck in den Nachschubpuffer.
+            if (DateiKanal != null && Verschluesselung != null) {
+                while (NachschubPuffer.hasRemaining() || DateiPosition < DateiEnde) {
+                    if (!NachschubPuffer.hasRemaining()) {
+                        NachschubPuffer.clear();
+                        NachschubPuffer.limit((int) Math.min(NachschubPuffer.capacity(), DateiEnde - DateiPosition));
+                        if (DateiKanal.read(NachschubPuffer, DateiPosition) <= 0) {
+                            throw new IOException("Datei ist waehrend des Sendens geschrumpft");
+                        }
+                        NachschubPuffer.flip();
+                        DateiPosition += NachschubPuffer.remaining();
+                    }
+                    ZaehleGesendet(Schreibe(NachschubPuffer));
+                    if (NachschubPuffer.hasRemaining()) {
+                        return;
+                    }
+                }
+            } else if (DateiKanal != null) {
+                while (DateiPosition < DateiEnde) {
+                    long Gesendet = DateiKanal.transferTo(DateiPosition, DateiEnde - DateiPosition, Kanal);
+                    if (Gesendet == 0) {
+                        if (DateiPosition >= DateiKanal.size()) {
+                            throw new IOException("Datei ist waehrend des Sendens geschrumpft");
+                        }
+                        return;
+                    }
+                    DateiPosition += Gesendet;
+                    ZaehleGesendet(Gesendet);
+                }
+            }
+
+            // Stroeme unbekannter Laenge gehen ueber den Nachschubpuffer, immer nur so viel wie der Socket annimmt
+            if (NachschubPuffer != null) {
+                while (true) {
+                    if (!NachschubPuffer.hasRemaining() && !FuelleNachschub()) {
+                        break;
+                    }
+                    ZaehleGesendet(Schreibe(NachschubPuffer));
+                    if (NachschubPuffer.hasRemaining()) {
+                        return;
+                    }
+                }
+            }
+
+            // Die letzten verschluesselten Bytes muessen raus sein, bevor die Verbindung eventuell geschlossen wird
+            if (Verschluesselung != null && !Verschluesselung.Leere()) {
+                return;
+            }
+            AntwortFertig();
+        }
+
+        private void ZaehleGesendet(long Anzahl) {
+            AntwortBytes += Anzahl;
+            Metriken.GesendeteBytes.add(Anzahl);
+        }
+
+        /**
+         * Liest die naechsten Bytes aus dem Strom in den Nachschubpuffer, bei chunked mit Rahmung.
+         *
+         * @return Falsch, wenn es nichts mehr zu senden gibt
+         */
+        private boolean FuelleNachschub() throws IOException {
+            NachschubPuffer.clear();
+            if (Strom == null) {
+                return false;
+            } else if (!Chunked) {
+                int Gelesen = Strom.read(NachschubPuffer.array(), 0, NachschubPuffer.capacity());
+                if (Gelesen == -1) {
+                    return false;
+                }
+                NachschubPuffer.position(Gelesen);
+            } else {
+                // Platz fuer die Chunk Laenge in Hex und zwei mal CRLF lassen
+                int Gelesen = Strom.read(NachschubPuffer.array(), 12, NachschubPuffer.capacity() - 16);
+                if (Gelesen == -1) {
+                    NachschubPuffer.put(("0" + Antwort.CRLF + Antwort.CRLF).getBytes(StandardCharsets.ISO_8859_1));
+                    Strom.close();
+                    Strom = null;
+                } else {
+                    byte[] ChunkKopf = (Integer.toHexString(Gelesen) + Antwort.CRLF).getBytes(StandardCharsets.ISO_8859_1);
+                    NachschubPuffer.position(12 - ChunkKopf.length);
+                    NachschubPuffer.mark();
+                    NachschubPuffer.put(ChunkKopf);
+                    NachschubPuffer.position(12 + Gelesen);
+                    NachschubPuffer.put((byte) '\r').put((byte) '\n');
+                    int Ende = NachschubPuffer.position();
+                    NachschubPuffer.reset();
+                    NachschubPuffer.limit(Ende);
+                    return true;
+                }
+            }
+            NachschubPuffer.flip();
+            return true;
+        }
+
+        /**
+         * Raeumt nach einer vollstaendig gesendeten Antwort auf. Bei Keep-Alive wird wieder gelesen.
+         */
+        private void AntwortFertig() throws IOException {
+            long Jetzt = System.nanoTime();
+            Metriken.Erfasse(Metriken.Phase.SENDEN, Jetzt - AntwortStart);
+            Metriken.Anfrage(ErfassteAnfrage == null ? null : ErfassteAnfrage.Methode(), ErfassterStatus,
+                    Jetzt - AnfrageStart);
+            Protokoll.Zugriff(ClientAdresse, ErfassteAnfrage, ErfassterStatus, AntwortBytes - KopfLaenge);
+            ErfassteAnfrage = null;
+
+            SchliesseQuellen();
+            Ausgang = null;
+
+            if (!OffenHalten) {
+                BrecheAllesAb();
+                return;
+            }
+
+            // Bereits hinterher geschickte Bytes sind der Anfang des naechsten Kopfes
+            KopfBeginn = Jetzt;
+            Schluessel.interestOps(SelectionKey.OP_READ);
+        }
+
+        private void SchliesseQuellen() {
+            if (NachschubPuffer != null) {
+                PufferPool.Gib(NachschubPuffer);
+                NachschubPuffer = null;
+            }
+            if (Abbild != null) {
+                Abbild.Gib();
+                Abbild = null;
+            }
+            if (DateiKanal != null) {
+                try {
+                    DateiKanal.close();
+                } catch (IOException e) {
+                    Protokoll.Fehler("Fehler beim schliessen eines Dateistroms.");
+                }
+                DateiKanal = null;
+            }
+            if (Strom != null) {
+                try {
+                    Strom.close();
+                } catch (IOException e) {
+                    Protokoll.Fehler("Fehler beim schliessen eines Dateistroms.");
+                }
+                Strom = null;
+            }
+        }
+
+        /**
+         * Schliesst die Verbindung, ohne noch zu senden, was im Sendepuffer des Kernels liegt.
+         */
+        void BrecheHartAb() {
+            try {
+                Kanal.setOption(StandardSocketOptions.SO_LINGER, 0);
+            } catch (IOException e) {
+                // Dann ist der Kanal schon zu
+            }
+            BrecheAllesAb();
+        }
+
+        /**
+         * Schliesst Datei und Socket dieser Verbindung.
+         */
+        void BrecheAllesAb() {
+            if (Zweier != null) {
+                // Ein GOAWAY versuchen wir noch, damit der Client weiss, welche Stroeme er wiederholen kann
+                if (Kanal.isOpen() && Schluessel.isValid()) {
+                    Zweier.Verabschiede();
+                    try {
+                        Schreibe(Zweier.Ausgabe());
+                    } catch (IOException e) {
+                        // Die Verbindung wird ohnehin geschlossen
+                    }
+                }
+                Zweier.Schliesse();
+            }
+            if (Kanal.isOpen()) {
+                Metriken.OffeneVerbindungen.decrement();
+                Zugang.Trenne();
+            }
+            Schluessel.cancel();
+            SchliesseQuellen();
+            BrichRumpfAb();
+            if (Verschluesselung != null && Kanal.isOpen()) {
+                Verschluesselung.Schliesse();
+            }
+            if (Eingang != LEER) {
+                PufferPool.Gib(Eingang);
+                Eingang = LEER;
+            }
+            try {
+                Kanal.close();
+            } catch (IOException e) {
+                Protokoll.Fehler("Fehler beim schliessen des Sockets.");
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Loest Request URIs in Pfade unterhalb des Wurzelverzeichnisses auf. Die URI wird dazu ohne Query
+ * prozentdekodiert, normalisiert und darf danach nicht aus der Wurzel herausfuehren, auch nicht ueber "%2e%2e".
+ * <p>
+ * Die Ergebnisse merken wir uns, damit haeufig angefragte Pfade nicht jedes Mal dekodiert und normalisiert werden.
+ * Fuer Pfade, die es nicht gibt, merken wir uns das fuer kurze Zeit ebenfalls, so kostet eine Flut gleicher 404
+ * Anfragen nicht jedes Mal einen Zugriff aufs Dateisystem.
+ */
+final class Pfade {
+    /**
+     * Aus diesem Verzeichnis werden die Dateien ausgeliefert, absolut und normalisiert.
+     */
+    static volatile Path Wurzel = Paths.get("").toAbsolutePath().normalize();
+
+    /**
+     * So lange in Millisekunden gilt ein nicht gefundener Pfad als nicht vorhanden. 0 schaltet das ab.
+     */
+    static volatile long FehlZeit = 1000;
+
+    /**
+     * So viele aufgeloeste Pfade merken wir uns hoechstens.
+     */
+    final static int MAX_EINTRAEGE = 8192;
+
+    private final static ConcurrentHashMap<String, Ziel> Bekannt = new ConcurrentHashMap<>();
+
+    private Pfade() {
+    }
+
+    /**
+     * Ein aufgeloester Pfad. Die Instanz wird von allen Anfragen auf dieselbe URI geteilt.
+     */
+    static final class Ziel {
+        /**
+         * Die Wurzel, unter der aufgeloest wurde. Wird sie geaendert, ist das Ziel veraltet.
+         */
+        final Path Wurzel;
+        final Path Pfad;
+        /**
+         * Der Pfad als Text, Schluessel fuer den {@link DateiCache}.
+         */
+        final String Name;
+        /**
+         * Die URI ohne Query, noch kodiert, so wie sie in Links und Umleitungen gehoert.
+         */
+        final String Anfragepfad;
+        /**
+         * Ob die URI mit einem Slash endet und damit ein Verzeichnis meint.
+         */
+        final boolean Verzeichnis;
+
+        private volatile long FehltBis;
+
+        private Ziel(Path Wurzel, Path Pfad, String Anfragepfad, boolean Verzeichnis) {
+            this.Wurzel = Wurzel;
+            this.Pfad = Pfad;
+            this.Name = Pfad.toString();
+            this.Anfragepfad = Anfragepfad;
+            this.Verzeichnis = Verzeichnis;
+        }
+
+        /**
+         * Das Ziel fuer eine Datei in diesem Verzeichnis, etwa die Indexdatei. Es wird nicht gemerkt.
+         */
+        Ziel Darin(String Datei) {
+            return new Ziel(Wurzel, Pfad.resolve(Datei), Anfragepfad + Datei, false);
+        }
+
+        /**
+         * Wahr, wenn der Pfad vor kurzem nicht gefunden wurde. Das Dateisystem muss dann nicht gefragt werden.
+         */
+        boolean Fehlt() {
+            long Bis = FehltBis;
+            return Bis != 0 && Bis - System.nanoTime() > 0;
+        }
+
+        /**
+         * Merkt sich fuer {@link #FehlZeit}, dass es den Pfad nicht gibt.
+         */
+        void Fehlend() {
+            long Zeit = FehlZeit;
+            if (Zeit > 0) {
+                FehltBis = System.nanoTime() + Zeit * 1_000_000L;
+            }
+        }
+
+        /**
+         * Fragt mit einem einzigen stat nach der Datei, ausser sie fehlte gerade erst.
+         *
+         * @return Groesse, mtime usw. der Datei (oder des Verzeichnisses), oder null wenn sie nicht existiert
+         * @throws SecurityException Wenn wir die Datei nicht ansehen duerfen
+         */
+        BasicFileAttributes Attribute() {
+            if (Fehlt()) {
+                return null;
+            }
+            BasicFileAttributes Attribute = Pfade.Attribute(Pfad);
+            if (Attribute == null) {
+                Fehlend();
+            }
+            return Attribute;
+        }
+    }
+
+    /**
+     * Loest eine Request URI auf.
+     *
+     * @param URI Die Request URI, mit oder ohne Query
+     * @return Das Ziel, oder null wenn die URI kaputt kodiert ist oder aus der Wurzel herausfuehrt
+     */
+    static Ziel Loese(String URI) {
+        int Ende = URI.indexOf('?');
+        String Anfragepfad = Ende < 0 ? URI : URI.substring(0, Ende);
+        Path DieWurzel = Wurzel;
+        Ziel Gefunden = Bekannt.get(Anfragepfad);
+        if (Gefunden != null && Gefunden.Wurzel == DieWurzel) {
+            return Gefunden;
+        }
+
+        Ziel Neu = Berechne(Anfragepfad, DieWurzel);
+        if (Neu == null) {
+            return null;
+        }
+        if (Bekannt.size() >= MAX_EINTRAEGE) {
+            Raeume();
+        }
+        Bekannt.put(Anfragepfad, Neu);
+        return Neu;
+    }
+
+    /**
+     * Schaut mit einem einzigen stat nach, ob es den Pfad gibt. (Die Datei wird dabei nicht geoeffnet.)
+     *
+     * @return Groesse, mtime usw. der Datei (oder des Verzeichnisses), oder null wenn sie nicht existiert
+     * @throws SecurityException Wenn wir die Datei nicht ansehen duerfen
+     */
+    static BasicFileAttributes Attribute(Path Pfad) {
+        try {
+            return Files.readAttributes(Pfad, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static Ziel Berechne(String Anfragepfad, Path DieWurzel) {
+        if (!Anfragepfad.startsWith("/")) {
+            return null;
+        }
+        String Dekodiert = Dekodiere(Anfragepfad);
+        if (Dekodiert == null || Dekodiert.indexOf('\0') >= 0) {
+            return null;
+        }
+
+        // Fuehrende Slashes entfernen, sonst waere der Pfad absolut und resolve wuerde die Wurzel ignorieren
+        int Anfang = 0;
+        while (Anfang < Dekodiert.length() && Dekodiert.charAt(Anfang) == '/') {
+            Anfang++;
+        }
+        Path Pfad;
+        try {
+            Pfad = DieWurzel.resolve(Dekodiert.substring(Anfang)).normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        // Erst nach dem Normalisieren pruefen, "/a/../../etc" sieht vorher noch harmlos aus
+        if (!Pfad.startsWith(DieWurzel)) {
+            return null;
+        }
+        return new Ziel(DieWurzel, Pfad, Anfragepfad, Dekodiert.endsWith("/"));
+    }
+
+    /**
+     * Dekodiert %XX Sequenzen als UTF-8. Ein Plus bleibt im Pfad ein Plus.
+     *
+     * @return Der dekodierte Pfad, oder null bei unvollstaendigen Sequenzen oder ungueltigem UTF-8
+     */
+    private static String Dekodiere(String Kodiert) {
+        // Der Parser liest die Zeile als ISO-8859-1, roh gesendete UTF-8 Bytes stehen also einzeln im String
+        int Erstes = 0;
+        while (Erstes < Kodiert.length() && Kodiert.charAt(Erstes) != '%' && Kodiert.charAt(Erstes) < 0x80) {
+            Erstes++;
+        }
+        if (Erstes == Kodiert.length()) {
+            return Kodiert;
+        }
+
+        ByteBuffer Bytes = ByteBuffer.allocate(Kodiert.length());
+        for (int i = 0; i < Kodiert.length(); i++) {
+            char Zeichen = Kodiert.charAt(i);
+            if (Zeichen == '%') {
+                if (i + 2 >= Kodiert.length()) {
+                    return null;
+                }
+                int Hoch = Character.digit(Kodiert.charAt(i + 1), 16);
+                int Tief = Character.digit(Kodiert.charAt(i + 2), 16);
+                if (Hoch < 0 || Tief < 0) {
+                    return null;
+                }
+                Bytes.put((byte) (Hoch << 4 | Tief));
+                i += 2;
+            } else {
+                Bytes.put((byte) Zeichen);
+            }
+        }
+        Bytes.flip();
+        try {
+            CharBuffer Zeichen = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(Bytes);
+            return Zeichen.toString();
+        } catch (CharacterCodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Wirft ein Achtel der gemerkten Pfade hinaus. Welche das sind, ist egal, haeufig angefragte sind schnell wieder
+     * da. So bleibt das Aufraeumen billig, auch wenn ein Client lauter verschiedene URIs schickt.
+     */
+    private static void Raeume() {
+        int Zuviel = Bekannt.size() - MAX_EINTRAEGE * 7 / 8;
+        Iterator<String> Schluessel = Bekannt.keySet().iterator();
+        while (Zuviel-- > 0 && Schluessel.hasNext()) {
+            Schluessel.next();
+            Schluessel.remove();
+        }
+    }
+}
@@ -0,0 +1,516 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ein asynchrones Protokoll. Die Threads, die Anfragen bearbeiten, legen ihre Eintraege nur in einen begrenzten
+ * Ringpuffer ohne Locks. Ein einzelner Schreiber im Hintergrund holt sie dort stapelweise ab und schreibt sie gepuffert
+ * auf die Konsole oder in eine Datei, die ab einer Groesse rotiert wird. So wartet kein Anfragethread mehr auf das
+ * Lock von System.out bzw. System.err oder auf die Festplatte.
+ * <p>
+ * Es gibt drei Protokolle: das Zugriffsprotokoll im Combined Log Format (nur wenn eine Datei angegeben wurde), die
+ * Fehlermeldungen (standardmaessig auf System.err) und die Ausgabe der POST Rumpfe (auf System.out).
+ */
+final class Protokoll {
+    /**
+     * Was passieren soll, wenn der Ringpuffer voll ist.
+     */
+    enum Voll {
+        /** Der Eintrag wird verworfen und gezaehlt. Der Anfragethread wartet nie. */
+        VERWERFEN,
+        /** Der Anfragethread wartet, bis der Schreiber wieder Platz geschaffen hat. */
+        BLOCKIEREN
+    }
+
+    /**
+     * Anzahl der Plaetze im Ringpuffer, muss eine Zweierpotenz sein.
+     */
+    final static int KAPAZITAET = 16 * 1024;
+
+    /**
+     * So viele Eintraege schreibt der Schreiber am Stueck, bevor er nach Flush und Rotation schaut.
+     */
+    final static int STAPEL = 256;
+
+    /**
+     * Dateien werden spaetestens nach dieser Zeit geflusht, die Konsole sobald nichts mehr ansteht.
+     */
+    final static long FLUSH_INTERVALL = 1_000_000_000L;
+
+    /**
+     * Wie viele rotierte Dateien (".1" bis ".n") aufgehoben werden.
+     */
+    final static int ROTATIONEN = 5;
+
+    static volatile Voll WennVoll = Voll.VERWERFEN;
+
+    /**
+     * Alle geoeffneten Protokolle, damit sie bei Programmende noch geschrieben werden koennen.
+     */
+    private final static List<Protokoll> ALLE = new CopyOnWriteArrayList<>();
+
+    /**
+     * Das Zugriffsprotokoll, oder null wenn es abgeschaltet ist.
+     */
+    static volatile Protokoll Zugriffe = null;
+    static volatile Protokoll Meldungen = new Protokoll("Fehler", System.err);
+    static volatile Protokoll Ausgabe = new Protokoll("Ausgabe", System.out);
+
+    /**
+     * Das Datumsformat des Common Log Format, etwa "10/Oct/2000:13:55:36 -0700".
+     */
+    private final static DateTimeFormatter CLF_DATUM =
+            DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US).withZone(ZoneId.systemDefault());
+
+    /**
+     * Der Ringpuffer nach Vyukov: Jeder Platz hat eine Sequenznummer, die sagt, ob er gerade beschrieben oder gelesen
+     * werden darf. Mehrere Erzeuger reservieren Plaetze per CAS, gelesen wird nur vom Schreiber.
+     */
+    private final Object[] Plaetze = new Object[KAPAZITAET];
+    private final AtomicLongArray Sequenzen = new AtomicLongArray(KAPAZITAET);
+    private final AtomicLong Schreibposition = new AtomicLong();
+    private long Leseposition;
+
+    /**
+     * Die Datei und ihre maximale Groesse, oder null bei der Konsole.
+     */
+    private final Path Datei;
+    private final long MaxGroesse;
+    private OutputStream Ausgang;
+    private long DateiGroesse;
+
+    private final Thread Schreiber;
+    private volatile boolean Beendet;
+
+    /**
+     * Wahr, solange der Schreiber mangels Eintraegen schlaeft. Nur dann muss ein Erzeuger ihn wecken.
+     */
+    private volatile boolean Schlaeft;
+
+    /**
+     * Erzeuger, die bei {@link Voll#BLOCKIEREN} auf einen freien Platz warten. Der Schreiber weckt sie, sobald er
+     * Eintraege abgeholt hat.
+     */
+    private final ConcurrentLinkedQueue<Thread> Wartende = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Nur vom Schreiber benutzt: das zuletzt formatierte Datum des Zugriffsprotokolls.
+     */
+    private long LetzteSekunde = -1;
+    private String LetztesDatum;
+
+    /**
+     * Erzeugt ein Protokoll auf die Konsole.
+     */
+    private Protokoll(String Name, OutputStream Konsole) {
+        this.Datei = null;
+        this.MaxGroesse = 0;
+        this.Ausgang = new BufferedOutputStream(Konsole, 16 * 1024);
+        this.Schreiber = Starte(Name);
+    }
+
+    /**
+     * Erzeugt ein Protokoll in eine Datei. An eine bestehende Datei wird angehaengt.
+     *
+     * @param Name       Name des Schreiberthreads
+     * @param Datei      Pfad der Datei
+     * @param MaxGroesse Ab dieser Groesse in Bytes wird rotiert, 0 fuer nie
+     * @throws IOException Wenn die Datei nicht geoeffnet werden kann
+     */
+    private Protokoll(String Name, Path Datei, long MaxGroesse) throws IOException {
+        this.Datei = Datei;
+        this.MaxGroesse = MaxGroesse;
+        Oeffne();
+        this.Schreiber = Starte(Name);
+    }
+
+    /**
+     * Oeffnet ein Protokoll in eine Datei.
+     *
+     * @param Name       "Zugriffe" oder "Fehler"
+     * @param Pfad       Pfad der Datei
+     * @param MaxGroesse Ab dieser Groesse in Bytes wird rotiert, 0 fuer nie
+     * @return Das Protokoll, oder null wenn die Datei nicht geoeffnet werden konnte
+     */
+    static Protokoll Datei(String Name, String Pfad, long MaxGroesse) {
+        try {
+            return new Protokoll(Name, Paths.get(Pfad), MaxGroesse);
+        } catch (IOException | RuntimeException e) {
+            Fehler("Protokolldatei " + Pfad + " konnte nicht geoeffnet werden.");
+            return null;
+        }
+    }
+
+    private Thread Starte(String Name) {
+        for (int i = 0; i < KAPAZITAET; i++) {
+            Sequenzen.set(i, i);
+        }
+        Thread Neu = new Thread(this::Laufe, "Protokoll-" + Name);
+        Neu.setDaemon(true);
+        Neu.start();
+        // Bei Programmende wird noch alles geschrieben, was im Puffer steht, siehe BeendeAlle
+        ALLE.add(this);
+        return Neu;
+    }
+
+    /**
+     * Protokolliert eine Fehlermeldung. Ersetzt System.err.println auf allen Pfaden, die Anfragen bearbeiten.
+     */
+    static void Fehler(String Meldung) {
+        Meldungen.Schreibe(Meldung);
+    }
+
+    /**
+     * Protokolliert eine beantwortete Anfrage im Combined Log Format, falls das Zugriffsprotokoll eingeschaltet ist.
+     *
+     * @param Adresse    Adresse des Clients
+     * @param DieAnfrage Die Anfrage, oder null wenn sie nicht geparst werden konnte
+     * @param Status     Status der Antwort, etwa "200 OK"
+     * @param RumpfBytes Die Anzahl gesendeter Bytes ohne Header
+     */
+    static void Zugriff(InetAddress Adresse, Anfrage DieAnfrage, String Status, long RumpfBytes) {
+        Protokoll Ziel = Zugriffe;
+        if (Ziel != null) {
+            Ziel.Lege(new Zugriff(Adresse, DieAnfrage, Status, RumpfBytes));
+        }
+    }
+
+    /**
+     * Legt eine Zeile in den Puffer. Der Zeilenumbruch wird beim Schreiben angehaengt.
+     */
+    void Schreibe(String Zeile) {
+        Lege(Zeile);
+    }
+
+    /**
+     * Legt eine Kopie von rohen Bytes in den Puffer, sie werden unveraendert geschrieben.
+     */
+    void Schreibe(byte[] Daten, int Anfang, int Laenge) {
+        byte[] Kopie = new byte[Laenge];
+        System.arraycopy(Daten, Anfang, Kopie, 0, Laenge);
+        Lege(Kopie);
+    }
+
+    /**
+     * Legt einen Eintrag in den Ringpuffer. Ist er voll, wird je nach {@link #WennVoll} verworfen oder gewartet.
+     */
+    private void Lege(Object Eintrag) {
+        if (!Biete(Eintrag) && !Warte(Eintrag)) {
+            Metriken.VerworfeneProtokollEintraege.increment();
+            return;
+        }
+        // Erst nach dem Veroeffentlichen nachsehen, sonst koennte der Schreiber gerade einschlafen, ohne ihn zu sehen
+        if (Schlaeft) {
+            LockSupport.unpark(Schreiber);
+        }
+    }
+
+    /**
+     * Wartet bei vollem Puffer auf einen freien Platz, ohne zu pollen.
+     *
+     * @return Wahr, wenn der Eintrag doch noch abgelegt wurde
+     */
+    private boolean Warte(Object Eintrag) {
+        Thread Ich = Thread.currentThread();
+        while (WennVoll == Voll.BLOCKIEREN && !Beendet) {
+            // Erst eintragen, dann noch einmal versuchen, sonst ginge ein Wecken dazwischen verloren
+            Wartende.add(Ich);
+            boolean Abgelegt = Biete(Eintrag);
+            if (!Abgelegt && !Beendet) {
+                LockSupport.park(this);
+            }
+            Wartende.remove(Ich);
+            if (Abgelegt) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Weckt alle Erzeuger, die auf einen freien Platz warten.
+     */
+    private void WeckeWartende() {
+        for (Thread Wartender : Wartende) {
+            LockSupport.unpark(Wartender);
+        }
+    }
+
+    private boolean Biete(Object Eintrag) {
+        long Position = Schreibposition.get();
+        while (true) {
+            int Index = (int) Position & (KAPAZITAET - 1);
+            long Differenz = Sequenzen.get(Index) - Position;
+            if (Differenz == 0) {
+                if (Schreibposition.compareAndSet(Position, Position + 1)) {
+                    Plaetze[Index] = Eintrag;
+                    // Der volatile Schreibzugriff auf die Sequenz veroeffentlicht den Eintrag fuer den Schreiber
+                    Sequenzen.set(Index, Position + 1);
+                    return true;
+                }
+                Position = Schreibposition.get();
+            } else if (Differenz < 0) {
+                // Der Platz wurde noch nicht gelesen, der Puffer ist voll
+                return false;
+            } else {
+                // Ein anderer Erzeuger war schneller
+                Position = Schreibposition.get();
+            }
+        }
+    }
+
+    /**
+     * Holt den naechsten Eintrag. Wird nur vom Schreiber aufgerufen.
+     *
+     * @return Der Eintrag, oder null wenn der Puffer leer ist
+     */
+    private Object Nimm() {
+        if (!Ansteht()) {
+            return null;
+        }
+        int Index = (int) Leseposition & (KAPAZITAET - 1);
+        Object Eintrag = Plaetze[Index];
+        Plaetze[Index] = null;
+        Sequenzen.set(Index, Leseposition + KAPAZITAET);
+        Leseposition++;
+        return Eintrag;
+    }
+
+    /**
+     * Wahr, wenn der naechste Eintrag schon abgelegt ist. Wird nur vom Schreiber aufgerufen.
+     */
+    private boolean Ansteht() {
+        return Sequenzen.get((int) Leseposition & (KAPAZITAET - 1)) == Leseposition + 1;
+    }
+
+    /**
+     * Die Schleife des Schreibers. Wenn nichts ansteht, schlaeft er, bis ein Erzeuger ihn weckt, bei ungespeicherten
+     * Dateien hoechstens bis zum naechsten Flush.
+     */
+    private void Laufe() {
+        long LetzterFlush = System.nanoTime();
+        boolean Ungespeichert = false;
+        while (true) {
+            Object Eintrag = Nimm();
+            if (Eintrag == null) {
+                if (Ungespeichert && (Datei == null || Beendet
+                        || System.nanoTime() - LetzterFlush >= FLUSH_INTERVALL)) {
+                    Ungespeichert = !Flushe();
+                    LetzterFlush = System.nanoTime();
+                }
+                if (Beendet) {
+                    WeckeWartende();
+                    return;
+                }
+                Schlaeft = true;
+                // Ein Erzeuger, der vor dem Setzen abgelegt hat, hat uns vielleicht nicht geweckt
+                if (!Ansteht() && !Beendet) {
+                    if (Ungespeichert && Datei != null) {
+                        LockSupport.parkNanos(this, FLUSH_INTERVALL - (System.nanoTime() - LetzterFlush));
+                    } else {
+                        LockSupport.park(this);
+                    }
+                }
+                Schlaeft = false;
+                continue;
+            }
+
+            int Anzahl = 0;
+            do {
+                Schreibe(Eintrag);
+            } while (++Anzahl < STAPEL && (Eintrag = Nimm()) != null);
+            Ungespeichert = true;
+            if (!Wartende.isEmpty()) {
+                WeckeWartende();
+            }
+
+            if (Datei != null && System.nanoTime() - LetzterFlush >= FLUSH_INTERVALL) {
+                Ungespeichert = !Flushe();
+                LetzterFlush = System.nanoTime();
+            }
+            if (MaxGroesse > 0 && DateiGroesse >= MaxGroesse) {
+                Rotiere();
+            }
+        }
+    }
+
+    private void Schreibe(Object Eintrag) {
+        byte[] Daten;
+        if (Eintrag instanceof byte[]) {
+            Daten = (byte[]) Eintrag;
+        } else if (Eintrag instanceof Zugriff) {
+            Daten = Formatiere((Zugriff) Eintrag);
+        } else {
+            Daten = (Eintrag + System.lineSeparator()).getBytes(Charset.defaultCharset());
+        }
+        try {
+            Ausgang.write(Daten);
+            DateiGroesse += Daten.length;
+        } catch (IOException e) {
+            // Hier koennen wir nur noch direkt auf die Konsole schreiben
+            System.err.println("Fehler beim schreiben des Protokolls " + Schreiber.getName() + ".");
+        }
+    }
+
+    private boolean Flushe() {
+        try {
+            Ausgang.flush();
+            return true;
+        } catch (IOException e) {
+            System.err.println("Fehler beim schreiben des Protokolls " + Schreiber.getName() + ".");
+            return false;
+        }
+    }
+
+    private void Oeffne() throws IOException {
+        Ausgang = new BufferedOutputStream(Files.newOutputStream(Datei, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND), 64 * 1024);
+        DateiGroesse = Files.size(Datei);
+    }
+
+    /**
+     * Benennt die Datei in ".1" um, ".1" in ".2" usw., und beginnt eine neue. Die aelteste faellt weg.
+     */
+    private void Rotiere() {
+        try {
+            Ausgang.close();
+            for (int i = ROTATIONEN - 1; i >= 1; i--) {
+                Path Alt = Paths.get(Datei + "." + i);
+                if (Files.exists(Alt)) {
+                    Files.move(Alt, Paths.get(Datei + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(Datei, Paths.get(Datei + ".1"), StandardCopyOption.REPLACE_EXISTING);
+            Oeffne();
+        } catch (IOException e) {
+            System.err.println("Protokoll " + Datei + " konnte nicht rotiert werden. Schreibe ohne Rotation weiter...");
+            try {
+                Oeffne();
+            } catch (IOException e2) {
+                System.err.println("Protokoll " + Datei + " konnte nicht wieder geoeffnet werden.");
+            }
+        }
+    }
+
+    /**
+     * Wartet bei Programmende kurz, bis die Schreiber aller Protokolle alles Anstehende geschrieben haben. Wird vom
+     * Shutdown Hook in {@link Herunterfahren} aufgerufen, nachdem die laufenden Anfragen fertig sind, damit auch ihre
+     * Zugriffe noch im Protokoll landen.
+     */
+    static void BeendeAlle() {
+        for (Protokoll EinProtokoll : ALLE) {
+            EinProtokoll.Beende();
+        }
+    }
+
+    private void Beende() {
+        Beendet = true;
+        LockSupport.unpark(Schreiber);
+        WeckeWartende();
+        try {
+            Schreiber.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Formatiert einen Zugriff im Combined Log Format. Das passiert im Schreiber, damit die Anfragethreads weder
+     * Datum noch Zeile bauen muessen.
+     */
+    private byte[] Formatiere(Zugriff DerZugriff) {
+        long Sekunde = DerZugriff.Zeit / 1000;
+        if (Sekunde != LetzteSekunde) {
+            LetzteSekunde = Sekunde;
+            LetztesDatum = CLF_DATUM.format(Instant.ofEpochSecond(Sekunde));
+        }
+
+        StringBuilder Zeile = new StringBuilder(160);
+        Zeile.append(DerZugriff.Adresse == null ? "-" : DerZugriff.Adresse.getHostAddress());
+        Zeile.append(" - - [").append(LetztesDatum).append("] \"");
+        if (DerZugriff.Methode == null) {
+            Zeile.append('-');
+        } else {
+            Maskiere(Zeile, DerZugriff.Methode);
+            Zeile.append(' ');
+            Maskiere(Zeile, DerZugriff.URI);
+            Zeile.append(' ');
+            Maskiere(Zeile, DerZugriff.Version);
+        }
+        Zeile.append("\" ").append(DerZugriff.Status, 0, Math.min(3, DerZugriff.Status.length())).append(' ');
+        if (DerZugriff.RumpfBytes > 0) {
+            Zeile.append(DerZugriff.RumpfBytes);
+        } else {
+            Zeile.append('-');
+        }
+        Zeile.append(" \"");
+        Maskiere(Zeile, DerZugriff.Referer == null ? "-" : DerZugriff.Referer);
+        Zeile.append("\" \"");
+        Maskiere(Zeile, DerZugriff.UserAgent == null ? "-" : DerZugriff.UserAgent);
+        Zeile.append('"').append('\n');
+        return Zeile.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Haengt einen Wert vom Client an. Anfuehrungszeichen, Backslashes, Steuerzeichen und alles ausserhalb von ASCII
+     * werden wie bei Apache maskiert, damit niemand falsche Zeilen ins Protokoll schmuggeln kann.
+     */
+    private static void Maskiere(StringBuilder Zeile, String Wert) {
+        for (int i = 0; i < Wert.length(); i++) {
+            char Zeichen = Wert.charAt(i);
+            if (Zeichen == '"' || Zeichen == '\\') {
+                Zeile.append('\\').append(Zeichen);
+            } else if (Zeichen < 0x20 || Zeichen >= 0x7f) {
+                Zeile.append("\\x").append(Character.forDigit((Zeichen >> 4) & 0xF, 16))
+                        .append(Character.forDigit(Zeichen & 0xF, 16));
+            } else {
+                Zeile.append(Zeichen);
+            }
+        }
+    }
+
+    /**
+     * Die Rohdaten eines Zugriffs, so wie sie der Anfragethread kennt.
+     */
+    private static final class Zugriff {
+        final long Zeit = System.currentTimeMillis();
+        final InetAddress Adresse;
+        final String Methode;
+        final String URI;
+        final String Version;
+        final String Status;
+        final long RumpfBytes;
+        final String Referer;
+        final String UserAgent;
+
+        Zugriff(InetAddress Adresse, Anfrage DieAnfrage, String Status, long RumpfBytes) {
+            boolean Gueltig = DieAnfrage != null && DieAnfrage.Gueltig;
+            this.Adresse = Adresse;
+            this.Methode = Gueltig ? DieAnfrage.Methode() : null;
+            this.URI = Gueltig ? DieAnfrage.URI() : null;
+            this.Version = Gueltig ? DieAnfrage.Version() : null;
+            this.Status = Status;
+            this.RumpfBytes = RumpfBytes;
+            this.Referer = DieAnfrage == null ? null : DieAnfrage.Header(Anfrage.Feld.REFERER);
+            this.UserAgent = DieAnfrage == null ? null : DieAnfrage.Header(Anfrage.Feld.USER_AGENT);
+        }
+    }
+}
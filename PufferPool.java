@@ -0,0 +1,136 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Ein Pool fuer die Lese- und Stroempuffer der Verbindungen, damit im Dauerbetrieb nicht fuer jede Verbindung neue
+ * Puffer angelegt und vom GC wieder eingesammelt werden muessen. Alle Puffer haben dieselbe Groesse, groesser
+ * gewachsene Puffer werden nicht zurueckgenommen.
+ * <p>
+ * Die Puffer liegen in den Faechern eines {@link AtomicReferenceArray}. Nehmen und Zurueckgeben ist ein getAndSet bzw.
+ * compareAndSet auf einem Fach, es gibt also weder Lock noch Knoten, die selbst wieder Muell waeren. Jeder Thread
+ * beginnt seine Suche bei einem eigenen Fach und schaut nur wenige Faecher weit, so treffen die Ereignisschleifen und
+ * Arbeiter meist ihre eigenen Puffer wieder und kommen sich selten in die Quere.
+ * <p>
+ * Die Puffer liegen auf dem Heap, weil Parser und {@link RumpfLeser} direkt auf dem Array arbeiten. Fuer das Lesen
+ * und Schreiben auf dem Socket kopiert das JDK ohnehin ueber einen eigenen, pro Thread gecachten Direct Buffer.
+ */
+final class PufferPool {
+    /**
+     * Groesse der Puffer in Bytes.
+     */
+    final static int GROESSE = 8 * 1024;
+
+    /**
+     * So viele Faecher werden pro Aufruf hoechstens angeschaut.
+     */
+    private final static int SUCHWEITE = 8;
+
+    /**
+     * Anzahl der Faecher, also hoechstens gehaltener Puffer. Muss vor dem ersten Zugriff gesetzt werden, 0 schaltet
+     * den Pool ab.
+     */
+    static volatile int Anzahl = 1024;
+
+    private static volatile AtomicReferenceArray<ByteBuffer> Faecher;
+    private static int Maske;
+
+    private PufferPool() {
+    }
+
+    /**
+     * Nimmt einen leeren Puffer aus dem Pool oder legt einen neuen an.
+     */
+    static ByteBuffer Nimm() {
+        AtomicReferenceArray<ByteBuffer> DieFaecher = Faecher();
+        if (DieFaecher != null) {
+            int Start = Start();
+            for (int i = 0; i < SUCHWEITE; i++) {
+                int Fach = (Start + i) & Maske;
+                if (DieFaecher.get(Fach) != null) {
+                    ByteBuffer Puffer = DieFaecher.getAndSet(Fach, null);
+                    if (Puffer != null) {
+                        Metriken.PufferTreffer.increment();
+                        Puffer.clear();
+                        return Puffer;
+                    }
+                }
+            }
+        }
+        Metriken.PufferFehlschlaege.increment();
+        return ByteBuffer.allocate(GROESSE);
+    }
+
+    /**
+     * Gibt einen Puffer zurueck. Er darf danach nicht mehr benutzt werden. Ist kein Fach frei oder hat der Puffer
+     * nicht die Groesse des Pools, bleibt er dem GC.
+     */
+    static void Gib(ByteBuffer Puffer) {
+        AtomicReferenceArray<ByteBuffer> DieFaecher = Faecher();
+        if (DieFaecher == null || Puffer.capacity() != GROESSE) {
+            return;
+        }
+        int Start = Start();
+        for (int i = 0; i < SUCHWEITE; i++) {
+            int Fach = (Start + i) & Maske;
+            if (DieFaecher.get(Fach) == null && DieFaecher.compareAndSet(Fach, null, Puffer)) {
+                return;
+            }
+        }
+        Metriken.PufferVerworfen.increment();
+    }
+
+    /**
+     * Ob in irgendeinem der Puffer noch Bytes stehen. Der letzte allein reicht nicht, er kann leer sein, waehrend
+     * vom Kopf davor noch etwas fehlt.
+     */
+    static boolean Uebrig(ByteBuffer[] Puffer) {
+        for (ByteBuffer Einer : Puffer) {
+            if (Einer.hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Die Anzahl der Puffer, die gerade im Pool liegen.
+     */
+    static int Frei() {
+        AtomicReferenceArray<ByteBuffer> DieFaecher = Faecher();
+        int Frei = 0;
+        for (int i = 0; DieFaecher != null && i < DieFaecher.length(); i++) {
+            if (DieFaecher.get(i) != null) {
+                Frei++;
+            }
+        }
+        return Frei;
+    }
+
+    /**
+     * Das erste Fach eines Threads. Die Ids werden mit der Fibonacci Konstante gestreut, damit benachbarte Threads
+     * nicht in benachbarten Faechern suchen.
+     */
+    private static int Start() {
+        return (int) (Thread.currentThread().getId() * 0x9E3779B9L >>> 16) & Maske;
+    }
+
+    /**
+     * Legt die Faecher beim ersten Zugriff an, auf die naechste Zweierpotenz aufgerundet.
+     *
+     * @return Die Faecher, oder null wenn der Pool abgeschaltet ist
+     */
+    private static AtomicReferenceArray<ByteBuffer> Faecher() {
+        AtomicReferenceArray<ByteBuffer> DieFaecher = Faecher;
+        if (DieFaecher != null || Anzahl <= 0) {
+            return DieFaecher;
+        }
+        synchronized (PufferPool.class) {
+            if (Faecher == null) {
+                int Groesse = Math.max(SUCHWEITE, Integer.highestOneBit(Math.min(Anzahl, 1 << 20) * 2 - 1));
+                Maske = Groesse - 1;
+                Faecher = new AtomicReferenceArray<>(Groesse);
+            }
+            return Faecher;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ordnet jeder Anfrage das {@link Modul} zu, das sie beantwortet. Die Routen werden beim Start mit einem
+ * {@link Bauer} registriert und dann zu einem unveraenderlichen Baum ueber die Pfadsegmente kompiliert, den alle
+ * Verbindungen ohne Sperren lesen.
+ * <p>
+ * Muster beginnen mit einem Slash. "/_metrics" passt genau auf diesen Pfad, ein "*" als Segment passt auf genau ein
+ * beliebiges, nicht leeres Segment, und ein abschliessendes "/**" passt auf den Pfad davor und alles darunter. Bei
+ * mehreren passenden Routen gewinnt das laengere woertliche Muster vor dem Platzhalter und dem Praefix. Passt keine
+ * Route, entscheidet allein die Methode, etwa GET fuer die Dateien.
+ */
+final class Routen {
+    /**
+     * Die Routen, nach denen gerade bearbeitet wird. Wird nach dem Einlesen der Kommandozeile neu gesetzt.
+     */
+    static volatile Routen Aktuell = Standard();
+
+    private final Knoten Wurzel;
+    private final Map<String, Modul> NachMethode;
+
+    private Routen(Knoten Wurzel, Map<String, Modul> NachMethode) {
+        this.Wurzel = Wurzel;
+        this.NachMethode = NachMethode;
+    }
+
+    /**
+     * Baut die Routen des Servers nach den aktuellen Einstellungen. Abgeschaltete Endpunkte werden gar nicht erst
+     * registriert, ihre Pfade landen dann wie jeder andere bei den Dateien.
+     */
+    static Routen Standard() {
+        Bauer DerBauer = new Bauer();
+        if (Metriken.Aktiv) {
+            DerBauer.Registriere(Metriken.PFAD, Module.METRIKEN, Anfrage.GET, Anfrage.HEAD);
+        }
+        // Das Herunterfahren per Anfrage ist nur eingeschaltet erreichbar. Andere Methoden bekommen dort 405.
+        if (Herunterfahren.Endpunkt) {
+            DerBauer.Registriere(Herunterfahren.PFAD, Module.HERUNTERFAHREN);
+        }
+        return DerBauer
+                .Methode(Anfrage.GET, Module.DATEIEN)
+                .Methode(Anfrage.HEAD, Module.DATEIEN)
+                .Methode(Anfrage.POST, Module.POST)
+                .Methode("BREW", Module.TEEKANNE)
+                .Kompiliere();
+    }
+
+    /**
+     * Sucht das zustaendige Modul. Eine Query wird dabei ignoriert, es werden keine Objekte erzeugt.
+     *
+     * @param URI     Die Request URI, beginnend mit einem Slash
+     * @param Methode Die Methode der Anfrage
+     * @return Das Modul, oder null wenn die Methode nirgends unterstuetzt wird
+     */
+    Modul Suche(String URI, String Methode) {
+        if (URI.startsWith("/")) {
+            int Ende = URI.indexOf('?');
+            Route Gefunden = Suche(Wurzel, URI, 1, Ende < 0 ? URI.length() : Ende, Methode);
+            if (Gefunden != null) {
+                return Gefunden.DasModul;
+            }
+        }
+        return NachMethode.get(Methode);
+    }
+
+    /**
+     * Steigt ab dem Segment bei Anfang rekursiv in den Baum ab. Tiefere Treffer gewinnen, auf jeder Ebene zuerst das
+     * woertliche Segment, dann der Platzhalter und zuletzt ein Praefix.
+     */
+    private static Route Suche(Knoten DerKnoten, String Pfad, int Anfang, int Ende, String Methode) {
+        // Alle Segmente verbraucht, hier endet der Pfad
+        if (Anfang > Ende) {
+            Route Gefunden = Passend(DerKnoten.Genau, Methode);
+            return Gefunden != null ? Gefunden : Passend(DerKnoten.Darunter, Methode);
+        }
+        int Grenze = Pfad.indexOf('/', Anfang);
+        if (Grenze < 0 || Grenze > Ende) {
+            Grenze = Ende;
+        }
+
+        Knoten Kind = DerKnoten.Kind(Pfad, Anfang, Grenze - Anfang);
+        if (Kind != null) {
+            Route Gefunden = Suche(Kind, Pfad, Grenze + 1, Ende, Methode);
+            if (Gefunden != null) {
+                return Gefunden;
+            }
+        }
+        if (DerKnoten.Platzhalter != null && Grenze > Anfang) {
+            Route Gefunden = Suche(DerKnoten.Platzhalter, Pfad, Grenze + 1, Ende, Methode);
+            if (Gefunden != null) {
+                return Gefunden;
+            }
+        }
+        return Passend(DerKnoten.Darunter, Methode);
+    }
+
+    private static Route Passend(Route[] Kandidaten, String Methode) {
+        for (Route Kandidat : Kandidaten) {
+            if (Kandidat.Erlaubt(Methode)) {
+                return Kandidat;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Eine registrierte Route mit den Methoden, fuer die sie gilt.
+     */
+    private static final class Route {
+        final Modul DasModul;
+        /**
+         * Null heisst alle Methoden.
+         */
+        final String[] Methoden;
+
+        Route(Modul DasModul, String[] Methoden) {
+            this.DasModul = DasModul;
+            this.Methoden = Methoden;
+        }
+
+        boolean Erlaubt(String Methode) {
+            if (Methoden == null) {
+                return true;
+            }
+            for (String Erlaubte : Methoden) {
+                if (Erlaubte.equals(Methode)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Ein Knoten des kompilierten Baumes. Nach dem Kompilieren wird nichts mehr veraendert.
+     */
+    private static final class Knoten {
+        private static final Route[] KEINE = new Route[0];
+
+        final String[] Segmente;
+        final Knoten[] Kinder;
+        final Knoten Platzhalter;
+        final Route[] Genau;
+        final Route[] Darunter;
+
+        Knoten(String[] Segmente, Knoten[] Kinder, Knoten Platzhalter, Route[] Genau, Route[] Darunter) {
+            this.Segmente = Segmente;
+            this.Kinder = Kinder;
+            this.Platzhalter = Platzhalter;
+            this.Genau = Genau;
+            this.Darunter = Darunter;
+        }
+
+        /**
+         * Sucht das Kind fuer ein Segment, ohne es aus dem Pfad auszuschneiden. Die Kinder sind wenige, eine lineare
+         * Suche ist schneller als jede Hashtabelle, fuer die wir erst einen String bauen muessten.
+         */
+        Knoten Kind(String Pfad, int Anfang, int Laenge) {
+            for (int i = 0; i < Segmente.length; i++) {
+                String Segment = Segmente[i];
+                if (Segment.length() == Laenge && Pfad.regionMatches(Anfang, Segment, 0, Laenge)) {
+                    return Kinder[i];
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Sammelt Routen und kompiliert sie zu {@link Routen}. Nicht threadsicher, gedacht fuer den Start.
+     */
+    static final class Bauer {
+        private final BauKnoten Wurzel = new BauKnoten();
+        private final Map<String, Modul> NachMethode = new HashMap<>();
+
+        /**
+         * Registriert ein Modul fuer ein Muster.
+         *
+         * @param Muster   Das Muster, siehe {@link Routen}
+         * @param DasModul Das zustaendige Modul
+         * @param Methoden Die Methoden, fuer die die Route gilt. Ohne Angabe gilt sie fuer alle.
+         * @return Dieser Bauer
+         * @throws IllegalArgumentException Wenn das Muster nicht mit einem Slash beginnt
+         */
+        Bauer Registriere(String Muster, Modul DasModul, String... Methoden) {
+            if (!Muster.startsWith("/")) {
+                throw new IllegalArgumentException(Muster);
+            }
+            String[] Segmente = Muster.substring(1).split("/", -1);
+            boolean Praefix = Segmente[Segmente.length - 1].equals("**");
+            int Anzahl = Praefix ? Segmente.length - 1 : Segmente.length;
+
+            BauKnoten DerKnoten = Wurzel;
+            for (int i = 0; i < Anzahl; i++) {
+                DerKnoten = DerKnoten.Kind(Segmente[i]);
+            }
+            Route DieRoute = new Route(DasModul, Methoden.length == 0 ? null : Methoden.clone());
+            (Praefix ? DerKnoten.Darunter : DerKnoten.Genau).add(DieRoute);
+            return this;
+        }
+
+        /**
+         * Registriert das Modul fuer alle Anfragen mit dieser Methode, auf die keine Route passt.
+         */
+        Bauer Methode(String Methode, Modul DasModul) {
+            NachMethode.put(Methode, DasModul);
+            return this;
+        }
+
+        Routen Kompiliere() {
+            return new Routen(Wurzel.Kompiliere(), Map.copyOf(NachMethode));
+        }
+    }
+
+    private static final class BauKnoten {
+        final Map<String, BauKnoten> Kinder = new HashMap<>();
+        BauKnoten Platzhalter;
+        final List<Route> Genau = new ArrayList<>();
+        final List<Route> Darunter = new ArrayList<>();
+
+        BauKnoten Kind(String Segment) {
+            if (Segment.equals("*")) {
+                if (Platzhalter == null) {
+                    Platzhalter = new BauKnoten();
+                }
+                return Platzhalter;
+            }
+            return Kinder.computeIfAbsent(Segment, s -> new BauKnoten());
+        }
+
+        Knoten Kompiliere() {
+            String[] Segmente = Kinder.keySet().toArray(new String[0]);
+            Arrays.sort(Segmente);
+            Knoten[] Kompiliert = new Knoten[Segmente.length];
+            for (int i = 0; i < Segmente.length; i++) {
+                Kompiliert[i] = Kinder.get(Segmente[i]).Kompiliere();
+            }
+            return new Knoten(Segmente, Kompiliert, Platzhalter == null ? null : Platzhalter.Kompiliere(),
+                    Genau.toArray(Knoten.KEINE), Darunter.toArray(Knoten.KEINE));
+        }
+    }
+}
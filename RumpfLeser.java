@@ -0,0 +1,214 @@
+import java.io.IOException;
+
+/**
+ * Liest den Rumpf einer Anfrage aus dem Eingangspuffer einer Verbindung und reicht ihn an ein {@link RumpfZiel}
+ * weiter. Unterstuetzt werden Content-Length und chunked Transfer-Encoding. Der Leser arbeitet als Zustandsmaschine
+ * Byte fuer Byte, so dass ihm beliebig zerstueckelte Daten gefuettert werden koennen und nichts zwischengespeichert
+ * werden muss.
+ */
+final class RumpfLeser {
+    /**
+     * Rueckgabewert von {@link #Lies}, wenn der Rumpf ungueltig oder zu gross ist.
+     */
+    final static int FEHLER = -1;
+
+    /**
+     * Maximale Laenge einer Chunk-Groessenzeile samt Erweiterungen, und aller Trailer zusammen.
+     */
+    final static int MAX_ZEILEN_LAENGE = 1024;
+    final static int MAX_TRAILER_GROESSE = 8 * 1024;
+
+    private final static int GROESSE = 0;
+    private final static int ERWEITERUNG = 1;
+    private final static int DATEN = 2;
+    private final static int DATEN_ENDE = 3;
+    private final static int TRAILER = 4;
+    private final static int FERTIG = 5;
+
+    private final boolean Chunked;
+    private final long MaxGroesse;
+    private int Zustand;
+
+    /**
+     * Noch fehlende Bytes des aktuellen Chunks, bzw. des ganzen Rumpfes bei Content-Length.
+     */
+    private long Rest;
+    private long Gesamt;
+
+    /**
+     * Zaehler fuer die Groessenzeile und die Trailer, damit uns niemand endlose Zeilen schickt.
+     */
+    private int ZeilenLaenge;
+    private int TrailerLaenge;
+    private boolean ZiffernGelesen;
+
+    /**
+     * Der passende Status, falls der Rumpf nicht gelesen werden kann, sonst null.
+     */
+    String FehlerStatus;
+
+    private RumpfLeser(boolean Chunked, long Laenge, long MaxGroesse) {
+        this.Chunked = Chunked;
+        this.MaxGroesse = MaxGroesse;
+        this.Rest = Chunked ? 0 : Laenge;
+        this.Zustand = Chunked ? GROESSE : (Laenge == 0 ? FERTIG : DATEN);
+    }
+
+    /**
+     * Erzeugt den passenden Leser fuer eine Anfrage. Ist schon am Kopf erkennbar, dass der Rumpf nicht angenommen
+     * wird, ist {@link #FehlerStatus} sofort gesetzt.
+     *
+     * @param DieAnfrage Die geparste Anfrage
+     * @param MaxGroesse Die maximal angenommene Rumpfgroesse in Bytes
+     * @return Der Leser, oder null wenn die Anfrage keinen Rumpf hat
+     */
+    static RumpfLeser Fuer(Anfrage DieAnfrage, long MaxGroesse) {
+        // Bei einem kaputten Kopf wissen wir nicht sicher, wo der Rumpf endet, also lesen wir ihn gar nicht erst
+        if (!DieAnfrage.Gueltig) {
+            RumpfLeser Leser = new RumpfLeser(false, 0, MaxGroesse);
+            Leser.FehlerStatus = "400 Bad Request";
+            return Leser;
+        }
+        String Kodierung = DieAnfrage.Header(Anfrage.Feld.TRANSFER_ENCODING);
+        if (Kodierung != null) {
+            // Transfer-Encoding hat Vorrang vor Content-Length. Andere Kodierungen als chunked koennen wir nicht lesen.
+            RumpfLeser Leser = new RumpfLeser(true, 0, MaxGroesse);
+            if (!Anfrage.EnthaeltToken(Kodierung, "chunked")) {
+                Leser.FehlerStatus = "501 Not Implemented";
+            }
+            return Leser;
+        }
+
+        long Laenge = DieAnfrage.InhaltsLaenge();
+        if (Laenge == -1) {
+            return null;
+        }
+        RumpfLeser Leser = new RumpfLeser(false, Math.max(Laenge, 0), MaxGroesse);
+        if (Laenge < 0) {
+            Leser.FehlerStatus = "400 Bad Request";
+        } else if (Laenge > MaxGroesse) {
+            Leser.FehlerStatus = "413 Payload Too Large";
+        }
+        return Leser;
+    }
+
+    /**
+     * Wahr, wenn der Client vor dem Senden des Rumpfes auf ein "100 Continue" wartet.
+     */
+    static boolean WartetAufWeiter(Anfrage DieAnfrage) {
+        String Erwartung = DieAnfrage.Header(Anfrage.Feld.EXPECT);
+        return DieAnfrage.IstHttp11() && Erwartung != null && Anfrage.EnthaeltToken(Erwartung, "100-continue");
+    }
+
+    boolean Fertig() {
+        return Zustand == FERTIG;
+    }
+
+    /**
+     * Verarbeitet empfangene Bytes. Alles bis zum Ende des Rumpfes wird verbraucht, was danach kommt (etwa die
+     * naechste Anfrage) bleibt liegen.
+     *
+     * @param Daten  Der Eingangspuffer
+     * @param Anfang Position des ersten noch nicht verarbeiteten Bytes
+     * @param Ende   Position hinter dem letzten empfangenen Byte
+     * @param Ziel   Der Empfaenger des Rumpfes
+     * @return Die Anzahl der verbrauchten Bytes oder {@link #FEHLER}
+     * @throws IOException Wenn das Ziel nicht schreiben konnte
+     */
+    int Lies(byte[] Daten, int Anfang, int Ende, RumpfZiel Ziel) throws IOException {
+        int Position = Anfang;
+        while (Position < Ende && Zustand != FERTIG) {
+            if (Zustand == DATEN) {
+                int Stueck = (int) Math.min(Rest, Ende - Position);
+                Gesamt += Stueck;
+                if (Gesamt > MaxGroesse) {
+                    return Fehler("413 Payload Too Large");
+                }
+                Ziel.Schreibe(Daten, Position, Stueck);
+                Position += Stueck;
+                Rest -= Stueck;
+                if (Rest == 0) {
+                    Zustand = Chunked ? DATEN_ENDE : FERTIG;
+                }
+                continue;
+            }
+
+            byte Zeichen = Daten[Position++];
+            switch (Zustand) {
+                case GROESSE:
+                    if (++ZeilenLaenge > MAX_ZEILEN_LAENGE) {
+                        return Fehler("400 Bad Request");
+                    }
+                    int Ziffer = Character.digit(Zeichen, 16);
+                    if (Ziffer >= 0) {
+                        Rest = Rest * 16 + Ziffer;
+                        ZiffernGelesen = true;
+                        if (Rest > MaxGroesse) {
+                            return Fehler("413 Payload Too Large");
+                        }
+                    } else if (Zeichen == ';' || Zeichen == ' ' || Zeichen == '\t' || Zeichen == '\r') {
+                        // Chunk-Erweiterungen werden ueberlesen
+                        Zustand = ERWEITERUNG;
+                    } else if (Zeichen == '\n') {
+                        if (!ChunkBeginnt()) {
+                            return Fehler("400 Bad Request");
+                        }
+                    } else {
+                        return Fehler("400 Bad Request");
+                    }
+                    break;
+                case ERWEITERUNG:
+                    if (Zeichen == '\n') {
+                        if (!ChunkBeginnt()) {
+                            return Fehler("400 Bad Request");
+                        }
+                    } else if (++ZeilenLaenge > MAX_ZEILEN_LAENGE) {
+                        return Fehler("400 Bad Request");
+                    }
+                    break;
+                case DATEN_ENDE:
+                    if (Zeichen == '\n') {
+                        Zustand = GROESSE;
+                    } else if (Zeichen != '\r') {
+                        return Fehler("400 Bad Request");
+                    }
+                    break;
+                case TRAILER:
+                    // Trailer werden ignoriert, die erste leere Zeile beendet den Rumpf
+                    if (Zeichen == '\n') {
+                        if (ZeilenLaenge == 0) {
+                            Zustand = FERTIG;
+                        }
+                        ZeilenLaenge = 0;
+                    } else if (Zeichen != '\r') {
+                        ZeilenLaenge++;
+                    }
+                    if (++TrailerLaenge > MAX_TRAILER_GROESSE) {
+                        return Fehler("400 Bad Request");
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return Position - Anfang;
+    }
+
+    /**
+     * Wertet eine vollstaendige Groessenzeile aus. Ein Chunk der Groesse 0 beendet den Rumpf.
+     */
+    private boolean ChunkBeginnt() {
+        if (!ZiffernGelesen) {
+            return false;
+        }
+        Zustand = Rest == 0 ? TRAILER : DATEN;
+        ZiffernGelesen = false;
+        ZeilenLaenge = 0;
+        return true;
+    }
+
+    private int Fehler(String Status) {
+        FehlerStatus = Status;
+        return FEHLER;
+    }
+}
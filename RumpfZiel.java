@@ -0,0 +1,25 @@
+import java.io.IOException;
+
+/**
+ * Empfaenger fuer den Rumpf einer Anfrage. Die Engines reichen den Rumpf Stueck fuer Stueck weiter, so wie er vom
+ * Client kommt, ohne ihn je vollstaendig im Speicher zu halten. Jede Anfrage bekommt ihre eigene Instanz.
+ */
+interface RumpfZiel {
+    /**
+     * Nimmt das naechste Stueck des Rumpfes entgegen. Das Array gehoert der Engine und wird danach wiederverwendet.
+     */
+    void Schreibe(byte[] Daten, int Anfang, int Laenge) throws IOException;
+
+    /**
+     * Wird aufgerufen, nachdem der Rumpf vollstaendig gelesen wurde.
+     *
+     * @param DieAnfrage Die zugehoerige Anfrage
+     * @return Die Antwort an den Client
+     */
+    Antwort Beende(Anfrage DieAnfrage) throws IOException;
+
+    /**
+     * Wird aufgerufen, wenn der Rumpf nicht vollstaendig gelesen werden konnte. Bisher Geschriebenes wird verworfen.
+     */
+    void Abbrechen();
+}
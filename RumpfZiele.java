@@ -0,0 +1,194 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.Supplier;
+
+/**
+ * Die mitgelieferten Empfaenger fuer POST Rumpfe. Ausgewaehlt wird einer davon mit -post auf der Kommandozeile.
+ */
+final class RumpfZiele {
+    /**
+     * Verwirft alles. Wird auch fuer Rumpfe anderer Methoden benutzt, die wir nur von der Leitung lesen muessen.
+     */
+    final static RumpfZiel VERWERFEN = new RumpfZiel() {
+        @Override
+        public void Schreibe(byte[] Daten, int Anfang, int Laenge) {
+        }
+
+        @Override
+        public Antwort Beende(Anfrage DieAnfrage) {
+            return new Antwort("200 OK");
+        }
+
+        @Override
+        public void Abbrechen() {
+        }
+    };
+
+    private RumpfZiele() {
+    }
+
+    /**
+     * Liefert die Fabrik fuer eine Art von Empfaenger.
+     *
+     * @param Art "ausgabe", "verwerfen", "pruefsumme" oder "datei:&lt;verzeichnis&gt;"
+     * @return Eine Fabrik, die pro Anfrage einen neuen Empfaenger erzeugt
+     * @throws IllegalArgumentException Bei unbekannter Art oder ungueltigem Verzeichnis
+     */
+    static Supplier<RumpfZiel> Fabrik(String Art) {
+        if (Art.equals("ausgabe")) {
+            return Ausgabe::new;
+        } else if (Art.equals("verwerfen")) {
+            return () -> VERWERFEN;
+        } else if (Art.equals("pruefsumme")) {
+            return Pruefsumme::new;
+        } else if (Art.startsWith("datei:")) {
+            Path Verzeichnis;
+            try {
+                Verzeichnis = Paths.get(Art.substring("datei:".length()));
+            } catch (InvalidPathException e) {
+                throw new IllegalArgumentException(Art);
+            }
+            if (!Files.isDirectory(Verzeichnis) || !Files.isWritable(Verzeichnis)) {
+                throw new IllegalArgumentException(Art);
+            }
+            return () -> new Datei(Verzeichnis);
+        }
+        throw new IllegalArgumentException(Art);
+    }
+
+    /**
+     * Gibt den Rumpf wie bisher auf der Kommandozeile des Servers aus. Die Bytes gehen unveraendert ins
+     * Ausgabeprotokoll, sobald sie ankommen, geschrieben werden sie von dessen Hintergrundthread. Laufen mehrere POST
+     * Anfragen gleichzeitig, koennen sich ihre Ausgaben daher mischen.
+     */
+    static final class Ausgabe implements RumpfZiel {
+        private boolean Begonnen;
+
+        @Override
+        public void Schreibe(byte[] Daten, int Anfang, int Laenge) {
+            Beginne();
+            Protokoll.Ausgabe.Schreibe(Daten, Anfang, Laenge);
+        }
+
+        @Override
+        public Antwort Beende(Anfrage DieAnfrage) {
+            Beginne();
+            Protokoll.Ausgabe.Schreibe("");
+            Protokoll.Ausgabe.Schreibe("----- END POST REQUEST -----");
+            return new Antwort("200 OK");
+        }
+
+        @Override
+        public void Abbrechen() {
+            if (Begonnen) {
+                Protokoll.Ausgabe.Schreibe("");
+                Protokoll.Ausgabe.Schreibe("--- POST REQUEST ABGEBROCHEN ---");
+            }
+        }
+
+        private void Beginne() {
+            if (!Begonnen) {
+                Protokoll.Ausgabe.Schreibe("---- BEGIN POST REQUEST ----");
+                Begonnen = true;
+            }
+        }
+    }
+
+    /**
+     * Berechnet nur den SHA-256 Hash des Rumpfes und schickt ihn mit der Laenge als Text zurueck.
+     */
+    static final class Pruefsumme implements RumpfZiel {
+        private final MessageDigest Hash;
+        private long Laenge;
+
+        Pruefsumme() {
+            try {
+                Hash = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                // Jede Java Plattform muss SHA-256 anbieten
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void Schreibe(byte[] Daten, int Anfang, int Laenge) {
+            Hash.update(Daten, Anfang, Laenge);
+            this.Laenge += Laenge;
+        }
+
+        @Override
+        public Antwort Beende(Anfrage DieAnfrage) {
+            StringBuilder Text = new StringBuilder(80);
+            for (byte Wert : Hash.digest()) {
+                Text.append(Character.forDigit((Wert >> 4) & 0xF, 16)).append(Character.forDigit(Wert & 0xF, 16));
+            }
+            Text.append("  ").append(Laenge).append('\n');
+
+            Antwort DieAntwort = new Antwort("200 OK").Header(Antwort.CONTENT_TYPE_TEXT);
+            DieAntwort.Rumpf = Text.toString().getBytes(StandardCharsets.ISO_8859_1);
+            return DieAntwort;
+        }
+
+        @Override
+        public void Abbrechen() {
+        }
+    }
+
+    /**
+     * Schreibt den Rumpf in eine neue Datei im angegebenen Verzeichnis und antwortet mit deren Namen.
+     */
+    static final class Datei implements RumpfZiel {
+        private final Path Verzeichnis;
+        private Path Pfad;
+        private OutputStream Ausgang;
+
+        Datei(Path Verzeichnis) {
+            this.Verzeichnis = Verzeichnis;
+        }
+
+        @Override
+        public void Schreibe(byte[] Daten, int Anfang, int Laenge) throws IOException {
+            Oeffne();
+            Ausgang.write(Daten, Anfang, Laenge);
+        }
+
+        @Override
+        public Antwort Beende(Anfrage DieAnfrage) throws IOException {
+            Oeffne();
+            Ausgang.close();
+
+            Antwort DieAntwort = new Antwort("201 Created").Header(Antwort.CONTENT_TYPE_TEXT);
+            DieAntwort.Rumpf = (Pfad.getFileName() + "\n").getBytes(StandardCharsets.ISO_8859_1);
+            return DieAntwort;
+        }
+
+        @Override
+        public void Abbrechen() {
+            if (Pfad == null) {
+                return;
+            }
+            try {
+                if (Ausgang != null) {
+                    Ausgang.close();
+                }
+                Files.deleteIfExists(Pfad);
+            } catch (IOException e) {
+                Protokoll.Fehler("Abgebrochener POST Rumpf " + Pfad + " konnte nicht geloescht werden.");
+            }
+        }
+
+        private void Oeffne() throws IOException {
+            if (Pfad == null) {
+                Pfad = Files.createTempFile(Verzeichnis, "post-", ".bin");
+                Ausgang = Files.newOutputStream(Pfad);
+            }
+        }
+    }
+}
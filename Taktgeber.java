@@ -0,0 +1,48 @@
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongConsumer;
+
+/**
+ * Ein Daemon Thread, der eine Aufgabe in festem Abstand wiederholt, etwa das Aufraeumen einer Tabelle. Er wird erst
+ * gestartet, wenn das erste Mal etwas fuer ihn anfaellt, ein Server ohne Bedarf hat also auch keinen Thread.
+ * <p>
+ * {@link #Starte} wird auf dem Weg jeder Verbindung aufgerufen. Nach dem ersten Mal kostet es nur ein volatile Lesen,
+ * Verbindungen warten also nie auf eine Sperre, nur weil jemand anders den Thread gerade startet.
+ */
+final class Taktgeber {
+    private final String Name;
+    private final long Abstand;
+    private final LongConsumer Aufgabe;
+    private final AtomicBoolean Gestartet = new AtomicBoolean();
+
+    /**
+     * @param Name    Der Name des Threads, fuer Threaddumps
+     * @param Abstand Die Pause zwischen zwei Durchlaeufen in Millisekunden
+     * @param Aufgabe Bekommt bei jedem Durchlauf System.nanoTime()
+     */
+    Taktgeber(String Name, long Abstand, LongConsumer Aufgabe) {
+        this.Name = Name;
+        this.Abstand = Abstand;
+        this.Aufgabe = Aufgabe;
+    }
+
+    /**
+     * Startet den Thread, falls er noch nicht laeuft.
+     */
+    void Starte() {
+        if (Gestartet.get() || !Gestartet.compareAndSet(false, true)) {
+            return;
+        }
+        Thread Takt = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(Abstand);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                Aufgabe.accept(System.nanoTime());
+            }
+        }, Name);
+        Takt.setDaemon(true);
+        Takt.start();
+    }
+}
@@ -0,0 +1,133 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * HTTPS auf einem eigenen Port neben dem normalen. Zertifikat und Schluessel kommen aus einem Keystore, zum lokalen
+ * Testen reicht ein selbst signiertes Zertifikat:
+ *
+ * <pre>
+ *     keytool -genkeypair -alias server -keyalg EC -dname CN=localhost -validity 365 \
+ *             -keystore server.p12 -storetype PKCS12 -storepass geheim
+ *     java WebServer -tlsport 6790 -keystore server.p12 -keystorepasswort geheim
+ * </pre>
+ * <p>
+ * Wiederkehrende Clients sparen sich den vollen Handshake: Sitzungen von TLS 1.2 bleiben im Sitzungscache des
+ * Servers, fuer TLS 1.3 und TLS 1.2 mit Session Tickets steckt der Zustand verschluesselt im Ticket beim Client.
+ * <p>
+ * Die NIO Engine verschluesselt mit einer {@link SSLEngine} in der Ereignisschleife, siehe {@link TlsKanal}. Die
+ * blockierende Engine legt um den angenommenen Socket einen {@link SSLSocket}, der Handshake laeuft dann im Arbeiter
+ * der Verbindung.
+ */
+final class Tls {
+    /**
+     * Auf diesem Port wird HTTPS gesprochen, 0 schaltet es ab.
+     */
+    static volatile int Port = 0;
+
+    /**
+     * Pfad, Passwort und Typ des Keystores mit Zertifikat und privatem Schluessel.
+     */
+    static volatile String Schluesselbund = null;
+    static volatile String Passwort = "";
+    static volatile String Typ = "PKCS12";
+
+    /**
+     * Groesse des Sitzungscaches und wie lange eine Sitzung wieder aufgenommen werden kann, in Sekunden.
+     */
+    static volatile int SitzungsAnzahl = 20_000;
+    static volatile int SitzungsDauer = 24 * 60 * 60;
+
+    private static volatile SSLContext Kontext = null;
+
+    private Tls() {
+    }
+
+    /**
+     * Wahr, wenn HTTPS eingerichtet ist.
+     */
+    static boolean Aktiv() {
+        return Kontext != null;
+    }
+
+    /**
+     * Laedt den Keystore und richtet den SSLContext mit seinem Sitzungscache ein.
+     */
+    static void Initialisiere() throws IOException, GeneralSecurityException {
+        // Muss vor dem ersten SSLContext stehen, das JDK liest die Einstellung nur einmal
+        if (System.getProperty("jdk.tls.server.enableSessionTicketExtension") == null) {
+            System.setProperty("jdk.tls.server.enableSessionTicketExtension", "true");
+        }
+
+        char[] DasPasswort = Passwort.toCharArray();
+        KeyStore Speicher = KeyStore.getInstance(Typ);
+        try (InputStream Datei = Files.newInputStream(Paths.get(Schluesselbund))) {
+            Speicher.load(Datei, DasPasswort);
+        }
+        KeyManagerFactory Schluessel = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        Schluessel.init(Speicher, DasPasswort);
+
+        SSLContext Neu = SSLContext.getInstance("TLS");
+        Neu.init(Schluessel.getKeyManagers(), null, null);
+        SSLSessionContext Sitzungen = Neu.getServerSessionContext();
+        Sitzungen.setSessionCacheSize(SitzungsAnzahl);
+        Sitzungen.setSessionTimeout(SitzungsDauer);
+        Kontext = Neu;
+    }
+
+    /**
+     * Eine neue SSLEngine fuer eine Verbindung der NIO Engine.
+     */
+    static SSLEngine NeueEngine() {
+        SSLEngine Engine = Kontext.createSSLEngine();
+        Engine.setUseClientMode(false);
+        Engine.setSSLParameters(Protokolle(Engine.getSSLParameters()));
+        return Engine;
+    }
+
+    /**
+     * Legt um einen angenommenen Socket der blockierenden Engine einen SSLSocket. Wird dieser geschlossen, schliesst
+     * er auch den darunter.
+     */
+    static SSLSocket Umhuelle(Socket Roh) throws IOException {
+        SSLSocket Sicher = (SSLSocket) Kontext.getSocketFactory().createSocket(Roh, null, Roh.getPort(), true);
+        Sicher.setUseClientMode(false);
+        Sicher.setSSLParameters(Protokolle(Sicher.getSSLParameters()));
+        long Beginn = System.currentTimeMillis();
+        Sicher.addHandshakeCompletedListener(Ereignis -> Erfasse(Ereignis.getSession(), Beginn));
+        return Sicher;
+    }
+
+    /**
+     * Bietet per ALPN HTTP/2 vor HTTP/1.1 an. Ein Client ohne ALPN bekommt wie bisher HTTP/1.1.
+     */
+    private static SSLParameters Protokolle(SSLParameters Parameter) {
+        Parameter.setApplicationProtocols(Http2Verbindung.Aktiv ? new String[]{"h2", "http/1.1"}
+                : new String[]{"http/1.1"});
+        return Parameter;
+    }
+
+    /**
+     * Zaehlt einen abgeschlossenen Handshake. Eine wieder aufgenommene Sitzung erkennen wir daran, dass sie vor dem
+     * Beginn des Handshakes entstanden ist.
+     *
+     * @param Beginn Beginn des Handshakes nach System.currentTimeMillis()
+     */
+    static void Erfasse(SSLSession Sitzung, long Beginn) {
+        Metriken.TlsHandshakes.increment();
+        if (Sitzung.getCreationTime() < Beginn) {
+            Metriken.TlsWiederaufnahmen.increment();
+        }
+    }
+}
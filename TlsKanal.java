@@ -0,0 +1,312 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+
+/**
+ * Eine TLS Verbindung der NIO Engine. Sie sitzt zwischen {@link NioServer} und dem nicht blockierenden Kanal und
+ * ver- und entschluesselt mit einer {@link SSLEngine}, ohne je auf den Socket zu warten. Der Handshake laeuft
+ * nebenbei in {@link #Lies}: was die Engine senden will, wird sofort geschrieben, und was der Socket nicht annimmt,
+ * bleibt liegen, bis die Verbindung wieder schreibbar ist.
+ * <p>
+ * Die Rechenaufgaben des Handshakes (Signatur, Schluesselaustausch) laufen dagegen bei einem Arbeiter, mit RSA
+ * Schluesseln dauern sie Millisekunden. Solange sie laufen, ist {@link #Rechnet()} wahr und die Engine wird nicht
+ * angefasst, die Verbindung ruht. Danach meldet sich der Arbeiter ueber den mitgegebenen Rueckruf, und die
+ * Ereignisschleife macht nach {@link #Gerechnet()} weiter.
+ */
+final class TlsKanal {
+    private final SocketChannel Kanal;
+    private final SSLEngine Engine;
+
+    /**
+     * Empfangene, noch verschluesselte Bytes (Schreibmodus), entschluesselte aber noch nicht abgeholte Bytes
+     * (Schreibmodus) und verschluesselte, noch nicht gesendete Bytes (Lesemodus).
+     */
+    private ByteBuffer NetzEingang;
+    private ByteBuffer Klartext;
+    private ByteBuffer NetzAusgang;
+
+    /**
+     * Fuer {@link #Schreibe(ByteBuffer)}, damit dafuer nicht jedes Mal ein Array entsteht.
+     */
+    private final ByteBuffer[] Einzeln = new ByteBuffer[1];
+
+    private final long Beginn = System.currentTimeMillis();
+    private boolean HandshakeFertig;
+    private boolean Ende;
+
+    /**
+     * Wer die Rechenaufgaben ausfuehrt, und wer danach benachrichtigt wird. Der Rueckruf kommt aus dem Arbeiter.
+     */
+    private final Executor Rechner;
+    private final Runnable Rueckruf;
+    private boolean Rechnet;
+
+    /**
+     * Erzeugt den Kanal fuer eine frisch angenommene Verbindung.
+     *
+     * @param Rechner  Fuehrt die Rechenaufgaben des Handshakes aus
+     * @param Rueckruf Wird vom Rechner aufgerufen, wenn sie fertig sind
+     */
+    TlsKanal(SocketChannel Kanal, SSLEngine Engine, Executor Rechner, Runnable Rueckruf) {
+        this.Kanal = Kanal;
+        this.Engine = Engine;
+        this.Rechner = Rechner;
+        this.Rueckruf = Rueckruf;
+        int PaketGroesse = Engine.getSession().getPacketBufferSize();
+        this.NetzEingang = ByteBuffer.allocate(PaketGroesse);
+        this.Klartext = ByteBuffer.allocate(Engine.getSession().getApplicationBufferSize());
+        this.NetzAusgang = ByteBuffer.allocate(PaketGroesse);
+        this.NetzAusgang.flip();
+    }
+
+    /**
+     * Liest und entschluesselt, was auf dem Socket bereit liegt.
+     *
+     * @param Ziel Puffer im Schreibmodus fuer den Klartext
+     * @return Die Anzahl gelieferter Bytes, oder -1 wenn der Client die Verbindung beendet hat
+     */
+    int Lies(ByteBuffer Ziel) throws IOException {
+        if (Klartext.position() == 0 && !Ende && !Rechnet) {
+            Leere();
+            if (Kanal.read(NetzEingang) == -1) {
+                Ende = true;
+            }
+            Entschluessele();
+        }
+        int Geliefert = Liefere(Ziel);
+        return Geliefert == 0 && Ende && Klartext.position() == 0 ? -1 : Geliefert;
+    }
+
+    /**
+     * Wahr, wenn schon entschluesselte oder empfangene Bytes darauf warten, mit {@link #Lies} abgeholt zu werden. Fuer
+     * diese meldet der Selector kein OP_READ mehr.
+     */
+    boolean HatVorrat() {
+        return Klartext.position() > 0 || NetzEingang.position() > 0;
+    }
+
+    /**
+     * Wahr, solange die Rechenaufgaben des Handshakes bei einem Arbeiter laufen. Bis {@link #Gerechnet()} wird dann
+     * weder gelesen noch geschrieben.
+     */
+    boolean Rechnet() {
+        return Rechnet;
+    }
+
+    /**
+     * Meldet, dass die Rechenaufgaben fertig sind. Wird nach dem Rueckruf in der Ereignisschleife aufgerufen.
+     */
+    void Gerechnet() {
+        Rechnet = false;
+    }
+
+    /**
+     * Wahr, sobald der Handshake abgeschlossen ist.
+     */
+    boolean HandshakeFertig() {
+        return HandshakeFertig;
+    }
+
+    /**
+     * Verschluesselt und sendet, so viel der Socket annimmt.
+     *
+     * @param Quellen Puffer im Lesemodus
+     * @return Die Anzahl verbrauchter Bytes Klartext
+     */
+    long Schreibe(ByteBuffer[] Quellen) throws IOException {
+        long Verbraucht = 0;
+        while (!Rechnet && Leere() && Rest(Quellen) > 0) {
+            NetzAusgang.clear();
+            SSLEngineResult Ergebnis = Engine.wrap(Quellen, NetzAusgang);
+            NetzAusgang.flip();
+            switch (Ergebnis.getStatus()) {
+                case BUFFER_OVERFLOW:
+                    NetzAusgang = ByteBuffer.allocate(
+                            Math.max(NetzAusgang.capacity() * 2, Engine.getSession().getPacketBufferSize()));
+                    NetzAusgang.flip();
+                    break;
+                case CLOSED:
+                    throw new EOFException("TLS Verbindung ist geschlossen");
+                default:
+                    Verbraucht += Ergebnis.bytesConsumed();
+                    FuehreAufgabenAus(Ergebnis);
+            }
+        }
+        return Verbraucht;
+    }
+
+    long Schreibe(ByteBuffer Quelle) throws IOException {
+        Einzeln[0] = Quelle;
+        try {
+            return Schreibe(Einzeln);
+        } finally {
+            Einzeln[0] = null;
+        }
+    }
+
+    /**
+     * Sendet die verschluesselten Bytes, die noch warten.
+     *
+     * @return Wahr, wenn nichts mehr wartet
+     */
+    boolean Leere() throws IOException {
+        while (NetzAusgang.hasRemaining()) {
+            if (Kanal.write(NetzAusgang) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sendet ein close_notify, falls der Socket es gerade annimmt. Gewartet wird darauf nicht.
+     */
+    void Schliesse() {
+        Engine.closeOutbound();
+        try {
+            if (Leere()) {
+                NetzAusgang.clear();
+                Engine.wrap(new ByteBuffer[0], NetzAusgang);
+                NetzAusgang.flip();
+                Leere();
+            }
+        } catch (IOException e) {
+            // Der Client ist schon weg
+        }
+    }
+
+    /**
+     * Treibt Handshake und Entschluesselung so weit voran, wie es mit den empfangenen Bytes geht.
+     */
+    private void Entschluessele() throws IOException {
+        while (true) {
+            switch (Engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    if (!Rechnet) {
+                        FuehreAufgabenAus(null);
+                    }
+                    return;
+                case NEED_WRAP:
+                    if (!Leere()) {
+                        return;
+                    }
+                    NetzAusgang.clear();
+                    SSLEngineResult Gepackt = Engine.wrap(new ByteBuffer[0], NetzAusgang);
+                    NetzAusgang.flip();
+                    if (Gepackt.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        Ende = true;
+                        Leere();
+                        return;
+                    }
+                    Pruefe(Gepackt);
+                    continue;
+                default:
+                    break;
+            }
+            if (NetzEingang.position() == 0) {
+                return;
+            }
+
+            NetzEingang.flip();
+            SSLEngineResult Ergebnis;
+            try {
+                Ergebnis = Engine.unwrap(NetzEingang, Klartext);
+            } finally {
+                NetzEingang.compact();
+            }
+            switch (Ergebnis.getStatus()) {
+                case BUFFER_UNDERFLOW:
+                    // Ein Record ist noch nicht vollstaendig da. Passt er gar nicht in den Puffer, waechst dieser.
+                    if (!NetzEingang.hasRemaining()) {
+                        NetzEingang = Groesser(NetzEingang, Engine.getSession().getPacketBufferSize());
+                    }
+                    return;
+                case BUFFER_OVERFLOW:
+                    // Erst muss der Klartext abgeholt werden
+                    if (Klartext.position() == 0) {
+                        Klartext = Groesser(Klartext, Engine.getSession().getApplicationBufferSize());
+                        continue;
+                    }
+                    return;
+                case CLOSED:
+                    Ende = true;
+                    return;
+                default:
+                    Pruefe(Ergebnis);
+            }
+        }
+    }
+
+    private void Pruefe(SSLEngineResult Ergebnis) {
+        if (Ergebnis.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED && !HandshakeFertig) {
+            HandshakeFertig = true;
+            Tls.Erfasse(Engine.getSession(), Beginn);
+        }
+    }
+
+    /**
+     * Gibt die Rechenaufgaben, die die Engine verlangt, an den Rechner ab.
+     *
+     * @throws IOException Wenn der Rechner ausgelastet ist und die Aufgaben ablehnt
+     */
+    private void FuehreAufgabenAus(SSLEngineResult Ergebnis) throws IOException {
+        if (Ergebnis != null) {
+            Pruefe(Ergebnis);
+            if (Ergebnis.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                return;
+            }
+        }
+        Rechnet = true;
+        try {
+            Rechner.execute(() -> {
+                try {
+                    // Scheitert eine Aufgabe, meldet die Engine das beim naechsten wrap oder unwrap
+                    Runnable Aufgabe;
+                    while ((Aufgabe = Engine.getDelegatedTask()) != null) {
+                        Aufgabe.run();
+                    }
+                } finally {
+                    Rueckruf.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Ohne Handshake kein 503, der Client sieht wie bei der blockierenden Engine nur, dass wir auflegen
+            Rechnet = false;
+            throw new IOException("Kein Rechner frei fuer den TLS Handshake", e);
+        }
+    }
+
+    /**
+     * Kopiert so viel Klartext in das Ziel, wie hineinpasst.
+     */
+    private int Liefere(ByteBuffer Ziel) {
+        Klartext.flip();
+        int Anzahl = Math.min(Klartext.remaining(), Ziel.remaining());
+        int Grenze = Klartext.limit();
+        Klartext.limit(Klartext.position() + Anzahl);
+        Ziel.put(Klartext);
+        Klartext.limit(Grenze);
+        Klartext.compact();
+        return Anzahl;
+    }
+
+    private static ByteBuffer Groesser(ByteBuffer Alt, int Mindestens) {
+        ByteBuffer Neu = ByteBuffer.allocate(Math.max(Alt.capacity() * 2, Mindestens));
+        Alt.flip();
+        Neu.put(Alt);
+        return Neu;
+    }
+
+    private static long Rest(ByteBuffer[] Quellen) {
+        long Rest = 0;
+        for (ByteBuffer Quelle : Quellen) {
+            Rest += Quelle.remaining();
+        }
+        return Rest;
+    }
+}
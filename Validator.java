@@ -0,0 +1,114 @@
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * ETag und Last-Modified einer Datei. Beide werden nur aus Groesse und mtime gebildet, ohne den Inhalt zu lesen, und
+ * fertig kodiert aufgehoben, damit Eintraege im Dateicache sie nicht pro Anfrage neu bauen muessen.
+ */
+final class Validator {
+    /**
+     * Das feste Datumsformat aus RFC 7231, mit immer zweistelligem Tag.
+     */
+    private final static DateTimeFormatter HTTP_DATUM =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    /**
+     * Der ETag inklusive Anfuehrungszeichen.
+     */
+    final String ETag;
+
+    /**
+     * Die mtime der Datei in Millisekunden.
+     */
+    final long Aenderungszeit;
+
+    /**
+     * Die Zeilen "ETag" und "Last-Modified" inklusive CRLF.
+     */
+    final byte[] Zeilen;
+
+    private Validator(String ETag, long Aenderungszeit) {
+        this.ETag = ETag;
+        this.Aenderungszeit = Aenderungszeit;
+        byte[] ETagZeile = Antwort.HeaderZeile("ETag", ETag);
+        byte[] DatumZeile = Antwort.HeaderZeile("Last-Modified", HTTP_DATUM.format(Instant.ofEpochMilli(Aenderungszeit)));
+        this.Zeilen = new byte[ETagZeile.length + DatumZeile.length];
+        System.arraycopy(ETagZeile, 0, Zeilen, 0, ETagZeile.length);
+        System.arraycopy(DatumZeile, 0, Zeilen, ETagZeile.length, DatumZeile.length);
+    }
+
+    /**
+     * Bildet den Validator fuer eine Darstellung einer Datei.
+     *
+     * @param Aenderungszeit Die mtime der Datei
+     * @param Groesse        Die Groesse der Datei
+     * @param Kodierung      Das Content-Encoding der Darstellung, oder null. Jede Kodierung bekommt ihren eigenen ETag.
+     */
+    static Validator Fuer(long Aenderungszeit, long Groesse, Komprimierung.Verfahren Kodierung) {
+        StringBuilder ETag = new StringBuilder(40).append('"').append(Long.toHexString(Aenderungszeit)).append('-')
+                .append(Long.toHexString(Groesse));
+        if (Kodierung != null) {
+            ETag.append('-').append(Kodierung.Name);
+        }
+        return new Validator(ETag.append('"').toString(), Aenderungszeit);
+    }
+
+    /**
+     * Prueft If-None-Match und, falls dieser fehlt, If-Modified-Since.
+     *
+     * @return Wahr, wenn der Client die Darstellung schon hat und 304 bekommen soll
+     */
+    boolean NichtGeaendert(Anfrage DieAnfrage) {
+        String Tags = DieAnfrage.Header(Anfrage.Feld.IF_NONE_MATCH);
+        if (Tags != null) {
+            // Hier gilt der schwache Vergleich, ein "W/" vor dem Tag wird also ignoriert
+            for (String Tag : Tags.split(",")) {
+                Tag = Tag.trim();
+                if (Tag.equals("*") || Tag.equals(ETag) || (Tag.startsWith("W/") && Tag.substring(2).equals(ETag))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        String Datum = DieAnfrage.Header(Anfrage.Feld.IF_MODIFIED_SINCE);
+        if (Datum != null) {
+            long Sekunden = ParseDatum(Datum);
+            return Sekunden >= 0 && Aenderungszeit / 1000 <= Sekunden;
+        }
+        return false;
+    }
+
+    /**
+     * Prueft If-Range. Ein Range Header gilt nur, wenn dieser fehlt oder genau auf die aktuelle Darstellung passt.
+     */
+    boolean BereichGilt(Anfrage DieAnfrage) {
+        String Bedingung = DieAnfrage.Header(Anfrage.Feld.IF_RANGE);
+        if (Bedingung == null) {
+            return true;
+        }
+        if (Bedingung.startsWith("\"")) {
+            // Hier gilt der starke Vergleich
+            return Bedingung.equals(ETag);
+        }
+        long Sekunden = ParseDatum(Bedingung);
+        return Sekunden >= 0 && Aenderungszeit / 1000 == Sekunden;
+    }
+
+    /**
+     * Liest ein HTTP Datum.
+     *
+     * @return Sekunden seit 1970, oder -1 wenn das Datum nicht gelesen werden konnte
+     */
+    private static long ParseDatum(String Datum) {
+        try {
+            return ZonedDateTime.parse(Datum.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,391 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Aufloesung von Verzeichnisanfragen: Indexdatei oder, falls eingeschaltet, eine generierte Auflistung. Einmal
+ * angefragte Verzeichnisse werden mit einem {@link WatchService} beobachtet. Die gefundene Indexdatei und die
+ * Auflistung bleiben so lange gueltig, bis sich im Verzeichnis etwas aendert, und auch dann wird nur der geaenderte
+ * Eintrag neu gelesen. Ein Verzeichnis mit zehntausenden Dateien wird also nur einmal komplett gelesen, statt bei jeder
+ * Anfrage mit File.list.
+ */
+final class Verzeichnisse {
+    /**
+     * Diese Dateien werden der Reihe nach gesucht, wenn ein Verzeichnis angefragt wird.
+     */
+    static volatile String[] IndexDateien = {"index.html", "index.htm"};
+
+    /**
+     * Ob Verzeichnisse ohne Indexdatei aufgelistet werden. Sonst gibt es 403.
+     */
+    static volatile boolean Auflisten = false;
+
+    /**
+     * So viele Verzeichnisse beobachten wir hoechstens, jedes kostet einen inotify Watch im Kernel.
+     */
+    final static int MAX_VERZEICHNISSE = 1024;
+
+    final static byte[] CONTENT_TYPE = Antwort.HeaderZeile("Content-type", "text/html; charset=utf-8");
+
+    private final static String KEIN_INDEX = "";
+
+    private final static char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final static DateTimeFormatter DATUM =
+            DateTimeFormatter.ofPattern("dd-MMM-yyyy HH:mm", Locale.ENGLISH).withZone(ZoneOffset.UTC);
+
+    private final static ConcurrentHashMap<Path, Verzeichnis> Beobachtet = new ConcurrentHashMap<>();
+
+    /**
+     * Der Waechter wird erst beim ersten Verzeichnis gestartet. Bleibt er null, wird ohne Cache gearbeitet.
+     */
+    private static volatile WatchService Waechter;
+    private static boolean WaechterVersucht = false;
+
+    private Verzeichnisse() {
+    }
+
+    /**
+     * Ein Eintrag der Auflistung.
+     */
+    private static final class Info {
+        final boolean IstVerzeichnis;
+        final long Groesse;
+        final long Aenderungszeit;
+
+        Info(BasicFileAttributes Attribute) {
+            this.IstVerzeichnis = Attribute.isDirectory();
+            this.Groesse = Attribute.size();
+            this.Aenderungszeit = Attribute.lastModifiedTime().toMillis();
+        }
+    }
+
+    /**
+     * Ein (meist beobachtetes) Verzeichnis mit seinen gecachten Ergebnissen.
+     * <p>
+     * Die Auflistung wird unter dem Lock des Verzeichnisses gebaut und geaendert. Die Indexdatei wird ohne Lock
+     * gesucht: Jede Aenderung erhoeht zuerst {@link #Stand} und verwirft dann das Ergebnis, und wer sucht, verwirft
+     * sein Ergebnis selbst wieder, falls sich der Stand inzwischen geaendert hat. So kann kein veraltetes Ergebnis eine
+     * Aenderung ueberleben.
+     */
+    static final class Verzeichnis {
+        final Path Pfad;
+
+        /**
+         * Der Schluessel beim Waechter, oder null wenn das Verzeichnis nicht beobachtet wird und nichts gecacht wird.
+         */
+        private volatile WatchKey Schluessel;
+        private volatile long ZuletztBenutzt = System.nanoTime();
+        private volatile int Stand;
+
+        /**
+         * Name der Indexdatei, {@link #KEIN_INDEX} wenn es keine gibt, oder null wenn noch nicht gesucht.
+         */
+        private volatile String IndexName;
+
+        /**
+         * Die Eintraege nach Namen sortiert, oder null wenn noch nie aufgelistet. Nur unter dem Lock benutzt.
+         */
+        private TreeMap<String, Info> Eintraege;
+        private volatile byte[] Html;
+
+        Verzeichnis(Path Pfad) {
+            this.Pfad = Pfad;
+        }
+
+        /**
+         * Liefert den Namen der Indexdatei in diesem Verzeichnis.
+         *
+         * @return Der Name, oder null wenn keine der {@link #IndexDateien} existiert
+         */
+        String Index() {
+            String Bekannt = IndexName;
+            if (Bekannt == null) {
+                int Vorher = Stand;
+                Bekannt = KEIN_INDEX;
+                for (String Name : IndexDateien) {
+                    if (Files.isRegularFile(Pfad.resolve(Name))) {
+                        Bekannt = Name;
+                        break;
+                    }
+                }
+                if (Schluessel != null) {
+                    IndexName = Bekannt;
+                    if (Stand != Vorher) {
+                        IndexName = null;
+                    }
+                }
+            }
+            return Bekannt == KEIN_INDEX ? null : Bekannt;
+        }
+
+        /**
+         * Liefert die HTML Auflistung dieses Verzeichnisses.
+         *
+         * @param URI Die angefragte URI, sie wird als Titel und fuer den Link nach oben benutzt
+         * @throws IOException Wenn das Verzeichnis nicht gelesen werden kann
+         */
+        byte[] Auflistung(String URI) throws IOException {
+            byte[] Fertig = Html;
+            if (Fertig != null) {
+                return Fertig;
+            }
+            synchronized (this) {
+                if (Html != null) {
+                    return Html;
+                }
+                // Der Waechter aendert nur unter demselben Lock, die Auflistung ist also sicher aktuell
+                if (Eintraege == null || Schluessel == null) {
+                    Eintraege = LeseAlle();
+                }
+                Fertig = Erzeuge(URI, Eintraege);
+                if (Schluessel != null) {
+                    Html = Fertig;
+                }
+                return Fertig;
+            }
+        }
+
+        private TreeMap<String, Info> LeseAlle() throws IOException {
+            TreeMap<String, Info> Alle = new TreeMap<>();
+            try (DirectoryStream<Path> Inhalt = Files.newDirectoryStream(Pfad)) {
+                for (Path Datei : Inhalt) {
+                    try {
+                        Alle.put(Datei.getFileName().toString(),
+                                new Info(Files.readAttributes(Datei, BasicFileAttributes.class)));
+                    } catch (IOException e) {
+                        // Die Datei ist zwischen Auflisten und Lesen verschwunden oder ein kaputter Link
+                    }
+                }
+            }
+            return Alle;
+        }
+
+        /**
+         * Uebernimmt eine vom Waechter gemeldete Aenderung einer einzelnen Datei.
+         */
+        private synchronized void Aendere(String Name) {
+            Stand++;
+            // Die Indexdatei suchen wir nur neu, wenn eine der moeglichen Indexdateien betroffen ist
+            for (String Index : IndexDateien) {
+                if (Index.equals(Name)) {
+                    IndexName = null;
+                    break;
+                }
+            }
+            if (Eintraege != null) {
+                try {
+                    Eintraege.put(Name, new Info(Files.readAttributes(Pfad.resolve(Name), BasicFileAttributes.class)));
+                } catch (IOException | SecurityException e) {
+                    // Geloescht, oder nicht mehr lesbar
+                    Eintraege.remove(Name);
+                }
+            }
+            Html = null;
+        }
+
+        /**
+         * Verwirft alles, etwa wenn der Waechter Ereignisse verloren hat.
+         */
+        private synchronized void Verwerfe() {
+            Stand++;
+            IndexName = null;
+            Eintraege = null;
+            Html = null;
+        }
+    }
+
+    /**
+     * Sucht ein Verzeichnis und beginnt es zu beobachten.
+     *
+     * @param Pfad Der absolute und normalisierte Pfad des Verzeichnisses, siehe {@link Pfade}
+     * @return Das Verzeichnis, oder null wenn es nicht existiert oder keines ist
+     */
+    static Verzeichnis Hole(Path Pfad) {
+        Verzeichnis Bekannt = Beobachtet.get(Pfad);
+        if (Bekannt != null) {
+            Bekannt.ZuletztBenutzt = System.nanoTime();
+            return Bekannt;
+        }
+        if (!Files.isDirectory(Pfad)) {
+            return null;
+        }
+
+        Verzeichnis Neu = new Verzeichnis(Pfad);
+        WatchService DerWaechter = Waechter();
+        if (DerWaechter == null) {
+            return Neu;
+        }
+        if (Beobachtet.size() >= MAX_VERZEICHNISSE) {
+            VerdraengeAeltestes();
+        }
+        try {
+            // Mehrfaches Registrieren desselben Pfads liefert denselben Schluessel, ein Rennen ist also harmlos
+            Neu.Schluessel = Pfad.register(DerWaechter, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | UnsupportedOperationException e) {
+            return Neu;
+        }
+        Bekannt = Beobachtet.putIfAbsent(Pfad, Neu);
+        return Bekannt != null ? Bekannt : Neu;
+    }
+
+    private static void VerdraengeAeltestes() {
+        Verzeichnis Aeltestes = null;
+        for (Verzeichnis Kandidat : Beobachtet.values()) {
+            if (Aeltestes == null || Kandidat.ZuletztBenutzt < Aeltestes.ZuletztBenutzt) {
+                Aeltestes = Kandidat;
+            }
+        }
+        if (Aeltestes != null && Beobachtet.remove(Aeltestes.Pfad, Aeltestes)) {
+            Aeltestes.Schluessel.cancel();
+        }
+    }
+
+    private static WatchService Waechter() {
+        WatchService DerWaechter = Waechter;
+        if (DerWaechter != null) {
+            return DerWaechter;
+        }
+        synchronized (Verzeichnisse.class) {
+            if (!WaechterVersucht) {
+                WaechterVersucht = true;
+                try {
+                    Waechter = FileSystems.getDefault().newWatchService();
+                    Thread Beobachter = new Thread(Verzeichnisse::Beobachte, "Verzeichniswaechter");
+                    Beobachter.setDaemon(true);
+                    Beobachter.start();
+                } catch (IOException | UnsupportedOperationException e) {
+                    Protokoll.Fehler("Kann Verzeichnisse nicht beobachten. Arbeite ohne Verzeichniscache...");
+                }
+            }
+            return Waechter;
+        }
+    }
+
+    /**
+     * Die Schleife des Waechters. Sie arbeitet die Ereignisse der beobachteten Verzeichnisse ab.
+     */
+    private static void Beobachte() {
+        while (true) {
+            WatchKey Schluessel;
+            try {
+                Schluessel = Waechter.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            Path Pfad = (Path) Schluessel.watchable();
+            Verzeichnis Betroffen = Beobachtet.get(Pfad);
+            for (WatchEvent<?> Ereignis : Schluessel.pollEvents()) {
+                if (Betroffen == null) {
+                    continue;
+                }
+                if (Ereignis.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    Betroffen.Verwerfe();
+                } else {
+                    Betroffen.Aendere(Ereignis.context().toString());
+                }
+            }
+            // Ist das Verzeichnis verschwunden, wird der Schluessel ungueltig
+            if (!Schluessel.reset() && Betroffen != null) {
+                Beobachtet.remove(Pfad, Betroffen);
+                Betroffen.Verwerfe();
+            }
+        }
+    }
+
+    /**
+     * Erzeugt die HTML Auflistung, Unterverzeichnisse zuerst.
+     */
+    private static byte[] Erzeuge(String URI, Map<String, Info> Eintraege) {
+        String Titel = Html(URI);
+        StringBuilder Seite = new StringBuilder(256 + Eintraege.size() * 120);
+        Seite.append("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>Index von ").append(Titel)
+                .append("</title></head>\n<body><h1>Index von ").append(Titel).append("</h1><hr><pre>\n");
+        if (!URI.equals("/")) {
+            Seite.append("<a href=\"../\">../</a>\n");
+        }
+        for (int Durchgang = 0; Durchgang < 2; Durchgang++) {
+            boolean NurVerzeichnisse = Durchgang == 0;
+            for (Map.Entry<String, Info> Eintrag : Eintraege.entrySet()) {
+                Info DieInfo = Eintrag.getValue();
+                if (DieInfo.IstVerzeichnis != NurVerzeichnisse) {
+                    continue;
+                }
+                String Name = Eintrag.getKey() + (NurVerzeichnisse ? "/" : "");
+                // Der Link ist prozentkodiert und beginnt mit "./", damit ein Name wie "javascript:..." nie als Schema
+                // gelesen wird. Nur der sichtbare Text wird fuer HTML entschaerft.
+                String Link = "./" + Kodiere(Eintrag.getKey()) + (NurVerzeichnisse ? "/" : "");
+                Seite.append("<a href=\"").append(Link).append("\">").append(Html(Name)).append("</a>");
+                for (int i = Name.length(); i < 51; i++) {
+                    Seite.append(' ');
+                }
+                Seite.append(DATUM.format(Instant.ofEpochMilli(DieInfo.Aenderungszeit)));
+                String Groesse = NurVerzeichnisse ? "-" : Long.toString(DieInfo.Groesse);
+                for (int i = Groesse.length(); i < 20; i++) {
+                    Seite.append(' ');
+                }
+                Seite.append(Groesse).append('\n');
+            }
+        }
+        Seite.append("</pre><hr></body></html>\n");
+        return Seite.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Prozentkodiert einen Dateinamen als Pfadsegment in UTF-8. Uebrig bleiben nur Zeichen, die weder in einer URL
+     * noch in einem HTML Attribut etwas bedeuten.
+     */
+    private static String Kodiere(String Name) {
+        byte[] Bytes = Name.getBytes(StandardCharsets.UTF_8);
+        StringBuilder Kodiert = new StringBuilder(Bytes.length + 16);
+        for (byte Byte : Bytes) {
+            int Zeichen = Byte & 0xFF;
+            if (Zeichen >= 'a' && Zeichen <= 'z' || Zeichen >= 'A' && Zeichen <= 'Z' || Zeichen >= '0' && Zeichen <= '9'
+                    || Zeichen == '-' || Zeichen == '.' || Zeichen == '_' || Zeichen == '~') {
+                Kodiert.append((char) Zeichen);
+            } else {
+                Kodiert.append('%').append(HEX[Zeichen >> 4]).append(HEX[Zeichen & 0xF]);
+            }
+        }
+        return Kodiert.toString();
+    }
+
+    /**
+     * Entschaerft HTML Sonderzeichen in Dateinamen.
+     */
+    private static String Html(String Text) {
+        StringBuilder Sicher = null;
+        for (int i = 0; i < Text.length(); i++) {
+            char Zeichen = Text.charAt(i);
+            String Ersatz = Zeichen == '<' ? "&lt;" : Zeichen == '>' ? "&gt;" : Zeichen == '&' ? "&amp;"
+                    : Zeichen == '"' ? "&quot;" : null;
+            if (Ersatz != null && Sicher == null) {
+                Sicher = new StringBuilder(Text.length() + 16).append(Text, 0, i);
+            }
+            if (Sicher != null) {
+                if (Ersatz != null) {
+                    Sicher.append(Ersatz);
+                } else {
+                    Sicher.append(Zeichen);
+                }
+            }
+        }
+        return Sicher == null ? Text : Sicher.toString();
+    }
+}
@@ -1,692 +1,561 @@
 import java.io.*;
+import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
 
 public final class WebServer {
     /**
-     * Auf diesem Port wird unser Webserver laufen und horchen.
+     * Trennt die Felder einer Zeile der Mime Datei. Einmal kompiliert, statt bei jedem split erneut.
      */
-    final static int PORT = 6789;
-
-    public static void main(String argv[]) throws Exception {
-
-        // Wir parsen zuerst die Argumente der Kommandozeile
-        ConcurrentHashMap<String, String> MimeTypen = null;
-        if (argv.length > 0) {
-            if (argv[0].contentEquals("-mime")) {
-                if (argv.length == 2) {
-                    MimeTypen = ParseMimeTypes(argv[1]);
-                } else {
-                    System.out.println("Ungueltige Anzahl an Argumenten uebergeben. Ignoriere sie...");
-                }
-            } else {
-                System.out.println("Ungueltige Argumente uebergeben. Ignoriere sie...");
-            }
-        }
-
-        // Falls keine Mimetypes uebergeben worden sind, suchen wir im aktuellen Verzeichnis
-        if (MimeTypen == null) {
-            System.out.println("Keine Mime Types uebergeben. Suche im Arbeitsverzeichnis...");
-            MimeTypen = ParseMimeTypes("mime.types");
-        }
-
-        // Falls immernoch keine Mimtetypes gefunden wordne sind, implementieren wir hier einen Fallback
-        if (MimeTypen == null) {
-            System.out.println("Keine Mime Types gefunden. Falle auf Minimalimplementierung zurueck...");
-            MimeTypen = new ConcurrentHashMap<>(6);
-            MimeTypen.put("html", "text/html");
-            MimeTypen.put("htm", "text/html");
-        }
-
-        // Wir öffnen hier einen neuen Serversocket der auf eingehende Verbindungen wartet
-        ServerSocket PrimaerSocket = null;
-        try {
-            PrimaerSocket = new ServerSocket(PORT);
-        } catch (IOException e) {
-            System.err.println("IO-Fehler beim öffnen des Sockets aufgetreten. Breche ab...");
-            System.exit(-1);
-        } catch (SecurityException e) {
-            System.err.println("Nicht genug Rechte zum öffnen des Sockets. Breche ab...");
-            System.exit(-1);
-        } catch (IllegalArgumentException e) {
-            System.err.println("Gewünschter Port nicht belegbar. Breche ab...");
-            System.exit(-1);
-        } finally {
-            if (PrimaerSocket == null) {
-                System.err.println("Unbekannter Fehler beim öffnen des Sockets aufgetreten. Breche ab...");
-                System.exit(-1);
-            }
-        }
-
-        // In dieser Schleife werden Anfragen an unseren Server angenommen und fuer jede Anfrage werden neue Threads erzeugt.
-        while (true) {
-            // wir nehmen anfragen an und stellen eine neue Verbindung zum anfragenden her
-            Socket SekundaerSocket = null;
-            try {
-                SekundaerSocket = PrimaerSocket.accept();
-            } catch (IOException e) {
-                System.err.println("IO-Fehler beim herstellen der Verbindung. Warte auf neuen Versuch...");
-                continue;
-            } catch (SecurityException e) {
-                System.err.println("Nicht genug Rechte zum bearbeiten der Anfragen. Breche ab...");
-                System.exit(-1);
-            }
-
-            if (SekundaerSocket == null) {
-                System.err.println("Unbekannter Fehler beim bearbeiten einer Anfrage aufgetreten. Warte auf neuen Versuch...");
-                continue;
-            }
-
-            // wir lagern die Anfrageverarbeitung in die HttpRequest Klasse aus
-            HttpRequest AnfragenBearbeiter = new HttpRequest(SekundaerSocket, MimeTypen);
-            Thread AnfragenBearbeiterThread = new Thread(AnfragenBearbeiter);
-            AnfragenBearbeiterThread.start();
-        }
-    }
+    private final static Pattern LEERRAUM = Pattern.compile("\\s+");
 
     /**
-     * Verwandelt eine Datei von Mime-Types in eine Hashstruktur. Diese Methode liest eine Datei an dem uebergebenen
-     * Pfad ein, parst sie, und traegt ihren Inhalt in eine Hast-Struktur. Die Struktur hat Dateiendungen als Schluessel
-     * und die zugehoerigen Mime-Types als Werte.
-     *
-     * @param PfadZuMimeTypes Dateipfad zur zu parsenden Datei
-     * @return Bei erfolg Hashmap mit Mime-Types, sonst Nullpointer
+     * Standardgroesse des Threadpools und seiner Warteschlange, falls nichts auf der Kommandozeile angegeben wurde.
      */
-    private static ConcurrentHashMap<String, String> ParseMimeTypes(String PfadZuMimeTypes) {
-        Path MimeTypePfad;
+    final static int STANDARD_THREADS = 64;
+    final static int STANDARD_WARTESCHLANGE = 256;
 
-        try {
-            MimeTypePfad = Paths.get(PfadZuMimeTypes);
-        } catch (InvalidPathException e) {
-            System.err.println("Ungueltiger Dateipfad zur Mime Datei. Lese Datei nicht ein...");
-            return null;
-        }
-
-        if (MimeTypePfad == null) {
-            System.err.println("Unbekannter Fehler beim Parsen des Mime Datei Pfads. Lese Datei nicht ein...");
-            return null;
-        }
-
-        // Wir zaehlen die Zeilen der einzulesenden Datei, um eine effiziente groesse fuer unsere Hashmap abzuschaetzen
-        long ZeilenAnzahl;
-        try {
-            ZeilenAnzahl = Files.lines(MimeTypePfad).count();
-        } catch (IOException e) {
-            System.err.println("Fehler beim lesen der Mime Datei. Lese Datei nicht ein...");
-            return null;
-        } catch (SecurityException e) {
-            System.err.println("Nicht genug Rechte zum lesen der Mime Datei. Lese Datei nicht ein...");
-            return null;
-        }
-
-        if (ZeilenAnzahl == 0) {
-            System.err.println("Mime Datei ist leer oder anderer Fehler. Lese Datei nicht ein...");
-            return null;
-        }
-
-        /* Wir erstellen unsere Hashmap. Sie wird dynamisch hochskalieren ind groesse wenn benoetigt.
-        * Der Skalierungsfaktor gibt an, wieviel groesser unsere Hashmap als die Zeilenzahl wird. Man moechte eine
-        * 30-40% groessere Hashmap haben als Eintraege vorhanden sind, um Kollisionen zu reduzieren und die
-        * Zugriffszeiten zu verkleinern. Wir gehen von etwas weniger als einer Dateiendung pro Zeile in der
-        * Mime Datei aus. */
-        double SkalierungsFaktor = 1.1;
-        double SkalierteGroesse = SkalierungsFaktor * ZeilenAnzahl;
-        ConcurrentHashMap<String, String> ParsedMimeTypes = new ConcurrentHashMap<>((int) SkalierteGroesse);
-
-        // Wir lesen die Datei Zeile fuer Zeile, parsen keine Kommentarzeilen, splitten die anderen an Leerzeichen und Tabs,
-        // und schreiben den Inhalt dann in unsere Hashmap.
-        try {
-            Files.lines(MimeTypePfad).forEach(Zeile -> {
-                if (!Zeile.isEmpty() && !Zeile.startsWith("#")) {
-                    String[] GeparsteZeile = Zeile.split("\\s+");
-                    for (int i = GeparsteZeile.length; i > 1; i--) {
-                        ParsedMimeTypes.put(GeparsteZeile[i - 1], GeparsteZeile[0]);
-                    }
-                }
-            });
-        } catch (IOException e) {
-            System.err.println("Fehler beim lesen der Mime Datei. Lese Datei nicht ein...");
-            return null;
-        } catch (SecurityException e) {
-            System.err.println("Nicht genug Rechte zum lesen der Mime Datei. Lese Datei nicht ein...");
-            return null;
-        } catch (NullPointerException e) {
-            System.err.println("Nullpointerexception beim schreiben der Hashable. Das ist seltsam. Lese Datei nicht ein...");
-            return null;
-        }
-        return ParsedMimeTypes;
-    }
+    /**
+     * Wie lange eine offene Verbindung auf die naechste Anfrage wartet, in Millisekunden.
+     */
+    static volatile int LeerlaufZeitLimit = 5000;
 
-}
+    /**
+     * Cache fuer kleine Dateien, oder null wenn er abgeschaltet ist.
+     */
+    static volatile DateiCache InhaltsCache = null;
 
-final class HttpRequest implements Runnable {
     /**
-     * Komfortvariable fuer das beantworten der HTTP Requests.
+     * Wie viele Anfragen hoechstens ueber eine Verbindung bearbeitet werden, bevor wir sie schliessen.
      */
-    final static String CRLF = "\r\n";
+    static volatile int MaxAnfragenProVerbindung = 100;
 
     /**
-     * Socket des Clients der von dieser Instanz bearbeitet werden soll.
+     * Die groesste angenommene Rumpfgroesse in Bytes, darueber wird mit 413 geantwortet.
      */
-    Socket ClientSocket;
+    static volatile long MaxRumpfGroesse = 16L * 1024 * 1024;
 
     /**
-     * Map mit Mime Types um in O(1) passende Typ fuer Antwort zu finden.
+     * Erzeugt pro POST Anfrage den Empfaenger fuer ihren Rumpf.
      */
-    Map<String, String> MimeMap;
+    static volatile Supplier<RumpfZiel> PostZiel = RumpfZiele.Fabrik("ausgabe");
 
     /**
-     * Map mit Metadaten aus der Anfrage.
+     * Ob Textdateien komprimiert ausgeliefert werden, wenn der Client das annimmt.
      */
-    Map<String, String> AnfrageMap;
+    static volatile boolean Komprimieren = true;
 
     /**
-     * Wir speichern unsere Streams Klassenweit, damit wir die Fehlerbehandlung modularisieren und auslagern koennen.
+     * Die Mime Types. Beim Nachladen wird die Tabelle komplett neu gebaut und dann hier ausgetauscht, Bearbeiter sehen
+     * also immer eine fertige Tabelle und warten nie.
      */
-    BufferedReader ClientBufferedReader;
-    DataOutputStream ClientDataOutputStream;
+    static volatile MimeTabelle MimeTypen = null;
 
     /**
-     * Wahr wenn der Inputstream mit UTF8 dekodiert wird.
+     * Die Datei, aus der {@link #MimeTypen} gelesen wurden, oder null bei der eingebauten Minimaltabelle.
      */
-    boolean UTF8EncodingAktiv;
-
-    HttpRequest(Socket AnfragenSocket, Map<String, String> MimeTypes) {
-        this.ClientSocket = AnfragenSocket;
-        this.MimeMap = MimeTypes;
-        this.ClientBufferedReader = null;
-        this.ClientDataOutputStream = null;
-        this.UTF8EncodingAktiv = false;
-    }
+    static volatile String MimeDatei = null;
 
-    @Override
-    public void run() {
-        try {
-            processHttpRequest();
-        } catch (Exception e) {
-            System.err.println("Unbekannter Fehler beim bearbeiten einer Anfrage aufgetreten. Beende bearbeitung dieses Clients...");
-        } finally {
-            // Wir schliessen all unsere Streams und den Socket
-            BrecheAllesAb();
+    public static void main(String argv[]) throws Exception {
+        // Bei einem Signal duerfen laufende Anfragen noch fertig werden, danach werden die Protokolle geschrieben
+        Herunterfahren.Installiere();
+
+        // Wir parsen zuerst die Argumente der Kommandozeile, mit -konfig zuvor die aus der Konfigurationsdatei
+        argv = Konfiguration.Lade(argv);
+        AnfragenAusfuehrer.Modus AusfuehrungsModus = AnfragenAusfuehrer.Modus.POOL;
+        AnfragenAusfuehrer.Ablehnung AblehnungsStrategie = AnfragenAusfuehrer.Ablehnung.FEHLER503;
+        int ThreadAnzahl = STANDARD_THREADS;
+        int WarteschlangenLaenge = STANDARD_WARTESCHLANGE;
+        String Engine = "blockierend";
+        long CacheGroesse = 64L * 1024 * 1024;
+        long CacheDateiGroesse = 1024L * 1024;
+        boolean CacheDirekt = false;
+        int SchleifenAnzahl = Runtime.getRuntime().availableProcessors();
+        String ZugriffsDatei = null;
+        String FehlerDatei = null;
+        long RotationsGroesse = 64L * 1024 * 1024;
+        for (int i = 0; i < argv.length; i++) {
+            if (i + 1 >= argv.length) {
+                System.out.println("Ungueltige Anzahl an Argumenten uebergeben. Ignoriere " + argv[i] + "...");
+                break;
+            }
+            String Wert = argv[++i];
+            try {
+                switch (argv[i - 1]) {
+                    case "-modus":
+                        AusfuehrungsModus = AnfragenAusfuehrer.Modus.valueOf(Wert.toUpperCase(Locale.ROOT));
+                        break;
+                    case "-threads":
+                        ThreadAnzahl = Integer.parseInt(Wert);
+                        break;
+                    case "-warteschlange":
+                        WarteschlangenLaenge = Integer.parseInt(Wert);
+                        break;
+                    case "-engine":
+                        if (!Wert.equals("blockierend") && !Wert.equals("nio")) {
+                            throw new IllegalArgumentException(Wert);
+                        }
+                        Engine = Wert;
+                        break;
+                    case "-schleifen":
+                        SchleifenAnzahl = Integer.parseInt(Wert);
+                        break;
+                    case "-cache":
+                        CacheGroesse = Long.parseLong(Wert) * 1024 * 1024;
+                        break;
+                    case "-cachedatei":
+                        CacheDateiGroesse = Long.parseLong(Wert) * 1024;
+                        break;
+                    case "-cachedirekt":
+                        CacheDirekt = Boolean.parseBoolean(Wert);
+                        break;
+                    case "-pufferpool":
+                        PufferPool.Anzahl = Math.max(0, Integer.parseInt(Wert));
+                        break;
+                    case "-zugriffslog":
+                        ZugriffsDatei = Wert;
+                        break;
+                    case "-fehlerlog":
+                        FehlerDatei = Wert;
+                        break;
+                    case "-logrotation":
+                        RotationsGroesse = Math.max(0, Long.parseLong(Wert)) * 1024 * 1024;
+                        break;
+                    case "-index":
+                        Verzeichnisse.IndexDateien = Wert.isEmpty() || Wert.equals("aus") ? new String[0]
+                                : Wert.split(",");
+                        break;
+                    case "-port":
+                        int DerPort = Integer.parseInt(Wert);
+                        if (DerPort < 0 || DerPort > 65535) {
+                            throw new IllegalArgumentException(Wert);
+                        }
+                        Horcher.Port = DerPort;
+                        break;
+                    case "-adresse":
+                        try {
+                            Horcher.Adresse = Wert.isEmpty() || Wert.equals("*") ? null : InetAddress.getByName(Wert);
+                        } catch (UnknownHostException e) {
+                            throw new IllegalArgumentException(Wert, e);
+                        }
+                        break;
+                    case "-backlog":
+                        Horcher.Backlog = Math.max(0, Integer.parseInt(Wert));
+                        break;
+                    case "-nodelay":
+                        Horcher.KeinVerzoegern = Boolean.parseBoolean(Wert);
+                        break;
+                    case "-sendepuffer":
+                        Horcher.SendePuffer = Math.max(0, Integer.parseInt(Wert)) * 1024;
+                        break;
+                    case "-empfangspuffer":
+                        Horcher.EmpfangsPuffer = Math.max(0, Integer.parseInt(Wert)) * 1024;
+                        break;
+                    case "-annehmer":
+                        Horcher.Annehmer = Math.max(1, Integer.parseInt(Wert));
+                        break;
+                    case "-tlsport":
+                        int DerTlsPort = Integer.parseInt(Wert);
+                        if (DerTlsPort < 0 || DerTlsPort > 65535) {
+                            throw new IllegalArgumentException(Wert);
+                        }
+                        Tls.Port = DerTlsPort;
+                        break;
+                    case "-keystore":
+                        Tls.Schluesselbund = Wert;
+                        break;
+                    case "-keystorepasswort":
+                        Tls.Passwort = Wert;
+                        break;
+                    case "-keystoretyp":
+                        Tls.Typ = Wert;
+                        break;
+                    case "-tlssitzungen":
+                        Tls.SitzungsAnzahl = Math.max(0, Integer.parseInt(Wert));
+                        break;
+                    case "-tlssitzungsdauer":
+                        Tls.SitzungsDauer = Math.max(0, Integer.parseInt(Wert));
+                        break;
+                    case "-nachladen":
+                        Nachladen.Aktiv = Boolean.parseBoolean(Wert);
+                        break;
+                    case "-ablehnung":
+                        AblehnungsStrategie = AnfragenAusfuehrer.Ablehnung.valueOf(Wert.toUpperCase(Locale.ROOT));
+                        break;
+                    default:
+                        if (!Setze(argv[i - 1], Wert)) {
+                            System.out.println("Ungueltiges Argument " + argv[i - 1] + " uebergeben. Ignoriere es...");
+                        }
+                }
+            } catch (IllegalArgumentException e) {
+                System.out.println("Ungueltiger Wert " + Wert + " fuer " + argv[i - 1] + " uebergeben. Ignoriere ihn...");
+            }
         }
-    }
 
-    private void processHttpRequest() throws Exception {
-        // Wir oeffnen Input- und Outputstreams zu unserem Client
-        InputStream ClientInputStream = null;
+        if (ThreadAnzahl < 1 || WarteschlangenLaenge < 1) {
+            System.out.println("Threadanzahl und Warteschlange muessen positiv sein. Nutze Standardwerte...");
+            ThreadAnzahl = STANDARD_THREADS;
+            WarteschlangenLaenge = STANDARD_WARTESCHLANGE;
+        }
 
-        try {
-            ClientInputStream = ClientSocket.getInputStream();
-            ClientDataOutputStream = new DataOutputStream(ClientSocket.getOutputStream());
-        } catch (IOException e) {
-            System.err.println("Probleme beim aufbauen von Streams zum Client. Breche ab...");
-            if (!ClientSocket.isInputShutdown() && ClientInputStream != null) {
-                ClientInputStream.close();
-            }
-            if (!ClientSocket.isOutputShutdown() && ClientDataOutputStream != null) {
-                ClientDataOutputStream.close();
+        if (SchleifenAnzahl < 1) {
+            System.out.println("Es wird mindestens eine Ereignisschleife benoetigt. Nutze eine pro Prozessorkern...");
+            SchleifenAnzahl = Runtime.getRuntime().availableProcessors();
+        }
+
+        // Die Protokolldateien oeffnen wir erst jetzt, damit die Reihenfolge der Argumente egal ist
+        if (FehlerDatei != null) {
+            Protokoll Meldungen = Protokoll.Datei("Fehler", FehlerDatei, RotationsGroesse);
+            if (Meldungen != null) {
+                Protokoll.Meldungen = Meldungen;
             }
-            ClientSocket.close();
-            return;
+        }
+        if (ZugriffsDatei != null) {
+            Protokoll.Zugriffe = Protokoll.Datei("Zugriffe", ZugriffsDatei, RotationsGroesse);
         }
 
-        if (ClientInputStream == null) {
-            System.err.println("Seltsame Probleme beim aufbauen von Streams zum Client. Breche ab...");
-            BrecheAllesAb();
-            return;
+        // Falls keine Mimetypes uebergeben worden sind, suchen wir im aktuellen Verzeichnis
+        if (MimeTypen == null) {
+            System.out.println("Keine Mime Types uebergeben. Suche im Arbeitsverzeichnis...");
+            MimeTypen = ParseMimeTypes("mime.types");
+            MimeDatei = MimeTypen == null ? null : "mime.types";
         }
 
-        // Wir dekodieren den ClientInputStream und wrappen um ihn einen BufferedReader
-        // Wir waehlen UTF-8 Encoding, um die Content Length bei POST Request zu bestimmen
-        ClientBufferedReader = null;
-        try {
-            ClientBufferedReader = new BufferedReader(new InputStreamReader(ClientInputStream, "UTF8"));
-            UTF8EncodingAktiv = true;
-        } catch (UnsupportedEncodingException e) {
-            System.err.println("UTF-8 Encoding fuer den Inputstream nicht verfuegbar. Deaktiviere POST Funktionalitaet...");
-            ClientBufferedReader = new BufferedReader(new InputStreamReader(ClientInputStream));
+        // Falls immernoch keine Mimtetypes gefunden wordne sind, implementieren wir hier einen Fallback
+        if (MimeTypen == null) {
+            System.out.println("Keine Mime Types gefunden. Falle auf Minimalimplementierung zurueck...");
+            Map<String, String> Minimal = new HashMap<>();
+            Minimal.put("html", "text/html");
+            Minimal.put("htm", "text/html");
+            MimeTypen = MimeTabelle.Aus(Minimal);
         }
 
-        // Mit diesen Variablen speichern wir unsere Anfrage
-        String RequestZeile;
-        String AnfrageZeile;
-        AnfrageMap = new HashMap<>(10);
-        String[] GeteilteRequestZeile;
+        // Kleine Dateien halten wir im Speicher, sofern der Cache nicht mit -cache 0 abgeschaltet wurde
+        if (CacheGroesse > 0 && CacheDateiGroesse > 0) {
+            InhaltsCache = new DateiCache(CacheGroesse, Math.min(CacheDateiGroesse, Integer.MAX_VALUE), CacheDirekt);
+        }
 
-        // Das ist eine Zwischenvariable beim einlesen und parsen des Request Headers
-        String[] GeteilteAnfrageZeile = null;
+        // Die Routen haengen von -metriken und -abschaltpfad ab, also erst jetzt kompilieren
+        Routen.Aktuell = Routen.Standard();
 
-        try {
-            // Wir holen uns die Request Zeile
-            RequestZeile = ClientBufferedReader.readLine();
-            GeteilteRequestZeile = RequestZeile.split("\\s");
-
-            // Wir speichern die kompletten Anfrage Header, aber ohne Requestzeile, in einer Hashmap
-            while ((AnfrageZeile = ClientBufferedReader.readLine()).length() != 0) {
-                GeteilteAnfrageZeile = AnfrageZeile.split("\\s+", 2);
-                if (GeteilteAnfrageZeile.length == 2) {
-                    AnfrageMap.put(GeteilteAnfrageZeile[0], GeteilteAnfrageZeile[1]);
-                }
+        // Aendern sich Mime Datei oder Konfiguration, laden wir sie im Betrieb nach
+        Nachladen.Starte(argv);
+
+        // HTTPS gibt es nur mit Port und Keystore. Ist der Keystore nicht lesbar, starten wir gar nicht erst.
+        if (Tls.Port > 0 && Tls.Schluesselbund == null) {
+            System.out.println("Kein Keystore fuer HTTPS uebergeben. Starte ohne HTTPS...");
+        } else if (Tls.Port > 0) {
+            try {
+                Tls.Initialisiere();
+            } catch (IOException | GeneralSecurityException | InvalidPathException e) {
+                Protokoll.Fehler("Keystore " + Tls.Schluesselbund + " konnte nicht geladen werden: " + e.getMessage()
+                        + ". Breche ab...");
+                System.exit(-1);
             }
-        } catch (IOException e) {
-            System.err.println("Unbekannte IO-Probleme beim lesen von Streams zum Client. Breche ab...");
-            BrecheAllesAb();
-            return;
         }
 
-        // Wir pruefen ob irgendwelche Arkanen Fehler beim parsen aufgetreten sind.
-        if (GeteilteAnfrageZeile == null) {
-            System.err.println("Unbekannte Probleme beim lesen von Streams zum Client. Breche ab...");
-            BrecheAllesAb();
-            return;
+        // Wir öffnen hier die Serversockets die auf eingehende Verbindungen warten, mit mehreren Annehmern einen pro
+        // Annehmer. Es sind (blockierende) Kanaele, damit die angenommenen Sockets ebenfalls Kanaele haben und Dateien
+        // per transferTo ohne Umweg durch den Userspace gesendet werden koennen.
+        ServerSocketChannel[] PrimaerKanaele = null;
+        try {
+            ServerSocketChannel[] Kanaele = Horcher.Oeffne();
+            if (Tls.Aktiv()) {
+                ServerSocketChannel[] TlsKanaele = Horcher.OeffneTls();
+                Kanaele = Arrays.copyOf(Kanaele, Kanaele.length + TlsKanaele.length);
+                System.arraycopy(TlsKanaele, 0, Kanaele, Kanaele.length - TlsKanaele.length, TlsKanaele.length);
+            }
+            for (ServerSocketChannel PrimaerKanal : Kanaele) {
+                Herunterfahren.Lausche(PrimaerKanal);
+            }
+            PrimaerKanaele = Kanaele;
+        } catch (IOException e) {
+            Protokoll.Fehler("IO-Fehler beim öffnen des Sockets aufgetreten. Breche ab...");
+            System.exit(-1);
+        } catch (SecurityException e) {
+            Protokoll.Fehler("Nicht genug Rechte zum öffnen des Sockets. Breche ab...");
+            System.exit(-1);
+        } catch (IllegalArgumentException e) {
+            Protokoll.Fehler("Gewünschter Port nicht belegbar. Breche ab...");
+            System.exit(-1);
+        } finally {
+            if (PrimaerKanaele == null) {
+                Protokoll.Fehler("Unbekannter Fehler beim öffnen des Sockets aufgetreten. Breche ab...");
+                System.exit(-1);
+            }
         }
 
-        //************************************************
-        // Ab hier beginnt die Bearbeitung der Anfrage
-        //************************************************
-
-        String Header;
-
-        if (GeteilteRequestZeile.length != 3) {
-            Header = "HTTP/1.0 400 Bad Request" + CRLF + "Content-type: text/html" + CRLF;
-            String FehlerSeite = GeneriereErrorSeite("400 Bad Request");
+        // Die NIO Engine bringt ihre eigenen Threads mit. Was die Ereignisschleifen aufhalten wuerde, geben sie an
+        // Arbeiter ab. Sind alle beschaeftigt, bekommt der Client ein 503, die Schleife selbst bearbeitet nie.
+        if (Engine.equals("nio")) {
+            NioServer DerServer = null;
             try {
-                // Hier versenden wir den geforderten Header, eine Fehlerseite und flushen zur Sicherheit (close flusht auch)
-                ClientDataOutputStream.writeBytes(Header);
-                ClientDataOutputStream.writeBytes(CRLF);
-                ClientDataOutputStream.writeBytes(FehlerSeite);
-                ClientDataOutputStream.flush();
+                DerServer = new NioServer(SchleifenAnzahl, AnfragenAusfuehrer.ErzeugeFuerSchleifen(AusfuehrungsModus,
+                        ThreadAnzahl, WarteschlangenLaenge));
             } catch (IOException e) {
-                System.err.println("Fehler beim Senden eines 400 Fehlers. Breche ab...");
+                Protokoll.Fehler("IO-Fehler beim öffnen der Selectoren aufgetreten. Breche ab...");
+                System.exit(-1);
             }
+            DerServer.Starte(PrimaerKanaele);
             return;
         }
 
-        switch (GeteilteRequestZeile[0]) {
-            case "GET":
-                Header = HoleHEADer(GeteilteRequestZeile[1]);
-                // Wir schauen ob die Datei nicht existiert und senden dann eine 404 Seite; bei Zugriffsverletzung 403 Seite
-                if (Header.startsWith("HTTP/1.0 40")) {
-                    String FehlerSeite = "";
-
-                    if (Header.startsWith("HTTP/1.0 404")) {
-                        FehlerSeite = GeneriereErrorSeite("404 Not Found");
-                    } else if (Header.startsWith("HTTP/1.0 403")) {
-                        FehlerSeite = GeneriereErrorSeite("403 Forbidden");
-                    }
-
-                    // Und senden dann alles
-                    try {
-                        ClientDataOutputStream.writeBytes(Header);
-                        ClientDataOutputStream.writeBytes(CRLF);
-                        ClientDataOutputStream.writeBytes(FehlerSeite);
-                        ClientDataOutputStream.flush();
-                    } catch (Exception e) {
-                        System.err.println("Fehler A beim Senden einer GET Anfrage. Breche ab...");
-                    }
-                    return;
-                }
-
-                //Falls die Datei existiert, bereiten wir sie fuer den Versand vor, dazu oeffnen wir einen Filestream
-                String DateiName = "." + GeteilteRequestZeile[1];
-
-                FileInputStream DateiStrom;
-                try {
-                    DateiStrom = new FileInputStream(DateiName);
-                } catch (Exception e) {
-                    System.err.println("Datei ist magisch. Ein Einhorn wird sie gestohlen oder versteckt haben. Breche ab...");
-                    return;
-                }
+        // Die Anfragen werden nicht mehr in jeweils eigenen Threads bearbeitet, sondern an einen begrenzten Ausfuehrer
+        // uebergeben. Ist dieser voll, greift die gewaehlte Ablehnungsstrategie.
+        ExecutorService Ausfuehrer = AnfragenAusfuehrer.Erzeuge(AusfuehrungsModus, ThreadAnzahl,
+                WarteschlangenLaenge, AblehnungsStrategie);
+
+        // Jeder Serversocket bekommt seinen eigenen annehmenden Thread, den letzten uebernimmt der main Thread selbst
+        Thread[] Annehmer = new Thread[PrimaerKanaele.length - 1];
+        for (int i = 0; i < Annehmer.length; i++) {
+            ServerSocket PrimaerSocket = PrimaerKanaele[i].socket();
+            Annehmer[i] = new Thread(() -> NimmAn(PrimaerSocket, Ausfuehrer), "Annehmer-" + (i + 1));
+            Annehmer[i].start();
+        }
+        NimmAn(PrimaerKanaele[PrimaerKanaele.length - 1].socket(), Ausfuehrer);
+        for (Thread EinAnnehmer : Annehmer) {
+            EinAnnehmer.join();
+        }
 
-                // Wir erstellen noch einen Buffer fuer die eigentliche Datei
-                byte[] Buffer = new byte[1024];
-                int bytes;
+        // Angenommene Verbindungen duerfen noch bis zur Frist fertig werden, was dann noch wartet, wird verworfen
+        Ausfuehrer.shutdown();
+        Herunterfahren.Abwarten();
+        for (Runnable Aufgabe : Ausfuehrer.shutdownNow()) {
+            if (Aufgabe instanceof HttpRequest) {
+                ((HttpRequest) Aufgabe).Verwerfe();
+            }
+        }
+    }
 
-                // Nun versenden wir alle Daten
-                try {
-                    ClientDataOutputStream.writeBytes(Header);
-                    ClientDataOutputStream.writeBytes(CRLF);
-                    while ((bytes = DateiStrom.read(Buffer)) != -1) {
-                        ClientDataOutputStream.write(Buffer, 0, bytes);
-                    }
-                    ClientDataOutputStream.flush();
-                } catch (Exception e) {
-                    System.err.println("Fehler B beim Senden einer GET Anfrage. Breche ab...");
-                } finally {
-                    try {
-                        DateiStrom.close();
-                    } catch (IOException e) {
-                        System.err.println("Fehler beim schliessen eines Dateistroms. Breche ab...");
-                    }
+    /**
+     * Uebernimmt eine Einstellung, die waehrend des Betriebs geaendert werden darf. Sie wird bei jeder Verwendung neu
+     * gelesen, das Setzen wirkt also ohne Neustart. Benutzt beim Start und von {@link Nachladen}.
+     *
+     * @param Name Das Argument, etwa "-keepalive"
+     * @param Wert Sein Wert
+     * @return false, wenn das Argument keine solche Einstellung ist
+     * @throws IllegalArgumentException Bei ungueltigem Wert
+     */
+    static boolean Setze(String Name, String Wert) {
+        switch (Name) {
+            case "-mime":
+                // Ist die Datei kaputt, bleibt die bisherige Tabelle
+                MimeTabelle Neu = ParseMimeTypes(Wert);
+                if (Neu != null) {
+                    MimeTypen = Neu;
+                    MimeDatei = Wert;
                 }
                 break;
-            case "HEAD":
-                Header = HoleHEADer(GeteilteRequestZeile[1]);
-                try {
-                    ClientDataOutputStream.writeBytes(Header);
-                    ClientDataOutputStream.writeBytes(CRLF);
-                    ClientDataOutputStream.flush();
-                } catch (IOException e) {
-                    System.err.println("Fehler beim Senden einer HEAD Anfrage. Breche ab...");
-                }
+            case "-keepalive":
+                LeerlaufZeitLimit = Math.max(1, Integer.parseInt(Wert)) * 1000;
                 break;
-            case "POST":
-                // Falls der Request keine gueltige Content-Length Angabe macht, wird Error 400 ausgegeben
-                boolean GueltigeAnfrage = false;
-                int InhaltsLaenge = -1;
-                if (AnfrageMap.containsKey("Content-Length:")) {
-                    InhaltsLaenge = Integer.parseInt(AnfrageMap.get("Content-Length:"));
-                    if (InhaltsLaenge >= 0) {
-                        GueltigeAnfrage = true;
-                    }
-                }
-
-                // Eine POST Anfrage muss eine gueltige Content Length haben
-                if (!GueltigeAnfrage) {
-                    Header = "HTTP/1.0 400 Bad Request" + CRLF + "Content-type: text/html" + CRLF;
-                    String FehlerSeite = GeneriereErrorSeite("400 Bad Request");
-                    try {
-                        ClientDataOutputStream.writeBytes(Header);
-                        ClientDataOutputStream.writeBytes(CRLF);
-                        ClientDataOutputStream.writeBytes(FehlerSeite);
-                        ClientDataOutputStream.flush();
-                    } catch (IOException e) {
-                        System.err.println("Fehler beim Senden eines 400 Fehlers. Breche ab...");
-                    }
-                    return;
-                }
-
-                // Wenn der Inputstream nicht mit UTF8 dekodiert wird, koennen wir die Content Length nicht bestimmen
-                if (!UTF8EncodingAktiv) {
-                    Header = "HTTP/1.0 500 Internal Server Error" + CRLF + "Content-type: text/html" + CRLF;
-                    String FehlerSeite = GeneriereErrorSeite("500 Internal Server Error");
-                    try {
-                        ClientDataOutputStream.writeBytes(Header);
-                        ClientDataOutputStream.writeBytes(CRLF);
-                        ClientDataOutputStream.writeBytes(FehlerSeite);
-                        ClientDataOutputStream.flush();
-                    } catch (IOException e) {
-                        System.err.println("Fehler A beim Senden eines 500 Fehlers. Breche ab...");
-                    }
-                    return;
-                }
-
-                /* Nun bearbeiten wir die eigentlich Anfrage. Dazu muessen wir den Request
-                * Body lesen. Dieser ist noch im BufferedReader, da wir das lesen nachdem wir
-                * mit dem Header durch waren eingestellt haben.
-                * Wenn wir hier ankommen, wissen wir, dass der Stream mit UTF8 formatiert ist.
-                * Das bedeutet, dass ein Zeichen 8 Bit lang ist. Die Content Length aus dem POST
-                * Header ist eine Ganzzahl die die Anzahl gesendeter Octets angibt. Wir koennen also
-                * einfach Zeichen zahlen. */
-
-                boolean FehlerBeimEinlesen = false;                 // wahr, wenn ein Fehler beim lesen des POST Requests auftrat
-                int GeleseneLeange = -1;                            // speichert wieviel wir eingelesen haben (oder -1 bei Fehler)
-                char[] GeleseneZeichen = new char[InhaltsLaenge];   // Buffer fuer den BufferedReader
-
-                try {
-                    GeleseneLeange = ClientBufferedReader.read(GeleseneZeichen,0,InhaltsLaenge);
-                } catch (IOException e) {
-                    FehlerBeimEinlesen = true;
-                }
-
-                if (GeleseneLeange != InhaltsLaenge || GeleseneLeange == -1) {
-                    FehlerBeimEinlesen = true;
-                }
-
-                // Falls ein Fehler beim Einlesen des POST Requests aufgetreten ist, geben wir eine Error Response
-                if (FehlerBeimEinlesen) {
-                    Header = "HTTP/1.0 500 Internal Server Error" + CRLF + "Content-type: text/html" + CRLF;
-                    String FehlerSeite = GeneriereErrorSeite("500 Internal Server Error");
-                    try {
-                        ClientDataOutputStream.writeBytes(Header);
-                        ClientDataOutputStream.writeBytes(CRLF);
-                        ClientDataOutputStream.writeBytes(FehlerSeite);
-                        ClientDataOutputStream.flush();
-                    } catch (IOException e) {
-                        System.err.println("Fehler B beim Senden eines 500 Fehlers. Breche ab...");
-                    }
-                    return;
-                }
-
-                String PostAnfrage = new String(GeleseneZeichen);
-
-                // Diese POST Implementierung  printet die Anfrage einfach nur auf der Kommandozeile des Servers
-                // Wir akzeptieren nur String die UTF-8 formatierbar sind!
-                System.out.println("---- BEGIN POST REQUEST ----");
-                System.out.println(PostAnfrage);
-                System.out.println("----- END POST REQUEST -----");
-
-                Header = "HTTP/1.0 200 OK" + CRLF;
-                try {
-                    ClientDataOutputStream.writeBytes(Header);
-                    ClientDataOutputStream.writeBytes(CRLF);
-                    ClientDataOutputStream.flush();
-                } catch (IOException e) {
-                    System.err.println("Fehler beim Senden des 200 OK fuer POST. Breche ab...");
-                }
-
+            case "-maxanfragen":
+                MaxAnfragenProVerbindung = Math.max(1, Integer.parseInt(Wert));
+                break;
+            case "-mmap":
+                Abbildungen.Schwelle = Long.parseLong(Wert) * 1024 * 1024;
+                break;
+            case "-mmapleerlauf":
+                Abbildungen.Leerlauf = Long.parseLong(Wert) * 1_000_000_000L;
                 break;
-            // Wir antworten auch auch auf eine in RFC 2324 definierte HTCPCP (Hyper Text Coffee Pot Control Protocol) Anfrage
-            case "BREW":
-                Header = "HTTP/1.0 418 I'm a teapot" + CRLF + "Content-type: text/plain" + CRLF;
-                String ShortAndStout =
-                        "I'm a little teapot\n"
-                        +"Short and stout\n"
-                        +"Here is my handle\n"
-                        +"Here is my spout\n"
-                        +"When I get all steamed up\n"
-                        +"I just shout\n"
-                        +"Tip me over and pour me out\n"
-                        +"\n"
-                        +"I am a very special pot\n"
-                        +"It is true\n"
-                        +"Here is an example of what I can do\n"
-                        +"I can turn my handle into a spout\n"
-                        +"Tip me over and pour me out\n"
-                        +"\n"
-                        +"I'm a little teapot\n"
-                        +"Short and stout\n"
-                        +"Here is my handle\n"
-                        +"Here is my spout\n"
-                        +"When I get all steamed up\n"
-                        +"I just shout\n"
-                        +"Tip me over and pour me out\n"
-                        +"\n"
-                        +"I am a very special pot\n"
-                        +"It is true\n"
-                        +"Here is an example of what I can do\n"
-                        +"I can turn my handle into a spout\n"
-                        +"Tip me over and pour me out";
-                try {
-                    ClientDataOutputStream.writeBytes(Header);
-                    ClientDataOutputStream.writeBytes(CRLF);
-                    ClientDataOutputStream.writeBytes(ShortAndStout);
-                    ClientDataOutputStream.flush();
-                } catch (IOException e) {
-                    System.err.println("Fehler beim Senden eines 418 Fehlers. Breche ab...");
+            case "-komprimierung":
+                Komprimieren = Boolean.parseBoolean(Wert);
+                break;
+            case "-fehlerdetails":
+                FehlerSeiten.MitClientDetails = Boolean.parseBoolean(Wert);
+                break;
+            case "-post":
+                PostZiel = RumpfZiele.Fabrik(Wert);
+                break;
+            case "-maxrumpf":
+                MaxRumpfGroesse = Math.max(0, Long.parseLong(Wert)) * 1024 * 1024;
+                break;
+            case "-wurzel":
+                Path Wurzel = Paths.get(Wert).toAbsolutePath().normalize();
+                if (!Files.isDirectory(Wurzel)) {
+                    throw new IllegalArgumentException(Wert);
                 }
+                Pfade.Wurzel = Wurzel;
+                break;
+            case "-fehlzeit":
+                // So lange in Millisekunden merken wir uns, dass es einen Pfad nicht gibt
+                Pfade.FehlZeit = Math.max(0, Long.parseLong(Wert));
+                break;
+            case "-metriken":
+                Metriken.Aktiv = Boolean.parseBoolean(Wert);
+                break;
+            case "-logvoll":
+                Protokoll.WennVoll = Protokoll.Voll.valueOf(Wert.toUpperCase(Locale.ROOT));
+                break;
+            case "-auflisten":
+                Verzeichnisse.Auflisten = Boolean.parseBoolean(Wert);
+                break;
+            case "-maxverbindungen":
+                Zugangskontrolle.MaxVerbindungen = Math.max(0, Integer.parseInt(Wert));
+                break;
+            case "-rate":
+                Zugangskontrolle.Rate = Math.max(0, Double.parseDouble(Wert));
+                break;
+            case "-stoss":
+                Zugangskontrolle.Stoss = Math.max(0, Integer.parseInt(Wert));
+                break;
+            case "-kopfzeit":
+                Fristen.KopfZeit = Math.max(1, Integer.parseInt(Wert)) * 1000;
+                break;
+            case "-rumpfzeit":
+                Fristen.RumpfZeit = Math.max(1, Integer.parseInt(Wert)) * 1000;
+                break;
+            case "-sendezeit":
+                Fristen.SendeZeit = Math.max(1, Integer.parseInt(Wert)) * 1000;
+                break;
+            case "-minrate":
+                Fristen.MinRate = Math.max(0, Long.parseLong(Wert));
+                break;
+            case "-abschaltfrist":
+                Herunterfahren.Frist = Math.max(0, Integer.parseInt(Wert)) * 1000;
+                break;
+            case "-abschaltpfad":
+                Herunterfahren.Endpunkt = Boolean.parseBoolean(Wert);
+                break;
+            case "-http2":
+                Http2Verbindung.Aktiv = Boolean.parseBoolean(Wert);
+                break;
+            case "-h2stroeme":
+                Http2Verbindung.MaxStroeme = Math.max(1, Integer.parseInt(Wert));
+                break;
+            case "-h2fenster":
+                // Kleiner als das Startfenster von HTTP/2 darf es nicht sein, groesser als 2^31 - 1 auch nicht
+                Http2Verbindung.Fenster = Math.max(65_535, Integer.parseInt(Wert));
                 break;
             default:
-                Header = "HTTP/1.0 501 Not Implemented" + CRLF;
-                try {
-                    ClientDataOutputStream.writeBytes(Header);
-                    ClientDataOutputStream.writeBytes(CRLF);
-                    ClientDataOutputStream.flush();
-                } catch (IOException e) {
-                    System.err.println("Fehler beim Senden eines 501 Fehlers. Breche ab...");
-                }
+                return false;
         }
+        return true;
     }
 
     /**
-     * Generiert einen Header fuer GET oder HEAD Anfrage mit dem gegebenen URI.
+     * In dieser Schleife werden Anfragen an unseren Server angenommen und an den Ausfuehrer weitergereicht, bis der
+     * Server heruntergefahren wird.
      *
-     * @param RequestURI die URI aus der Anfrage
-     * @return Den Header fuer die betreffende Anfrage
+     * @param PrimaerSocket Der Serversocket dieses Annehmers
+     * @param Ausfuehrer    Der Ausfuehrer fuer die Bearbeiter
      */
-    private String HoleHEADer(String RequestURI) {
-        // Die URI ist eine Pfadangabe zur gewuenschten Datei. Der Punkt ist um sie aufs aktuelle Verzeichniss zu zentieren.
-        String DateiName = RequestURI;
-        DateiName = "." + DateiName;
+    private static void NimmAn(ServerSocket PrimaerSocket, ExecutorService Ausfuehrer) {
+        boolean Sicher = Tls.Aktiv() && PrimaerSocket.getLocalPort() == Tls.Port;
+        while (!Herunterfahren.Aktiv) {
+            // wir nehmen anfragen an und stellen eine neue Verbindung zum anfragenden her
+            Socket SekundaerSocket = null;
+            try {
+                SekundaerSocket = PrimaerSocket.accept();
+            } catch (IOException e) {
+                if (Herunterfahren.Aktiv) {
+                    break;
+                }
+                Protokoll.Fehler("IO-Fehler beim herstellen der Verbindung. Warte auf neuen Versuch...");
+                continue;
+            } catch (SecurityException e) {
+                Protokoll.Fehler("Nicht genug Rechte zum bearbeiten der Anfragen. Breche ab...");
+                System.exit(-1);
+            }
 
-        // Wir muessen nun schauen, ob diese Datei existiert. (Aber nicht oeffnen, diese Methode ist nur fuer den Header.)
-        File DateiZumUeberpruefen = new File(DateiName);
+            if (SekundaerSocket == null) {
+                Protokoll.Fehler("Unbekannter Fehler beim bearbeiten einer Anfrage aufgetreten. Warte auf neuen Versuch...");
+                continue;
+            }
 
-        boolean FehlerVerboten = false;
-        boolean DateiExistiert = false;
+            try {
+                Horcher.Einstellen(SekundaerSocket.getChannel());
+            } catch (IOException e) {
+                Protokoll.Fehler("Socketoptionen konnten nicht gesetzt werden. Bearbeite die Verbindung trotzdem...");
+            }
 
-        try {
-            DateiExistiert = DateiZumUeberpruefen.exists() && !DateiZumUeberpruefen.isDirectory();
-        } catch (SecurityException e) {
-            FehlerVerboten = true;
-        }
+            // Hat der Client schon zu viele Verbindungen offen, weisen wir ihn ab, bevor er einen Thread belegt
+            Metriken.AngenommeneVerbindungen.increment();
+            Zugangskontrolle.Client DerClient = Zugangskontrolle.Verbinde(SekundaerSocket.getInetAddress());
+            if (DerClient == null) {
+                Zugangskontrolle.Abweisen(SekundaerSocket.getChannel(), Sicher);
+                continue;
+            }
 
-        // Wir antworten nur mit HTTP/1.0
-        String Statusline = "HTTP/1.0 ";
-
-        // Wir geben den Mime Type der Datei im Response-Header zurueck
-        String ContentTypeLine = "Content-type: ";
-        if (DateiExistiert) {
-            Statusline += "200 OK" + CRLF;
-            ContentTypeLine += contentType(DateiName) + CRLF;
-        } else if (FehlerVerboten) {
-            Statusline += "403 Forbidden" + CRLF;
-            ContentTypeLine += "text/html" + CRLF;
-        } else {
-            Statusline += "404 Not Found" + CRLF;
-            ContentTypeLine += "text/html" + CRLF;
+            // wir lagern die Anfrageverarbeitung in die HttpRequest Klasse aus
+            Metriken.WartendeVerbindungen.increment();
+            HttpRequest AnfragenBearbeiter = new HttpRequest(SekundaerSocket, Sicher);
+            AnfragenBearbeiter.Zugang = DerClient;
+            try {
+                Ausfuehrer.execute(AnfragenBearbeiter);
+            } catch (RejectedExecutionException e) {
+                // Nur moeglich, wenn der Ausfuehrer bereits heruntergefahren wird
+                AnfragenBearbeiter.Verwerfe();
+            }
         }
-
-        // Der fertige Header besteht aus Statusline und Headerline
-        return Statusline + ContentTypeLine;
     }
 
     /**
-     * Liefert einen String mit HTML Code fuer eine Fehlerseite.
-     * Ebenso werden Clientverbindungsinformationen mit eingebettet.
+     * Verwandelt eine Datei von Mime-Types in eine Hashstruktur. Diese Methode liest eine Datei an dem uebergebenen
+     * Pfad ein, parst sie, und traegt ihren Inhalt in eine Hast-Struktur. Die Struktur hat Dateiendungen als Schluessel
+     * und die zugehoerigen Mime-Types als Werte.
      *
-     * @param FehlerTitel Der Titel der Fehlerseite
-     * @return Eine HTML Fehlerseite
+     * @param PfadZuMimeTypes Dateipfad zur zu parsenden Datei
+     * @return Bei erfolg die Tabelle mit Mime-Types, sonst Nullpointer
      */
-    private String GeneriereErrorSeite(String FehlerTitel) {
-        // Wir besorgen gewuenschte Informationen fuer die Fehlerseite
-        String ClientIP = ClientSocket.getInetAddress().toString();
-        if (ClientIP == null) {
-            ClientIP = "Unbekannt";
-        }
-
-        String UserAgent;
-        try {
-            UserAgent = AnfrageMap.get("User-Agent:");
-        } catch (NullPointerException e) {
-            UserAgent = null;
-        }
-
-        if (UserAgent == null) {
-            UserAgent = "Unbekannt";
-        }
-
-        // Und genieren dann die Fehlerseite
-        return "<HTML><HEAD><TITLE>"
-                + FehlerTitel
-                + "</TITLE></HEAD><BODY>"
-                + FehlerTitel
-                + "<br>"
-                + "Aufrufende Client IP: " + ClientIP
-                + "<br>User Agent: " + UserAgent
-                + "</BODY></HTML>";
-    }
+    static MimeTabelle ParseMimeTypes(String PfadZuMimeTypes) {
+        Path MimeTypePfad;
 
-    /**
-     * Liefert den Mime-Type zu einer Datei.
-     *
-     * @param DateiName Der Dateiname
-     * @return Den zur Dateiendung der Datei gehoerenden Mime Type
-     */
-    private String contentType(String DateiName) {
-        // Zunaechst muessen wir vom Dateinamen auf die Dateiendung kommen
-        int PunktPosition = DateiName.lastIndexOf(".");
-        String DateiEndung;
         try {
-            DateiEndung = DateiName.substring(PunktPosition + 1).toLowerCase();
-        } catch (IndexOutOfBoundsException e) {
-            DateiEndung = "";
-        }
-
-        // Nun muessen wir nur noch unsere Mime Type in der HashMap suchen (in O(1))
-        String MimeType = MimeMap.get(DateiEndung);
-        //Falls kein MimeType gefunden worden ist, geben wir die geforderte Standartantwort
-        if (MimeType == null) {
-            MimeType = "application/octet-stream";
+            MimeTypePfad = Paths.get(PfadZuMimeTypes);
+        } catch (InvalidPathException e) {
+            Protokoll.Fehler("Ungueltiger Dateipfad zur Mime Datei. Lese Datei nicht ein...");
+            return null;
         }
 
-        return MimeType;
-    }
-
-    /**
-     * Versucht alle noch offenen Streams und den Socket zu schliessen.
-     */
-    private void BrecheAllesAb() {
-        // Die Errorflag wird gestzt, wenn es das schliessen eines Teils fehlschlaegt
-        boolean Errorflag = false;
-
-        // Zuerst versuchen wir den Bufferedreader und damit auch den Inputstream zu schliessen
-        if (!ClientSocket.isInputShutdown()) {
-            if (ClientBufferedReader != null) {
-                try {
-                    ClientBufferedReader.close();
-                } catch (IOException e) {
-                    System.err.println("Fehler beim schliessen des Bufferedreaders.");
-                    Errorflag = true;
-                }
-            } else {
-                try {
-                    ClientSocket.shutdownInput();
-                } catch (IOException e) {
-                    System.err.println("Fehler beim schliessen des Inputstreams.");
-                    Errorflag = true;
-                }
-            }
+        if (MimeTypePfad == null) {
+            Protokoll.Fehler("Unbekannter Fehler beim Parsen des Mime Datei Pfads. Lese Datei nicht ein...");
+            return null;
         }
 
-        // Nun versuchen wir den Dataoutputstream zu schliessen
-        if (!ClientSocket.isOutputShutdown()) {
-            if (ClientDataOutputStream != null) {
-                try {
-                    ClientDataOutputStream.flush();
-                    ClientDataOutputStream.close();
-                } catch (IOException e) {
-                    Errorflag = true;
-                    System.err.println("Fehler beim schliessen des Dataoutputstreams.");
-                }
-            } else {
-                try {
-                    ClientSocket.shutdownOutput();
-                } catch (IOException e) {
-                    Errorflag = true;
-                    System.err.println("Fehler B beim schliessen des Dataoutputstreams.");
+        // Wir lesen die Datei in einem Durchgang Zeile fuer Zeile, parsen keine Kommentarzeilen, splitten die anderen an
+        // Leerzeichen und Tabs, und bauen aus dem Ergebnis dann die unveraenderliche Tabelle fuer die Suche.
+        Map<String, String> ParsedMimeTypes = new HashMap<>();
+        try (BufferedReader Leser = Files.newBufferedReader(MimeTypePfad, StandardCharsets.ISO_8859_1)) {
+            String Zeile;
+            while ((Zeile = Leser.readLine()) != null) {
+                Zeile = Zeile.trim();
+                if (!Zeile.isEmpty() && !Zeile.startsWith("#")) {
+                    String[] GeparsteZeile = LEERRAUM.split(Zeile);
+                    for (int i = 1; i < GeparsteZeile.length; i++) {
+                        ParsedMimeTypes.put(GeparsteZeile[i], GeparsteZeile[0]);
+                    }
                 }
             }
+        } catch (IOException e) {
+            Protokoll.Fehler("Fehler beim lesen der Mime Datei. Lese Datei nicht ein...");
+            return null;
+        } catch (SecurityException e) {
+            Protokoll.Fehler("Nicht genug Rechte zum lesen der Mime Datei. Lese Datei nicht ein...");
+            return null;
         }
 
-        // Jetzt bleibt es nur noch den Socket zu schliessen
-        if (!ClientSocket.isClosed()) {
-            try {
-                ClientSocket.close();
-            } catch (IOException e) {
-                System.err.println("Fehler beim schliessen des Sockets.");
-            }
-        }
-
-        if (Errorflag || !ClientSocket.isClosed()) {
-            System.err.println("Manche Verbindungen konnten nicht terminiert werden. Bei Problemen starten sie den Server neu");
+        if (ParsedMimeTypes.isEmpty()) {
+            Protokoll.Fehler("Mime Datei ist leer oder anderer Fehler. Lese Datei nicht ein...");
+            return null;
         }
+        return MimeTabelle.Aus(ParsedMimeTypes);
     }
-}
\ No newline at end of file
+
+}
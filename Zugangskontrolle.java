@@ -0,0 +1,243 @@
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Begrenzt pro Client die Anzahl gleichzeitiger Verbindungen und die Rate der Anfragen, damit ein einzelner Client
+ * nicht alle Threads und Dateideskriptoren belegen kann. Clients werden an ihrer IP erkannt, bei IPv6 am /64 Praefix,
+ * da ein einzelner Anschluss meist ein ganzes /64 Netz bekommt.
+ * <p>
+ * Die Zustaende liegen in einer {@link ConcurrentHashMap}, gezaehlt wird nur mit compareAndSet auf dem Zustand des
+ * jeweiligen Clients. Verschiedene Clients kommen sich also nicht in die Quere. Unbenutzte Zustaende raeumt ein
+ * Hintergrundthread weg.
+ */
+final class Zugangskontrolle {
+    /**
+     * Gleichzeitige Verbindungen pro Client, 0 fuer unbegrenzt.
+     */
+    static volatile int MaxVerbindungen = 0;
+
+    /**
+     * Erlaubte Anfragen pro Sekunde und Client, 0 fuer unbegrenzt.
+     */
+    static volatile double Rate = 0;
+
+    /**
+     * So viele Anfragen darf ein Client auf einmal schicken, bevor die Rate greift. 0 heisst eine Sekunde lang Rate.
+     */
+    static volatile int Stoss = 0;
+
+    /**
+     * Nach dieser Zeit ohne Verbindung wird der Zustand eines Clients vergessen, in Nanosekunden.
+     */
+    final static long LEERLAUF = 60_000_000_000L;
+
+    /**
+     * Der Zustand fuer alle, wenn nichts begrenzt ist. Er zaehlt nichts und erlaubt alles.
+     */
+    final static Client OHNE = new Client();
+
+    /**
+     * Die fertige Antwort fuer Verbindungen ueber dem Limit. Sie wird ohne Parsen, ohne HttpRequest und ohne Thread
+     * direkt nach dem accept geschrieben.
+     */
+    private final static String ABGEWIESEN_STATUS = "503 Service Unavailable";
+    private final static byte[] ABGEWIESEN = ("HTTP/1.1 " + ABGEWIESEN_STATUS + Antwort.CRLF + "Retry-After: 1"
+            + Antwort.CRLF + "Content-Length: 0" + Antwort.CRLF + "Connection: close" + Antwort.CRLF + Antwort.CRLF)
+            .getBytes(StandardCharsets.ISO_8859_1);
+
+    private final static ConcurrentHashMap<Long, Client> Clients = new ConcurrentHashMap<>();
+
+    /**
+     * Wirft alle zehn Sekunden verschwundene Clients hinaus. Gestartet wird er mit der ersten begrenzten Verbindung.
+     */
+    private final static Taktgeber Aufraeumer = new Taktgeber("Zugangskontrolle-Aufraeumer", 10_000,
+            Zugangskontrolle::Raeume);
+
+    private Zugangskontrolle() {
+    }
+
+    /**
+     * Der Zustand eines Clients.
+     */
+    static final class Client {
+        /**
+         * Offene Verbindungen. -1 heisst, der Zustand wurde entfernt und darf nicht mehr benutzt werden.
+         */
+        private final AtomicInteger Verbindungen = new AtomicInteger();
+
+        /**
+         * Der Token Bucket in der Form des Generic Cell Rate Algorithm: statt Tokens zu zaehlen und nachzufuellen,
+         * merken wir uns, wann die naechste Anfrage bei gleichmaessiger Rate eintreffen duerfte. Das ist ein einziger
+         * long, der mit einem compareAndSet fortgeschrieben wird.
+         */
+        private final AtomicLong Ankunft = new AtomicLong(System.nanoTime());
+        private volatile long ZuletztGetrennt = System.nanoTime();
+
+        /**
+         * Prueft, ob die Rate eine weitere Anfrage erlaubt, und verbucht sie.
+         *
+         * @return Falsch, wenn der Client zu viele Anfragen geschickt hat
+         */
+        boolean Darf() {
+            double DieRate = Rate;
+            if (this == OHNE || DieRate <= 0) {
+                return true;
+            }
+            long Abstand = Math.max(1, (long) (1e9 / DieRate));
+            long Toleranz = Abstand * (StossGroesse(DieRate) - 1);
+            long Jetzt = System.nanoTime();
+            while (true) {
+                long Bisher = Ankunft.get();
+                if (Bisher - Jetzt > Toleranz) {
+                    Metriken.GedrosselteAnfragen.increment();
+                    return false;
+                }
+                long Neu = (Bisher - Jetzt < 0 ? Jetzt : Bisher) + Abstand;
+                if (Ankunft.compareAndSet(Bisher, Neu)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Wie lange der Client warten sollte, bis er wieder eine Anfrage schicken darf, in ganzen Sekunden.
+         */
+        long Wartezeit() {
+            double DieRate = Rate;
+            if (DieRate <= 0) {
+                return 1;
+            }
+            long Abstand = Math.max(1, (long) (1e9 / DieRate));
+            long Toleranz = Abstand * (StossGroesse(DieRate) - 1);
+            long Nanos = Ankunft.get() - Toleranz - System.nanoTime();
+            return Math.max(1, (Nanos + 999_999_999L) / 1_000_000_000L);
+        }
+
+        /**
+         * Gibt eine Verbindung wieder frei.
+         */
+        void Trenne() {
+            if (this != OHNE) {
+                ZuletztGetrennt = System.nanoTime();
+                Verbindungen.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Meldet eine neue Verbindung an.
+     *
+     * @param Adresse Die Adresse des Clients
+     * @return Der Zustand des Clients, der beim Schliessen mit {@link Client#Trenne()} freigegeben werden muss, oder
+     * null wenn der Client schon zu viele Verbindungen offen hat
+     */
+    static Client Verbinde(InetAddress Adresse) {
+        int Max = MaxVerbindungen;
+        if ((Max <= 0 && Rate <= 0) || Adresse == null) {
+            return OHNE;
+        }
+        Aufraeumer.Starte();
+
+        Long Schluessel = Schluessel(Adresse);
+        while (true) {
+            Client DerClient = Clients.get(Schluessel);
+            if (DerClient == null) {
+                Client Neu = new Client();
+                DerClient = Clients.putIfAbsent(Schluessel, Neu);
+                if (DerClient == null) {
+                    DerClient = Neu;
+                }
+            }
+
+            int Anzahl;
+            do {
+                Anzahl = DerClient.Verbindungen.get();
+                if (Anzahl < 0) {
+                    break;
+                }
+                if (Max > 0 && Anzahl >= Max) {
+                    Metriken.AbgewieseneVerbindungen.increment();
+                    return null;
+                }
+            } while (!DerClient.Verbindungen.compareAndSet(Anzahl, Anzahl + 1));
+
+            if (Anzahl >= 0) {
+                return DerClient;
+            }
+            // Der Aufraeumer war schneller, wir legen einen neuen Zustand an
+            Clients.remove(Schluessel, DerClient);
+        }
+    }
+
+    /**
+     * Weist eine Verbindung ueber dem Limit mit 503 ab und schliesst sie. Der Kanal muss noch blockierend sein, die
+     * paar Bytes passen aber ohnehin in den Sendepuffer eines frischen Sockets.
+     *
+     * @param Sicher Bei HTTPS wird nur geschlossen, ein 503 im Klartext versteht der Client dort nicht
+     */
+    static void Abweisen(SocketChannel Kanal, boolean Sicher) {
+        InetAddress Adresse = Kanal.socket().getInetAddress();
+        try {
+            if (!Sicher) {
+                Metriken.GesendeteBytes.add(Kanal.write(ByteBuffer.wrap(ABGEWIESEN)));
+            }
+        } catch (IOException e) {
+            // Der Client ist schon weg, umso besser
+        } finally {
+            try {
+                Kanal.close();
+            } catch (IOException e) {
+                Protokoll.Fehler("Fehler beim schliessen des Sockets.");
+            }
+        }
+        Protokoll.Zugriff(Adresse, null, ABGEWIESEN_STATUS, 0);
+    }
+
+    /**
+     * Die Anzahl der Clients, deren Zustand gerade gehalten wird.
+     */
+    static int Anzahl() {
+        return Clients.size();
+    }
+
+    private static int StossGroesse(double DieRate) {
+        int DerStoss = Stoss;
+        return DerStoss > 0 ? DerStoss : (int) Math.max(1, Math.ceil(DieRate));
+    }
+
+    /**
+     * IPv4 Adressen stehen in den unteren 32 Bit mit gesetztem obersten Bit, IPv6 Adressen als ihr /64 Praefix. In
+     * diesem Bereich des IPv6 Adressraums (8000::/8) sind keine Adressen vergeben, es gibt also keine Kollisionen.
+     */
+    private static Long Schluessel(InetAddress Adresse) {
+        byte[] Bytes = Adresse.getAddress();
+        long Wert = 0;
+        int Laenge = Adresse instanceof Inet4Address ? 4 : 8;
+        for (int i = 0; i < Laenge; i++) {
+            Wert = (Wert << 8) | (Bytes[i] & 0xFF);
+        }
+        return Laenge == 4 ? Wert | Long.MIN_VALUE : Wert;
+    }
+
+    /**
+     * Entfernt Clients ohne offene Verbindung, die laenger als {@link #LEERLAUF} weg sind und deren Bucket wieder
+     * voll ist. Ein neuer Zustand verhaelt sich dann genau wie der entfernte.
+     */
+    private static void Raeume(long Jetzt) {
+        for (Map.Entry<Long, Client> Eintrag : Clients.entrySet()) {
+            Client DerClient = Eintrag.getValue();
+            if (Jetzt - DerClient.ZuletztGetrennt > LEERLAUF && DerClient.Ankunft.get() - Jetzt <= 0
+                    && DerClient.Verbindungen.compareAndSet(0, -1)) {
+                Clients.remove(Eintrag.getKey(), DerClient);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Der Weg einer GET Anfrage fuer eine statische Datei: Aufloesen des Pfades mit dem stat Aufruf fuer 403/404 (bei
+ * fehlenden Dateien meist aus dem Gedaechtnis der {@code Pfade}) und die ganze Bearbeitung bis zur fertigen Antwort,
+ * mit und ohne Dateicache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateiBenchmark {
+    @Param({"true", "false"})
+    public boolean Cache;
+
+    private Path Wurzel;
+    private String Vorhanden;
+    private String Fehlend;
+    private Object Bearbeiter;
+    private byte[] Anfrage;
+    private byte[] AnfrageGzip;
+
+    @Setup(Level.Trial)
+    public void Vorbereiten() throws IOException {
+        Wurzel = Dokumente.Erzeuge();
+        String Pfad = "/" + Wurzel.getFileName() + "/" + Dokumente.KLEIN;
+        Vorhanden = Pfad;
+        Fehlend = "/" + Wurzel.getFileName() + "/fehlt.html";
+        Anfrage = ("GET " + Pfad + " HTTP/1.1\r\nHost: x\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        AnfrageGzip = ("GET " + Pfad + " HTTP/1.1\r\nHost: x\r\nAccept-Encoding: gzip\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1);
+
+        Zugang.SetzeCache(Cache ? 64L * 1024 * 1024 : 0, 1024 * 1024);
+        Map<String, String> MimeTypes = new HashMap<>();
+        MimeTypes.put("html", "text/html");
+        Bearbeiter = Zugang.NeuerBearbeiter(Zugang.MimeTabelle(MimeTypes));
+    }
+
+    @TearDown(Level.Trial)
+    public void Aufraeumen() throws IOException {
+        Dokumente.Loesche(Wurzel);
+    }
+
+    @Benchmark
+    public Object StatVorhanden() {
+        return Zugang.HoleAttribute(Vorhanden);
+    }
+
+    @Benchmark
+    public Object StatFehlend() {
+        return Zugang.HoleAttribute(Fehlend);
+    }
+
+    @Benchmark
+    public String Get() {
+        Object DieAnfrage = Zugang.NeueAnfrage();
+        Zugang.Parse(Zugang.NeuerParser(), Anfrage, 0, Anfrage.length, DieAnfrage);
+        return Zugang.Bearbeite(Bearbeiter, DieAnfrage);
+    }
+
+    @Benchmark
+    public String GetGzip() {
+        Object DieAnfrage = Zugang.NeueAnfrage();
+        Zugang.Parse(Zugang.NeuerParser(), AnfrageGzip, 0, AnfrageGzip.length, DieAnfrage);
+        return Zugang.Bearbeite(Bearbeiter, DieAnfrage);
+    }
+}
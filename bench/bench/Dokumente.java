@@ -0,0 +1,56 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Ein temporaeres Dokumentenverzeichnis fuer Benchmarks und Lasttest. Der Server loest URIs relativ zum
+ * Arbeitsverzeichnis auf, das Verzeichnis wird daher dort angelegt und nicht unter /tmp.
+ */
+final class Dokumente {
+    /**
+     * Klein genug fuer den Dateicache und gut komprimierbar.
+     */
+    final static String KLEIN = "klein.html";
+
+    /**
+     * Groesser als der Dateicache (1 MiB), wird also bei jeder Anfrage von der Platte gestreamt.
+     */
+    final static String GROSS = "gross.bin";
+
+    /**
+     * Eine leere Datei. Sie landet im Dateicache, die Antwort hat einen Kopf, aber keinen Rumpf.
+     */
+    final static String LEER = "leer.txt";
+
+    private Dokumente() {
+    }
+
+    static Path Erzeuge() throws IOException {
+        Path Wurzel = Files.createTempDirectory(Paths.get("."), "lasttest-");
+        StringBuilder Seite = new StringBuilder("<!DOCTYPE html>\n<html><head><title>Lasttest</title></head><body>\n");
+        for (int i = 0; i < 40; i++) {
+            Seite.append("<p>Absatz ").append(i).append(": Lorem ipsum dolor sit amet, consetetur sadipscing.</p>\n");
+        }
+        Seite.append("</body></html>\n");
+        Files.write(Wurzel.resolve(KLEIN), Seite.toString().getBytes(StandardCharsets.UTF_8));
+
+        byte[] Gross = new byte[2 * 1024 * 1024];
+        Arrays.fill(Gross, (byte) 'x');
+        Files.write(Wurzel.resolve(GROSS), Gross);
+        Files.write(Wurzel.resolve(LEER), new byte[0]);
+        return Wurzel;
+    }
+
+    static void Loesche(Path Wurzel) throws IOException {
+        try (Stream<Path> Pfade = Files.walk(Wurzel)) {
+            Pfade.sorted(Comparator.reverseOrder()).forEach(Pfad -> Pfad.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Erzeugen der HTML Fehlerseiten, mit und ohne eingebettete Clientdetails.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FehlerSeitenBenchmark {
+    private final static String USER_AGENT =
+            "Mozilla/5.0 (X11; Linux x86_64; rv:109.0) Gecko/20100101 Firefox/115.0 <script>";
+
+    private final InetAddress Client = InetAddress.getLoopbackAddress();
+
+    @Benchmark
+    public byte[] MitDetails() {
+        return Zugang.FehlerSeite("404 Not Found", Client, USER_AGENT);
+    }
+
+    @Benchmark
+    public byte[] OhneUserAgent() {
+        return Zugang.FehlerSeite("400 Bad Request", Client, null);
+    }
+}
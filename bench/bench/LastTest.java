@@ -0,0 +1,313 @@
+package bench;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lasttest gegen einen Server in derselben JVM. Mehrere Clients schicken ueber Keep-Alive Verbindungen auf dem
+ * Loopback Interface eine Mischung aus GET, HEAD und POST Anfragen an ein temporaeres Dokumentenverzeichnis. Am Ende
+ * werden Durchsatz und Latenzperzentile ausgegeben.
+ *
+ * <pre>
+ *     java -cp target/benchmarks.jar bench.LastTest -clients 64 -dauer 10 -engine nio
+ * </pre>
+ * <p>
+ * Alle Argumente, die der Lasttest nicht selbst kennt, werden an den Server weitergereicht.
+ */
+public final class LastTest {
+    private final static int STANDARD_CLIENTS = 64;
+    private final static int STANDARD_DAUER = 10;
+    private final static int STANDARD_AUFWAERMEN = 3;
+
+    private final static byte[] POST_RUMPF = "name=Lasttest&text=Hallo+Welt".getBytes(StandardCharsets.US_ASCII);
+
+    private final static LongAdder Fehler = new LongAdder();
+
+    private LastTest() {
+    }
+
+    public static void main(String[] argv) throws Exception {
+        int Clients = STANDARD_CLIENTS;
+        int Dauer = STANDARD_DAUER;
+        int Aufwaermen = STANDARD_AUFWAERMEN;
+        List<String> ServerArgumente = new ArrayList<>(Arrays.asList("-post", "verwerfen"));
+        for (int i = 0; i + 1 < argv.length; i += 2) {
+            switch (argv[i]) {
+                case "-clients":
+                    Clients = Math.max(1, Integer.parseInt(argv[i + 1]));
+                    break;
+                case "-dauer":
+                    Dauer = Math.max(1, Integer.parseInt(argv[i + 1]));
+                    break;
+                case "-aufwaermen":
+                    Aufwaermen = Math.max(0, Integer.parseInt(argv[i + 1]));
+                    break;
+                default:
+                    ServerArgumente.add(argv[i]);
+                    ServerArgumente.add(argv[i + 1]);
+            }
+        }
+
+        Path Wurzel = Dokumente.Erzeuge();
+        try {
+            Zugang.StarteServer(ServerArgumente.toArray(new String[0]));
+            InetSocketAddress Adresse = new InetSocketAddress(InetAddress.getLoopbackAddress(), Zugang.Port());
+            WarteAufServer(Adresse);
+
+            String Verzeichnis = "/" + Wurzel.getFileName() + "/";
+            Client[] Alle = new Client[Clients];
+            long Start = System.nanoTime();
+            long MessBeginn = Start + Aufwaermen * 1_000_000_000L;
+            long Ende = MessBeginn + Dauer * 1_000_000_000L;
+            for (int i = 0; i < Clients; i++) {
+                Alle[i] = new Client(Adresse, Verzeichnis, MessBeginn, Ende);
+                Alle[i].start();
+            }
+            for (Client EinClient : Alle) {
+                EinClient.join();
+            }
+            Auswerten(Alle, Clients, Dauer);
+        } finally {
+            Dokumente.Loesche(Wurzel);
+        }
+        // Der Server laeuft in Daemon Threads, System.exit beendet auch den Acceptor
+        System.exit(0);
+    }
+
+    private static void WarteAufServer(InetSocketAddress Adresse) throws InterruptedException {
+        for (int Versuch = 0; Versuch < 100; Versuch++) {
+            try (Socket Probe = new Socket()) {
+                Probe.connect(Adresse, 100);
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Server nimmt auf " + Adresse + " keine Verbindungen an");
+    }
+
+    private static void Auswerten(Client[] Alle, int Clients, int Dauer) {
+        int Anzahl = 0;
+        for (Client EinClient : Alle) {
+            Anzahl += EinClient.Anzahl;
+        }
+        long[] Latenzen = new long[Anzahl];
+        int Position = 0;
+        for (Client EinClient : Alle) {
+            System.arraycopy(EinClient.Latenzen, 0, Latenzen, Position, EinClient.Anzahl);
+            Position += EinClient.Anzahl;
+        }
+        Arrays.sort(Latenzen);
+
+        System.out.println();
+        System.out.printf(Locale.ROOT, "Clients:   %d%n", Clients);
+        System.out.printf(Locale.ROOT, "Anfragen:  %d in %d s%n", Anzahl, Dauer);
+        System.out.printf(Locale.ROOT, "Durchsatz: %.1f Anfragen/s%n", Anzahl / (double) Dauer);
+        System.out.printf(Locale.ROOT, "Fehler:    %d%n", Fehler.sum());
+        if (Anzahl > 0) {
+            System.out.printf(Locale.ROOT, "p50:       %.3f ms%n", Perzentil(Latenzen, 0.50));
+            System.out.printf(Locale.ROOT, "p99:       %.3f ms%n", Perzentil(Latenzen, 0.99));
+            System.out.printf(Locale.ROOT, "p99.9:     %.3f ms%n", Perzentil(Latenzen, 0.999));
+            System.out.printf(Locale.ROOT, "max:       %.3f ms%n", Latenzen[Anzahl - 1] / 1e6);
+        }
+    }
+
+    private static double Perzentil(long[] Sortiert, double Anteil) {
+        int Index = (int) Math.ceil(Anteil * Sortiert.length) - 1;
+        return Sortiert[Math.max(0, Math.min(Index, Sortiert.length - 1))] / 1e6;
+    }
+
+    /**
+     * Ein Client mit einer Keep-Alive Verbindung. Schliesst der Server sie (etwa nach -maxanfragen), wird neu
+     * verbunden. Die Latenzen sammelt jeder Client in seinem eigenen Array, damit sich die Clients nicht gegenseitig
+     * ausbremsen.
+     */
+    private static final class Client extends Thread {
+        private final InetSocketAddress Adresse;
+        private final String Verzeichnis;
+        private final long MessBeginn;
+        private final long Ende;
+
+        long[] Latenzen = new long[1 << 14];
+        int Anzahl = 0;
+
+        private Socket Verbindung;
+        private InputStream Eingang;
+        private OutputStream Ausgang;
+
+        /**
+         * Ob die letzte Anfrage HEAD war, die Antwort also keinen Rumpf hat.
+         */
+        private boolean NurKopf;
+
+        Client(InetSocketAddress Adresse, String Verzeichnis, long MessBeginn, long Ende) {
+            super("Client");
+            this.Adresse = Adresse;
+            this.Verzeichnis = Verzeichnis;
+            this.MessBeginn = MessBeginn;
+            this.Ende = Ende;
+        }
+
+        @Override
+        public void run() {
+            ThreadLocalRandom Zufall = ThreadLocalRandom.current();
+            long Jetzt;
+            while ((Jetzt = System.nanoTime()) < Ende) {
+                try {
+                    if (Verbindung == null) {
+                        Verbinde();
+                    }
+                    Sende(Zufall.nextInt(100));
+                    boolean Offen = LeseAntwort();
+                    long Fertig = System.nanoTime();
+                    if (Jetzt >= MessBeginn) {
+                        Erfasse(Fertig - Jetzt);
+                    }
+                    if (!Offen) {
+                        Trenne();
+                    }
+                } catch (IOException e) {
+                    if (Jetzt >= MessBeginn) {
+                        Fehler.increment();
+                    }
+                    Trenne();
+                }
+            }
+            Trenne();
+        }
+
+        private void Verbinde() throws IOException {
+            Verbindung = new Socket();
+            Verbindung.setTcpNoDelay(true);
+            Verbindung.connect(Adresse, 5000);
+            Verbindung.setSoTimeout(10000);
+            Eingang = new BufferedInputStream(Verbindung.getInputStream(), 64 * 1024);
+            Ausgang = Verbindung.getOutputStream();
+        }
+
+        private void Trenne() {
+            if (Verbindung != null) {
+                try {
+                    Verbindung.close();
+                } catch (IOException e) {
+                    // Beim Schliessen ist uns ein Fehler egal
+                }
+                Verbindung = null;
+            }
+        }
+
+        /**
+         * Die Mischung: 60% GET einer kleinen Seite, 10% GET einer grossen Datei, 20% HEAD, 10% POST.
+         */
+        private void Sende(int Wuerfel) throws IOException {
+            String Kopf;
+            byte[] Rumpf = null;
+            if (Wuerfel < 60) {
+                Kopf = "GET " + Verzeichnis + Dokumente.KLEIN + " HTTP/1.1\r\nHost: localhost\r\n"
+                        + "Accept-Encoding: gzip\r\n\r\n";
+            } else if (Wuerfel < 70) {
+                Kopf = "GET " + Verzeichnis + Dokumente.GROSS + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+            } else if (Wuerfel < 90) {
+                Kopf = "HEAD " + Verzeichnis + Dokumente.KLEIN + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+            } else {
+                Rumpf = POST_RUMPF;
+                Kopf = "POST " + Verzeichnis + "formular HTTP/1.1\r\nHost: localhost\r\n"
+                        + "Content-Type: application/x-www-form-urlencoded\r\nContent-Length: " + Rumpf.length
+                        + "\r\n\r\n";
+            }
+            byte[] KopfBytes = Kopf.getBytes(StandardCharsets.ISO_8859_1);
+            if (Rumpf == null) {
+                Ausgang.write(KopfBytes);
+            } else {
+                byte[] Alles = Arrays.copyOf(KopfBytes, KopfBytes.length + Rumpf.length);
+                System.arraycopy(Rumpf, 0, Alles, KopfBytes.length, Rumpf.length);
+                Ausgang.write(Alles);
+            }
+            Ausgang.flush();
+            NurKopf = Wuerfel >= 70 && Wuerfel < 90;
+        }
+
+        /**
+         * Liest Statuszeile, Header und Rumpf einer Antwort.
+         *
+         * @return Ob die Verbindung offen bleibt
+         */
+        private boolean LeseAntwort() throws IOException {
+            String Statuszeile = LeseZeile();
+            if (Statuszeile.length() < 12 || !Statuszeile.startsWith("HTTP/1.")) {
+                throw new IOException("Ungueltige Statuszeile: " + Statuszeile);
+            }
+            int Status = Integer.parseInt(Statuszeile.substring(9, 12));
+            long Laenge = 0;
+            boolean Offen = true;
+            String Zeile;
+            while (!(Zeile = LeseZeile()).isEmpty()) {
+                int Trenner = Zeile.indexOf(':');
+                if (Trenner < 0) {
+                    continue;
+                }
+                String Name = Zeile.substring(0, Trenner).trim();
+                String Wert = Zeile.substring(Trenner + 1).trim();
+                if (Name.equalsIgnoreCase("Content-Length")) {
+                    Laenge = Long.parseLong(Wert);
+                } else if (Name.equalsIgnoreCase("Connection") && Wert.equalsIgnoreCase("close")) {
+                    Offen = false;
+                }
+            }
+            if (!NurKopf && Status != 304 && Status != 204) {
+                Ueberspringe(Laenge);
+            }
+            if (Status >= 400 && System.nanoTime() >= MessBeginn) {
+                Fehler.increment();
+            }
+            return Offen;
+        }
+
+        private String LeseZeile() throws IOException {
+            StringBuilder Zeile = new StringBuilder(64);
+            int Zeichen;
+            while ((Zeichen = Eingang.read()) != '\n') {
+                if (Zeichen < 0) {
+                    throw new IOException("Verbindung vom Server geschlossen");
+                }
+                if (Zeichen != '\r') {
+                    Zeile.append((char) Zeichen);
+                }
+            }
+            return Zeile.toString();
+        }
+
+        private void Ueberspringe(long Laenge) throws IOException {
+            while (Laenge > 0) {
+                long Uebersprungen = Eingang.skip(Laenge);
+                if (Uebersprungen <= 0) {
+                    if (Eingang.read() < 0) {
+                        throw new IOException("Rumpf unvollstaendig");
+                    }
+                    Uebersprungen = 1;
+                }
+                Laenge -= Uebersprungen;
+            }
+        }
+
+        private void Erfasse(long Nanos) {
+            if (Anzahl == Latenzen.length) {
+                Latenzen = Arrays.copyOf(Latenzen, Latenzen.length * 2);
+            }
+            Latenzen[Anzahl++] = Nanos;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package bench;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Regressionstest fuer leere Dateien aus dem Dateicache. Der Kopf ging frueher nur raus, solange der letzte Puffer
+ * des gathering write noch Bytes hatte. Bei leerem Rumpf wartete der Client dann bis zur Frist.
+ *
+ * <pre>
+ *     java -cp target/benchmarks.jar bench.LeereDateiTest
+ * </pre>
+ * <p>
+ * Beide Engines laufen nacheinander jeweils in einer eigenen JVM, der Server kennt nur eine Engine pro Prozess. Der
+ * Exit Code ist 0, wenn beide die Datei zweimal ueber dieselbe Keep-Alive Verbindung ausliefern.
+ */
+public final class LeereDateiTest {
+    /**
+     * So lange warten wir auf eine Antwort, in Millisekunden. Deutlich kuerzer als die Fristen des Servers.
+     */
+    private final static int GEDULD = 3000;
+
+    private LeereDateiTest() {
+    }
+
+    public static void main(String[] argv) throws Exception {
+        Path Wurzel = Dokumente.Erzeuge();
+        boolean Bestanden = true;
+        try {
+            String URI = "/" + Wurzel.getFileName() + "/" + Dokumente.LEER;
+            for (String Engine : new String[]{"blockierend", "nio"}) {
+                Bestanden &= Pruefe(Engine, URI);
+            }
+        } finally {
+            Dokumente.Loesche(Wurzel);
+        }
+        System.exit(Bestanden ? 0 : 1);
+    }
+
+    private static boolean Pruefe(String Engine, String URI) throws Exception {
+        int Port = FreierPort();
+        String Java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process Server = new ProcessBuilder(Java, "-cp", System.getProperty("java.class.path"), "WebServer",
+                "-engine", Engine, "-port", String.valueOf(Port))
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        try (Socket Verbindung = Verbinde(new InetSocketAddress(InetAddress.getLoopbackAddress(), Port))) {
+            Verbindung.setSoTimeout(GEDULD);
+            InputStream Eingang = new BufferedInputStream(Verbindung.getInputStream());
+            OutputStream Ausgang = Verbindung.getOutputStream();
+            // Die erste Anfrage fuellt den Cache, die zweite kommt aus ihm
+            for (int i = 0; i < 2; i++) {
+                Ausgang.write(("GET " + URI + " HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                        .getBytes(StandardCharsets.ISO_8859_1));
+                Ausgang.flush();
+                String Fehler = LeseAntwort(Eingang);
+                if (Fehler != null) {
+                    System.out.println(Engine + ": Anfrage " + (i + 1) + " " + Fehler);
+                    return false;
+                }
+            }
+            System.out.println(Engine + ": ok");
+            return true;
+        } catch (SocketTimeoutException e) {
+            System.out.println(Engine + ": keine Antwort nach " + GEDULD + " ms");
+            return false;
+        } finally {
+            Server.destroyForcibly().waitFor();
+        }
+    }
+
+    /**
+     * Liest eine Antwort bis zum Ende des Kopfes.
+     *
+     * @return Null, wenn es ein 200 ohne Rumpf war, sonst was nicht stimmte
+     */
+    private static String LeseAntwort(InputStream Eingang) throws IOException {
+        String Statuszeile = LeseZeile(Eingang);
+        if (!Statuszeile.startsWith("HTTP/1.1 200")) {
+            return "lieferte " + Statuszeile;
+        }
+        String Zeile;
+        String Laenge = null;
+        while (!(Zeile = LeseZeile(Eingang)).isEmpty()) {
+            int Trenner = Zeile.indexOf(':');
+            if (Trenner > 0 && Zeile.substring(0, Trenner).trim().equalsIgnoreCase("Content-Length")) {
+                Laenge = Zeile.substring(Trenner + 1).trim();
+            }
+        }
+        return "0".equals(Laenge) ? null : "hatte Content-Length " + Laenge;
+    }
+
+    private static String LeseZeile(InputStream Eingang) throws IOException {
+        StringBuilder Zeile = new StringBuilder(64);
+        int Zeichen;
+        while ((Zeichen = Eingang.read()) != '\n') {
+            if (Zeichen < 0) {
+                throw new IOException("Verbindung vom Server geschlossen");
+            }
+            if (Zeichen != '\r') {
+                Zeile.append((char) Zeichen);
+            }
+        }
+        return Zeile.toString();
+    }
+
+    private static int FreierPort() throws IOException {
+        try (ServerSocket Probe = new ServerSocket(0)) {
+            return Probe.getLocalPort();
+        }
+    }
+
+    private static Socket Verbinde(InetSocketAddress Adresse) throws Exception {
+        for (int Versuch = 0; Versuch < 100; Versuch++) {
+            Socket Probe = new Socket();
+            try {
+                Probe.connect(Adresse, 100);
+                return Probe;
+            } catch (IOException e) {
+                Probe.close();
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Server nimmt auf " + Adresse + " keine Verbindungen an");
+    }
+}
@@ -0,0 +1,85 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Einlesen der Mime Datei beim Start und die Suche des Mime Types pro Anfrage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MimeBenchmark {
+    /**
+     * Etwa so viele Zeilen hat die mime.types Datei einer ueblichen Linux Distribution.
+     */
+    private final static int ZEILEN = 800;
+
+    private Path MimeDatei;
+    private Object Bearbeiter;
+
+    @Setup(Level.Trial)
+    public void Vorbereiten() throws IOException {
+        StringBuilder Inhalt = new StringBuilder("# Erzeugt fuer den Benchmark\n\n");
+        Inhalt.append("text/html\t\t\t\t\thtml htm shtml\n");
+        Inhalt.append("text/css\t\t\t\t\tcss\n");
+        Inhalt.append("image/png\t\t\t\t\tpng\n");
+        for (int i = 0; i < ZEILEN; i++) {
+            if (i % 10 == 0) {
+                Inhalt.append("# Abschnitt ").append(i / 10).append('\n');
+            }
+            Inhalt.append("application/x-typ").append(i).append("\t\t\t\tendung").append(i);
+            if (i % 3 == 0) {
+                Inhalt.append(" endung").append(i).append('b');
+            }
+            Inhalt.append('\n');
+        }
+        MimeDatei = Files.createTempFile("mime", ".types");
+        Files.write(MimeDatei, Inhalt.toString().getBytes(StandardCharsets.US_ASCII));
+        Bearbeiter = Zugang.NeuerBearbeiter(Zugang.ParseMimeTypes(MimeDatei.toString()));
+    }
+
+    @TearDown(Level.Trial)
+    public void Aufraeumen() throws IOException {
+        Files.deleteIfExists(MimeDatei);
+    }
+
+    @Benchmark
+    public Object ParseMimeTypes() {
+        return Zugang.ParseMimeTypes(MimeDatei.toString());
+    }
+
+    @Benchmark
+    public Object ContentTypeBekannt() {
+        return Zugang.ContentType(Bearbeiter, "./css/seite.CSS");
+    }
+
+    @Benchmark
+    public Object ContentTypeUnbekannt() {
+        return Zugang.ContentType(Bearbeiter, "./downloads/archiv.xyz");
+    }
+
+    @Benchmark
+    public Object ContentTypeOhneEndung() {
+        return Zugang.ContentType(Bearbeiter, "./LIESMICH");
+    }
+}
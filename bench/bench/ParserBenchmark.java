@@ -0,0 +1,68 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsen von Requestzeile und Headern direkt auf den Bytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+    private final static byte[] MINIMAL = ("GET /index.html HTTP/1.1\r\nHost: localhost\r\n\r\n")
+            .getBytes(StandardCharsets.ISO_8859_1);
+
+    /**
+     * Eine Anfrage, wie sie ein Browser schickt, mit vielen Headern, die wir nur ueberspringen.
+     */
+    private final static byte[] BROWSER = ("GET /bilder/logo.png?v=3 HTTP/1.1\r\n"
+            + "Host: www.example.org\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:109.0) Gecko/20100101 Firefox/115.0\r\n"
+            + "Accept: image/avif,image/webp,*/*\r\n"
+            + "Accept-Language: de,en-US;q=0.7,en;q=0.3\r\n"
+            + "Accept-Encoding: gzip, deflate, br\r\n"
+            + "Connection: keep-alive\r\n"
+            + "Referer: https://www.example.org/\r\n"
+            + "Cookie: sitzung=0123456789abcdef0123456789abcdef; thema=dunkel\r\n"
+            + "Sec-Fetch-Dest: image\r\n"
+            + "Sec-Fetch-Mode: no-cors\r\n"
+            + "Sec-Fetch-Site: same-origin\r\n"
+            + "If-None-Match: \"18c1f2a3b4-2a1\"\r\n"
+            + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+    private final Object Parser = Zugang.NeuerParser();
+
+    @Benchmark
+    public int Minimal() {
+        return Zugang.Parse(Parser, MINIMAL, 0, MINIMAL.length, Zugang.NeueAnfrage());
+    }
+
+    @Benchmark
+    public int Browser() {
+        return Zugang.Parse(Parser, BROWSER, 0, BROWSER.length, Zugang.NeueAnfrage());
+    }
+
+    /**
+     * Der Kopf kommt in zwei Haelften an, der Parser muss beim zweiten Aufruf nicht von vorne suchen.
+     */
+    @Benchmark
+    public int BrowserInZweiTeilen() {
+        Object DieAnfrage = Zugang.NeueAnfrage();
+        Zugang.Parse(Parser, BROWSER, 0, BROWSER.length / 2, DieAnfrage);
+        return Zugang.Parse(Parser, BROWSER, 0, BROWSER.length, DieAnfrage);
+    }
+}
@@ -0,0 +1,223 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.util.Map;
+
+/**
+ * Zugang zu den Klassen des Servers. Diese liegen im Standardpaket, aus dem kein anderes Paket importieren kann, JMH
+ * verlangt aber ein Paket fuer seine Benchmarks. Wir holen uns die (paketprivaten) Methoden daher einmal per Reflection
+ * als MethodHandles. Da diese in static final Feldern liegen, kann der JIT sie wie direkte Aufrufe inlinen.
+ */
+public final class Zugang {
+    private final static MethodHandle PARSE_MIME_TYPES;
+    private final static MethodHandle MIME_TABELLE;
+    private final static MethodHandle NEUER_BEARBEITER;
+    private final static MethodHandle CONTENT_TYPE;
+    private final static MethodHandle LOESE;
+    private final static MethodHandle ATTRIBUTE;
+    private final static MethodHandle BEARBEITE;
+    private final static MethodHandle NEUER_PARSER;
+    private final static MethodHandle NEUE_ANFRAGE;
+    private final static MethodHandle PARSE;
+    private final static MethodHandle FEHLER_SEITE;
+    private final static MethodHandle NEUER_CACHE;
+    private final static MethodHandle ANTWORT_STATUS;
+    private final static MethodHandle WEBSERVER_MAIN;
+    private final static Field INHALTS_CACHE;
+    private final static Field MIME_TYPEN;
+    private final static Field PORT;
+
+    static {
+        try {
+            MethodHandles.Lookup Suche = MethodHandles.lookup();
+            Class<?> WebServer = Class.forName("WebServer");
+            Class<?> HttpRequest = Class.forName("HttpRequest");
+            Class<?> Anfrage = Class.forName("Anfrage");
+            Class<?> AnfrageParser = Class.forName("AnfrageParser");
+            Class<?> DateiCache = Class.forName("DateiCache");
+            Class<?> Antwort = Class.forName("Antwort");
+            Class<?> MimeTabelle = Class.forName("MimeTabelle");
+
+            PARSE_MIME_TYPES = Suche.unreflect(Offen(WebServer.getDeclaredMethod("ParseMimeTypes", String.class)));
+            MIME_TABELLE = Suche.unreflect(Offen(MimeTabelle.getDeclaredMethod("Aus", Map.class)));
+            WEBSERVER_MAIN = Suche.unreflect(WebServer.getMethod("main", String[].class));
+            NEUER_BEARBEITER = Suche.unreflectConstructor(
+                    Offen(HttpRequest.getDeclaredConstructor(InetAddress.class)));
+            CONTENT_TYPE = Suche.unreflect(Offen(HttpRequest.getDeclaredMethod("contentType", String.class)));
+            Class<?> Pfade = Class.forName("Pfade");
+            LOESE = Suche.unreflect(Offen(Pfade.getDeclaredMethod("Loese", String.class)));
+            ATTRIBUTE = Suche.unreflect(Offen(Class.forName("Pfade$Ziel").getDeclaredMethod("Attribute")));
+            BEARBEITE = Suche.unreflect(Offen(HttpRequest.getDeclaredMethod("Bearbeite", Anfrage)));
+            NEUER_PARSER = Suche.unreflectConstructor(Offen(AnfrageParser.getDeclaredConstructor()));
+            NEUE_ANFRAGE = Suche.unreflectConstructor(Offen(Anfrage.getDeclaredConstructor()));
+            PARSE = Suche.unreflect(Offen(AnfrageParser.getDeclaredMethod("Parse", byte[].class, int.class,
+                    int.class, Anfrage)));
+            FEHLER_SEITE = Suche.unreflect(Offen(Class.forName("FehlerSeiten").getDeclaredMethod("Seite",
+                    String.class, InetAddress.class, String.class)));
+            NEUER_CACHE = Suche.unreflectConstructor(Offen(DateiCache.getDeclaredConstructor(long.class, long.class,
+                    boolean.class)));
+            ANTWORT_STATUS = Suche.unreflectGetter(Offen(Antwort.getDeclaredField("Status")));
+            INHALTS_CACHE = Offen(WebServer.getDeclaredField("InhaltsCache"));
+            MIME_TYPEN = Offen(WebServer.getDeclaredField("MimeTypen"));
+            PORT = Offen(Class.forName("Horcher").getDeclaredField("Port"));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Zugang() {
+    }
+
+    private static <T extends AccessibleObject> T Offen(T Objekt) {
+        Objekt.setAccessible(true);
+        return Objekt;
+    }
+
+    private static RuntimeException Verpacke(Throwable Fehler) {
+        return Fehler instanceof RuntimeException ? (RuntimeException) Fehler : new RuntimeException(Fehler);
+    }
+
+    /**
+     * WebServer.ParseMimeTypes: die MimeTabelle, oder null.
+     */
+    public static Object ParseMimeTypes(String Pfad) {
+        try {
+            return PARSE_MIME_TYPES.invoke(Pfad);
+        } catch (Throwable e) {
+            throw Verpacke(e);
+        }
+    }
+
+    /**
+     * MimeTabelle.Aus: baut eine Tabelle aus Endung auf Mime Type.
+     */
+    public static Object MimeTabelle(Map<String, String> EndungZuTyp) {
+        try {
+            return MIME_TABELLE.invoke(EndungZuTyp);
+        } catch (Throwable e) {
+            throw Verpacke(e);
+        }
+    }
+
+    /**
+     * Eine HttpRequest Instanz ohne Socket, wie sie die NIO Engine benutzt. Die Mime Types sind global, sie gelten
+     * danach fuer alle Bearbeiter.
+     */
+    public static Object NeuerBearbeiter(Object MimeTypes) {
+        try {
+            MIME_TYPEN.set(null, MimeTypes);
+            return NEUER_BEARBEITER.invoke(InetAddress.getLoopbackAddress());
+        } catch (Throwable e) {
+            throw Verpacke(e);
+        }
+    }
+
+    /**
+     * HttpRequest.contentType, liefert den MimeTabelle.Typ.
+     */
+    public static Object ContentType(Object Bearbeiter, String DateiName) {
+        try {
+            return CONTENT_TYPE.invoke(Bearbeiter, DateiName);
+        } catch (Throwable e) {
+            throw Verpacke(e);
+        }
+    }
+
+    /**
+     * Aufloesen der URI und der stat Aufruf, mit dem HoleDatei 403 und 404 erkennt (frueher HoleHEADer).
+     */
+    public static Object HoleAttribute(String URI) {
+        try {
+            return ATTRIBUTE.invoke(LOESE.invoke(URI));
+        } catch (Throwable e) {
+            throw Verpacke(e);
+        }
+    }
+
+    /**
+     * HttpRequest.Bearbeite, liefert den Status der Antwort.
+     */
+    public static String Bearbeite(Object Bearbeiter, Object DieAnfrage) {
+        try {
+            return (String) ANTWORT_STATUS.invoke(BEARBEITE.invoke(Bearbeiter, DieAnfrage));
+        } catch (Throwable e) {
+            throw Verpacke(e);
+        }
+    }
+
+    public static Object NeuerParser() {
+        try {
+            return NEUER_PARSER.invoke();
+        } catch (Throwable e) {
+            throw Verpacke(e);
+        }
+    }
+
+    public static Object NeueAnfrage() {
+        try {
+            return NEUE_ANFRAGE.invoke();
+        } catch (Throwable e) {
+            throw Verpacke(e);
+        }
+    }
+
+    /**
+     * AnfrageParser.Parse: verbrauchte Bytes, 0 wenn der Kopf unvollstaendig ist, -1 bei Fehlern.
+     */
+    public static int Parse(Object Parser, byte[] Daten, int Anfang, int Ende, Object DieAnfrage) {
+        try {
+            return (int) PARSE.invoke(Parser, Daten, Anfang, Ende, DieAnfrage);
+        } catch (Throwable e) {
+            throw Verpacke(e);
+        }
+    }
+
+    public static byte[] FehlerSeite(String Titel, InetAddress ClientIP, String UserAgent) {
+        try {
+            return (byte[]) FEHLER_SEITE.invoke(Titel, ClientIP, UserAgent);
+        } catch (Throwable e) {
+            throw Verpacke(e);
+        }
+    }
+
+    /**
+     * Schaltet den Dateicache des Servers ein oder (mit 0) aus.
+     */
+    public static void SetzeCache(long Groesse, long DateiGroesse) {
+        try {
+            INHALTS_CACHE.set(null, Groesse > 0 ? NEUER_CACHE.invoke(Groesse, DateiGroesse, false) : null);
+        } catch (Throwable e) {
+            throw Verpacke(e);
+        }
+    }
+
+    public static int Port() {
+        try {
+            return PORT.getInt(null);
+        } catch (IllegalAccessException e) {
+            throw Verpacke(e);
+        }
+    }
+
+    /**
+     * Startet den Server in einem Hintergrundthread dieser JVM.
+     */
+    public static Thread StarteServer(String[] Argumente) {
+        Thread Server = new Thread(() -> {
+            try {
+                WEBSERVER_MAIN.invoke((Object) Argumente);
+            } catch (Throwable e) {
+                throw Verpacke(e);
+            }
+        }, "WebServer");
+        Server.setDaemon(true);
+        Server.start();
+        return Server;
+    }
+}